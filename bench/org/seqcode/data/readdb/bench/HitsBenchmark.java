@@ -0,0 +1,107 @@
+package org.seqcode.data.readdb.bench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.seqcode.data.readdb.*;
+
+/**
+ * Benchmarks the storage layer without the protocol: Header index lookup, Hits.getIndices,
+ * range counting, histograms, and IntBP access, on a synthetic alignment of the given depth.
+ * Each invocation queries the next of a fixed set of random windows of the given width.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HitsBenchmark {
+
+    @Param({"100000", "1000000", "10000000"})
+    public int depth;
+    @Param({"1000", "100000"})
+    public int width;
+    @Param({"100000000"})
+    public int chromLength;
+
+    private static final String ALIGN = "hits";
+    private static final int RANDOMREADS = 1024;
+
+    private SyntheticReadDB data;
+    private Header header;
+    private SingleHits hits;
+    private int[] starts, randomIndices;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        data = new SyntheticReadDB(chromLength, 1234);
+        data.load(ALIGN, depth, false);
+        Server server = data.getServer();
+        header = Header.readIndexFile(server.getSingleHeaderFileName(ALIGN, SyntheticReadDB.CHROM, false));
+        hits = new SingleHits(server.getAlignmentDir(ALIGN) + File.separator, SyntheticReadDB.CHROM, false);
+        starts = data.queryStarts(1024, width);
+        randomIndices = new int[RANDOMREADS];
+        java.util.Random r = new java.util.Random(5678);
+        for (int i = 0; i < RANDOMREADS; i++) {
+            randomIndices[i] = r.nextInt(depth);
+        }
+    }
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        hits.close();
+        data.close();
+    }
+    private int nextStart() {
+        next = (next + 1) % starts.length;
+        return starts[next];
+    }
+
+    @Benchmark
+    public void headerIndex(Blackhole bh) {
+        int start = nextStart();
+        bh.consume(header.getFirstIndex(start));
+        bh.consume(header.getLastIndex(start + width));
+    }
+    @Benchmark
+    public int[] getIndices() {
+        int start = nextStart();
+        return hits.getIndices(header.getFirstIndex(start), header.getLastIndex(start + width), start, start + width);
+    }
+    @Benchmark
+    public int countBetween() throws Exception {
+        int start = nextStart();
+        return hits.getCountBetween(header.getFirstIndex(start), header.getLastIndex(start + width),
+                                    start, start + width, null, null);
+    }
+    @Benchmark
+    public int[] histogram() throws Exception {
+        int start = nextStart();
+        return hits.histogram(header.getFirstIndex(start), header.getLastIndex(start + width),
+                              start, start + width, Math.max(1, width / 100), 0, null, null, 0);
+    }
+    /** reads the positions in the window in order */
+    @Benchmark
+    public long intBPSequential() {
+        int start = nextStart();
+        int first = header.getFirstIndex(start), last = header.getLastIndex(start + width);
+        IntBP positions = hits.getPositionsBuffer();
+        long sum = 0;
+        for (int i = first; i < last; i++) {
+            sum += positions.get(i);
+        }
+        return sum;
+    }
+    @Benchmark
+    @OperationsPerInvocation(RANDOMREADS)
+    public long intBPRandom() {
+        IntBP positions = hits.getPositionsBuffer();
+        long sum = 0;
+        for (int i = 0; i < RANDOMREADS; i++) {
+            sum += positions.get(randomIndices[i]);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,102 @@
+package org.seqcode.data.readdb.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.seqcode.data.readdb.*;
+
+/**
+ * Benchmarks requests through the Client and ServerTask against a Server in this JVM:
+ * range counts, histograms, single and paired hit retrieval, storing a batch of hits
+ * and reindexing a chromosome.  Includes the loopback round trip, so compare these
+ * with HitsBenchmark to separate protocol costs from storage costs, and the text and
+ * binary protocols with each other.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int depth;
+    @Param({"1000", "100000"})
+    public int width;
+    @Param({"100000000"})
+    public int chromLength;
+    /** hits per store request */
+    @Param({"10000"})
+    public int batch;
+    @Param({"text", "binary"})
+    public String protocol;
+
+    private static final String SINGLE = "single", PAIRED = "paired", STORE = "store";
+
+    private SyntheticReadDB data;
+    private Client client;
+    private int[] starts;
+    private int next = 0;
+    private List<SingleHit> storeBatch;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        data = new SyntheticReadDB(chromLength, 1234);
+        data.load(SINGLE, depth, false);
+        data.load(PAIRED, depth, true);
+        client = data.newClient();
+        if (protocol.equals("binary") && !client.useBinaryProtocol()) {
+            throw new IllegalStateException("server didn't accept the binary protocol");
+        }
+        starts = data.queryStarts(1024, width);
+        storeBatch = data.singleHits(batch);
+    }
+    /* store appends, so start each iteration with an empty alignment */
+    @Setup(Level.Iteration)
+    public void clearStore() throws Exception {
+        if (client.exists(STORE)) {
+            client.deleteAlignment(STORE, false);
+        }
+    }
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.close();
+        data.close();
+    }
+    private int nextStart() {
+        next = (next + 1) % starts.length;
+        return starts[next];
+    }
+
+    @Benchmark
+    public int count() throws Exception {
+        int start = nextStart();
+        return client.getCount(SINGLE, SyntheticReadDB.CHROM, false, false, start, start + width, null, null, null);
+    }
+    @Benchmark
+    public Object histogram() throws Exception {
+        int start = nextStart();
+        return client.getHistogram(SINGLE, SyntheticReadDB.CHROM, false, false, 0, Math.max(1, width / 100),
+                                   start, start + width, null, null);
+    }
+    @Benchmark
+    public Object singleHits() throws Exception {
+        int start = nextStart();
+        return client.getSingleHits(SINGLE, SyntheticReadDB.CHROM, false, start, start + width, null, null);
+    }
+    @Benchmark
+    public Object pairedHits() throws Exception {
+        int start = nextStart();
+        return client.getPairedHits(PAIRED, SyntheticReadDB.CHROM, true, start, start + width, null, null);
+    }
+    /** appends one batch; the alignment grows through the iteration */
+    @Benchmark
+    public void store() throws Exception {
+        client.storeSingle(STORE, storeBatch, false);
+    }
+    @Benchmark
+    public void reindex() throws Exception {
+        client.reIndex(SINGLE, SyntheticReadDB.CHROM, false, false);
+    }
+}
@@ -0,0 +1,138 @@
+package org.seqcode.data.readdb.bench;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.util.*;
+import java.util.logging.Level;
+import org.seqcode.data.readdb.*;
+
+/**
+ * A ReadDB server for the benchmarks: a temporary data directory with one (admin) user and a
+ * Server running in this JVM on a loopback port.  load() stores synthetic single or paired
+ * hits, uniformly distributed over one chromosome, through the Client.
+ */
+public class SyntheticReadDB {
+
+    public static final String USER = "bench", PASSWD = "bench";
+    public static final int CHROM = 1;
+
+    private File datadir;
+    private int port, chromLength;
+    private Server server;
+    private Random random;
+
+    public SyntheticReadDB(int chromLength, long seed) throws Exception {
+        if (chromLength <= 0) {
+            throw new IllegalArgumentException("chromLength must be positive");
+        }
+        this.chromLength = chromLength;
+        random = new Random(seed);
+        datadir = File.createTempFile("readdbbench", "");
+        datadir.delete();
+        datadir.mkdirs();
+        write("users.txt", USER + ":" + PASSWD + "\n");
+        write("groups.txt", "admin: " + USER + "\n");
+        write("defaultACL.txt", "read: " + USER + "\nwrite: " + USER + "\nadmin: " + USER + "\n");
+        ServerSocket s = new ServerSocket(0);
+        port = s.getLocalPort();
+        s.close();
+
+        server = new Server();
+        server.parseArgs(new String[]{"--datadir", datadir.getAbsolutePath(), "--port", Integer.toString(port),
+                                      "--metricsinterval", "0"});
+        server.getLogger().setLevel(Level.WARNING);
+        server.readAndProcessGroupsFile();
+        /* threads started by a daemon thread are daemons too, so the server won't keep the JVM alive */
+        Thread t = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        server.listen();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        t.setDaemon(true);
+        t.start();
+        for (int i = 0; ; i++) {
+            try {
+                newClient().close();
+                break;
+            } catch (IOException e) {
+                if (i > 100) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+    private void write(String fname, String contents) throws IOException {
+        PrintWriter pw = new PrintWriter(new FileWriter(new File(datadir, fname)));
+        pw.print(contents);
+        pw.close();
+    }
+
+    public Client newClient() throws IOException, ClientException {
+        return new Client("localhost", port, USER, PASSWD);
+    }
+    public Server getServer() {return server;}
+    public int getChromLength() {return chromLength;}
+
+    /** depth random single hits on CHROM */
+    public List<SingleHit> singleHits(int depth) {
+        List<SingleHit> hits = new ArrayList<SingleHit>(depth);
+        for (int i = 0; i < depth; i++) {
+            hits.add(new SingleHit(CHROM, random.nextInt(chromLength), 1 + random.nextInt(4) / 4.0f,
+                                   random.nextBoolean(), (short)36));
+        }
+        return hits;
+    }
+    /** depth random pairs on CHROM with fragment lengths of 100 to 500bp */
+    public List<PairedHit> pairedHits(int depth) {
+        List<PairedHit> hits = new ArrayList<PairedHit>(depth);
+        for (int i = 0; i < depth; i++) {
+            int left = random.nextInt(chromLength - 500);
+            int right = left + 100 + random.nextInt(400);
+            hits.add(new PairedHit(CHROM, left, true, (short)36, CHROM, right, false, (short)36, 1.0f, 1));
+        }
+        return hits;
+    }
+    /**
+     * Stores depth synthetic hits in a new alignment
+     */
+    public void load(String alignid, int depth, boolean paired) throws IOException, ClientException {
+        Client c = newClient();
+        try {
+            if (paired) {
+                c.storePaired(alignid, pairedHits(depth));
+            } else {
+                c.storeSingle(alignid, singleHits(depth), false);
+            }
+        } finally {
+            c.close();
+        }
+    }
+    /** numQueries random query starts at which a window of the given width fits on the chromosome */
+    public int[] queryStarts(int numQueries, int width) {
+        int[] starts = new int[numQueries];
+        for (int i = 0; i < numQueries; i++) {
+            starts[i] = random.nextInt(Math.max(1, chromLength - width));
+        }
+        return starts;
+    }
+
+    /** Stops the server and removes the data directory */
+    public void close() {
+        server.keepRunning(false);
+        delete(datadir);
+    }
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                delete(c);
+            }
+        }
+        f.delete();
+    }
+}
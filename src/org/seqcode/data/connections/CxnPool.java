@@ -2,13 +2,31 @@ package org.seqcode.data.connections;
 
 import java.util.*;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Connection;
 
 /**
  * CxnPool: Base class for various connection pools.
- * Use DatabaseFactory to obtain connections. 
- * 
+ * Use DatabaseFactory to obtain connections.
+ *
+ * These pools only serve DatabaseFactory and its callers (eg, PughDBLoader).  Most code,
+ * including SequenceGenerator, SeqDataLoader and MetadataLoader, gets its connections from
+ * DatabaseConnectionManager, which keeps its own Tomcat JDBC pool per role.
+ *
+ * Connections are checked out per thread: repeated calls to getConnection() from the
+ * same thread return that thread's connection until it has been freed as many times
+ * as it was obtained. Other threads get their own connection, up to the maximum pool
+ * size, after which they wait for a connection to be returned.
+ *
+ * Pool behaviour can be tuned with the following (optional) properties:
+ *   poolminsize        : connections opened when the pool is first used (default 1)
+ *   poolmaxsize        : maximum number of open connections (default 10)
+ *   poolmaxwait        : milliseconds to wait for a free connection (default 30000)
+ *   poolvalidateidle   : idle milliseconds after which a connection is validated before reuse (default 30000)
+ *   poolvalidatetimeout: seconds allowed for the validation check (default 5)
+ *   poolstatementcache : maximum number of cached PreparedStatements per connection (default 50)
+ *
  * @author tdanford
  */
 public abstract class CxnPool {
@@ -18,22 +36,58 @@ public abstract class CxnPool {
        check that the connection can be returned to the availPool
        before it does so */
     private LinkedList<Connection> availPool, fullPool;
-    private int poolSize;
+    private Map<Connection,Long> lastUsed;
+    private Map<Connection,Map<String,PreparedStatement>> statementCache;
+    private Map<Thread,Connection> threadCxns;
+    private Map<Connection,Thread> cxnThreads;
+    private Map<Connection,Integer> checkoutCounts;
+    private int minPoolSize, maxPoolSize, statementCacheSize;
+    private long maxWait, validateIdle;
+    private int validateTimeout;
     protected Properties props;
-    
+
+    //Usage metrics
+    private long numCheckouts=0, numWaits=0, totalWaitTime=0, maxWaitTime=0;
+    private long numCreated=0, numInvalidated=0, numStatementHits=0, numStatementMisses=0;
+    private int peakInUse=0;
+
     public CxnPool (Properties p) {
-        availPool = new LinkedList<Connection>(); 
+        availPool = new LinkedList<Connection>();
         fullPool = new LinkedList<Connection>();
-        poolSize = 1;
+        lastUsed = new HashMap<Connection,Long>();
+        statementCache = new HashMap<Connection,Map<String,PreparedStatement>>();
+        threadCxns = new HashMap<Thread,Connection>();
+        cxnThreads = new HashMap<Connection,Thread>();
+        checkoutCounts = new HashMap<Connection,Integer>();
         props = p;
+        minPoolSize = intProperty("poolminsize", 1);
+        maxPoolSize = Math.max(1, intProperty("poolmaxsize", 10));
+        minPoolSize = Math.min(minPoolSize, maxPoolSize);
+        maxWait = intProperty("poolmaxwait", 30000);
+        validateIdle = intProperty("poolvalidateidle", 30000);
+        validateTimeout = intProperty("poolvalidatetimeout", 5);
+        statementCacheSize = intProperty("poolstatementcache", 50);
+    }
+
+    private int intProperty(String key, int defaultValue){
+        String v = props==null ? null : props.getProperty(key);
+        if(v==null)
+            return defaultValue;
+        try{
+            return Integer.parseInt(v.trim());
+        }catch(NumberFormatException e){
+            System.err.println("Ignoring non-integer value for "+key+": "+v);
+            return defaultValue;
+        }
     }
-    
-    private Connection createConnection() { 
+
+    private Connection createConnection() {
         try {
             Connection cxn = DriverManager.getConnection(connectString(), username(), password());
             initializeConnection(cxn);
-            availPool.add(cxn);
             fullPool.add(cxn);
+            lastUsed.put(cxn, System.currentTimeMillis());
+            numCreated++;
             return cxn;
         } catch (SQLException ex) {
             System.err.println("Couldn't create a database connection " + ex.toString());
@@ -45,38 +99,228 @@ public abstract class CxnPool {
     protected void initializeConnection(java.sql.Connection cxn) throws SQLException {
     }
 
+    /**
+     * Check out a connection for the calling thread.
+     * If the thread already holds a connection, the same connection is returned.
+     * Otherwise an idle connection is reused (after validation if it has been idle for a while),
+     * a new one is created if the pool is not full, or the caller waits for a connection to be freed.
+     */
     public synchronized Connection getConnection () {
-        if (availPool.size() == 0) {
-            for (int i = 0; i < poolSize; i++) {
-                createConnection();
-            }   
+        if (fullPool.size() == 0) {
+            for (int i = 0; i < minPoolSize; i++) {
+                availPool.add(createConnection());
+            }
+        }
+        Thread t = Thread.currentThread();
+        Connection c = threadCxns.get(t);
+        if(c != null){
+            checkoutCounts.put(c, checkoutCounts.get(c)+1);
+            return c;
+        }
+
+        long start = System.currentTimeMillis();
+        boolean waited = false;
+        while(c == null){
+            if(availPool.isEmpty())
+                reclaimAbandoned();
+            while(!availPool.isEmpty() && c==null){
+                Connection cand = availPool.removeFirst();
+                if(isValid(cand))
+                    c = cand;
+                else{
+                    numInvalidated++;
+                    discard(cand);
+                }
+            }
+            if(c==null && fullPool.size() < maxPoolSize){
+                c = createConnection();
+            }
+            if(c==null){
+                long remaining = maxWait - (System.currentTimeMillis()-start);
+                if(remaining <= 0)
+                    throw new DatabaseException("Timed out after "+maxWait+"ms waiting for a database connection ("+fullPool.size()+" in use)");
+                waited = true;
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DatabaseException("Interrupted while waiting for a database connection", e);
+                }
+            }
         }
-        Connection c = null;
-        
-        c = fullPool.getFirst();
-        
+        long waitTime = System.currentTimeMillis()-start;
+        numCheckouts++;
+        if(waited){
+            numWaits++;
+            totalWaitTime+=waitTime;
+            maxWaitTime = Math.max(maxWaitTime, waitTime);
+        }
+        threadCxns.put(t, c);
+        cxnThreads.put(c, t);
+        checkoutCounts.put(c, 1);
+        peakInUse = Math.max(peakInUse, cxnThreads.size());
         return c;
     }
 
+    /**
+     * Return a connection to the pool. The connection only becomes available to
+     * other threads once it has been freed as many times as it was checked out.
+     */
     public synchronized void freeConnection(Connection n) {
-        if(fullPool.contains(n)) {
-            availPool.add(n);            
+        if(!fullPool.contains(n))
+            return;
+        Integer count = checkoutCounts.get(n);
+        if(count == null)
+            return;
+        if(count > 1){
+            checkoutCounts.put(n, count-1);
+            return;
         }
+        checkoutCounts.remove(n);
+        Thread t = cxnThreads.remove(n);
+        if(t != null)
+            threadCxns.remove(t);
+        lastUsed.put(n, System.currentTimeMillis());
+        availPool.add(n);
+        notifyAll();
     }
 
     public synchronized void remove(Connection n) {
         (new RuntimeException("removing connection " + n)).printStackTrace();
-        fullPool.remove(n);
-        availPool.remove(n);
+        discard(n);
+        notifyAll();
+    }
+
+    /**
+     * Returns a PreparedStatement for this SQL on the given pooled connection, reusing
+     * a previously prepared statement where possible.
+     * Cached statements are owned by the pool; callers should close their ResultSets but not the statement.
+     */
+    public synchronized PreparedStatement prepareStatement(Connection c, String sql) throws SQLException {
+        Map<String,PreparedStatement> cache = statementCache.get(c);
+        if(cache == null){
+            final int limit = statementCacheSize;
+            cache = new LinkedHashMap<String,PreparedStatement>(16, 0.75f, true){
+                protected boolean removeEldestEntry(Map.Entry<String,PreparedStatement> eldest){
+                    if(size() > limit){
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+            statementCache.put(c, cache);
+        }
+        PreparedStatement ps = cache.get(sql);
+        if(ps != null && !ps.isClosed()){
+            numStatementHits++;
+            ps.clearParameters();
+            return ps;
+        }
+        numStatementMisses++;
+        ps = c.prepareStatement(sql);
+        if(statementCacheSize > 0)
+            cache.put(sql, ps);
+        return ps;
+    }
+
+    /**
+     * Close all connections held by this pool
+     */
+    public synchronized void close(){
+        for(Connection c : new ArrayList<Connection>(fullPool))
+            discard(c);
+        notifyAll();
+    }
+
+    private boolean isValid(Connection c){
+        Long last = lastUsed.get(c);
+        try {
+            if(c.isClosed())
+                return false;
+            if(last != null && System.currentTimeMillis()-last < validateIdle)
+                return true;
+            return c.isValid(validateTimeout);
+        } catch (SQLException e) {
+            return false;
+        } catch (AbstractMethodError e) {
+            //Old drivers do not implement isValid
+            return true;
+        }
+    }
+
+    /**
+     * Connections checked out by threads that have since terminated are returned to the pool
+     */
+    private void reclaimAbandoned(){
+        for(Connection c : new ArrayList<Connection>(cxnThreads.keySet())){
+            Thread t = cxnThreads.get(c);
+            if(!t.isAlive()){
+                checkoutCounts.remove(c);
+                cxnThreads.remove(c);
+                threadCxns.remove(t);
+                availPool.add(c);
+            }
+        }
+    }
+
+    private void discard(Connection c){
+        Map<String,PreparedStatement> cache = statementCache.remove(c);
+        if(cache != null)
+            for(PreparedStatement ps : cache.values())
+                closeQuietly(ps);
+        fullPool.remove(c);
+        availPool.remove(c);
+        lastUsed.remove(c);
+        checkoutCounts.remove(c);
+        Thread t = cxnThreads.remove(c);
+        if(t != null)
+            threadCxns.remove(t);
+        try {
+            c.close();
+        } catch (SQLException e) {
+            //Already unusable
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement ps){
+        try {
+            ps.close();
+        } catch (SQLException e) {
+            //Ignore
+        }
     }
 
     private static void reportClosed (Connection c) {
-        
+
+    }
+
+    //Accessors for pool usage metrics
+    public synchronized int getPoolSize(){return fullPool.size();}
+    public synchronized int getNumInUse(){return cxnThreads.size();}
+    public synchronized int getNumIdle(){return availPool.size();}
+    public synchronized int getPeakInUse(){return peakInUse;}
+    public synchronized long getNumCheckouts(){return numCheckouts;}
+    public synchronized long getNumWaits(){return numWaits;}
+    public synchronized long getTotalWaitTime(){return totalWaitTime;}
+    public synchronized long getMaxWaitTime(){return maxWaitTime;}
+    public synchronized long getNumCreated(){return numCreated;}
+    public synchronized long getNumInvalidated(){return numInvalidated;}
+    public synchronized long getNumStatementHits(){return numStatementHits;}
+    public synchronized long getNumStatementMisses(){return numStatementMisses;}
+
+    /**
+     * Summary of the pool usage metrics
+     */
+    public synchronized String getStats(){
+        return String.format("size=%d inUse=%d idle=%d peakInUse=%d checkouts=%d waits=%d totalWaitMs=%d maxWaitMs=%d created=%d invalidated=%d stmtHits=%d stmtMisses=%d",
+                fullPool.size(), cxnThreads.size(), availPool.size(), peakInUse, numCheckouts, numWaits, totalWaitTime, maxWaitTime,
+                numCreated, numInvalidated, numStatementHits, numStatementMisses);
     }
 
     public abstract int getType();
 
     public String connectString() {return props.getProperty("jdbcconnectstring");}
     public String username() {return props.getProperty("user");}
-    public String password() {return props.getProperty("passwd");}    
+    public String password() {return props.getProperty("passwd");}
 }
@@ -1,6 +1,7 @@
 package org.seqcode.data.connections;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
@@ -17,6 +18,8 @@ import java.util.regex.*;
  * provides database connections for *roles* and manages the connection pool for you.
  * A role is a database resource that you want to access, eg, <b>ucsc_SGDv1</b> for 
  * annotations for SGDv1 or <b>core</b> for the core db.
+ * DatabaseConnectionManager is the more widely used, Tomcat JDBC backed alternative;
+ * connections from the two aren't interchangeable (free these with freeConnection()).
  *
  * @author <a href="mailto:arolfe@mit.edu">Alex Rolfe</a>
  * @version 1.0
@@ -40,6 +43,18 @@ public abstract class DatabaseFactory {
      * returns the default read-only connection for this role 
      */
     public static Connection getConnection(String role) throws SQLException, UnknownRoleException {
+        CxnPool pool = getPool(role);
+        Connection cxn = pool.getConnection();
+        synchronized(DatabaseFactory.class){
+            cxnSource.put(cxn,pool);
+        }
+        return cxn;
+    }
+
+    /**
+     * returns the connection pool for this role, creating it if required
+     */
+    private static synchronized CxnPool getPool(String role) throws SQLException, UnknownRoleException {
         Properties props = null;
         try {
         	role = getRealRole(role);
@@ -64,10 +79,7 @@ public abstract class DatabaseFactory {
                 }
                 addPool(key,props);
             }
-            CxnPool pool = pools.get(key);            
-            Connection cxn = pool.getConnection();
-            cxnSource.put(cxn,pool);
-            return cxn;
+            return pools.get(key);
         } catch (IOException ex) {
             throw new RuntimeException("Couldn't read properties for " + role,ex);
         }
@@ -132,7 +144,10 @@ public abstract class DatabaseFactory {
      * or frees it if it didn't come from any CxnPool.
      */
     public static void freeConnection(Connection c) {
-        CxnPool p = cxnSource.get(c);
+        CxnPool p;
+        synchronized(DatabaseFactory.class){
+            p = cxnSource.get(c);
+        }
         if (p != null) {
             p.freeConnection(c);
         } else {
@@ -144,6 +159,29 @@ public abstract class DatabaseFactory {
         }
     }
 
+    /**
+     * Returns a (possibly cached) PreparedStatement on a Connection obtained from getConnection().
+     * Cached statements belong to the pool and should not be closed by the caller.
+     */
+    public static PreparedStatement prepareStatement(Connection c, String sql) throws SQLException {
+        CxnPool p;
+        synchronized(DatabaseFactory.class){
+            p = cxnSource.get(c);
+        }
+        if (p != null) {
+            return p.prepareStatement(c, sql);
+        } else {
+            return c.prepareStatement(sql);
+        }
+    }
+
+    /**
+     * Returns usage statistics for the connection pool serving this role
+     */
+    public static String getPoolStats(String role) throws SQLException, UnknownRoleException {
+        return getPool(role).getStats();
+    }
+
     private static Properties getPropertiesForRole(String role) throws UnknownRoleException, IOException {
         role = role.replaceAll("\\W+","_");
         if (System.getenv(role.toUpperCase() + "ROLE") != null) {
@@ -220,7 +258,10 @@ public abstract class DatabaseFactory {
      * Connection
      */
     public static int getType(Connection c) {
-        CxnPool p = cxnSource.get(c);
+        CxnPool p;
+        synchronized(DatabaseFactory.class){
+            p = cxnSource.get(c);
+        }
         if (p == null) {
             return UNKNOWN;
         } else {
@@ -247,8 +288,10 @@ public abstract class DatabaseFactory {
      * Reestabish all connections. 
      * May be buggy and error-prone, but this is for a drastic case where db connections are down.  
      */
-    public static void reestablishConnections(){
+    public static synchronized void reestablishConnections(){
     	//Drastically drop all existing pools
+    	for(CxnPool p : pools.values())
+    		p.close();
     	pools = new HashMap<String,CxnPool>();
     	cxnSource = new HashMap<Connection, CxnPool>();
     	for(String r : usedRoles){
@@ -5,10 +5,12 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
 import org.seqcode.data.connections.DatabaseConnectionManager;
@@ -23,12 +25,17 @@ import org.seqcode.data.connections.UnknownRoleException;
  * ignore the cache and to re-query the database entries (useful if you expect that the database may have been updated
  * between queries). 
  * 
+ * The cache can also be given a time-to-live (setCacheTTL), after which cached entries are dropped (and
+ * reloaded in full if all metadata had been cached). Collections of entries requested by ID are loaded 
+ * with batched "in (...)" queries rather than one query per entry. 
+ * 
  * @author mahony
  */
 
 public class MetadataLoader{
     
     public static final String role = "core";
+    private static final int MAXBATCH = 500; //Maximum number of IDs in a single "in (...)" query
 
     private boolean allLabsLoaded=false, allCellsLoaded=false, allCondsLoaded=false, allTargetsLoaded=false, 
     		allExptTypesLoaded=false, allReadTypesLoaded=false, allAlignTypesLoaded=false, allSeqDataUsersLoaded=false;
@@ -50,30 +57,147 @@ public class MetadataLoader{
     private Map<Integer,ReadType> readTypeIDs;
     private Map<Integer,AlignType> alignTypeIDs;
     private Map<Integer,SeqDataUser> seqDataUserIDs;
+    
+    private boolean cacheAllRequested=false;
+    private long cacheTTL=0; //milliseconds; 0 means cached entries never expire
+    private long cacheTime;
     	
     public MetadataLoader() throws SQLException {this(false);}
     public MetadataLoader(boolean cacheAll) throws SQLException { 
         
-        labNames = new HashMap<String,Lab>();
-        labIDs = new HashMap<Integer,Lab>();
-        cellNames = new HashMap<String,CellLine>();
-        cellIDs = new HashMap<Integer,CellLine>();
-        condNames = new HashMap<String,ExptCondition>();
-        condIDs = new HashMap<Integer,ExptCondition>();
-        targetNames = new HashMap<String,ExptTarget>();
-        targetIDs = new HashMap<Integer,ExptTarget>();
-        exptTypeNames = new HashMap<String,ExptType>();
-        exptTypeIDs = new HashMap<Integer,ExptType>();
-        readTypeNames = new HashMap<String,ReadType>();
-        readTypeIDs = new HashMap<Integer,ReadType>();
-        alignTypeNames = new HashMap<String,AlignType>();
-        alignTypeIDs = new HashMap<Integer,AlignType>();
-        seqDataUserNames = new HashMap<String,SeqDataUser>();
-        seqDataUserIDs = new HashMap<Integer,SeqDataUser>();
+        initCaches();
      
         if(cacheAll)
         	cacheAllMetadata();
     }
+    
+    /**
+     * Set the time-to-live for cached entries (in milliseconds). 
+     * Zero or negative values mean that cached entries never expire. 
+     * @param ttl
+     */
+    public void setCacheTTL(long ttl){cacheTTL = ttl;}
+    public long getCacheTTL(){return cacheTTL;}
+    
+    /**
+     * Create empty cache Maps
+     */
+    private void initCaches(){
+    	labNames = new HashMap<String,Lab>();
+    	labIDs = new HashMap<Integer,Lab>();
+    	cellNames = new HashMap<String,CellLine>();
+    	cellIDs = new HashMap<Integer,CellLine>();
+    	condNames = new HashMap<String,ExptCondition>();
+    	condIDs = new HashMap<Integer,ExptCondition>();
+    	targetNames = new HashMap<String,ExptTarget>();
+    	targetIDs = new HashMap<Integer,ExptTarget>();
+    	exptTypeNames = new HashMap<String,ExptType>();
+    	exptTypeIDs = new HashMap<Integer,ExptType>();
+    	readTypeNames = new HashMap<String,ReadType>();
+    	readTypeIDs = new HashMap<Integer,ReadType>();
+    	alignTypeNames = new HashMap<String,AlignType>();
+    	alignTypeIDs = new HashMap<Integer,AlignType>();
+    	seqDataUserNames = new HashMap<String,SeqDataUser>();
+    	seqDataUserIDs = new HashMap<Integer,SeqDataUser>();
+    	allLabsLoaded=false; allCellsLoaded=false; allCondsLoaded=false; allTargetsLoaded=false; 
+    	allExptTypesLoaded=false; allReadTypesLoaded=false; allAlignTypesLoaded=false; allSeqDataUsersLoaded=false;
+    	cacheTime = System.currentTimeMillis();
+    }
+    
+    /**
+     * Drop the cache if it is older than the time-to-live. 
+     * If all metadata had been cached, the full cache is reloaded. 
+     */
+    private void checkCacheTTL() throws SQLException{
+    	if(cacheTTL>0 && System.currentTimeMillis()-cacheTime > cacheTTL){
+    		initCaches();
+    		if(cacheAllRequested)
+    			cacheAllMetadata();
+    	}
+    }
+    
+    /**
+     * Find the IDs that are not yet in the cache 
+     */
+    private List<Integer> uncachedIDs(Collection<Integer> dbids, Map<Integer,?> cache, boolean forceDatabaseRefresh){
+    	List<Integer> missing = new ArrayList<Integer>();
+    	for(Integer dbid : dbids)
+    		if((forceDatabaseRefresh || !cache.containsKey(dbid)) && !missing.contains(dbid))
+    			missing.add(dbid);
+    	return missing;
+    }
+    
+    /**
+     * Load the entries for a set of IDs from one of the metadata tables into the cache, 
+     * using batched "in (...)" queries on a single connection. 
+     * @param table : lab, cellline, exptcondition, expttarget, expttype, readtype, aligntype, or seqdatauser
+     * @param dbids
+     * @throws SQLException
+     */
+    private void cacheByIDs(String table, List<Integer> dbids) throws SQLException{
+    	if(dbids.size()==0)
+    		return;
+    	String cols = table.equals("seqdatauser") ? "id, name, admin" : "id, name";
+    	Connection cxn = null;
+        PreparedStatement ps=null;
+        ResultSet rs = null;
+		try {
+            cxn = DatabaseConnectionManager.getConnection(role);
+            for(int start=0; start<dbids.size(); start+=MAXBATCH){
+            	List<Integer> batch = dbids.subList(start, Math.min(dbids.size(), start+MAXBATCH));
+            	StringBuilder in = new StringBuilder();
+            	for(int i=0; i<batch.size(); i++)
+            		in.append(i==0 ? "?" : ",?");
+	            ps = cxn.prepareStatement("select "+cols+" from "+table+" where id in ("+in.toString()+")");
+	            for(int i=0; i<batch.size(); i++)
+	            	ps.setInt(i+1, batch.get(i));
+		        rs = ps.executeQuery();
+		        while(rs.next())
+		        	cacheRow(table, rs);
+		        rs.close(); rs=null;
+		        ps.close(); ps=null;
+            }
+		} catch (UnknownRoleException ex) {
+            throw new IllegalArgumentException("Unknown role: " + role, ex);
+        } finally {
+        	if (rs != null) { try {rs.close(); } catch (SQLException ex) {  }}
+	        if (ps != null) { try { ps.close();} catch (SQLException ex) { } }
+	        if(cxn!=null) try {cxn.close();}catch (Exception ex) {throw new DatabaseException("Couldn't close connection with role "+role, ex); }
+        }
+    }
+    
+    /**
+     * Add the current row of a metadata table query to the appropriate cache
+     */
+    private void cacheRow(String table, ResultSet rs) throws SQLException{
+    	if(table.equals("lab")){
+    		Lab l = new Lab(rs);
+    		labNames.put(l.getName(), l); labIDs.put(l.getDBID(),l);
+    	}else if(table.equals("cellline")){
+    		CellLine c = new CellLine(rs);
+    		cellNames.put(c.getName(), c); cellIDs.put(c.getDBID(),c);
+    	}else if(table.equals("exptcondition")){
+    		ExptCondition c = new ExptCondition(rs);
+    		condNames.put(c.getName(), c); condIDs.put(c.getDBID(),c);
+    	}else if(table.equals("expttarget")){
+    		ExptTarget t = new ExptTarget(rs);
+    		targetNames.put(t.getName(), t); targetIDs.put(t.getDBID(),t);
+    	}else if(table.equals("expttype")){
+    		ExptType e = new ExptType(rs);
+    		exptTypeNames.put(e.getName(), e); exptTypeIDs.put(e.getDBID(),e);
+    	}else if(table.equals("readtype")){
+    		ReadType r = new ReadType(rs);
+    		readTypeNames.put(r.getName(), r); readTypeIDs.put(r.getDBID(),r);
+    	}else if(table.equals("aligntype")){
+    		AlignType a = new AlignType(rs);
+    		alignTypeNames.put(a.getName(), a); alignTypeIDs.put(a.getDBID(),a);
+    	}else if(table.equals("seqdatauser")){
+    		SeqDataUser u = new SeqDataUser(rs);
+    		seqDataUserNames.put(u.getName(), u); seqDataUserIDs.put(u.getDBID(),u);
+    	}else{
+    		throw new IllegalArgumentException("Unknown metadata table: "+table);
+    	}
+    }
 	
     /**
      * Load all metadata tables into the cache Maps
@@ -81,6 +205,8 @@ public class MetadataLoader{
      * Performs all queries with one connection establishment for efficiency.
      */
     public void cacheAllMetadata() throws SQLException {
+    	cacheAllRequested = true;
+    	cacheTime = System.currentTimeMillis();
     	Connection cxn = null;
         PreparedStatement ps=null;
         ResultSet rs = null;
@@ -189,6 +315,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public Lab loadLab(String name, boolean insertIfNone, boolean forceDatabaseRefresh) throws SQLException { 
+    	checkCacheTTL();
     	if(labNames.containsKey(name) && !forceDatabaseRefresh) { return labNames.get(name); }
     	
     	Connection cxn = null;
@@ -232,6 +359,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public Lab loadLab(int dbid, boolean forceDatabaseRefresh) throws SQLException { 
+        checkCacheTTL();
         if(labIDs.containsKey(dbid) && !forceDatabaseRefresh) { return labIDs.get(dbid); }
 
         Lab l = null;
@@ -268,8 +396,10 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public Collection<Lab> loadLabs(Collection<Integer> dbids, boolean forceDatabaseRefresh) throws SQLException {
+        checkCacheTTL();
+        cacheByIDs("lab", uncachedIDs(dbids, labIDs, forceDatabaseRefresh));
         LinkedList<Lab> values = new LinkedList<Lab>();
-        for(int dbid : dbids) { values.addLast(loadLab(dbid, forceDatabaseRefresh)); }
+        for(int dbid : dbids) { values.addLast(loadLab(dbid, false)); }
         return values;
     }
 
@@ -281,6 +411,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public Collection<Lab> loadAllLabs(boolean forceDatabaseRefresh) throws SQLException {
+        checkCacheTTL();
         if(allLabsLoaded && !forceDatabaseRefresh){ return labNames.values();}
         if(forceDatabaseRefresh){labNames.clear(); labIDs.clear();}
         
@@ -356,6 +487,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public CellLine loadCellLine(String name, boolean insertIfNone, boolean forceDatabaseRefresh) throws SQLException { 
+    	checkCacheTTL();
     	if(cellNames.containsKey(name) && !forceDatabaseRefresh) { return cellNames.get(name); }
     	
     	CellLine c=null;
@@ -399,6 +531,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public CellLine loadCellLine(int dbid, boolean forceDatabaseRefresh) throws SQLException { 
+        checkCacheTTL();
         if(cellIDs.containsKey(dbid) && !forceDatabaseRefresh) { return cellIDs.get(dbid); }
 
         CellLine c = null;
@@ -435,8 +568,10 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public Collection<CellLine> loadCellLines(Collection<Integer> dbids, boolean forceDatabaseRefresh) throws SQLException {
+        checkCacheTTL();
+        cacheByIDs("cellline", uncachedIDs(dbids, cellIDs, forceDatabaseRefresh));
         LinkedList<CellLine> values = new LinkedList<CellLine>();
-        for(int dbid : dbids) { values.addLast(loadCellLine(dbid, forceDatabaseRefresh)); }
+        for(int dbid : dbids) { values.addLast(loadCellLine(dbid, false)); }
         return values;
     }
 
@@ -447,6 +582,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public Collection<CellLine> loadAllCellLines(boolean forceDatabaseRefresh) throws SQLException {
+    	checkCacheTTL();
     	if(allCellsLoaded && !forceDatabaseRefresh){ return cellNames.values();}
     	if(forceDatabaseRefresh){cellNames.clear(); cellIDs.clear();}
         
@@ -522,6 +658,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public ExptCondition loadExptCondition(String name, boolean insertIfNone, boolean forceDatabaseRefresh) throws SQLException { 
+    	checkCacheTTL();
     	if(condNames.containsKey(name) && !forceDatabaseRefresh) { return condNames.get(name); }
     	ExptCondition c=null;
     	Connection cxn = null;
@@ -563,6 +700,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public ExptCondition loadExptCondition(int dbid, boolean forceDatabaseRefresh) throws SQLException { 
+        checkCacheTTL();
         if(condIDs.containsKey(dbid) && !forceDatabaseRefresh) {  return condIDs.get(dbid); }
         
         ExptCondition c = null;
@@ -600,8 +738,10 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public Collection<ExptCondition> loadExptConditions(Collection<Integer> dbids, boolean forceDatabaseRefresh) throws SQLException {
+        checkCacheTTL();
+        cacheByIDs("exptcondition", uncachedIDs(dbids, condIDs, forceDatabaseRefresh));
         LinkedList<ExptCondition> values = new LinkedList<ExptCondition>();
-        for(int dbid : dbids) { values.addLast(loadExptCondition(dbid, forceDatabaseRefresh)); }
+        for(int dbid : dbids) { values.addLast(loadExptCondition(dbid, false)); }
         return values;
     }
 
@@ -612,6 +752,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public Collection<ExptCondition> loadAllExptConditions(boolean forceDatabaseRefresh) throws SQLException { 
+    	checkCacheTTL();
     	if(allCondsLoaded && !forceDatabaseRefresh){ return condNames.values();}
     	if(forceDatabaseRefresh){condNames.clear(); condIDs.clear();}
         
@@ -688,6 +829,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public ExptTarget loadExptTarget(String name, boolean insertIfNone, boolean forceDatabaseRefresh) throws SQLException { 
+    	checkCacheTTL();
     	if(targetNames.containsKey(name) && !forceDatabaseRefresh) { return targetNames.get(name); }
     	Connection cxn = null;
     	PreparedStatement ps = null;
@@ -729,6 +871,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public ExptTarget loadExptTarget(int dbid, boolean forceDatabaseRefresh) throws SQLException { 
+        checkCacheTTL();
         if(targetIDs.containsKey(dbid) && !forceDatabaseRefresh) { return targetIDs.get(dbid); }
         ExptTarget c = null;
         Connection cxn = null;
@@ -765,8 +908,10 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public Collection<ExptTarget> loadExptTargets(Collection<Integer> dbids, boolean forceDatabaseRefresh) throws SQLException {
+        checkCacheTTL();
+        cacheByIDs("expttarget", uncachedIDs(dbids, targetIDs, forceDatabaseRefresh));
         LinkedList<ExptTarget> values = new LinkedList<ExptTarget>();
-        for(int dbid : dbids) { values.addLast(loadExptTarget(dbid, forceDatabaseRefresh)); }
+        for(int dbid : dbids) { values.addLast(loadExptTarget(dbid, false)); }
         return values;
     }
 
@@ -777,6 +922,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public Collection<ExptTarget> loadAllExptTargets(boolean forceDatabaseRefresh) throws SQLException { 
+    	checkCacheTTL();
     	if(allTargetsLoaded && !forceDatabaseRefresh){ return targetNames.values();}
     	if(forceDatabaseRefresh){targetNames.clear(); targetIDs.clear();}
         
@@ -851,6 +997,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public ExptType loadExptType(String name, boolean insertIfNone, boolean forceDatabaseRefresh) throws SQLException { 
+    	checkCacheTTL();
     	if(exptTypeNames.containsKey(name) && !forceDatabaseRefresh) { return exptTypeNames.get(name); }
     	ExptType e=null;
     	Connection cxn = null;
@@ -892,6 +1039,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public ExptType loadExptType(int dbid, boolean forceDatabaseRefresh) throws SQLException { 
+        checkCacheTTL();
         if(exptTypeIDs.containsKey(dbid) && !forceDatabaseRefresh) { return exptTypeIDs.get(dbid); }
         ExptType e = null;
         Connection cxn = null;
@@ -927,8 +1075,10 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public Collection<ExptType> loadExptTypes(Collection<Integer> dbids, boolean forceDatabaseRefresh) throws SQLException {
+        checkCacheTTL();
+        cacheByIDs("expttype", uncachedIDs(dbids, exptTypeIDs, forceDatabaseRefresh));
         LinkedList<ExptType> values = new LinkedList<ExptType>();
-        for(int dbid : dbids) { values.addLast(loadExptType(dbid, forceDatabaseRefresh)); }
+        for(int dbid : dbids) { values.addLast(loadExptType(dbid, false)); }
         return values;
     }
 
@@ -939,6 +1089,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public Collection<ExptType> loadAllExptTypes(boolean forceDatabaseRefresh) throws SQLException {
+    	checkCacheTTL();
     	if(allExptTypesLoaded && !forceDatabaseRefresh){ return exptTypeNames.values();}
     	if(forceDatabaseRefresh){exptTypeNames.clear(); exptTypeIDs.clear();}
         
@@ -1013,6 +1164,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public ReadType loadReadType(String name, boolean insertIfNone, boolean forceDatabaseRefresh) throws SQLException {
+    	checkCacheTTL();
     	if(readTypeNames.containsKey(name) && !forceDatabaseRefresh) { return readTypeNames.get(name); }
     	ReadType r =null;
     	Connection cxn = null;
@@ -1054,6 +1206,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public ReadType loadReadType(int dbid, boolean forceDatabaseRefresh) throws SQLException { 
+        checkCacheTTL();
         if(readTypeIDs.containsKey(dbid) && !forceDatabaseRefresh) { return readTypeIDs.get(dbid); }
 
         ReadType e = null;
@@ -1090,8 +1243,10 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public Collection<ReadType> loadReadTypes(Collection<Integer> dbids, boolean forceDatabaseRefresh) throws SQLException {
+        checkCacheTTL();
+        cacheByIDs("readtype", uncachedIDs(dbids, readTypeIDs, forceDatabaseRefresh));
         LinkedList<ReadType> values = new LinkedList<ReadType>();
-        for(int dbid : dbids) { values.addLast(loadReadType(dbid, forceDatabaseRefresh)); }
+        for(int dbid : dbids) { values.addLast(loadReadType(dbid, false)); }
         return values;
     }
 
@@ -1102,6 +1257,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public Collection<ReadType> loadAllReadTypes(boolean forceDatabaseRefresh) throws SQLException {
+    	checkCacheTTL();
     	if(allReadTypesLoaded && !forceDatabaseRefresh){ return readTypeNames.values();}
     	if(forceDatabaseRefresh){readTypeNames.clear(); readTypeIDs.clear();}
     	
@@ -1177,6 +1333,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public AlignType loadAlignType(String name, boolean insertIfNone, boolean forceDatabaseRefresh) throws SQLException { 
+    	checkCacheTTL();
     	if(alignTypeNames.containsKey(name) && !forceDatabaseRefresh) { return alignTypeNames.get(name); }
     	
     	AlignType a =null;
@@ -1220,6 +1377,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public AlignType loadAlignType(int dbid, boolean forceDatabaseRefresh) throws SQLException { 
+        checkCacheTTL();
         if(alignTypeIDs.containsKey(dbid) && !forceDatabaseRefresh) { return alignTypeIDs.get(dbid); }
         
         AlignType a = null;
@@ -1256,8 +1414,10 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public Collection<AlignType> loadAlignTypes(Collection<Integer> dbids, boolean forceDatabaseRefresh) throws SQLException {
+        checkCacheTTL();
+        cacheByIDs("aligntype", uncachedIDs(dbids, alignTypeIDs, forceDatabaseRefresh));
         LinkedList<AlignType> values = new LinkedList<AlignType>();
-        for(int dbid : dbids) { values.addLast(loadAlignType(dbid, forceDatabaseRefresh)); }
+        for(int dbid : dbids) { values.addLast(loadAlignType(dbid, false)); }
         return values;
     }
 
@@ -1268,6 +1428,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public Collection<AlignType> loadAllAlignTypes(boolean forceDatabaseRefresh) throws SQLException {
+    	checkCacheTTL();
     	if(allAlignTypesLoaded && !forceDatabaseRefresh){ return alignTypeNames.values();}
     	if(forceDatabaseRefresh){alignTypeNames.clear(); alignTypeIDs.clear();}
     	
@@ -1342,6 +1503,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
     public SeqDataUser loadSeqDataUser(String name, boolean insertIfNone, boolean forceDatabaseRefresh) throws SQLException { 
+    	checkCacheTTL();
     	if(seqDataUserNames.containsKey(name) && !forceDatabaseRefresh) { return seqDataUserNames.get(name); }
     	SeqDataUser a=null;
     	Connection cxn = null;
@@ -1383,6 +1545,7 @@ public class MetadataLoader{
      * @throws SQLException
      */
 	public SeqDataUser loadSeqDataUser(int dbid, boolean forceDatabaseRefresh) throws SQLException { 
+		checkCacheTTL();
 		if(seqDataUserIDs.containsKey(dbid) && !forceDatabaseRefresh) { return seqDataUserIDs.get(dbid); }
 	
 		SeqDataUser a = null;
@@ -1419,8 +1582,10 @@ public class MetadataLoader{
 	 * @throws SQLException
 	 */
 	public Collection<SeqDataUser> loadSeqDataUsers(Collection<Integer> dbids, boolean forceDatabaseRefresh) throws SQLException {
+		checkCacheTTL();
+		cacheByIDs("seqdatauser", uncachedIDs(dbids, seqDataUserIDs, forceDatabaseRefresh));
 		LinkedList<SeqDataUser> values = new LinkedList<SeqDataUser>();
-		for(int dbid : dbids) { values.addLast(loadSeqDataUser(dbid, forceDatabaseRefresh)); }
+		for(int dbid : dbids) { values.addLast(loadSeqDataUser(dbid, false)); }
 		return values;
 	}
 	
@@ -1431,6 +1596,7 @@ public class MetadataLoader{
 	 * @throws SQLException
 	 */
 	public Collection<SeqDataUser> loadAllSeqDataUsers(boolean forceDatabaseRefresh) throws SQLException {
+		checkCacheTTL();
 		if(allSeqDataUsersLoaded && !forceDatabaseRefresh){ return seqDataUserNames.values();}
 		if(forceDatabaseRefresh){seqDataUserNames.clear(); seqDataUserIDs.clear();}
 		
@@ -29,6 +29,12 @@ public class AlignmentACL implements Closeable {
     protected Set<String> getReadACL() {return readACL;}
     protected Set<String> getWriteACL() {return writeACL;}
     protected Set<String> getAdminACL() {return adminACL;}
+    /* gives username read, write, and admin rights, as for the creator of a new alignment */
+    public void addOwner(String username) {
+        adminACL.add(username);
+        writeACL.add(username);
+        readACL.add(username);
+    }
     /* writes an ACL file.  locks the file and translates locking problems
        into IOExceptions
     */
@@ -0,0 +1,239 @@
+package org.seqcode.data.readdb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Summary statistics for an alignment: for each set of hits (single, type 2 single, and
+ * the left and right sides of paired hits) on each chromosome, the per-strand counts, weights
+ * and numbers of positions, the number of paired positions, the range of positions, and the
+ * distribution of read lengths.
+ *
+ * The server keeps these in stats.txt in the alignment directory, rewriting a chromosome's entry
+ * whenever it rewrites that chromosome's Header, and answers the "stats" request from it.
+ * Counts, weights and positions are the same as from the whole-chromosome count, weight,
+ * numpositions and numpairpositions requests.
+ */
+public class AlignmentStats {
+
+    public static final String SINGLE = "single", SINGLET2 = "singlet2", PAIREDLEFT = "pairedleft", PAIREDRIGHT = "pairedright";
+
+    /**
+     * Statistics for one set of hits on one chromosome
+     */
+    public static class ChromStats {
+        public String type;
+        public int chrom;
+        public int plusCount, minusCount;
+        public double plusWeight, minusWeight;
+        public int plusPositions, minusPositions, pairedPositions;
+        public int minPos, maxPos;
+        /* read length (of this side, for paired hits) to number of hits */
+        public TreeMap<Integer,Integer> lengths = new TreeMap<Integer,Integer>();
+
+        public int getCount(Boolean isPlus) {
+            return isPlus == null ? plusCount + minusCount : (isPlus ? plusCount : minusCount);
+        }
+        public double getWeight(Boolean isPlus) {
+            return isPlus == null ? plusWeight + minusWeight : (isPlus ? plusWeight : minusWeight);
+        }
+        public int getNumPositions(Boolean isPlus) {
+            return isPlus == null ? plusPositions + minusPositions : (isPlus ? plusPositions : minusPositions);
+        }
+        /* tab separated, in the order of the fields */
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(type).append('\t').append(chrom).append('\t')
+                .append(plusCount).append('\t').append(minusCount).append('\t')
+                .append(plusWeight).append('\t').append(minusWeight).append('\t')
+                .append(plusPositions).append('\t').append(minusPositions).append('\t').append(pairedPositions).append('\t')
+                .append(minPos).append('\t').append(maxPos).append('\t');
+            boolean first = true;
+            for (int l : lengths.keySet()) {
+                sb.append(first ? "" : ",").append(l).append(':').append(lengths.get(l));
+                first = false;
+            }
+            return sb.toString();
+        }
+        public static ChromStats parse(String line) throws IOException {
+            String pieces[] = line.split("\\t", -1);
+            if (pieces.length != 12) {
+                throw new IOException("Invalid stats line " + line);
+            }
+            try {
+                ChromStats s = new ChromStats();
+                s.type = pieces[0];
+                s.chrom = Integer.parseInt(pieces[1]);
+                s.plusCount = Integer.parseInt(pieces[2]);
+                s.minusCount = Integer.parseInt(pieces[3]);
+                s.plusWeight = Double.parseDouble(pieces[4]);
+                s.minusWeight = Double.parseDouble(pieces[5]);
+                s.plusPositions = Integer.parseInt(pieces[6]);
+                s.minusPositions = Integer.parseInt(pieces[7]);
+                s.pairedPositions = Integer.parseInt(pieces[8]);
+                s.minPos = Integer.parseInt(pieces[9]);
+                s.maxPos = Integer.parseInt(pieces[10]);
+                if (pieces[11].length() > 0) {
+                    for (String lc : pieces[11].split(",")) {
+                        String p[] = lc.split(":");
+                        s.lengths.put(Integer.parseInt(p[0]), Integer.parseInt(p[1]));
+                    }
+                }
+                return s;
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid stats line " + line, e);
+            }
+        }
+    }
+
+    private TreeMap<String,ChromStats> entries = new TreeMap<String,ChromStats>();
+
+    public static String getType(boolean isType2, boolean isPaired, boolean isLeft) {
+        return isPaired ? (isLeft ? PAIREDLEFT : PAIREDRIGHT) : (isType2 ? SINGLET2 : SINGLE);
+    }
+    private static String key(String type, int chrom) {
+        return type + "\t" + chrom;
+    }
+
+    /**
+     * Computes the statistics for one chromosome's (sorted) hits
+     */
+    public static ChromStats compute(Hits hits, String type, int chrom) throws IOException {
+        ChromStats s = new ChromStats();
+        s.type = type;
+        s.chrom = chrom;
+        IntBP positions = hits.getPositionsBuffer();
+        int n = positions.limit();
+        if (n == 0) {
+            return s;
+        }
+        s.plusCount = hits.getCountBetween(0, n, 0, Integer.MAX_VALUE, null, true);
+        s.minusCount = hits.getCountBetween(0, n, 0, Integer.MAX_VALUE, null, false);
+        s.plusWeight = hits.getWeightBetween(0, n, 0, Integer.MAX_VALUE, null, true);
+        s.minusWeight = hits.getWeightBetween(0, n, 0, Integer.MAX_VALUE, null, false);
+        s.plusPositions = hits.getNumPositionsBetween(0, n, 0, Integer.MAX_VALUE, null, true);
+        s.minusPositions = hits.getNumPositionsBetween(0, n, 0, Integer.MAX_VALUE, null, false);
+        if (hits instanceof PairedHits) {
+            s.pairedPositions = ((PairedHits)hits).getNumPairedPositionsBetween(0, n, 0, Integer.MAX_VALUE, null);
+        }
+        s.minPos = positions.get(0);
+        s.maxPos = positions.get(n - 1);
+        IntBP las = hits.getLASBuffer();
+        int[] lengthCounts = new int[Short.MAX_VALUE + 1];
+        for (int i = 0; i < n; i++) {
+            lengthCounts[Hits.getLengthOne(las.get(i))]++;
+        }
+        for (int l = 0; l < lengthCounts.length; l++) {
+            if (lengthCounts[l] > 0) {
+                s.lengths.put(l, lengthCounts[l]);
+            }
+        }
+        return s;
+    }
+
+    public void put(ChromStats s) {
+        entries.put(key(s.type, s.chrom), s);
+    }
+    public ChromStats get(String type, int chrom) {
+        return entries.get(key(type, chrom));
+    }
+    public void remove(String type, int chrom) {
+        entries.remove(key(type, chrom));
+    }
+    public Collection<ChromStats> getEntries() {
+        return entries.values();
+    }
+    public Set<Integer> getChroms(String type) {
+        Set<Integer> output = new TreeSet<Integer>();
+        for (ChromStats s : entries.values()) {
+            if (s.type.equals(type)) {
+                output.add(s.chrom);
+            }
+        }
+        return output;
+    }
+    /** Same as Client.getCount(alignid, isType2, isPaired, isLeft, isPlus) */
+    public int getCount(boolean isType2, boolean isPaired, Boolean isLeft, Boolean isPlus) {
+        int total = 0;
+        for (ChromStats s : entries(isType2, isPaired, isLeft)) {
+            total += s.getCount(isPlus);
+        }
+        return total;
+    }
+    /** Same as Client.getWeight(alignid, isType2, isPaired, isLeft, isPlus) */
+    public double getWeight(boolean isType2, boolean isPaired, Boolean isLeft, Boolean isPlus) {
+        double total = 0;
+        for (ChromStats s : entries(isType2, isPaired, isLeft)) {
+            total += s.getWeight(isPlus);
+        }
+        return total;
+    }
+    /** Same as Client.getNumPositions(alignid, isType2, isPaired, isLeft, isPlus) */
+    public int getNumPositions(boolean isType2, boolean isPaired, Boolean isLeft, Boolean isPlus) {
+        int total = 0;
+        for (ChromStats s : entries(isType2, isPaired, isLeft)) {
+            total += s.getNumPositions(isPlus);
+        }
+        return total;
+    }
+    /** Same as Client.getNumPairedPositions(alignid, isLeft) */
+    public int getNumPairedPositions(Boolean isLeft) {
+        int total = 0;
+        for (ChromStats s : entries(false, true, isLeft)) {
+            total += s.pairedPositions;
+        }
+        return total;
+    }
+    /** Read length distribution over all chromosomes */
+    public TreeMap<Integer,Integer> getLengths(boolean isType2, boolean isPaired, Boolean isLeft) {
+        TreeMap<Integer,Integer> output = new TreeMap<Integer,Integer>();
+        for (ChromStats s : entries(isType2, isPaired, isLeft)) {
+            for (int l : s.lengths.keySet()) {
+                output.put(l, (output.containsKey(l) ? output.get(l) : 0) + s.lengths.get(l));
+            }
+        }
+        return output;
+    }
+    /* paired requests with no side default to the left side, as in Request */
+    private List<ChromStats> entries(boolean isType2, boolean isPaired, Boolean isLeft) {
+        String type = getType(isType2, isPaired, isLeft == null || isLeft);
+        List<ChromStats> output = new ArrayList<ChromStats>();
+        for (ChromStats s : entries.values()) {
+            if (s.type.equals(type)) {
+                output.add(s);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Reads a stats file.  A missing file gives empty statistics.
+     */
+    public static AlignmentStats readFromFile(String fname) throws IOException {
+        AlignmentStats stats = new AlignmentStats();
+        if (!(new File(fname)).exists()) {
+            return stats;
+        }
+        BufferedReader reader = new BufferedReader(new FileReader(fname));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0) {
+                    stats.put(ChromStats.parse(line));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return stats;
+    }
+    public void writeToFile(String fname) throws IOException {
+        String tmp = fname + ".tmp";
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(tmp)));
+        for (ChromStats s : entries.values()) {
+            writer.println(s.toString());
+        }
+        writer.close();
+        (new File(tmp)).renameTo(new File(fname));
+    }
+}
@@ -0,0 +1,514 @@
+package org.seqcode.data.readdb;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * <p>Thread-safe, asynchronous client for the readdb server.
+ *
+ * <p>AsyncClient keeps a pool of authenticated connections and pipelines requests on them: a call
+ * sends its request straight away on the least busy connection and returns a CompletableFuture,
+ * without waiting for the answers to earlier requests.  The server answers the requests on a
+ * connection in the order it receives them, so each connection tags its requests with increasing
+ * ids and a reader thread per connection matches the responses to them in that order.
+ * One AsyncClient can therefore be shared by all the threads of a loader, in place of one
+ * Client per thread.
+ *
+ * <p>Futures complete exceptionally with a ClientException for errors reported by the server
+ * (authorization, unknown alignment, etc) and with an IOException on network errors.  Futures are
+ * completed on the reader threads, so heavy work on the results should use the *Async
+ * CompletableFuture methods.  A connection that fails is dropped and replaced on its next use.
+ *
+ * <p>Parameters have the same meaning as in Client.
+ */
+public class AsyncClient {
+
+    private static final int BUFFERLEN = 8192*20;
+    private static final int socketQueryReadTimeout = 60000; //ms
+    private static final int connectionIdleTimeLimit = 1000*60*10; //reconnect connections idle for longer than this (10 minutes)
+    private String hostname, username, password;
+    private int portnum;
+    private Connection[] connections;
+    private boolean closed = false;
+
+    /**
+     * Connects to a readdb server with the specified number of connections
+     * @throws IOException on network errors
+     * @throws ClientException if the client cannot authenticate to the server
+     */
+    public AsyncClient(String hostname, int portnum, String username, String passwd, int numConnections) throws IOException, ClientException {
+        init(hostname, portnum, username, passwd, numConnections);
+    }
+    /**
+     * Connects to the default server as specified by ~/.readdb_passwd (see Client())
+     */
+    public AsyncClient(int numConnections) throws IOException, ClientException {
+        PropertyResourceBundle bundle = Client.readConnectionProperties();
+        init(bundle.getString("hostname"), Integer.parseInt(bundle.getString("port")),
+             bundle.getString("username"), bundle.getString("passwd"), numConnections);
+    }
+    private void init(String hostname, int portnum, String username, String passwd, int numConnections) throws IOException, ClientException {
+        if (numConnections < 1) {
+            throw new IllegalArgumentException("Need at least one connection");
+        }
+        this.hostname = hostname;
+        this.portnum = portnum;
+        this.username = username;
+        this.password = passwd;
+        connections = new Connection[numConnections];
+        for (int i = 0; i < numConnections; i++) {
+            connections[i] = new Connection();
+            connections[i].connect();
+        }
+    }
+
+    /**
+     * Reads the response to one request from a session
+     */
+    private interface ResponseReader<T> {
+        T read(Session s) throws IOException, ClientException;
+    }
+    /* a request that has been sent and is waiting for its response */
+    private static class Pending<T> {
+        long id;
+        ResponseReader<T> reader;
+        CompletableFuture<T> future;
+    }
+
+    /**
+     * One authenticated socket to the server, the queue of requests sent on it,
+     * and the thread that reads their responses
+     */
+    private class Session implements Runnable {
+        private Socket socket;
+        private OutputStream outstream;
+        private BufferedInputStream instream;
+        private DataInputStream datastream;
+        private byte[] buffer = new byte[BUFFERLEN];
+        private LinkedBlockingQueue<Pending<?>> pending = new LinkedBlockingQueue<Pending<?>>();
+        private long nextid = 0;
+        private volatile long lastActivityTime;
+        private volatile boolean open = false;
+
+        public Session() throws IOException, ClientException {
+            socket = new Socket(hostname, portnum);
+            socket.setTcpNoDelay(true);
+            socket.setSendBufferSize(BUFFERLEN);
+            socket.setReceiveBufferSize(BUFFERLEN);
+            socket.setSoLinger(true,0);
+            socket.setSoTimeout(socketQueryReadTimeout);
+            outstream = new BufferedOutputStream(socket.getOutputStream());
+            instream = new BufferedInputStream(socket.getInputStream());
+            datastream = new DataInputStream(instream);
+            if (!Client.authenticate(outstream, instream, buffer, hostname, username, password)) {
+                socket.close();
+                throw new ClientException("Authentication Exception Failed");
+            }
+            open = true;
+            lastActivityTime = System.currentTimeMillis();
+            Thread t = new Thread(this, "AsyncClient reader " + hostname + ":" + portnum);
+            t.setDaemon(true);
+            t.start();
+        }
+        /* sends a request and queues its response reader.  Returns false if the session has closed */
+        private synchronized <T> boolean send(Request request, ResponseReader<T> reader, CompletableFuture<T> future) throws IOException {
+            if (!open) {
+                return false;
+            }
+            Pending<T> p = new Pending<T>();
+            p.id = nextid++;
+            p.reader = reader;
+            p.future = future;
+            pending.add(p);
+            try {
+                outstream.write(request.toString().getBytes());
+                outstream.flush();
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+            lastActivityTime = System.currentTimeMillis();
+            return true;
+        }
+        /* reads responses in the order that the requests were sent */
+        public void run() {
+            try {
+                while (open) {
+                    Pending<?> p = pending.poll(1, TimeUnit.SECONDS);
+                    if (p != null) {
+                        complete(p);
+                        lastActivityTime = System.currentTimeMillis();
+                    }
+                }
+            } catch (InterruptedException e) {
+                fail(new IOException("AsyncClient reader interrupted"));
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        private <T> void complete(Pending<T> p) throws IOException {
+            try {
+                p.future.complete(p.reader.read(this));
+            } catch (ClientException e) {
+                p.future.completeExceptionally(e);
+            } catch (IOException e) {
+                p.future.completeExceptionally(e);
+                throw e;
+            } catch (RuntimeException e) {
+                // a malformed response leaves the stream in an unknown state
+                p.future.completeExceptionally(e);
+                throw new IOException("Invalid response to request " + p.id, e);
+            }
+        }
+        /* closes the socket and fails all outstanding requests */
+        private synchronized void fail(IOException e) {
+            if (!open) {
+                return;
+            }
+            open = false;
+            try {
+                socket.close();
+            } catch (IOException e2) {
+                // ignore it
+            }
+            Pending<?> p;
+            while ((p = pending.poll()) != null) {
+                p.future.completeExceptionally(e);
+            }
+        }
+        private synchronized void close() {
+            if (!open) {
+                return;
+            }
+            try {
+                socket.setSoLinger(false,0);
+                Request request = new Request();
+                request.type = "bye";
+                outstream.write(request.toString().getBytes());
+                outstream.flush();
+            } catch (IOException e) {
+                // closing anyway
+            }
+            fail(new IOException("AsyncClient closed"));
+        }
+        private boolean idle() {
+            return pending.isEmpty() && System.currentTimeMillis() - lastActivityTime > connectionIdleTimeLimit;
+        }
+
+        String readLine() throws IOException {
+            return Client.readLine(instream, buffer);
+        }
+        /* reads the status line of a response and throws ClientException unless it's OK */
+        void readOK() throws IOException, ClientException {
+            String response = readLine();
+            if (!response.equals("OK")) {
+                throw new ClientException(response);
+            }
+        }
+        int[] readInts(int count) throws IOException {
+            byte[] bytes = new byte[count*4];
+            datastream.readFully(bytes);
+            int[] output = new int[count];
+            ByteBuffer.wrap(bytes).asIntBuffer().get(output);
+            return output;
+        }
+        float[] readFloats(int count) throws IOException {
+            byte[] bytes = new byte[count*4];
+            datastream.readFully(bytes);
+            float[] output = new float[count];
+            ByteBuffer.wrap(bytes).asFloatBuffer().get(output);
+            return output;
+        }
+    }
+
+    /**
+     * A slot in the pool: the current session, replaced when it fails or has been idle too long
+     */
+    private class Connection {
+        private volatile Session session;
+
+        private synchronized void connect() throws IOException, ClientException {
+            if (session == null || !session.open) {
+                session = new Session();
+            } else if (session.idle()) {
+                session.close();
+                session = new Session();
+            }
+        }
+        private <T> void send(Request request, ResponseReader<T> reader, CompletableFuture<T> future) throws IOException, ClientException {
+            synchronized(this) {
+                connect();
+                if (session.send(request, reader, future)) {
+                    return;
+                }
+                // the session failed between connect() and send(); try once on a new one
+                connect();
+                if (!session.send(request, reader, future)) {
+                    throw new IOException("Connection to " + hostname + ":" + portnum + " closed");
+                }
+            }
+        }
+        private int load() {
+            Session s = session;
+            return s == null ? 0 : s.pending.size();
+        }
+        private synchronized void close() {
+            if (session != null) {
+                session.close();
+            }
+        }
+    }
+
+    /* sends the request on the connection with the fewest requests outstanding */
+    private <T> CompletableFuture<T> submit(Request request, ResponseReader<T> reader) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        if (closed) {
+            future.completeExceptionally(new IOException("AsyncClient closed"));
+            return future;
+        }
+        Connection best = connections[0];
+        for (Connection c : connections) {
+            if (c.load() < best.load()) {
+                best = c;
+            }
+        }
+        try {
+            best.send(request, reader, future);
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        } catch (ClientException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+    private static Request fileRequest(String type, String alignid, int chromid, boolean isType2, boolean paired, Integer start, Integer stop, Float minWeight, Boolean isLeft, Boolean plusStrand) {
+        Request request = new Request();
+        request.type = type;
+        request.alignid = alignid;
+        request.chromid = chromid;
+        request.start = start;
+        request.end = stop;
+        request.minWeight = minWeight;
+        request.isType2 = isType2;
+        request.isPlusStrand = plusStrand;
+        request.isPaired = paired;
+        request.isLeft = isLeft == null ? true : isLeft;
+        return request;
+    }
+
+    /** Completes with true if the alignment exists and is readable by the user */
+    public CompletableFuture<Boolean> exists(String alignid) {
+        Request request = new Request();
+        request.type = "exists";
+        request.alignid = alignid;
+        return submit(request, new ResponseReader<Boolean>() {
+                public Boolean read(Session c) throws IOException {
+                    return c.readLine().equals("exists");
+                }
+            });
+    }
+    /** Completes with the set of chromosomes that exist for this alignment */
+    public CompletableFuture<Set<Integer>> getChroms(String alignid, boolean isType2, boolean isPaired, Boolean isLeft) {
+        Request request = new Request();
+        request.type = "getchroms";
+        request.alignid = alignid;
+        request.isType2 = isType2;
+        request.isPaired = isPaired;
+        request.isLeft = isLeft;
+        return submit(request, new ResponseReader<Set<Integer>>() {
+                public Set<Integer> read(Session c) throws IOException, ClientException {
+                    c.readOK();
+                    int numchroms = Integer.parseInt(c.readLine());
+                    Set<Integer> output = new HashSet<Integer>();
+                    while (numchroms-- > 0) {
+                        output.add(Integer.parseInt(c.readLine()));
+                    }
+                    return output;
+                }
+            });
+    }
+    /** Completes with the per-chromosome statistics for this alignment */
+    public CompletableFuture<AlignmentStats> getAlignmentStats(String alignid) {
+        Request request = new Request();
+        request.type = "stats";
+        request.alignid = alignid;
+        return submit(request, new ResponseReader<AlignmentStats>() {
+                public AlignmentStats read(Session c) throws IOException, ClientException {
+                    c.readOK();
+                    int entries = Integer.parseInt(c.readLine());
+                    AlignmentStats output = new AlignmentStats();
+                    while (entries-- > 0) {
+                        output.put(AlignmentStats.ChromStats.parse(c.readLine()));
+                    }
+                    return output;
+                }
+            });
+    }
+    /** Completes with the server's metrics, as metric name to value */
+    public CompletableFuture<Map<String,String>> getServerStats() {
+        Request request = new Request();
+        request.type = "serverstats";
+        return submit(request, new ResponseReader<Map<String,String>>() {
+                public Map<String,String> read(Session c) throws IOException, ClientException {
+                    c.readOK();
+                    int lines = Integer.parseInt(c.readLine());
+                    Map<String,String> output = new TreeMap<String,String>();
+                    while (lines-- > 0) {
+                        String l = c.readLine();
+                        int space = l.indexOf(' ');
+                        output.put(l.substring(0, space), l.substring(space + 1));
+                    }
+                    return output;
+                }
+            });
+    }
+    /** Completes with the number of hits on the chromosome in the range */
+    public CompletableFuture<Integer> getCount(String alignid, int chromid, boolean isType2, boolean paired, Integer start, Integer stop, Float minWeight, Boolean isLeft, Boolean plusStrand) {
+        return submit(fileRequest("count", alignid, chromid, isType2, paired, start, stop, minWeight, isLeft, plusStrand),
+                      new ResponseReader<Integer>() {
+                          public Integer read(Session c) throws IOException, ClientException {
+                              c.readOK();
+                              return Integer.parseInt(c.readLine());
+                          }
+                      });
+    }
+    /** Completes with the total weight of the hits on the chromosome in the range */
+    public CompletableFuture<Double> getWeight(String alignid, int chromid, boolean isType2, boolean paired, Integer start, Integer stop, Float minWeight, Boolean isLeft, Boolean plusStrand) {
+        return submit(fileRequest("weight", alignid, chromid, isType2, paired, start, stop, minWeight, isLeft, plusStrand),
+                      new ResponseReader<Double>() {
+                          public Double read(Session c) throws IOException, ClientException {
+                              c.readOK();
+                              return Double.parseDouble(c.readLine());
+                          }
+                      });
+    }
+    /** Completes with the number of unique positions on the chromosome in the range */
+    public CompletableFuture<Integer> getNumPositions(String alignid, int chromid, boolean isType2, boolean paired, Integer start, Integer stop, Float minWeight, Boolean isLeft, Boolean plusStrand) {
+        return submit(fileRequest("numpositions", alignid, chromid, isType2, paired, start, stop, minWeight, isLeft, plusStrand),
+                      new ResponseReader<Integer>() {
+                          public Integer read(Session c) throws IOException, ClientException {
+                              c.readOK();
+                              return Integer.parseInt(c.readLine());
+                          }
+                      });
+    }
+    /** Completes with the sorted hit positions on the chromosome in the range */
+    public CompletableFuture<int[]> getPositions(String alignid, int chromid, boolean isType2, boolean paired, Integer start, Integer stop, Float minWeight, Boolean isLeft, Boolean plusStrand) {
+        Request request = fileRequest("gethits", alignid, chromid, isType2, paired, start, stop, minWeight, isLeft, plusStrand);
+        request.map.put("wantpositions","1");
+        return submit(request, new ResponseReader<int[]>() {
+                public int[] read(Session c) throws IOException, ClientException {
+                    c.readOK();
+                    return c.readInts(Integer.parseInt(c.readLine()));
+                }
+            });
+    }
+    /** Completes with the hit weights on the chromosome in the range, in the order of getPositions */
+    public CompletableFuture<float[]> getWeightsRange(String alignid, int chromid, boolean isType2, boolean paired, Integer start, Integer stop, Float minWeight, Boolean isLeft, Boolean plusStrand) {
+        Request request = fileRequest("gethits", alignid, chromid, isType2, paired, start, stop, minWeight, isLeft, plusStrand);
+        request.map.put("wantweights","1");
+        return submit(request, new ResponseReader<float[]>() {
+                public float[] read(Session c) throws IOException, ClientException {
+                    c.readOK();
+                    return c.readFloats(Integer.parseInt(c.readLine()));
+                }
+            });
+    }
+    /** Completes with the number of pairs in the range on this side that pass the filter */
+    public CompletableFuture<Integer> getPairedCount(String alignid, int chromid, boolean isLeft, Integer start, Integer stop, Float minWeight, Boolean plusStrand, PairFilter filter) {
+        Request request = fileRequest("count", alignid, chromid, false, true, start, stop, minWeight, isLeft, plusStrand);
+        if (filter != null) {
+            filter.addTo(request.map);
+        }
+        return submit(request, new ResponseReader<Integer>() {
+                public Integer read(Session c) throws IOException, ClientException {
+                    c.readOK();
+                    return Integer.parseInt(c.readLine());
+                }
+            });
+    }
+    /** Completes with a histogram of fragment midpoints in the range; see Client.getMidpointHistogram */
+    public CompletableFuture<TreeMap<Integer,Integer>> getMidpointHistogram(String alignid, int chromid, int binsize, Integer start, Integer stop, Float minWeight, PairFilter filter) {
+        Request request = fileRequest("midpointhistogram", alignid, chromid, false, true, start, stop, minWeight, true, null);
+        request.map.put("binsize",Integer.toString(binsize));
+        if (filter != null) {
+            filter.addTo(request.map);
+        }
+        return submit(request, new ResponseReader<TreeMap<Integer,Integer>>() {
+                public TreeMap<Integer,Integer> read(Session c) throws IOException, ClientException {
+                    c.readOK();
+                    int out[] = c.readInts(Integer.parseInt(c.readLine()));
+                    TreeMap<Integer,Integer> output = new TreeMap<Integer,Integer>();
+                    for (int i = 0; i < out.length; i += 2) {
+                        output.put(out[i], out[i+1]);
+                    }
+                    return output;
+                }
+            });
+    }
+    /** Completes with a histogram of the hits in the range; see Client.getHistogram */
+    public CompletableFuture<TreeMap<Integer,Integer>> getHistogram(String alignid, int chromid, boolean isType2, boolean paired, int extension, int binsize, Integer start, Integer stop, Float minWeight, Boolean plusStrand) {
+        return getHistogram(alignid, chromid, isType2, paired, extension, binsize, 0, start, stop, minWeight, plusStrand, true);
+    }
+    public CompletableFuture<TreeMap<Integer,Integer>> getHistogram(String alignid, int chromid, boolean isType2, boolean paired, int extension, int binsize, int dedup, Integer start, Integer stop, Float minWeight, Boolean plusStrand, boolean isLeft) {
+        Request request = fileRequest("histogram", alignid, chromid, isType2, paired, start, stop, minWeight, isLeft, plusStrand);
+        request.map.put("binsize",Integer.toString(binsize));
+        if (dedup > 0) {
+            request.map.put("dedup",Integer.toString(dedup));
+        }
+        if (extension != 0) {
+            request.map.put("extension",Integer.toString(extension));
+        }
+        return submit(request, new ResponseReader<TreeMap<Integer,Integer>>() {
+                public TreeMap<Integer,Integer> read(Session c) throws IOException, ClientException {
+                    c.readOK();
+                    int out[] = c.readInts(Integer.parseInt(c.readLine()));
+                    TreeMap<Integer,Integer> output = new TreeMap<Integer,Integer>();
+                    for (int i = 0; i < out.length; i += 2) {
+                        output.put(out[i], out[i+1]);
+                    }
+                    return output;
+                }
+            });
+    }
+    /** Completes with a histogram of the hit weights in the range; see Client.getWeightHistogram */
+    public CompletableFuture<TreeMap<Integer,Float>> getWeightHistogram(String alignid, int chromid, boolean isType2, boolean paired, int extension, int binsize, Integer start, Integer stop, Float minWeight, Boolean plusStrand) {
+        return getWeightHistogram(alignid, chromid, isType2, paired, extension, binsize, 0, start, stop, minWeight, plusStrand, true);
+    }
+    public CompletableFuture<TreeMap<Integer,Float>> getWeightHistogram(String alignid, int chromid, boolean isType2, boolean paired, int extension, int binsize, int dedup, Integer start, Integer stop, Float minWeight, Boolean plusStrand, boolean isLeft) {
+        Request request = fileRequest("weighthistogram", alignid, chromid, isType2, paired, start, stop, minWeight, isLeft, plusStrand);
+        request.map.put("binsize",Integer.toString(binsize));
+        if (dedup > 0) {
+            request.map.put("dedup",Integer.toString(dedup));
+        }
+        if (extension != 0) {
+            request.map.put("extension",Integer.toString(extension));
+        }
+        return submit(request, new ResponseReader<TreeMap<Integer,Float>>() {
+                public TreeMap<Integer,Float> read(Session c) throws IOException, ClientException {
+                    c.readOK();
+                    int n = Integer.parseInt(c.readLine());
+                    int out[] = c.readInts(n);
+                    float weight[] = c.readFloats(n);
+                    TreeMap<Integer,Float> output = new TreeMap<Integer,Float>();
+                    for (int i = 0; i < n; i++) {
+                        output.put(out[i], weight[i]);
+                    }
+                    return output;
+                }
+            });
+    }
+
+    /**
+     * Closes all connections.  Requests still outstanding complete exceptionally.
+     */
+    public void close() {
+        closed = true;
+        for (Connection c : connections) {
+            c.close();
+        }
+    }
+}
@@ -78,8 +78,13 @@ public class Bits {
      * buffer is scratch space
      */
     public static void sendInts(int[] a, OutputStream stream, byte[] buffer) throws IOException {
+        sendInts(a, stream, buffer, ByteOrder.BIG_ENDIAN);
+    }
+    /** sends the integers in the specified byte order */
+    public static void sendInts(int[] a, OutputStream stream, byte[] buffer, ByteOrder order) throws IOException {
         int i = 0;
         ByteBuffer bb = ByteBuffer.wrap(buffer);
+        bb.order(order);
         while (i < a.length) {
             int end = i + (buffer.length/4) - 1;
             int bufpos = 0;
@@ -96,8 +101,12 @@ public class Bits {
         stream.flush();
     }
     public static void sendFloats(float[] a, OutputStream stream, byte[] buffer) throws IOException {
+        sendFloats(a, stream, buffer, ByteOrder.BIG_ENDIAN);
+    }
+    public static void sendFloats(float[] a, OutputStream stream, byte[] buffer, ByteOrder order) throws IOException {
         int i = 0;
         ByteBuffer bb = ByteBuffer.wrap(buffer);
+        bb.order(order);
         while (i < a.length) {
             int end = i + (buffer.length/4) - 1;
             int bufpos = 0;
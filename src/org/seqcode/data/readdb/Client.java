@@ -3,6 +3,7 @@ package org.seqcode.data.readdb;
 import java.net.*;
 import java.util.*;
 import java.io.*;
+import java.nio.*;
 import java.nio.channels.*;
 import javax.security.sasl.*;
 import javax.security.auth.callback.*;
@@ -57,6 +58,10 @@ public class Client implements ReadOnlyClient {
     private boolean connectionOpen=false;
     private Request request;
     private boolean printErrors;
+    /* wantBinary is set by useBinaryProtocol(); binary is true once this connection has switched */
+    private boolean wantBinary, binary;
+    /* rest of the current text frame under the binary protocol */
+    private ByteBuffer textFrame;
     private String hostname, username, password;
     private int portnum;
     
@@ -81,6 +86,18 @@ public class Client implements ReadOnlyClient {
      * @throws ClientException if the client cannot authenticate to the server
      */
     public Client() throws IOException, ClientException {
+        PropertyResourceBundle bundle = readConnectionProperties();
+        String hostname = bundle.getString("hostname");
+        String port = bundle.getString("port");
+        String username = bundle.getString("username");
+        String password = bundle.getString("passwd");
+        init(hostname, Integer.parseInt(port), username, password);
+    }
+    /**
+     * Reads the default connection properties from ~/.readdb_passwd or a readdb_passwd
+     * found in the classpath
+     */
+    static PropertyResourceBundle readConnectionProperties() throws IOException {
         String homedir = System.getenv("HOME");
         String basename = "readdb_passwd";
         if (System.getenv("READDBROLE") != null) {
@@ -106,11 +123,7 @@ public class Client implements ReadOnlyClient {
                 throw new IOException("Can't read connection properties from " + url);
             }
         }
-        String hostname = bundle.getString("hostname");
-        String port = bundle.getString("port");
-        String username = bundle.getString("username");
-        String password = bundle.getString("passwd");
-        init(hostname, Integer.parseInt(port), username, password);
+        return bundle;
     }
     
     private void init(String hostname,
@@ -149,6 +162,11 @@ public class Client implements ReadOnlyClient {
 	        }
 	        request = new Request();
 	        printErrors = false;
+	        binary = false;
+	        textFrame = null;
+	        if (wantBinary) {
+	            negotiateBinary();
+	        }
 	        
 	        //Start a new check alive thread
 	        closeTimerThread = new Thread(new ClientConnectionTimerThread(this));
@@ -181,7 +199,7 @@ public class Client implements ReadOnlyClient {
         			reConnect();
         		request.clear(); 
     	        request.type="ping";
-    	        sendString(request.toString());
+    	        sendRequest();
     	        response = readLine();
         	}
 	        if (response.equals("pong")) {
@@ -192,6 +210,8 @@ public class Client implements ReadOnlyClient {
         }catch(IOException e){
         	//SocketException could be generated by a timeout
         	return false;
+        }catch(ClientException e){
+        	return false;
         }
     }
     /**
@@ -210,9 +230,19 @@ public class Client implements ReadOnlyClient {
      * performs the SASL authentication exchange with the server.  currently called by the constructor
      */
     private boolean authenticate(String hostname, String username, String password) throws IOException {
+        boolean authenticated = authenticate(outstream, instream, buffer, hostname, username, password);
+        lastActivityTime = System.currentTimeMillis();
+        return authenticated;
+    }
+    /**
+     * performs the SASL authentication exchange on a newly opened connection to the server
+     */
+    static boolean authenticate(OutputStream outstream, InputStream instream, byte[] buffer,
+                                String hostname, String username, String password) throws IOException {
         SaslClient sasl = null;
         try {
-            sendString(username + "\n");
+            outstream.write((username + "\n").getBytes());
+            outstream.flush();
             Map<String,String> props = new HashMap<String,String>();
             props.put("Sasl.POLICY_NOPLAINTEXT","true");
             props.put("Sasl.POLICY_NOANONYMOUS","true");
@@ -229,7 +259,7 @@ public class Client implements ReadOnlyClient {
                 outstream.write((response.length + "\n").getBytes());
                 outstream.write(response);
                 outstream.flush();
-                int length = Integer.parseInt(readLine());
+                int length = Integer.parseInt(readLine(instream, buffer));
                 byte[] challenge = new byte[length];
                 int read = 0;
                 while (read < length) {
@@ -247,7 +277,7 @@ public class Client implements ReadOnlyClient {
                 }
             }
             sasl.dispose();
-            String status = readLine();
+            String status = readLine(instream, buffer);
             return (status.equals("authenticated as " + username));
         } catch (SaslException e) {
             e.printStackTrace();
@@ -258,6 +288,43 @@ public class Client implements ReadOnlyClient {
         }
     }
     
+    /**
+     * Switches this connection, and any it reconnects, to the binary protocol (see Frames), which
+     * saves the server and client from parsing text on every request and sends arrays without
+     * conversion.  Returns false, and keeps using the text protocol, if the server doesn't support it.
+     */
+    public boolean useBinaryProtocol() throws IOException {
+        synchronized(this) {
+            wantBinary = true;
+            if (!connectionOpen) {
+                reConnect();
+            } else if (!binary) {
+                negotiateBinary();
+            }
+            return binary;
+        }
+    }
+    private void negotiateBinary() throws IOException {
+        request.clear();
+        request.type = "binary";
+        sendString(request.toString());
+        binary = readLine().equals("OK");
+    }
+    /** sends the current request to the server
+     */
+    private void sendRequest() throws IOException, ClientException {
+        if (binary) {
+            byte[] encoded = request.encode();
+            if (encoded.length > Frames.MAXREQUEST) {
+                throw new ClientException("request of " + encoded.length + " bytes is longer than the server accepts");
+            }
+            Frames.writeRequest(outstream, encoded);
+            outstream.flush();
+            lastActivityTime = System.currentTimeMillis();
+        } else {
+            sendString(request.toString());
+        }
+    }
     /** sends a string to the server and flushes the socket 
      */
     private void sendString(String s) throws IOException {
@@ -268,6 +335,87 @@ public class Client implements ReadOnlyClient {
     /** reads one line from the server.  blocking.
      */
     private String readLine() throws IOException {
+        if (binary) {
+            return readFrameLine();
+        }
+        String out = readLine(instream, buffer);
+        //System.err.println("READ " + out);
+        lastActivityTime = System.currentTimeMillis();
+        return out;
+    }
+    /* reads the next line from the current or next text frame */
+    private String readFrameLine() throws IOException {
+        if (textFrame == null || !textFrame.hasRemaining()) {
+            byte[] kind = new byte[1];
+            int length = Frames.readHeader(instream, kind);
+            if (kind[0] != Frames.TEXT) {
+                throw new IOException("expected a text frame but got kind " + kind[0]);
+            }
+            byte[] text = new byte[length];
+            Frames.readFully(instream, text, 0, length);
+            textFrame = ByteBuffer.wrap(text);
+        }
+        byte[] text = textFrame.array();
+        int start = textFrame.position();
+        int end = start;
+        while (end < textFrame.limit() && text[end] != '\n') {
+            end++;
+        }
+        textFrame.position(Math.min(end + 1, textFrame.limit()));
+        lastActivityTime = System.currentTimeMillis();
+        return new String(text, start, end - start);
+    }
+    /* reads the payload of the next array frame, which must have count 4-byte values */
+    private ByteBuffer readArrayFrame(int count) throws IOException {
+        byte[] kind = new byte[1];
+        int length = Frames.readHeader(instream, kind);
+        ByteOrder order = Frames.order(kind[0]);
+        if (length != count * 4) {
+            throw new IOException(String.format("expected %d values but got %d bytes", count, length));
+        }
+        byte[] payload = new byte[length];
+        Frames.readFully(instream, payload, 0, length);
+        lastActivityTime = System.currentTimeMillis();
+        return ByteBuffer.wrap(payload).order(order);
+    }
+    private int[] readInts(int count) throws IOException {
+        if (!binary) {
+            return Bits.readInts(count, instream, buffer);
+        }
+        int[] out = new int[count];
+        if (count > 0) {
+            readArrayFrame(count).asIntBuffer().get(out);
+        }
+        return out;
+    }
+    private float[] readFloats(int count) throws IOException {
+        if (!binary) {
+            return Bits.readFloats(count, instream, buffer);
+        }
+        float[] out = new float[count];
+        if (count > 0) {
+            readArrayFrame(count).asFloatBuffer().get(out);
+        }
+        return out;
+    }
+    /* fills b, whose views expect its byte order, with the next array */
+    private void readBytes(ByteBuffer b) throws IOException {
+        if (!binary) {
+            Bits.readBytes(b, Channels.newChannel(instream));
+        } else if (b.limit() > 0) {
+            ByteBuffer frame = readArrayFrame(b.limit() / 4);
+            if (frame.order() == b.order()) {
+                b.position(0);
+                b.put(frame);
+            } else {
+                IntBuffer from = frame.asIntBuffer();
+                for (int i = 0; i < b.limit() / 4; i++) {
+                    b.putInt(i * 4, from.get(i));
+                }
+            }
+        }
+    }
+    static String readLine(InputStream instream, byte[] buffer) throws IOException {
         int pos = 0;
         int i;
         while ((i = instream.read()) != -1) {
@@ -277,10 +425,7 @@ public class Client implements ReadOnlyClient {
                 buffer[pos++] = (byte)i;
             }
         }
-        String out = new String(buffer,0,pos);
-        //System.err.println("READ " + out);
-        lastActivityTime = System.currentTimeMillis();
-        return out;
+        return new String(buffer,0,pos);
     }
     /**
      * Tells the server to shut itself down.  Use this to stop the server process.
@@ -293,7 +438,7 @@ public class Client implements ReadOnlyClient {
     			reConnect();
 	        request.clear();
 	        request.type = "shutdown";
-	        sendString(request.toString());
+	        sendRequest();
     	}
     }
     /** this was to fix a bug in the server.  You shouldn't need it for general use.
@@ -309,7 +454,7 @@ public class Client implements ReadOnlyClient {
 	        request.chromid = chrom;
 	        request.isType2 = isType2;
 	        request.isPaired = paired;
-	        sendString(request.toString());
+	        sendRequest();
 	        outstream.flush();
 	        String response = readLine();
 	        if (!response.equals("OK")) {
@@ -328,7 +473,7 @@ public class Client implements ReadOnlyClient {
 	        request.type = "checksort";
 	        request.alignid = align;
 	        request.chromid = chrom;
-	        sendString(request.toString());
+	        sendRequest();
 	        outstream.flush();
 	        String response = readLine();
 	        if (!response.equals("OK")) {
@@ -372,7 +517,7 @@ public class Client implements ReadOnlyClient {
 	                    request.isType2 = isType2;
 	                    request.map.put("numhits",Integer.toString(count));
 	                    try{
-	                    	sendString(request.toString());
+	                    	sendRequest();
 		                    String response = readLine();
 		                    if (!response.equals("OK")) {
 		                        System.err.println("not-OK response to request: " + response);
@@ -443,7 +588,7 @@ public class Client implements ReadOnlyClient {
 	                request.isLeft=true;
 	                request.map.put("numhits",Integer.toString(count));
 	                try{
-		                sendString(request.toString());
+		                sendRequest();
 		                String response = readLine();
 		                if (!response.equals("OK")) {
 		                    System.err.println("not-OK response to request: " + response);
@@ -507,7 +652,11 @@ public class Client implements ReadOnlyClient {
     		request.clear(); 
 	        request.type="exists";
 	        request.alignid=alignid;
-	        sendString(request.toString());
+	        try {
+	            sendRequest();
+	        } catch (ClientException e) {
+	            throw new IOException(e.getMessage());
+	        }
 	        String response = readLine();
 	        if (response.equals("exists")) {
 	            return true;
@@ -531,7 +680,7 @@ public class Client implements ReadOnlyClient {
 	    	request.type="deletealign";
 	        request.isPaired = isPaired;
 	        request.alignid=alignid;
-	        sendString(request.toString());
+	        sendRequest();
 	        String response = readLine();
 	        if (!response.equals("OK")) {
 	            if (printErrors) {
@@ -555,7 +704,7 @@ public class Client implements ReadOnlyClient {
 	        request.isLeft = isLeft;
 	        request.isPaired = isPaired;
 	        request.alignid=alignid;
-	        sendString(request.toString());
+	        sendRequest();
 	        String response = readLine();
 	        if (!response.equals("OK")) {
 	            if (printErrors) {
@@ -572,10 +721,78 @@ public class Client implements ReadOnlyClient {
 	        return output;
     	}
     }
+    /**
+     * Returns the per-chromosome statistics (counts, weights, positions, read lengths) for this alignment
+     */
+    public AlignmentStats getAlignmentStats(String alignid) throws IOException, ClientException {
+    	synchronized(this){
+    		if(!connectionOpen)
+    			reConnect();
+    		request.clear();
+	        request.type="stats";
+	        request.alignid=alignid;
+	        sendRequest();
+	        String response = readLine();
+	        if (!response.equals("OK")) {
+	            if (printErrors) {
+	                System.err.println("not-OK response to request: " + response);
+	                System.err.println("request was " + request);
+	            }
+	            throw new ClientException(response);
+	        }
+	        int entries = Integer.parseInt(readLine());
+	        AlignmentStats output = new AlignmentStats();
+	        while (entries-- > 0) {
+	            output.put(AlignmentStats.ChromStats.parse(readLine()));
+	        }
+	        return output;
+    	}
+    }
+    /**
+     * Returns the server's metrics (request latencies, bytes sent, cache and queue gauges), as
+     * metric name to value
+     */
+    public Map<String,String> getServerStats() throws IOException, ClientException {
+    	synchronized(this){
+    		if(!connectionOpen)
+    			reConnect();
+    		request.clear();
+	        request.type="serverstats";
+	        sendRequest();
+	        String response = readLine();
+	        if (!response.equals("OK")) {
+	            throw new ClientException(response);
+	        }
+	        int lines = Integer.parseInt(readLine());
+	        Map<String,String> output = new TreeMap<String,String>();
+	        while (lines-- > 0) {
+	            String l = readLine();
+	            int space = l.indexOf(' ');
+	            output.put(l.substring(0, space), l.substring(space + 1));
+	        }
+	        return output;
+    	}
+    }
+    /**
+     * Returns the statistics for this alignment, or null if the server doesn't answer
+     * the stats request (servers older than stats.txt reply "null chromosome").  Callers
+     * then fall back to per-chromosome requests, which also report any real error.
+     */
+    public AlignmentStats getAlignmentStatsIfSupported(String alignid) throws IOException {
+        try {
+            return getAlignmentStats(alignid);
+        } catch (ClientException e) {
+            return null;
+        }
+    }
     /**
      * Returns the total number of hits in this alignment.  
      */
     public int getCount(String alignid, boolean isType2, boolean isPaired, Boolean isLeft, Boolean plusStrand) throws IOException, ClientException {
+        AlignmentStats stats = getAlignmentStatsIfSupported(alignid);
+        if (stats != null) {
+            return stats.getCount(isType2, isPaired, isLeft, plusStrand);
+        }
         int count = 0;
         for (int c : getChroms(alignid, isType2, isPaired, isLeft)) {
             count += getCount(alignid, c, isType2, isPaired, null,null,null,isLeft,plusStrand);
@@ -586,6 +803,10 @@ public class Client implements ReadOnlyClient {
      * Returns the sum of the weights of all hits in this alignment
      */
     public double getWeight(String alignid,  boolean isType2, boolean isPaired, Boolean isLeft, Boolean plusStrand) throws IOException, ClientException {
+        AlignmentStats stats = getAlignmentStatsIfSupported(alignid);
+        if (stats != null) {
+            return stats.getWeight(isType2, isPaired, isLeft, plusStrand);
+        }
         double total = 0;
         for (int c : getChroms(alignid, isType2, isPaired, isLeft)) {
             total += getWeight(alignid, c, isType2, isPaired, null, null, null, isLeft, plusStrand);
@@ -596,6 +817,10 @@ public class Client implements ReadOnlyClient {
      * Returns the total number of unique positions in this alignment.  
      */
     public int getNumPositions(String alignid, boolean isType2, boolean isPaired, Boolean isLeft, Boolean plusStrand) throws IOException, ClientException {
+        AlignmentStats stats = getAlignmentStatsIfSupported(alignid);
+        if (stats != null) {
+            return stats.getNumPositions(isType2, isPaired, isLeft, plusStrand);
+        }
         int pos = 0;
         for (int c : getChroms(alignid, isType2, isPaired, isLeft)) {
             pos += getNumPositions(alignid, c, isType2, isPaired, null,null,null,isLeft,plusStrand);
@@ -606,6 +831,10 @@ public class Client implements ReadOnlyClient {
      * Returns the total number of unique paired positions in this alignment.  
      */
     public int getNumPairedPositions(String alignid, boolean isType2, Boolean isLeft) throws IOException, ClientException {
+        AlignmentStats stats = getAlignmentStatsIfSupported(alignid);
+        if (stats != null) {
+            return stats.getNumPairedPositions(isLeft);
+        }
         int pos = 0;
         for (int c : getChroms(alignid, isType2, true, isLeft)) {
             pos += getNumPairedPositions(alignid, c, isType2, null,null,null,isLeft);
@@ -632,7 +861,7 @@ public class Client implements ReadOnlyClient {
 	        request.isPlusStrand = plusStrand;
 	        request.isPaired = paired;
 	        request.isLeft = isLeft == null ? true : isLeft;
-	        sendString(request.toString());
+	        sendRequest();
 	        String response = readLine();
 	        if (!response.equals("OK")) {
 	            if (printErrors) {
@@ -662,7 +891,7 @@ public class Client implements ReadOnlyClient {
 	        request.isPlusStrand = plusStrand;
 	        request.isPaired = paired;
 	        request.isLeft = isLeft == null ? true : isLeft;
-	        sendString(request.toString());
+	        sendRequest();
 	        String response = readLine();
 	        if (!response.equals("OK")) {
 	            if (printErrors) {
@@ -692,7 +921,7 @@ public class Client implements ReadOnlyClient {
 	        request.isPlusStrand = plusStrand;
 	        request.isPaired = paired;
 	        request.isLeft = isLeft == null ? true : isLeft;
-	        sendString(request.toString());
+	        sendRequest();
 	        String response = readLine();
 	        if (!response.equals("OK")) {
 	            if (printErrors) {
@@ -725,7 +954,7 @@ public class Client implements ReadOnlyClient {
 	        request.isPlusStrand = null;
 	        request.isPaired = true;
 	        request.isLeft = isLeft == null ? true : isLeft;
-	        sendString(request.toString());
+	        sendRequest();
 	        String response = readLine();
 	        if (!response.equals("OK")) {
 	            if (printErrors) {
@@ -757,7 +986,7 @@ public class Client implements ReadOnlyClient {
 	        request.isPaired = paired;
 	        request.isLeft = isLeft;
 	        request.map.put("wantpositions","1");
-	        sendString(request.toString());        
+	        sendRequest();        
 	        String response = readLine();
 	        if (!response.equals("OK")) {
 	            if (printErrors) {
@@ -767,7 +996,7 @@ public class Client implements ReadOnlyClient {
 	            throw new ClientException(response);
 	        }
 	        int numhits = Integer.parseInt(readLine());
-	        return Bits.readInts(numhits, instream, buffer);
+	        return readInts(numhits);
     	}
     }
     /** 
@@ -790,7 +1019,7 @@ public class Client implements ReadOnlyClient {
 	        request.isPaired = paired;
 	        request.isLeft = isLeft;
 	        request.map.put("wantweights","1");
-	        sendString(request.toString());        
+	        sendRequest();        
 	        String response = readLine();
 	        if (!response.equals("OK")) {
 	            if (printErrors) {
@@ -800,7 +1029,7 @@ public class Client implements ReadOnlyClient {
 	            throw new ClientException(response);
 	        }
 	        int numhits = Integer.parseInt(readLine());
-	        return Bits.readFloats(numhits, instream, buffer);
+	        return readFloats(numhits);
     	}
     }
     public List<SingleHit> getSingleHits(String alignid, int chromid, boolean isType2, Integer start, Integer stop, Float minWeight, Boolean plusStrand) throws IOException, ClientException {
@@ -820,7 +1049,7 @@ public class Client implements ReadOnlyClient {
 	        request.map.put("wantpositions","1");
 	        request.map.put("wantweights","1");
 	        request.map.put("wantlengthsandstrands","1");
-	        sendString(request.toString());        
+	        sendRequest();        
 	        String response = readLine();
 	        if (!response.equals("OK")) {
 	            if (printErrors) {
@@ -835,17 +1064,16 @@ public class Client implements ReadOnlyClient {
 	            output.add(new SingleHit(chromid,0,(float)0.0,false,(short)0));
 	        }
 	        IntBP ints = new IntBP(numhits);
-	        ReadableByteChannel rbc = Channels.newChannel(instream);
-	        Bits.readBytes(ints.bb, rbc);
+	        readBytes(ints.bb);
 	        for (int i = 0; i < numhits; i++) {
 	            output.get(i).pos = ints.get(i);
 	        }
 	        FloatBP floats = new FloatBP(numhits);
-	        Bits.readBytes(floats.bb, rbc);
+	        readBytes(floats.bb);
 	        for (int i = 0; i < numhits; i++) {
 	            output.get(i).weight = floats.get(i);
 	        }
-	        Bits.readBytes(ints.bb, rbc);
+	        readBytes(ints.bb);
 	        for (int i = 0; i < numhits; i++) {
 	            int j = ints.get(i);
 	            SingleHit h = output.get(i);
@@ -856,6 +1084,13 @@ public class Client implements ReadOnlyClient {
     	}
     }
     public List<PairedHit> getPairedHits(String alignid, int chromid, boolean isLeft, Integer start, Integer stop, Float minWeight, Boolean plusStrand) throws IOException, ClientException {
+        return getPairedHits(alignid, chromid, isLeft, start, stop, minWeight, plusStrand, null);
+    }
+    /**
+     * Returns the pairs in the range that pass the filter, which the server applies
+     * before sending them.  filter may be null.
+     */
+    public List<PairedHit> getPairedHits(String alignid, int chromid, boolean isLeft, Integer start, Integer stop, Float minWeight, Boolean plusStrand, PairFilter filter) throws IOException, ClientException {
     	synchronized(this){
     		if(!connectionOpen)
     			reConnect();
@@ -876,7 +1111,10 @@ public class Client implements ReadOnlyClient {
 	        request.map.put("wantlengthsandstrands","1");
 	        request.map.put("wantotherchroms","1");
 	        request.map.put("wantotherpositions","1");
-	        sendString(request.toString());        
+	        if (filter != null) {
+	            filter.addTo(request.map);
+	        }
+	        sendRequest();        
 	        String response = readLine();
 	        if (!response.equals("OK")) {
 	            if (printErrors) {
@@ -892,8 +1130,7 @@ public class Client implements ReadOnlyClient {
 	                                     chromid,0,false,(short)0,(float)0,0));
 	        }
 	        IntBP ints = new IntBP(numhits);
-	        ReadableByteChannel rbc = Channels.newChannel(instream);
-	        Bits.readBytes(ints.bb, rbc);
+	        readBytes(ints.bb);
 	        if (isLeft) {
 	            for (int i = 0; i < numhits; i++) {
 	                output.get(i).leftPos = ints.get(i);
@@ -904,17 +1141,17 @@ public class Client implements ReadOnlyClient {
 	            }
 	        }
 	        FloatBP floats = new FloatBP(numhits);
-	        Bits.readBytes(floats.bb, rbc);
+	        readBytes(floats.bb);
 	        for (int i = 0; i < numhits; i++) {
 	            output.get(i).weight = floats.get(i);
 	        }
 	
-	        Bits.readBytes(ints.bb, rbc);
+	        readBytes(ints.bb);
 	        for (int i = 0; i < numhits; i++) {
 	            output.get(i).pairCode = ints.get(i);
 	        }
 	        
-	        Bits.readBytes(ints.bb, rbc);
+	        readBytes(ints.bb);
 	        if (isLeft) {
 	            for (int i = 0; i < numhits; i++) {
 	                int j = ints.get(i);
@@ -934,7 +1171,7 @@ public class Client implements ReadOnlyClient {
 	                h.rightStrand = Hits.getStrandOne(j);
 	            }
 	        }
-	        Bits.readBytes(ints.bb, rbc);
+	        readBytes(ints.bb);
 	        if (isLeft) {
 	            for (int i = 0; i < numhits; i++) {
 	                output.get(i).rightChrom = ints.get(i);
@@ -945,7 +1182,7 @@ public class Client implements ReadOnlyClient {
 	            }
 	        }
 	
-	        Bits.readBytes(ints.bb, rbc);
+	        readBytes(ints.bb);
 	        if (isLeft) {
 	            for (int i = 0; i < numhits; i++) {
 	                output.get(i).rightPos = ints.get(i);
@@ -960,6 +1197,91 @@ public class Client implements ReadOnlyClient {
 	        return output;
     	}
     }
+    /**
+     * returns the number of pairs in the range on this side that pass the filter
+     */
+    public int getPairedCount(String alignid, int chromid, boolean isLeft, Integer start, Integer stop, Float minWeight, Boolean plusStrand, PairFilter filter) throws IOException, ClientException {
+        return Integer.parseInt(pairedRequest("count", alignid, chromid, isLeft, start, stop, minWeight, plusStrand, filter));
+    }
+    /**
+     * returns the total weight of the pairs in the range on this side that pass the filter
+     */
+    public double getPairedWeight(String alignid, int chromid, boolean isLeft, Integer start, Integer stop, Float minWeight, Boolean plusStrand, PairFilter filter) throws IOException, ClientException {
+        return Double.parseDouble(pairedRequest("weight", alignid, chromid, isLeft, start, stop, minWeight, plusStrand, filter));
+    }
+    private String pairedRequest(String type, String alignid, int chromid, boolean isLeft, Integer start, Integer stop, Float minWeight, Boolean plusStrand, PairFilter filter) throws IOException, ClientException {
+    	synchronized(this){
+    		if(!connectionOpen)
+    			reConnect();
+    		request.clear();
+	        request.type=type;
+	        request.alignid=alignid;
+	        request.chromid=chromid;
+	        request.start = start;
+	        request.end = stop;
+	        request.minWeight = minWeight;
+	        request.isPlusStrand = plusStrand;
+	        request.isLeft = isLeft;
+	        request.isType2 = false;
+	        request.isPaired = true;
+	        if (filter != null) {
+	            filter.addTo(request.map);
+	        }
+	        sendRequest();
+	        String response = readLine();
+	        if (!response.equals("OK")) {
+	            if (printErrors) {
+	                System.err.println("not-OK response to request: " + response);
+	                System.err.println("request was " + request);
+	            }
+	            throw new ClientException(response);
+	        }
+	        return readLine();
+    	}
+    }
+    /**
+     * returns a TreeMap from bin centers to the number of fragments whose midpoints
+     * (halfway between the 5' ends of the two reads) fall in the bin.  Only pairs with both
+     * reads on chromid are counted.  The server looks for pairs with PairFilter.getReach() of
+     * the range, so without a maxInsert in the filter, pairs with inserts over
+     * PairFilter.DEFAULT_MAXINSERT are left out.  filter may be null.
+     */
+    public TreeMap<Integer,Integer> getMidpointHistogram(String alignid, int chromid, int binsize, Integer start, Integer stop, Float minWeight, PairFilter filter) throws IOException, ClientException {
+    	synchronized(this){
+    		if(!connectionOpen)
+    			reConnect();
+    		request.clear();
+	        request.type="midpointhistogram";
+	        request.alignid=alignid;
+	        request.chromid=chromid;
+	        request.start = start;
+	        request.end = stop;
+	        request.minWeight = minWeight;
+	        request.isLeft = true;
+	        request.isType2 = false;
+	        request.isPaired = true;
+	        request.map.put("binsize",Integer.toString(binsize));
+	        if (filter != null) {
+	            filter.addTo(request.map);
+	        }
+	        sendRequest();
+	        String response = readLine();
+	        if (!response.equals("OK")) {
+	            if (printErrors) {
+	                System.err.println("not-OK response to request: " + response);
+	                System.err.println("request was " + request);
+	            }
+	            throw new ClientException(response);
+	        }
+	        int numints = Integer.parseInt(readLine());
+	        int out[] = readInts(numints);
+	        TreeMap<Integer,Integer> output = new TreeMap<Integer,Integer>();
+	        for (int i = 0; i < out.length; i += 2) {
+	            output.put(out[i], out[i+1]);
+	        }
+	        return output;
+    	}
+    }
 
 
     /**
@@ -1012,7 +1334,7 @@ public class Client implements ReadOnlyClient {
 	        if (extension != 0) {
 	            request.map.put("extension",Integer.toString(extension));
 	        }
-	        sendString(request.toString());        
+	        sendRequest();        
 	        String response = readLine();
 	        if (!response.equals("OK")) {
 	            if (printErrors) {
@@ -1022,7 +1344,7 @@ public class Client implements ReadOnlyClient {
 	            throw new ClientException(response);
 	        }
 	        int numints = Integer.parseInt(readLine());
-	        int out[] = Bits.readInts(numints, instream, buffer);
+	        int out[] = readInts(numints);
 	        TreeMap<Integer,Integer> output = new TreeMap<Integer,Integer>();
 	        for (int i = 0; i < out.length; i += 2) {
 	            output.put(out[i], out[i+1]);
@@ -1054,7 +1376,7 @@ public class Client implements ReadOnlyClient {
 	        if (extension!=0)
 	            request.map.put("extension",Integer.toString(extension));
 	        
-	        sendString(request.toString());        
+	        sendRequest();        
 	        String response = readLine();
 	        if (!response.equals("OK")) {
 	            if (printErrors) {
@@ -1064,8 +1386,8 @@ public class Client implements ReadOnlyClient {
 	            throw new ClientException(response);
 	        }
 	        int numints = Integer.parseInt(readLine());
-	        int out[] = Bits.readInts(numints, instream, buffer);
-	        float weight[] = Bits.readFloats(numints, instream,buffer);
+	        int out[] = readInts(numints);
+	        float weight[] = readFloats(numints);
 	        TreeMap<Integer,Float> output = new TreeMap<Integer,Float>();
 	        for (int i = 0; i < out.length; i++) {
 	            output.put(out[i], weight[i]);
@@ -1138,7 +1460,7 @@ public class Client implements ReadOnlyClient {
     		request.clear();
 	        request.type="getacl";
 	        request.alignid=alignid;
-	        sendString(request.toString());
+	        sendRequest();
 	        String response = readLine();
 	        if (!response.equals("OK")) {
 	            if (printErrors) {
@@ -1183,7 +1505,7 @@ public class Client implements ReadOnlyClient {
 	        for (ACLChangeEntry a : changes) {
 	            request.list.add(a.toString());
 	        }    
-	        sendString(request.toString());
+	        sendRequest();
 	        String response = readLine();
 	        if (!response.equals("OK")) {
 	            if (printErrors) {
@@ -1205,7 +1527,7 @@ public class Client implements ReadOnlyClient {
 	    	request.type="addtogroup";
 	        request.map.put("princ",princ);
 	        request.map.put("group",group);
-	        sendString(request.toString());
+	        sendRequest();
 	        String response = readLine();
 	        if (!response.equals("OK")) {
 	            if (printErrors) {
@@ -1237,11 +1559,13 @@ public class Client implements ReadOnlyClient {
             socket.setSoLinger(false,0);
             request.clear();
             request.type="bye";
-            sendString(request.toString());
+            sendRequest();
             outstream.close();
             outstream = null;
         } catch (IOException e) {
             e.printStackTrace();
+        } catch (ClientException e) {
+            e.printStackTrace();
         }
         try {
             instream.close();
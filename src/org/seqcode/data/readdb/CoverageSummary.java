@@ -0,0 +1,214 @@
+package org.seqcode.data.readdb;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Precomputed per-strand hit counts and weights for a set of hits at several bin sizes.
+ *
+ * Each level stores running totals over fixed bins (aligned to multiples of the bin size), so
+ * the count or weight of any whole run of bins is one subtraction.  Ranges are answered from the
+ * coarsest level that has a whole bin inside them; the ragged ends fall through to the finer levels
+ * and finally to the hits themselves.  The level sizes divide each other, so at most a bin of the
+ * finest level is walked at each end of a range.  Counts and histograms are the same as those from
+ * Hits when no minimum weight, dedup or extension is requested.
+ *
+ * The summary is written next to the Header of each chromosome whenever the Header is rebuilt, and is
+ * memory mapped when read.  It records the number of hits it was built from, so callers should
+ * ignore a summary whose getNumHits() doesn't match the Header.
+ */
+public class CoverageSummary implements Closeable {
+
+    /* bin sizes of the levels, finest first.  Each must divide the next */
+    public static final int[] LEVELS = {1000, 10000, 100000};
+
+    private int numHits;
+    private int[] binSize, firstBin, numBins;
+    /* offsets in buffer of each level's running totals: plus counts, minus counts, plus weights, minus weights */
+    private int[] plusCounts, minusCounts, plusWeights, minusWeights;
+    private ByteBuffer buffer;
+
+    private CoverageSummary() {}
+
+    public int getNumHits() {return numHits;}
+    /* bins this many finest-level bins wide are answered from the summary wherever they start.  Each
+     * unaligned bin costs index searches and a walk at both ends, so narrower ones are faster from the hits */
+    private static final int SPAN = 32;
+    /**
+     * Returns true if bins of this size, starting at start, are worth answering from the summary
+     * rather than by walking the hits: either they line up with the finest level, so no hits are
+     * walked, or they are wide enough that the ragged ends are a small part of each bin.
+     * A count or weight over a range is a single bin of (stop - start + 1).
+     */
+    public static boolean isCoarse(long start, long binsize) {
+        if (binsize % LEVELS[0] == 0 && Math.floorMod(start, (long)LEVELS[0]) == 0) {
+            return true;
+        }
+        return binsize >= (long)SPAN * LEVELS[0];
+    }
+
+    /**
+     * Builds the summary levels for the (sorted) hits and writes them to fname
+     */
+    public static void writeSummaryFile(Hits hits, String fname) throws IOException {
+        IntBP positions = hits.getPositionsBuffer();
+        FloatBP weights = hits.getWeightsBuffer();
+        IntBP las = hits.getLASBuffer();
+        int n = positions.limit();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fname)));
+        out.writeInt(n);
+        out.writeInt(LEVELS.length);
+        int[] first = new int[LEVELS.length], count = new int[LEVELS.length];
+        for (int l = 0; l < LEVELS.length; l++) {
+            if (n > 0) {
+                first[l] = Math.floorDiv(positions.get(0), LEVELS[l]);
+                count[l] = Math.floorDiv(positions.get(n-1), LEVELS[l]) - first[l] + 1;
+            }
+            out.writeInt(LEVELS[l]);
+            out.writeInt(first[l]);
+            out.writeInt(count[l]);
+        }
+        for (int l = 0; l < LEVELS.length; l++) {
+            int[] plus = new int[count[l]+1], minus = new int[count[l]+1];
+            double[] plusW = new double[count[l]+1], minusW = new double[count[l]+1];
+            for (int i = 0; i < n; i++) {
+                int bin = Math.floorDiv(positions.get(i), LEVELS[l]) - first[l] + 1;
+                if (Hits.getStrandOne(las.get(i))) {
+                    plus[bin]++;
+                    plusW[bin] += weights.get(i);
+                } else {
+                    minus[bin]++;
+                    minusW[bin] += weights.get(i);
+                }
+            }
+            for (int b = 1; b <= count[l]; b++) {
+                plus[b] += plus[b-1];
+                minus[b] += minus[b-1];
+                plusW[b] += plusW[b-1];
+                minusW[b] += minusW[b-1];
+            }
+            for (int b = 0; b <= count[l]; b++) { out.writeInt(plus[b]); }
+            for (int b = 0; b <= count[l]; b++) { out.writeInt(minus[b]); }
+            for (int b = 0; b <= count[l]; b++) { out.writeDouble(plusW[b]); }
+            for (int b = 0; b <= count[l]; b++) { out.writeDouble(minusW[b]); }
+        }
+        out.close();
+    }
+    /**
+     * Maps a summary written by writeSummaryFile
+     */
+    public static CoverageSummary readSummaryFile(String fname) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(fname,"r");
+        CoverageSummary s = new CoverageSummary();
+        try {
+            FileChannel fc = raf.getChannel();
+            s.buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        } finally {
+            raf.close();
+        }
+        ByteBuffer b = s.buffer;
+        s.numHits = b.getInt(0);
+        int levels = b.getInt(4);
+        s.binSize = new int[levels];
+        s.firstBin = new int[levels];
+        s.numBins = new int[levels];
+        s.plusCounts = new int[levels];
+        s.minusCounts = new int[levels];
+        s.plusWeights = new int[levels];
+        s.minusWeights = new int[levels];
+        int offset = 8 + levels * 12;
+        for (int l = 0; l < levels; l++) {
+            s.binSize[l] = b.getInt(8 + l*12);
+            s.firstBin[l] = b.getInt(12 + l*12);
+            s.numBins[l] = b.getInt(16 + l*12);
+            int len = s.numBins[l] + 1;
+            s.plusCounts[l] = offset;
+            s.minusCounts[l] = offset + len*4;
+            s.plusWeights[l] = offset + len*8;
+            s.minusWeights[l] = offset + len*16;
+            offset += len*24;
+        }
+        if (offset != b.limit()) {
+            throw new IOException("Truncated or corrupt summary file " + fname);
+        }
+        return s;
+    }
+
+    /**
+     * Returns the number of hits with positions between start and stop, inclusive.
+     */
+    public int getCountBetween(Hits hits, Header header, int start, int stop, Boolean isPlus) throws IOException {
+        return (int)between(hits, header, start, stop, isPlus, false, binSize.length - 1);
+    }
+    /**
+     * Returns the sum of the weights of hits with positions between start and stop, inclusive.
+     */
+    public double getWeightBetween(Hits hits, Header header, int start, int stop, Boolean isPlus) throws IOException {
+        return between(hits, header, start, stop, isPlus, true, binSize.length - 1);
+    }
+    /**
+     * Same output as Hits.histogram(..., stepsize, 0, null, isPlus, 0)
+     */
+    public int[] histogram(Hits hits, Header header, int start, int stop, int stepsize, Boolean isPlus) throws IOException {
+        int output[] = new int[(stop - start) / stepsize + 1];
+        for (int i = 0; i < output.length; i++) {
+            long s = start + (long)stepsize * i;
+            output[i] = (int)between(hits, header, s, Math.min(s + stepsize - 1, stop), isPlus, false, binSize.length - 1);
+        }
+        return output;
+    }
+    /**
+     * Same output as Hits.weightHistogram(..., stepsize, 0, null, isPlus, 0)
+     */
+    public float[] weightHistogram(Hits hits, Header header, int start, int stop, int stepsize, Boolean isPlus) throws IOException {
+        float output[] = new float[(stop - start) / stepsize + 1];
+        for (int i = 0; i < output.length; i++) {
+            long s = start + (long)stepsize * i;
+            output[i] = (float)between(hits, header, s, Math.min(s + stepsize - 1, stop), isPlus, true, binSize.length - 1);
+        }
+        return output;
+    }
+
+    /* count or weight of hits in [start, stop] using levels up to maxLevel */
+    private double between(Hits hits, Header header, long start, long stop, Boolean isPlus, boolean weight, int maxLevel) throws IOException {
+        if (start > stop) {
+            return 0;
+        }
+        for (int l = maxLevel; l >= 0; l--) {
+            long size = binSize[l];
+            long lo = Math.floorDiv(start + size - 1, size), hi = Math.floorDiv(stop + 1, size) - 1;
+            if (lo <= hi) {
+                return between(hits, header, start, lo*size - 1, isPlus, weight, l - 1) +
+                    levelSum(l, lo, hi, isPlus, weight) +
+                    between(hits, header, (hi+1)*size, stop, isPlus, weight, l - 1);
+            }
+        }
+        int s = (int)start, e = (int)stop;
+        int first = header.getFirstIndex(s), last = header.getLastIndex(e);
+        return weight ? hits.getWeightBetween(first, last, s, e, null, isPlus) : hits.getCountBetween(first, last, s, e, null, isPlus);
+    }
+    /* total over bins lo..hi (absolute bin numbers) of level l */
+    private double levelSum(int l, long lo, long hi, Boolean isPlus, boolean weight) {
+        long from = Math.max(lo - firstBin[l], 0), to = Math.min(hi - firstBin[l] + 1, numBins[l]);
+        if (from >= to) {
+            return 0;
+        }
+        double total = 0;
+        if (isPlus == null || isPlus) {
+            total += weight ? total(plusWeights[l], 8, from, to) : total(plusCounts[l], 4, from, to);
+        }
+        if (isPlus == null || !isPlus) {
+            total += weight ? total(minusWeights[l], 8, from, to) : total(minusCounts[l], 4, from, to);
+        }
+        return total;
+    }
+    private double total(int offset, int width, long from, long to) {
+        int a = offset + (int)from * width, b = offset + (int)to * width;
+        return width == 4 ? buffer.getInt(b) - buffer.getInt(a) : buffer.getDouble(b) - buffer.getDouble(a);
+    }
+
+    public void close() {
+        buffer = null;
+    }
+}
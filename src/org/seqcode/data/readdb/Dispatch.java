@@ -55,6 +55,10 @@ public class Dispatch implements Runnable {
             notifyAll();
         }
     }
+    /** number of connections waiting for a worker thread or for input */
+    public int getQueueSize() {return workQueue.size();}
+    /** number of idle worker threads */
+    public int getFreeThreads() {return freePool.size();}
     /**
      * called by WorkerThread when it's finished with a ServerTask.
      * WorkerThread has called the run method(), so getting to this
@@ -0,0 +1,84 @@
+package org.seqcode.data.readdb;
+
+import java.io.*;
+import java.nio.*;
+
+/**
+ * Framing for the binary protocol.  After authenticating, a client may send a "binary"
+ * request; once the server answers OK, the rest of the connection uses frames instead of
+ * text lines.
+ *
+ * A request is a little-endian int32 length followed by that many bytes of typed fields
+ * from Request.encode().  Hits sent with store requests follow the request unframed, as
+ * in the text protocol.
+ *
+ * A response is the sequence of frames that replaces what the text protocol would send.
+ * Each frame is a kind byte and a little-endian int32 length followed by that many bytes.
+ * TEXT frames hold response lines.  LITTLE and BIG frames hold an array of 4-byte ints or
+ * floats in that byte order; the request determines which.  Arrays computed for a request
+ * (eg, histograms) are little-endian.  Hit data goes straight from the mapped files, which
+ * are big-endian.  Empty arrays send no frame.
+ */
+public class Frames {
+
+    public static final byte TEXT = 'T', LITTLE = 'L', BIG = 'B';
+    public static final int HEADERLEN = 5;
+    /** longest encoded request the server accepts.  It reads a request and its length into an 8192 byte buffer */
+    public static final int MAXREQUEST = 8188;
+
+    public static byte kind(ByteOrder order) {
+        return order == ByteOrder.LITTLE_ENDIAN ? LITTLE : BIG;
+    }
+    public static ByteOrder order(byte kind) throws IOException {
+        if (kind == LITTLE) {
+            return ByteOrder.LITTLE_ENDIAN;
+        } else if (kind == BIG) {
+            return ByteOrder.BIG_ENDIAN;
+        }
+        throw new IOException("expected an array frame but got kind " + kind);
+    }
+    public static void writeHeader(OutputStream out, byte kind, int length) throws IOException {
+        byte[] header = new byte[HEADERLEN];
+        header[0] = kind;
+        ByteBuffer.wrap(header, 1, 4).order(ByteOrder.LITTLE_ENDIAN).putInt(length);
+        out.write(header);
+    }
+    /** sends a text frame in one write */
+    public static void writeText(OutputStream out, byte[] text) throws IOException {
+        byte[] frame = new byte[HEADERLEN + text.length];
+        frame[0] = TEXT;
+        ByteBuffer.wrap(frame, 1, 4).order(ByteOrder.LITTLE_ENDIAN).putInt(text.length);
+        System.arraycopy(text, 0, frame, HEADERLEN, text.length);
+        out.write(frame);
+    }
+    /** sends an encoded request with its length prefix in one write */
+    public static void writeRequest(OutputStream out, byte[] request) throws IOException {
+        byte[] frame = new byte[4 + request.length];
+        ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN).putInt(request.length);
+        System.arraycopy(request, 0, frame, 4, request.length);
+        out.write(frame);
+    }
+    /**
+     * Reads a frame header.  Returns the payload length and stores the kind in kind[0]
+     */
+    public static int readHeader(InputStream in, byte[] kind) throws IOException {
+        byte[] header = new byte[HEADERLEN];
+        readFully(in, header, 0, HEADERLEN);
+        kind[0] = header[0];
+        int length = ByteBuffer.wrap(header, 1, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        if (length < 0) {
+            throw new IOException("invalid frame length " + length);
+        }
+        return length;
+    }
+    public static void readFully(InputStream in, byte[] b, int offset, int count) throws IOException {
+        int read = 0;
+        while (read < count) {
+            int r = in.read(b, offset + read, count - read);
+            if (r == -1) {
+                throw new IOException(String.format("connection closed after %d of %d bytes", read, count));
+            }
+            read += r;
+        }
+    }
+}
@@ -293,7 +293,7 @@ public abstract class Hits implements Closeable {
         	Boolean str = getStrandOne(lenAndStrand.get(i));
         	if(!(pos==lastPos && str==lastStr)){
         		count += ((minweight == null || (weights.get(i) >= minweight)) &&
-                      (isPlus == null || str == isPlus)) ? 1 : 0;
+                      (isPlus == null || str.equals(isPlus))) ? 1 : 0;
         	}
         	lastPos=pos; lastStr=str;
         }
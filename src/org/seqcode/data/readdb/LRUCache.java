@@ -15,6 +15,7 @@ public class LRUCache<X extends Closeable> {
     private List<String> ordered;
     private Map<String,X> map;
     private int size;
+    private long hits, misses;
 
     public LRUCache(int size) {
         ordered = Collections.synchronizedList(new ArrayList<String>());
@@ -34,8 +35,10 @@ public class LRUCache<X extends Closeable> {
                 //                System.err.println("GETTING " +k);
                 ordered.remove(k);
                 ordered.add(k);
+                hits++;
                 return map.get(k);                
             } else {
+                misses++;
                 return null;
             }
         }
@@ -64,6 +67,10 @@ public class LRUCache<X extends Closeable> {
             }
         }
     }
+    public int size() {return map.size();}
+    /* number of get() calls that found or didn't find their key */
+    public long getHits() {synchronized(map) {return hits;}}
+    public long getMisses() {synchronized(map) {return misses;}}
     public static int removed() {return removed;}
     public static void resetRemoved() {removed = 0;}
 
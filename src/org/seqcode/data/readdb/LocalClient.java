@@ -0,0 +1,591 @@
+package org.seqcode.data.readdb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * <p>In-process, read-only access to a ReadDB data directory.
+ *
+ * <p>LocalClient answers the query subset of the Client API by memory-mapping the
+ * SingleHits, PairedHits and Header files of the alignment directories directly, the same
+ * way the Server does, so jobs running on the same host as the data skip the socket, the SASL
+ * handshake and the copy of every result through the text protocol.  Results are identical to
+ * those returned by a Client connected to a Server on the same directory.
+ *
+ * <p>Access is checked against each alignment's acl.txt and the groups.txt file in the data
+ * directory exactly as the Server does (user or one of the user's groups in the read ACL, or
+ * membership of the admin group).  Note that these checks are advisory: the real access
+ * control for a local reader is the file system permissions on the data directory.
+ *
+ * <p>Coarse histograms, counts and weights are answered from the chromosome's CoverageSummary
+ * when the Server has written one, as the Server does.
+ *
+ * <p>Hits and headers are cached, and reloaded when the index file of a chromosome is
+ * rewritten (eg by a store or reindex on a running Server).  Unlike Client, a LocalClient
+ * may be shared between threads.
+ *
+ * <p>Parameters have the same meaning as in Client.  Calls throw IOException when files can't
+ * be read and ClientException when the alignment doesn't exist or the user lacks permission.
+ */
+public class LocalClient implements ReadOnlyClient {
+
+    private static final String sep = System.getProperty("file.separator");
+    private String topdir, username;
+    private Map<String,Set<String>> groups;
+    private LRUCache<ChromData> chromCache;
+    private LRUCache<CachedACL> acls;
+
+    /**
+     * Opens the ReadDB data directory topdir (the Server's --datadir) for the
+     * current system user.
+     */
+    public LocalClient(String topdir) throws IOException {
+        this(topdir, System.getProperty("user.name"), 100);
+    }
+    public LocalClient(String topdir, String username) throws IOException {
+        this(topdir, username, 100);
+    }
+    /**
+     * @param cacheSize number of chromosome hit files to keep mapped
+     */
+    public LocalClient(String topdir, String username, int cacheSize) throws IOException {
+        if (!(new File(topdir)).isDirectory()) {
+            throw new FileNotFoundException("No ReadDB directory " + topdir);
+        }
+        this.topdir = topdir;
+        this.username = username;
+        chromCache = new LRUCache<ChromData>(cacheSize);
+        acls = new LRUCache<CachedACL>(cacheSize);
+        readGroups();
+    }
+
+    /* Header and Hits of one chromosome, with the state of the index file they were read with */
+    private static class ChromData implements Closeable {
+        Header header;
+        Hits hits;
+        CoverageSummary summary; // null if missing or out of date
+        long modified, length;
+        /* the mapped buffers may still be in use by another thread; they're released when collected */
+        public void close() {}
+    }
+    private static class CachedACL implements Closeable {
+        AlignmentACL acl;
+        long modified;
+        public void close() {}
+    }
+
+    /* File layout, as in Server */
+    private String getAlignmentDir(String alignid) {
+        return topdir + sep + alignid.replaceAll("[^A-Za-z0-9_\\-\\+]","_");
+    }
+    private String getFileName(String alignid, int chromid, boolean isType2, boolean paired, boolean isLeft, String type) {
+        String suffix = paired ? (isLeft ? ".pairedleft" : ".pairedright") : (isType2 ? ".singlet2" : ".single");
+        return getAlignmentDir(alignid) + sep + chromid + suffix + type;
+    }
+
+    /**
+     * Reads groups.txt (lines of the form groupname: user1 user2).  Group names that are also
+     * usernames are dropped, as in Server.  Members of the form @othergroup are kept as they are
+     * rather than expanded, since Server.expand never matches them either.
+     */
+    private void readGroups() throws IOException {
+        groups = new HashMap<String,Set<String>>();
+        File f = new File(topdir + sep + "groups.txt");
+        if (!f.exists()) {
+            return;
+        }
+        BufferedReader reader = new BufferedReader(new FileReader(f));
+        String line = null;
+        while ((line = reader.readLine()) != null) {
+            String pieces[] = line.split("\\s*\\:\\s*");
+            if (pieces.length == 1) { continue; }
+            Set<String> members = groups.containsKey(pieces[0]) ? groups.get(pieces[0]) : new HashSet<String>();
+            members.addAll(Arrays.asList(pieces[1].split("\\s+")));
+            groups.put(pieces[0], members);
+        }
+        reader.close();
+        File users = new File(topdir + sep + "users.txt");
+        if (users.exists()) {
+            reader = new BufferedReader(new FileReader(users));
+            while ((line = reader.readLine()) != null) {
+                groups.remove(line.split("\\s*\\:\\s*")[0]);
+            }
+            reader.close();
+        }
+    }
+    private boolean groupContains(String group) {
+        return groups.containsKey(group) && groups.get(group).contains(username);
+    }
+    private boolean authorize(Set<String> acl) {
+        if (acl.contains(username)) {
+            return true;
+        }
+        for (String g : acl) {
+            if (groupContains(g)) {
+                return true;
+            }
+        }
+        return groupContains("admin");
+    }
+    private AlignmentACL getAlignmentACL(String alignid) throws IOException {
+        File f = new File(getAlignmentDir(alignid) + sep + "acl.txt");
+        long modified = f.lastModified();
+        CachedACL c = acls.get(alignid);
+        if (c == null || c.modified != modified) {
+            c = new CachedACL();
+            c.acl = new AlignmentACL(f.getPath());
+            c.modified = modified;
+            acls.add(alignid, c);
+        }
+        return c.acl;
+    }
+    /* throws ClientException with the Server's responses if the alignment can't be read */
+    private void checkRead(String alignid) throws ClientException {
+        if (alignid == null || alignid.length() == 0) {
+            throw new ClientException("null or empty alignment " + alignid);
+        }
+        AlignmentACL acl = null;
+        try {
+            acl = getAlignmentACL(alignid);
+        } catch (IOException e) {
+            throw new ClientException("No Such Alignment");
+        }
+        if (!authorize(acl.getReadACL())) {
+            throw new ClientException("Permission Denied");
+        }
+    }
+    /**
+     * Returns the header and hits for a chromosome, or null if they can't be read
+     * (the Server treats that case as no hits)
+     */
+    private ChromData getChromData(String alignid, int chromid, boolean isType2, boolean paired, boolean isLeft) {
+        String key = alignid + chromid + (paired ? "p" + isLeft : "s" + isType2);
+        File index = new File(getFileName(alignid, chromid, isType2, paired, isLeft, "index"));
+        long modified = index.lastModified(), length = index.length();
+        ChromData d = chromCache.get(key);
+        if (d != null && d.modified == modified && d.length == length) {
+            return d;
+        }
+        try {
+            d = new ChromData();
+            String prefix = getAlignmentDir(alignid) + sep;
+            d.hits = paired ? new PairedHits(prefix, chromid, isLeft) : new SingleHits(prefix, chromid, isType2);
+            d.header = Header.readIndexFile(index.getPath());
+            try {
+                d.summary = CoverageSummary.readSummaryFile(getFileName(alignid, chromid, isType2, paired, isLeft, "summary"));
+                if (d.summary.getNumHits() != d.header.getNumHits()) {
+                    d.summary = null;
+                }
+            } catch (IOException e) {
+                d.summary = null;
+            }
+            d.modified = modified;
+            d.length = length;
+            chromCache.add(key, d);
+            return d;
+        } catch (IOException e) {
+            chromCache.remove(key);
+            return null;
+        }
+    }
+
+    /** Returns true if the alignment exists and is readable by the user */
+    public boolean exists(String alignid) {
+        try {
+            return authorize(getAlignmentACL(alignid).getReadACL());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    /**
+     * Returns a Map from READ, WRITE, and ADMIN to the principals that have those privileges.
+     * Requires admin access to the alignment, as in Client.
+     */
+    public Map<String,Set<String>> getACL(String alignid) throws IOException, ClientException {
+        AlignmentACL acl = null;
+        try {
+            acl = getAlignmentACL(alignid);
+        } catch (IOException e) {
+            throw new ClientException("No such alignment");
+        }
+        if (!authorize(acl.getAdminACL())) {
+            throw new ClientException("Permission Denied");
+        }
+        Map<String,Set<String>> output = new HashMap<String,Set<String>>();
+        output.put("READ", new HashSet<String>(acl.getReadACL()));
+        output.put("WRITE", new HashSet<String>(acl.getWriteACL()));
+        output.put("ADMIN", new HashSet<String>(acl.getAdminACL()));
+        return output;
+    }
+    /**
+     * Returns the set of chromosomes that exist for this alignment.
+     */
+    public Set<Integer> getChroms(String alignid, boolean isType2, boolean isPaired, Boolean isLeft) throws IOException, ClientException {
+        checkRead(alignid);
+        File[] files = (new File(getAlignmentDir(alignid))).listFiles();
+        if (files == null) {
+            throw new ClientException("No Such Alignment");
+        }
+        String suffix = isPaired ? (isLeft == null || isLeft ? ".pairedleftindex" : ".pairedrightindex") : (isType2 ? ".singlet2index" : ".singleindex");
+        Set<Integer> output = new HashSet<Integer>();
+        for (int i = 0; i < files.length; i++) {
+            int index = files[i].getName().indexOf(suffix);
+            if (index > 0) {
+                output.add(Integer.parseInt(files[i].getName().substring(0,index)));
+            }
+        }
+        return output;
+    }
+    /**
+     * Returns the total number of hits in this alignment.
+     */
+    public int getCount(String alignid, boolean isType2, boolean isPaired, Boolean isLeft, Boolean plusStrand) throws IOException, ClientException {
+        int count = 0;
+        for (int c : getChroms(alignid, isType2, isPaired, isLeft)) {
+            count += getCount(alignid, c, isType2, isPaired, null,null,null,isLeft,plusStrand);
+        }
+        return count;
+    }
+    /**
+     * Returns the sum of the weights of all hits in this alignment
+     */
+    public double getWeight(String alignid, boolean isType2, boolean isPaired, Boolean isLeft, Boolean plusStrand) throws IOException, ClientException {
+        double total = 0;
+        for (int c : getChroms(alignid, isType2, isPaired, isLeft)) {
+            total += getWeight(alignid, c, isType2, isPaired, null, null, null, isLeft, plusStrand);
+        }
+        return total;
+    }
+    /**
+     * Returns the total number of unique positions in this alignment.
+     */
+    public int getNumPositions(String alignid, boolean isType2, boolean isPaired, Boolean isLeft, Boolean plusStrand) throws IOException, ClientException {
+        int pos = 0;
+        for (int c : getChroms(alignid, isType2, isPaired, isLeft)) {
+            pos += getNumPositions(alignid, c, isType2, isPaired, null,null,null,isLeft,plusStrand);
+        }
+        return pos;
+    }
+    /**
+     * Returns the total number of unique paired positions in this alignment.
+     */
+    public int getNumPairedPositions(String alignid, boolean isType2, Boolean isLeft) throws IOException, ClientException {
+        int pos = 0;
+        for (int c : getChroms(alignid, isType2, true, isLeft)) {
+            pos += getNumPairedPositions(alignid, c, isType2, null,null,null,isLeft);
+        }
+        return pos;
+    }
+
+    /**
+     * Returns the per-chromosome statistics for this alignment, as from Client.getAlignmentStats.
+     * Entries missing from the alignment's stats.txt, or out of date, are computed from the hits
+     * but not saved.
+     */
+    public AlignmentStats getAlignmentStats(String alignid) throws IOException, ClientException {
+        checkRead(alignid);
+        AlignmentStats stored;
+        try {
+            stored = AlignmentStats.readFromFile(getAlignmentDir(alignid) + sep + "stats.txt");
+        } catch (IOException e) {
+            stored = new AlignmentStats();
+        }
+        AlignmentStats output = new AlignmentStats();
+        String[] types = {AlignmentStats.SINGLE, AlignmentStats.SINGLET2, AlignmentStats.PAIREDLEFT, AlignmentStats.PAIREDRIGHT};
+        for (String type : types) {
+            boolean paired = type.startsWith("paired"), isType2 = type.equals(AlignmentStats.SINGLET2), isLeft = type.equals(AlignmentStats.PAIREDLEFT);
+            for (int c : getChroms(alignid, isType2, paired, isLeft)) {
+                ChromData d = getChromData(alignid, c, isType2, paired, isLeft);
+                if (d == null) {
+                    continue;
+                }
+                AlignmentStats.ChromStats s = stored.get(type, c);
+                if (s == null || s.getCount(null) != d.header.getNumHits()) {
+                    s = AlignmentStats.compute(d.hits, type, c);
+                }
+                output.put(s);
+            }
+        }
+        return output;
+    }
+
+    /** returns the total number of hits on the specified chromosome in the alignment.
+     */
+    public int getCount(String alignid, int chromid, boolean isType2, boolean paired, Integer start, Integer stop, Float minWeight, Boolean isLeft, Boolean plusStrand) throws IOException, ClientException {
+        checkRead(alignid);
+        ChromData d = getChromData(alignid, chromid, isType2, paired, isLeft == null ? true : isLeft);
+        if (d == null) {
+            return 0;
+        }
+        if (start == null && stop == null && minWeight == null && plusStrand == null) {
+            return d.header.getNumHits();
+        }
+        int s = start == null ? 0 : start, e = stop == null ? Integer.MAX_VALUE : stop;
+        if (d.summary != null && minWeight == null && CoverageSummary.isCoarse(s, (long)e - s + 1)) {
+            return d.summary.getCountBetween(d.hits, d.header, s, e, plusStrand);
+        }
+        return d.hits.getCountBetween(d.header.getFirstIndex(s), d.header.getLastIndex(e), s, e, minWeight, plusStrand);
+    }
+    /** returns the total weight on the specified chromosome in this alignment
+     */
+    public double getWeight(String alignid, int chromid, boolean isType2, boolean paired, Integer start, Integer stop, Float minWeight, Boolean isLeft, Boolean plusStrand) throws IOException, ClientException {
+        checkRead(alignid);
+        ChromData d = getChromData(alignid, chromid, isType2, paired, isLeft == null ? true : isLeft);
+        if (d == null) {
+            return 0;
+        }
+        int s = start == null ? 0 : start, e = stop == null ? Integer.MAX_VALUE : stop;
+        if (d.summary != null && minWeight == null && CoverageSummary.isCoarse(s, (long)e - s + 1)) {
+            return d.summary.getWeightBetween(d.hits, d.header, s, e, plusStrand);
+        }
+        return d.hits.getWeightBetween(d.header.getFirstIndex(s), d.header.getLastIndex(e), s, e, minWeight, plusStrand);
+    }
+    /** returns the total number of unique positions on the specified chromosome in the alignment.
+     */
+    public int getNumPositions(String alignid, int chromid, boolean isType2, boolean paired, Integer start, Integer stop, Float minWeight, Boolean isLeft, Boolean plusStrand) throws IOException, ClientException {
+        checkRead(alignid);
+        ChromData d = getChromData(alignid, chromid, isType2, paired, isLeft == null ? true : isLeft);
+        if (d == null) {
+            return 0;
+        }
+        int s = start == null ? 0 : start, e = stop == null ? Integer.MAX_VALUE : stop;
+        return d.hits.getNumPositionsBetween(d.header.getFirstIndex(s), d.header.getLastIndex(e), s, e, minWeight, plusStrand);
+    }
+    /** returns the total number of unique paired positions on the specified chromosome in the alignment.
+     */
+    public int getNumPairedPositions(String alignid, int chromid, boolean isType2, Integer start, Integer stop, Float minWeight, Boolean isLeft) throws IOException, ClientException {
+        checkRead(alignid);
+        ChromData d = getChromData(alignid, chromid, isType2, true, isLeft == null ? true : isLeft);
+        if (d == null) {
+            return 0;
+        }
+        int s = start == null ? 0 : start, e = stop == null ? Integer.MAX_VALUE : stop;
+        return ((PairedHits)d.hits).getNumPairedPositionsBetween(d.header.getFirstIndex(s), d.header.getLastIndex(e), s, e, minWeight);
+    }
+    /**
+     * returns the sorted (ascending order) hit positions in the specified range of a chromosome,alignment pair.
+     */
+    public int[] getPositions(String alignid, int chromid, boolean isType2, boolean paired, Integer start, Integer stop, Float minWeight, Boolean isLeft, Boolean plusStrand) throws IOException, ClientException {
+        checkRead(alignid);
+        ChromData d = getChromData(alignid, chromid, isType2, paired, isLeft == null ? true : isLeft);
+        if (d == null) {
+            return new int[0];
+        }
+        int s = start == null ? 0 : start, e = stop == null ? Integer.MAX_VALUE : stop;
+        return toArray(d.hits.getHitsBetween(d.header.getFirstIndex(s), d.header.getLastIndex(e), s, e, minWeight, plusStrand));
+    }
+    /**
+     * returns the hit weights in the specified range of a chromosome,alignment pair.  The weights
+     * will be in the same order as the sorted positions returned by getPositions()
+     */
+    public float[] getWeightsRange(String alignid, int chromid, boolean isType2, boolean paired, Integer start, Integer stop, Float minWeight, Boolean isLeft, Boolean plusStrand) throws IOException, ClientException {
+        checkRead(alignid);
+        ChromData d = getChromData(alignid, chromid, isType2, paired, isLeft == null ? true : isLeft);
+        if (d == null) {
+            return new float[0];
+        }
+        int s = start == null ? 0 : start, e = stop == null ? Integer.MAX_VALUE : stop;
+        FloatBP w = d.hits.getWeightsBetween(d.header.getFirstIndex(s), d.header.getLastIndex(e), s, e, minWeight, plusStrand);
+        float[] output = new float[w.size()];
+        for (int i = 0; i < output.length; i++) {
+            output[i] = w.get(i);
+        }
+        return output;
+    }
+    public List<SingleHit> getSingleHits(String alignid, int chromid, boolean isType2, Integer start, Integer stop, Float minWeight, Boolean plusStrand) throws IOException, ClientException {
+        checkRead(alignid);
+        List<SingleHit> output = new ArrayList<SingleHit>();
+        ChromData d = getChromData(alignid, chromid, isType2, false, true);
+        if (d == null) {
+            return output;
+        }
+        int s = start == null ? 0 : start, e = stop == null ? Integer.MAX_VALUE : stop;
+        int first = d.header.getFirstIndex(s), last = d.header.getLastIndex(e);
+        IntBP positions = d.hits.getHitsBetween(first, last, s, e, minWeight, plusStrand);
+        FloatBP weights = d.hits.getWeightsBetween(first, last, s, e, minWeight, plusStrand);
+        IntBP las = d.hits.getLASBetween(first, last, s, e, minWeight, plusStrand);
+        for (int i = 0; i < positions.size(); i++) {
+            int j = las.get(i);
+            output.add(new SingleHit(chromid, positions.get(i), weights.get(i), Hits.getStrandOne(j), Hits.getLengthOne(j)));
+        }
+        return output;
+    }
+    public List<PairedHit> getPairedHits(String alignid, int chromid, boolean isLeft, Integer start, Integer stop, Float minWeight, Boolean plusStrand) throws IOException, ClientException {
+        return getPairedHits(alignid, chromid, isLeft, start, stop, minWeight, plusStrand, null);
+    }
+    public List<PairedHit> getPairedHits(String alignid, int chromid, boolean isLeft, Integer start, Integer stop, Float minWeight, Boolean plusStrand, PairFilter filter) throws IOException, ClientException {
+        checkRead(alignid);
+        List<PairedHit> output = new ArrayList<PairedHit>();
+        ChromData d = getChromData(alignid, chromid, false, true, isLeft);
+        if (d == null) {
+            return output;
+        }
+        PairedHits hits = (PairedHits)d.hits;
+        int s = start == null ? 0 : start, e = stop == null ? Integer.MAX_VALUE : stop;
+        int first = d.header.getFirstIndex(s), last = d.header.getLastIndex(e);
+        int[] indices = hits.getFilteredIndices(first, last, s, e, minWeight, plusStrand, filter);
+        IntBP positions = PairedHits.getIntsAt(hits.getPositionsBuffer(), indices);
+        FloatBP weights = hits.getWeightsAt(indices);
+        IntBP codes = PairedHits.getIntsAt(hits.getPairCodeBuffer(), indices);
+        IntBP las = PairedHits.getIntsAt(hits.getLASBuffer(), indices);
+        IntBP otherChroms = PairedHits.getIntsAt(hits.getChromsBuffer(), indices);
+        IntBP otherPositions = PairedHits.getIntsAt(hits.getOtherPosBuffer(), indices);
+        for (int i = 0; i < positions.size(); i++) {
+            int j = las.get(i);
+            if (isLeft) {
+                output.add(new PairedHit(chromid, positions.get(i), Hits.getStrandOne(j), Hits.getLengthOne(j),
+                                         otherChroms.get(i), otherPositions.get(i), Hits.getStrandTwo(j), Hits.getLengthTwo(j),
+                                         weights.get(i), codes.get(i)));
+            } else {
+                output.add(new PairedHit(otherChroms.get(i), otherPositions.get(i), Hits.getStrandTwo(j), Hits.getLengthTwo(j),
+                                         chromid, positions.get(i), Hits.getStrandOne(j), Hits.getLengthOne(j),
+                                         weights.get(i), codes.get(i)));
+            }
+        }
+        return output;
+    }
+    /**
+     * returns the number of pairs in the range on this side that pass the filter
+     */
+    public int getPairedCount(String alignid, int chromid, boolean isLeft, Integer start, Integer stop, Float minWeight, Boolean plusStrand, PairFilter filter) throws IOException, ClientException {
+        checkRead(alignid);
+        ChromData d = getChromData(alignid, chromid, false, true, isLeft);
+        if (d == null) {
+            return 0;
+        }
+        int s = start == null ? 0 : start, e = stop == null ? Integer.MAX_VALUE : stop;
+        return ((PairedHits)d.hits).getCountBetween(d.header.getFirstIndex(s), d.header.getLastIndex(e), s, e, minWeight, plusStrand, filter);
+    }
+    /**
+     * returns a TreeMap from bin centers to counts of fragment midpoints; see Client.getMidpointHistogram
+     */
+    public TreeMap<Integer,Integer> getMidpointHistogram(String alignid, int chromid, int binsize, Integer start, Integer stop, Float minWeight, PairFilter filter) throws IOException, ClientException {
+        checkRead(alignid);
+        if (binsize <= 0) {
+            throw new IllegalArgumentException("binsize must be positive");
+        }
+        TreeMap<Integer,Integer> output = new TreeMap<Integer,Integer>();
+        ChromData d = getChromData(alignid, chromid, false, true, true);
+        if (d == null || d.hits.getPositionsBuffer().limit() == 0) {
+            return output;
+        }
+        IntBP ib = d.hits.getPositionsBuffer();
+        int s = start == null ? ib.get(0) : start, e = stop == null ? ib.get(ib.limit() - 1) : stop;
+        int reach = (filter == null ? new PairFilter() : filter).getReach();
+        int scanstart = Math.max(0, s - reach);
+        int scanstop = (int)Math.min(Integer.MAX_VALUE, (long)e + reach);
+        int[] raw = ((PairedHits)d.hits).midpointHistogram(d.header.getFirstIndex(scanstart), d.header.getLastIndex(scanstop),
+                                                           scanstart, scanstop, s, e, binsize, minWeight, filter);
+        for (int i = 0; i < raw.length; i++) {
+            if (raw[i] > 0) {
+                output.put(s + binsize * i + binsize / 2, raw[i]);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * returns a TreeMap from bin centers to counts; see Client.getHistogram
+     */
+    public TreeMap<Integer,Integer> getHistogram(String alignid, int chromid, boolean isType2, boolean paired, int extension, int binsize, Integer start, Integer stop, Float minWeight, Boolean plusStrand) throws IOException, ClientException {
+        return getHistogram(alignid, chromid, isType2, paired, extension,binsize,0,start,stop,minWeight,plusStrand,true);
+    }
+    public TreeMap<Integer,Integer> getHistogram(String alignid, int chromid, boolean isType2, boolean paired, int extension, int binsize, int dedup, Integer start, Integer stop, Float minWeight, Boolean plusStrand, boolean isLeft) throws IOException, ClientException {
+        checkRead(alignid);
+        TreeMap<Integer,Integer> output = new TreeMap<Integer,Integer>();
+        ChromData d = getChromData(alignid, chromid, isType2, paired, isLeft);
+        if (d == null || d.hits.getPositionsBuffer().limit() == 0) {
+            return output;
+        }
+        if (binsize <= 0) {
+            throw new ClientException("missing or invalid bin size : " + binsize);
+        }
+        IntBP ib = d.hits.getPositionsBuffer();
+        int s = start == null ? ib.get(0) : start, e = stop == null ? ib.get(ib.limit()-1) : stop;
+        int[] raw;
+        if (d.summary != null && dedup == 0 && extension == 0 && minWeight == null && CoverageSummary.isCoarse(s, binsize)) {
+            raw = d.summary.histogram(d.hits, d.header, s, e, binsize, plusStrand);
+        } else {
+            raw = d.hits.histogram(d.header.getFirstIndex(s), d.header.getLastIndex(e), s, e,
+                                   binsize, dedup, minWeight, plusStrand, extension);
+        }
+        for (int i = 0; i < raw.length; i++) {
+            if (raw[i] > 0) {
+                output.put(s + binsize * i + binsize / 2, raw[i]);
+            }
+        }
+        return output;
+    }
+    public TreeMap<Integer,Float> getWeightHistogram(String alignid, int chromid, boolean isType2, boolean paired, int extension, int binsize, Integer start, Integer stop, Float minWeight, Boolean plusStrand) throws IOException, ClientException {
+        return getWeightHistogram(alignid, chromid, isType2, paired, extension, binsize, 0, start,stop,minWeight,plusStrand, true);
+    }
+    public TreeMap<Integer,Float> getWeightHistogram(String alignid, int chromid, boolean isType2, boolean paired, int extension, int binsize, int dedup, Integer start, Integer stop, Float minWeight, Boolean plusStrand, boolean isLeft) throws IOException, ClientException {
+        checkRead(alignid);
+        TreeMap<Integer,Float> output = new TreeMap<Integer,Float>();
+        ChromData d = getChromData(alignid, chromid, isType2, paired, isLeft);
+        if (d == null || d.hits.getPositionsBuffer().limit() == 0) {
+            return output;
+        }
+        if (binsize <= 0) {
+            throw new ClientException("missing or invalid bin size : " + binsize);
+        }
+        IntBP ib = d.hits.getPositionsBuffer();
+        int s = start == null ? ib.get(0) : start, e = stop == null ? ib.get(ib.limit()-1) : stop;
+        float[] raw;
+        if (d.summary != null && dedup == 0 && extension == 0 && minWeight == null && CoverageSummary.isCoarse(s, binsize)) {
+            raw = d.summary.weightHistogram(d.hits, d.header, s, e, binsize, plusStrand);
+        } else {
+            raw = d.hits.weightHistogram(d.header.getFirstIndex(s), d.header.getLastIndex(e), s, e,
+                                         binsize, dedup, minWeight, plusStrand, extension);
+        }
+        for (int i = 0; i < raw.length; i++) {
+            if (raw[i] > 0) {
+                output.put(s + binsize * i + binsize / 2, raw[i]);
+            }
+        }
+        return output;
+    }
+    public TreeMap<Integer,Integer> getHistogram(Collection<String> alignids, int chromid, boolean isType2, boolean paired, int extension, int binsize, Integer start, Integer stop, Float minWeight, Boolean plusStrand) throws IOException, ClientException {
+        return getHistogram(alignids,chromid,isType2, paired,extension,binsize,0,start,stop,minWeight,plusStrand);
+    }
+    public TreeMap<Integer,Integer> getHistogram(Collection<String> alignids, int chromid, boolean isType2, boolean paired, int extension, int binsize, int dedup, Integer start, Integer stop, Float minWeight, Boolean plusStrand) throws IOException, ClientException {
+        TreeMap<Integer,Integer> output = null;
+        for (String alignid : alignids) {
+            TreeMap<Integer,Integer> o = getHistogram(alignid,chromid,isType2, paired,extension,binsize,dedup,start,stop,minWeight,plusStrand,true);
+            if (paired) {
+                o.putAll(getHistogram(alignid,chromid,isType2, paired,extension,binsize,dedup,start,stop,minWeight,plusStrand,false));
+            }
+            output = output == null ? o : Aggregator.mergeHistogramsII(output, o);
+        }
+        return output;
+    }
+    public TreeMap<Integer,Float> getWeightHistogram(Collection<String> alignids, int chromid, boolean isType2, boolean paired, int extension, int binsize, Integer start, Integer stop, Float minWeight, Boolean plusStrand) throws IOException, ClientException {
+        return getWeightHistogram(alignids,chromid,isType2, paired,extension,binsize,0,start,stop,minWeight,plusStrand);
+    }
+    public TreeMap<Integer,Float> getWeightHistogram(Collection<String> alignids, int chromid, boolean isType2, boolean paired, int extension, int binsize, int dedup, Integer start, Integer stop, Float minWeight, Boolean plusStrand) throws IOException, ClientException {
+        TreeMap<Integer,Float> output = null;
+        for (String alignid : alignids) {
+            TreeMap<Integer,Float> o = getWeightHistogram(alignid,chromid,isType2, paired,extension,binsize,dedup,start,stop,minWeight,plusStrand, true);
+            if (paired) {
+                o.putAll(getWeightHistogram(alignid,chromid,isType2, paired,extension,binsize,dedup,start,stop,minWeight,plusStrand, false));
+            }
+            output = output == null ? o : Aggregator.mergeHistogramsFF(output, o);
+        }
+        return output;
+    }
+
+    private static int[] toArray(IntBP b) {
+        int[] output = new int[b.size()];
+        for (int i = 0; i < output.length; i++) {
+            output[i] = b.get(i);
+        }
+        return output;
+    }
+    /**
+     * Drops the cached hits, headers and ACLs.
+     */
+    public void close() {
+        chromCache = new LRUCache<ChromData>(1);
+        acls = new LRUCache<CachedACL>(1);
+    }
+}
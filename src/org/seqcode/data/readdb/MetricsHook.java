@@ -0,0 +1,25 @@
+package org.seqcode.data.readdb;
+
+/**
+ * wait around and periodically report the server's metrics
+ */
+public class MetricsHook implements Runnable {
+    private Server server;
+    private int interval;
+    public MetricsHook(Server s, int intervalSeconds) {
+        server = s;
+        interval = intervalSeconds;
+    }
+
+    public void run() {
+        while (server.keepRunning()) {
+            try {
+                Thread.sleep(interval * 1000L);
+            } catch (InterruptedException e) {
+
+            }
+            server.getMetrics().report();
+        }
+    }
+
+}
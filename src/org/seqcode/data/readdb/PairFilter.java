@@ -0,0 +1,93 @@
+package org.seqcode.data.readdb;
+
+import java.util.Map;
+
+/**
+ * Mate-aware filter for paired hits that the server applies while it scans a range: bounds on the
+ * insert size, pairs with both reads on the same chromosome only, and the strand of the mate.
+ *
+ * The insert size of a pair is the distance between the 5' ends of its reads plus one, which is the
+ * fragment length of a properly oriented pair.  Pairs whose reads are on different chromosomes have
+ * no insert size and fail any insert size bound.
+ *
+ * Filters are sent as the mininsert, maxinsert, samechrom and matestrand request parameters.
+ * They apply to count, weight, gethits and midpointhistogram requests on paired hits.
+ */
+public class PairFilter {
+
+    /* without a maxInsert, midpoint histograms only include pairs with inserts up to this size */
+    public static final int DEFAULT_MAXINSERT = 2000;
+
+    public Integer minInsert, maxInsert;
+    public boolean sameChrom;
+    public Boolean mateStrand;
+
+    public PairFilter() {}
+    public PairFilter(Integer minInsert, Integer maxInsert, boolean sameChrom, Boolean mateStrand) {
+        if ((minInsert != null && minInsert < 0) || (maxInsert != null && maxInsert < 0)) {
+            throw new IllegalArgumentException("insert sizes can't be negative");
+        }
+        if (minInsert != null && maxInsert != null && minInsert > maxInsert) {
+            throw new IllegalArgumentException("minInsert " + minInsert + " is more than maxInsert " + maxInsert);
+        }
+        this.minInsert = minInsert;
+        this.maxInsert = maxInsert;
+        this.sameChrom = sameChrom;
+        this.mateStrand = mateStrand;
+    }
+
+    public static int insertSize(int pos, int otherPos) {
+        return Math.abs(otherPos - pos) + 1;
+    }
+    public boolean accept(int chrom, int pos, int otherChrom, int otherPos, boolean otherStrand) {
+        if (mateStrand != null && otherStrand != mateStrand) {
+            return false;
+        }
+        if (chrom != otherChrom) {
+            return !sameChrom && minInsert == null && maxInsert == null;
+        }
+        int insert = insertSize(pos, otherPos);
+        return (minInsert == null || insert >= minInsert) && (maxInsert == null || insert <= maxInsert);
+    }
+    /** the farthest a read can be from its pair's midpoint.  Midpoint histograms scan this far past each end of the window */
+    public int getReach() {
+        return (maxInsert == null ? DEFAULT_MAXINSERT : maxInsert) / 2 + 1;
+    }
+
+    void addTo(Map<String,String> map) {
+        if (minInsert != null) {
+            map.put("mininsert", minInsert.toString());
+        }
+        if (maxInsert != null) {
+            map.put("maxinsert", maxInsert.toString());
+        }
+        if (sameChrom) {
+            map.put("samechrom", "true");
+        }
+        if (mateStrand != null) {
+            map.put("matestrand", mateStrand.toString());
+        }
+    }
+    /**
+     * Reads a filter from request parameters.  Returns null if the request has none.
+     * @throws IllegalArgumentException on invalid values
+     */
+    static PairFilter parse(Map<String,String> map) {
+        if (!(map.containsKey("mininsert") || map.containsKey("maxinsert") ||
+              map.containsKey("samechrom") || map.containsKey("matestrand"))) {
+            return null;
+        }
+        try {
+            return new PairFilter(map.containsKey("mininsert") ? Integer.valueOf(map.get("mininsert")) : null,
+                                  map.containsKey("maxinsert") ? Integer.valueOf(map.get("maxinsert")) : null,
+                                  Boolean.parseBoolean(map.get("samechrom")),
+                                  map.containsKey("matestrand") ? Boolean.valueOf(map.get("matestrand")) : null);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid insert size " + e.getMessage());
+        }
+    }
+    public String toString() {
+        return String.format("insert %s-%s%s%s", minInsert == null ? "" : minInsert, maxInsert == null ? "" : maxInsert,
+                             sameChrom ? " samechrom" : "", mateStrand == null ? "" : (mateStrand ? " mate+" : " mate-"));
+    }
+}
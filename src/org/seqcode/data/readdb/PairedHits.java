@@ -1,6 +1,7 @@
 package org.seqcode.data.readdb;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Comparator;
 
@@ -61,6 +62,96 @@ public class PairedHits extends Hits {
                                           Boolean isPlus) throws IOException {
         return getIntsBetween(otherPositions,firstindex,lastindex,start,stop,minweight,isPlus);
     }
+    /**
+     * Returns the indices of the pairs between start and stop that pass minweight, isPlus and the filter.
+     * firstindex and lastindex come from Header.getFirstIndex and Header.getLastIndex
+     */
+    public int[] getFilteredIndices(int firstindex,
+                                    int lastindex,
+                                    int start,
+                                    int stop,
+                                    Float minweight,
+                                    Boolean isPlus,
+                                    PairFilter filter) throws IOException {
+        int[] p = getIndices(firstindex, lastindex, start, stop);
+        int[] output = new int[Math.max(0, p[1] - p[0])];
+        int n = 0;
+        for (int i = p[0]; i < p[1]; i++) {
+            int l = lenAndStrand.get(i);
+            if ((minweight == null || weights.get(i) >= minweight) &&
+                (isPlus == null || getStrandOne(l) == isPlus) &&
+                (filter == null || filter.accept(chrom, positions.get(i), chroms.get(i), otherPositions.get(i), getStrandTwo(l)))) {
+                output[n++] = i;
+            }
+        }
+        return n == output.length ? output : Arrays.copyOf(output, n);
+    }
+    public int getCountBetween(int firstindex, int lastindex, int start, int stop,
+                               Float minweight, Boolean isPlus, PairFilter filter) throws IOException {
+        return getFilteredIndices(firstindex, lastindex, start, stop, minweight, isPlus, filter).length;
+    }
+    public double getWeightBetween(int firstindex, int lastindex, int start, int stop,
+                                   Float minweight, Boolean isPlus, PairFilter filter) throws IOException {
+        double sum = 0;
+        for (int i : getFilteredIndices(firstindex, lastindex, start, stop, minweight, isPlus, filter)) {
+            sum += weights.get(i);
+        }
+        return sum;
+    }
+    /** returns the values of buffer at the specified indices */
+    public static IntBP getIntsAt(IntBP buffer, int[] indices) {
+        if (indices.length == 0) {
+            return emptyIntBP;
+        }
+        IntBP output = new IntBP(indices.length);
+        for (int i = 0; i < indices.length; i++) {
+            output.put(i, buffer.get(indices[i]));
+        }
+        return output;
+    }
+    public FloatBP getWeightsAt(int[] indices) {
+        if (indices.length == 0) {
+            return emptyFloatBP;
+        }
+        FloatBP output = new FloatBP(indices.length);
+        for (int i = 0; i < indices.length; i++) {
+            output.put(i, weights.get(indices[i]));
+        }
+        return output;
+    }
+    /**
+     * Histogram of fragment midpoints from start to stop in units of stepsize, over the pairs
+     * whose reads in this file are between scanstart and scanstop.  To get every pair with its
+     * midpoint in the window, scan PairFilter.getReach() past each end of it.  Only pairs on
+     * one chromosome have a midpoint; without a filter maxInsert, pairs with inserts above
+     * PairFilter.DEFAULT_MAXINSERT are left out.
+     */
+    public int[] midpointHistogram(int firstindex,
+                                   int lastindex,
+                                   int scanstart,
+                                   int scanstop,
+                                   int start,
+                                   int stop,
+                                   int stepsize,
+                                   Float minweight,
+                                   PairFilter filter) throws IOException {
+        int output[] = new int[(stop - start) / stepsize + 1];
+        int maxinsert = filter == null || filter.maxInsert == null ? PairFilter.DEFAULT_MAXINSERT : filter.maxInsert;
+        int[] p = getIndices(firstindex, lastindex, scanstart, scanstop);
+        for (int i = p[0]; i < p[1]; i++) {
+            int pos = positions.get(i), otherpos = otherPositions.get(i);
+            if (chroms.get(i) != chrom || PairFilter.insertSize(pos, otherpos) > maxinsert ||
+                (minweight != null && weights.get(i) < minweight) ||
+                (filter != null && !filter.accept(chrom, pos, chrom, otherpos, getStrandTwo(lenAndStrand.get(i))))) {
+                continue;
+            }
+            int mid = (int)(((long)pos + otherpos) / 2);
+            if (mid >= start && mid <= stop) {
+                output[(mid - start) / stepsize]++;
+            }
+        }
+        return output;
+    }
     private static DataOutputStream dos(String f) throws IOException {
         return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
     }
@@ -155,6 +246,36 @@ public class PairedHits extends Hits {
         (new File(chrtmp)).renameTo(new File(getChromsFname(prefix,chrom,isLeft)));
         (new File(optmp)).renameTo(new File(getOtherPosFname(prefix,chrom,isLeft)));                
     }
+    /** positions (and the parallel buffers) must be sorted as by PairedHitLeftComparator or
+        PairedHitRightComparator.  las holds this side's length and strand first.
+        prefix is file name prefix 
+        chrom is chromosome number (must match left if isLeft is true and right otherwise)
+    */
+    public static void writePairedHits(IntBP positions,
+                                       FloatBP weights,
+                                       IntBP paircodes,
+                                       IntBP las,
+                                       IntBP otherchroms,
+                                       IntBP otherpositions,
+                                       String prefix,
+                                       int chrom,
+                                       boolean isLeft) throws IOException {
+        String[] fnames = {getPositionsFname(prefix,chrom,isLeft),
+                           getWeightsFname(prefix,chrom,isLeft),
+                           getPairCodeFname(prefix,chrom,isLeft),
+                           getLaSFname(prefix,chrom,isLeft),
+                           getChromsFname(prefix,chrom,isLeft),
+                           getOtherPosFname(prefix,chrom,isLeft)};
+        ByteBP[] buffers = {positions, weights, paircodes, las, otherchroms, otherpositions};
+        for (int i = 0; i < fnames.length; i++) {
+            RandomAccessFile raf = new RandomAccessFile(fnames[i] + ".tmp","rw");
+            Bits.sendBytes(buffers[i].bb, 0, buffers[i].bb.limit(), raf.getChannel());
+            raf.close();
+        }
+        for (int i = 0; i < fnames.length; i++) {
+            (new File(fnames[i] + ".tmp")).renameTo(new File(fnames[i]));
+        }
+    }
     public void appendPairedHits(List<PairedHit> hits,
                                  String prefix, 
                                  int chrom,
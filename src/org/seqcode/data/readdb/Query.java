@@ -21,6 +21,9 @@ import java.io.*;
  * <li>--paired means to query the paired reads.
  * <li>--noheader means to skip printing the input region in the outpu
  * <li>--right means to query the right side reads rather than left.
+ * <li>--mininsert, --maxinsert and --samechrom filter paired reads on the server (see PairFilter)
+ * <li>--midpoints with --histogram and --paired makes a histogram of fragment midpoints
+ * <li>--binary uses the binary protocol (see Frames)
  * </ul>
  */
 
@@ -30,7 +33,8 @@ public class Query {
     private String hostname;
     private String username, password;
     private int portnum, histogram = -1;
-    private boolean quiet, weights, isType2, paired, isleft, noheader, bed, wiggle;
+    private boolean quiet, weights, isType2, paired, isleft, noheader, bed, wiggle, midpoints, binary;
+    private PairFilter filter;
     
 
     public static void main(String args[]) throws Exception {
@@ -55,6 +59,11 @@ public class Query {
         options.addOption("N","noheader",false,"skip printing the query header");
         options.addOption("W","wiggle",true,"output in wiggle format with the specified bin format");
         options.addOption("B","bed",false,"output in BED format");
+        options.addOption("mn","mininsert",true,"only paired reads with at least this insert size");
+        options.addOption("mx","maxinsert",true,"only paired reads with at most this insert size");
+        options.addOption("sc","samechrom",false,"only paired reads with both reads on the same chromosome");
+        options.addOption("M","midpoints",false,"histogram of paired fragment midpoints");
+        options.addOption("bn","binary",false,"use the binary protocol");
         options.addOption("h","help",false,"print help message");
         CommandLineParser parser = new GnuParser();
         CommandLine line = parser.parse( options, args, false );            
@@ -108,6 +117,19 @@ public class Query {
             wiggle = true;
             histogram = Integer.parseInt(line.getOptionValue("wiggle"));
         }
+        midpoints = line.hasOption("midpoints");
+        binary = line.hasOption("binary");
+        if (line.hasOption("mininsert") || line.hasOption("maxinsert") || line.hasOption("samechrom")) {
+            filter = new PairFilter(line.hasOption("mininsert") ? Integer.valueOf(line.getOptionValue("mininsert")) : null,
+                                    line.hasOption("maxinsert") ? Integer.valueOf(line.getOptionValue("maxinsert")) : null,
+                                    line.hasOption("samechrom"), null);
+        }
+        if ((filter != null || midpoints) && !paired) {
+            System.err.println("--mininsert, --maxinsert, --samechrom and --midpoints need --paired");
+        }
+        if (filter != null && histogram > 0 && !midpoints) {
+            System.err.println("insert size filters only apply to paired hit output and --midpoints histograms");
+        }
     }
     public void printHelp() {
         System.out.println("Query ReadDB.  Regions are read on STDIN and output is printed on STDOUT.");
@@ -121,6 +143,10 @@ public class Query {
         System.out.println(" [--noheader] don't output query regions in the output");
         System.out.println(" [--bed] output hit positions in BED format (doesn't work with paired reads)");
         System.out.println(" [--wiggle 10] output a histogram in wiggle format with 10bp bin size");
+        System.out.println(" [--mininsert 150] [--maxinsert 600] [--samechrom] only query paired reads whose");
+        System.out.println("                  fragments are in this size range or on one chromosome");
+        System.out.println(" [--midpoints] with --histogram and --paired, count fragment midpoints rather than reads");
+        System.out.println(" [--binary] talk to the server with the binary protocol");
         System.out.println("");
         System.out.println("Lines in the input should be of them form");
         System.out.println("3:1000-2000");
@@ -138,6 +164,9 @@ public class Query {
         } else {
             client = new Client();
         }
+        if (binary && !client.useBinaryProtocol()) {
+            System.err.println("The server doesn't support the binary protocol.  Using text");
+        }
 
         while ((line = reader.readLine()) != null) {            
             try {
@@ -151,7 +180,14 @@ public class Query {
                     System.out.println(String.format("variableStep chrom=chr%d span=%d",chr, histogram));
                 }
 
-                if (histogram > 0) {
+                if (histogram > 0 && midpoints && paired) {
+                    TreeMap<Integer,Integer> hits = client.getMidpointHistogram(alignname, chr, histogram, start, stop, null, filter);
+                    if (!quiet) {
+                        for (int i : hits.keySet()) {
+                            System.out.println(String.format("%d\t%d", i, hits.get(i)));
+                        }
+                    }
+                } else if (histogram > 0) {
                     TreeMap<Integer,Integer> hits = client.getHistogram(alignname,
                                                                         chr,
                                                                         isType2,
@@ -196,7 +232,8 @@ public class Query {
                                                                     start,
                                                                     stop,
                                                                     null,
-                                                                    strand);
+                                                                    strand,
+                                                                    filter);
                         if (!quiet) {
                             if (!noheader) {
                                 System.out.println(line);
@@ -26,6 +26,7 @@ import java.io.*;
  *  <li>getnumpairpositions alignname chromname (eg, chromname = 1+)
  *  <li>addtogroup username groupname
  *  <li>reindex alignname chromname
+ *  <li>serverstats
  * </ul>
  * <p>The --paired flag can be provided to make getweight, getcount, getnumpositions, and getchroms work on paired-end rather than
  * single-end alignments
@@ -106,6 +107,7 @@ public class ReadDB {
         System.out.println("  isalive");
         System.out.println("  shutdown");
         System.out.println("  serverinfo");
+        System.out.println("  serverstats");
         System.out.println("  exists alignname");
         System.out.println("  getchroms alignname");
         System.out.println("  getacl alignname");
@@ -134,6 +136,11 @@ public class ReadDB {
         		System.out.println("FALSE");
         } else if (cmd.equals("serverinfo")) {
         	System.out.println(client.getServerInfo());
+        } else if (cmd.equals("serverstats")) {
+            Map<String,String> stats = client.getServerStats();
+            for (String k : stats.keySet()) {
+                System.out.println(k + "\t" + stats.get(k));
+            }
         }  else if (cmd.equals("addtogroup")) {
             // username, groupname
             client.addToGroup(otherargs[1], otherargs[2]);
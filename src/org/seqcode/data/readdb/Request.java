@@ -1,5 +1,10 @@
 package org.seqcode.data.readdb;
 
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Map;
 import java.util.List;
 import java.util.HashMap;
@@ -12,6 +17,11 @@ class Request {
     public Float minWeight;
     public Map<String,String> map;
     public List<String> list;
+
+    /* field tags for encode() and decode() */
+    private static final byte TYPE = 1, ALIGNID = 2, CHROMID = 3, START = 4, END = 5, ISPAIRED = 6,
+        ISLEFT = 7, ISPLUSSTRAND = 8, ISTYPE2 = 9, MINWEIGHT = 10, PARAM = 11, LINE = 12;
+
     public Request () {
         map = new HashMap<String,String>();
         list = new ArrayList<String>();
@@ -94,6 +104,10 @@ class Request {
                 return "Invalid number of fields on line " + s;
             }
         }
+        return validate();
+    }
+    /* fills in defaults after parse or decode.  returns null or an error message */
+    private String validate() {
         if (type == null) {
             return "must provide a requestype";
         }
@@ -157,4 +171,131 @@ class Request {
         out.append("ENDREQUEST\n");
         return out.toString();
     }
+    /**
+     * Encodes the request as the payload of a binary protocol frame: a sequence of fields,
+     * each a tag byte followed by a little-endian int32 or float32, a boolean byte, or
+     * strings as a little-endian int16 byte count and UTF-8 bytes.
+     */
+    public byte[] encode() {
+        if (type == null) {
+            throw new NullPointerException("no request type");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        ByteBuffer b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        putString(out, TYPE, type);
+        if (alignid != null) {
+            putString(out, ALIGNID, alignid);
+        }
+        if (chromid != null) {
+            putInt(out, b, CHROMID, chromid);
+        }
+        if (start != null) {
+            putInt(out, b, START, start);
+        }
+        if (end != null) {
+            putInt(out, b, END, end);
+        }
+        if (isPaired != null) {
+            putBoolean(out, ISPAIRED, isPaired);
+        }
+        if (isLeft != null) {
+            putBoolean(out, ISLEFT, isLeft);
+        }
+        if (isPlusStrand != null) {
+            putBoolean(out, ISPLUSSTRAND, isPlusStrand);
+        }
+        if (isType2 != null) {
+            putBoolean(out, ISTYPE2, isType2);
+        }
+        if (minWeight != null) {
+            b.clear();
+            b.putFloat(minWeight);
+            out.write(MINWEIGHT);
+            out.write(b.array(), 0, 4);
+        }
+        for (String k : map.keySet()) {
+            putString(out, PARAM, k);
+            putString(out, (byte)0, map.get(k));
+        }
+        for (String l : list) {
+            putString(out, LINE, l);
+        }
+        return out.toByteArray();
+    }
+    private static void putInt(ByteArrayOutputStream out, ByteBuffer b, byte tag, int value) {
+        b.clear();
+        b.putInt(value);
+        out.write(tag);
+        out.write(b.array(), 0, 4);
+    }
+    private static void putBoolean(ByteArrayOutputStream out, byte tag, boolean value) {
+        out.write(tag);
+        out.write(value ? 1 : 0);
+    }
+    /* writes the tag unless it's 0, then the string */
+    private static void putString(ByteArrayOutputStream out, byte tag, String value) {
+        byte[] bytes;
+        try {
+            bytes = value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("request field is too long: " + bytes.length + " bytes");
+        }
+        if (tag != 0) {
+            out.write(tag);
+        }
+        out.write(bytes.length & 0xff);
+        out.write(bytes.length >> 8);
+        out.write(bytes, 0, bytes.length);
+    }
+    /**
+     * decodes a frame payload in the format encode() produces.
+     * returns null on success or an error message on failure.
+     */
+    public String decode(ByteBuffer b) {
+        clear();
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            while (b.hasRemaining()) {
+                byte tag = b.get();
+                switch (tag) {
+                case TYPE: type = getString(b); break;
+                case ALIGNID: alignid = getString(b); break;
+                case CHROMID: chromid = b.getInt(); break;
+                case START: start = b.getInt(); break;
+                case END: end = b.getInt(); break;
+                case ISPAIRED: isPaired = b.get() != 0; break;
+                case ISLEFT: isLeft = b.get() != 0; break;
+                case ISPLUSSTRAND: isPlusStrand = b.get() != 0; break;
+                case ISTYPE2: isType2 = b.get() != 0; break;
+                case MINWEIGHT: minWeight = b.getFloat(); break;
+                case PARAM:
+                    String k = getString(b);
+                    map.put(k, getString(b));
+                    break;
+                case LINE: list.add(getString(b)); break;
+                default:
+                    return "unknown field tag " + tag;
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            return "truncated request";
+        }
+        return validate();
+    }
+    private static String getString(ByteBuffer b) {
+        int length = b.getShort();
+        if (length < 0) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        b.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,143 @@
+package org.seqcode.data.readdb;
+
+import java.util.*;
+
+/**
+ * Byte-bounded LRU cache of histogram results, keyed on the normalized request: alignment,
+ * chromosome, range, strand, minimum weight and the binsize, extension, dedup and pair filter
+ * parameters.  Clients that repeatedly ask for the same loci get the stored bins without an
+ * index search or a scan of the hits.
+ *
+ * Entries are invalidated per alignment and chromosome.  The server does this whenever it drops
+ * a chromosome's cached Header, which happens whenever hits are stored, reindexed or deleted,
+ * while it holds the alignment's write lock.  Histograms are computed under the read lock, so
+ * a stale result can't be added after the invalidation.
+ */
+public class ResultCache {
+
+    /** A cached response: the ints and, for weight histograms, the floats sent after the count */
+    public static class Result {
+        public final int[] ints;
+        public final float[] floats;
+        public Result(int[] ints, float[] floats) {
+            this.ints = ints;
+            this.floats = floats;
+        }
+    }
+    private static class Entry {
+        String region;
+        Result result;
+        long bytes;
+    }
+
+    private static final Set<String> CACHEABLE = new HashSet<String>(Arrays.asList(new String[]{
+                "histogram", "weighthistogram", "midpointhistogram"}));
+    /* rough per-entry overhead of the map entries, key and arrays */
+    private static final int OVERHEAD = 200;
+
+    private long maxBytes, bytes, hits, misses;
+    private LinkedHashMap<String,Entry> entries;
+    /* keys of the entries for each alignment and chromosome */
+    private Map<String,Set<String>> regions;
+
+    public ResultCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        entries = new LinkedHashMap<String,Entry>(1024, .75f, true);
+        regions = new HashMap<String,Set<String>>();
+    }
+
+    static boolean isCacheable(Request request) {
+        return CACHEABLE.contains(request.type) && request.alignid != null && request.chromid != null;
+    }
+    /** The cache key for a request.  Requests that differ only in the order of their parameters get the same key */
+    static String key(Request request) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(request.type).append('\t').append(request.alignid).append('\t').append(request.chromid)
+            .append('\t').append(request.isPaired).append('\t').append(request.isLeft)
+            .append('\t').append(request.isType2).append('\t').append(request.isPlusStrand)
+            .append('\t').append(request.start).append('\t').append(request.end)
+            .append('\t').append(request.minWeight);
+        for (Map.Entry<String,String> e : new TreeMap<String,String>(request.map).entrySet()) {
+            sb.append('\t').append(e.getKey()).append('=').append(e.getValue());
+        }
+        return sb.toString();
+    }
+    private static String region(String alignid, int chromid) {
+        return alignid + '\t' + chromid;
+    }
+
+    public synchronized Result get(String key) {
+        Entry e = entries.get(key);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.result;
+    }
+    /**
+     * Adds a result for a request on this alignment and chromosome, evicting the least recently
+     * used results to stay under the byte limit.  Results larger than the limit aren't kept.
+     */
+    public synchronized void put(String alignid, int chromid, String key, Result result) {
+        Entry e = new Entry();
+        e.region = region(alignid, chromid);
+        e.result = result;
+        e.bytes = OVERHEAD + key.length() * 2L + result.ints.length * 4L +
+            (result.floats == null ? 0 : result.floats.length * 4L);
+        if (e.bytes > maxBytes) {
+            return;
+        }
+        remove(key);
+        entries.put(key, e);
+        bytes += e.bytes;
+        Set<String> keys = regions.get(e.region);
+        if (keys == null) {
+            keys = new HashSet<String>();
+            regions.put(e.region, keys);
+        }
+        keys.add(key);
+        Iterator<Map.Entry<String,Entry>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes) {
+            Map.Entry<String,Entry> old = eldest.next();
+            eldest.remove();
+            forget(old.getKey(), old.getValue());
+        }
+    }
+    /* removes an entry from the region index and byte count after it's left entries */
+    private void forget(String key, Entry e) {
+        bytes -= e.bytes;
+        Set<String> keys = regions.get(e.region);
+        keys.remove(key);
+        if (keys.isEmpty()) {
+            regions.remove(e.region);
+        }
+    }
+    private void remove(String key) {
+        Entry e = entries.remove(key);
+        if (e != null) {
+            forget(key, e);
+        }
+    }
+    /** drops all results for this alignment and chromosome */
+    public synchronized void invalidate(String alignid, int chromid) {
+        Set<String> keys = regions.remove(region(alignid, chromid));
+        if (keys == null) {
+            return;
+        }
+        for (String k : keys) {
+            Entry e = entries.remove(k);
+            if (e != null) {
+                bytes -= e.bytes;
+            }
+        }
+    }
+
+    public synchronized int size() {return entries.size();}
+    public synchronized long getBytes() {return bytes;}
+    public synchronized long getHits() {return hits;}
+    public synchronized long getMisses() {return misses;}
+}
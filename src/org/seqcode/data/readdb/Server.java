@@ -24,12 +24,14 @@ import org.apache.commons.cli.*;
  * </ul>
  * 
  * <p>Breakdown of relationship between cachesize and number of opened files
- * There are 5 caches, each of size [cachesize]. Max number of files for each:
+ * There are 7 caches, each of size [cachesize]. Max number of files for each:
  *  - acls: 1 file x cachesize
  *  - singleHeaders: 1 file x cachesize
  *  - pairedHeaders: 1 file x cachesize
  *  - singleHits: 3 files x cachesize
  *  - pairedHits: 6 files x cachesize
+ *  - singleSummaries: 1 file x cachesize
+ *  - pairedSummaries: 1 file x cachesize
  */
 public class Server {
 
@@ -39,6 +41,10 @@ public class Server {
 	private Logger logger;
     private int port;
     private int numThreads, cacheSize, maxConnections, sleepiness, taskIdleLimit, gcFrequency;
+    private int metricsInterval, slowMillis;
+    private ServerMetrics metrics;
+    /* null unless --resultcache is set */
+    private ResultCache resultCache;
     private boolean debug;
     /* topdir is the top-level directory for our data files.
       pwfile is "${topdir}/users.txt" and groupfile is 
@@ -56,6 +62,8 @@ public class Server {
     private LRUCache<Header> pairedHeaders;
     private LRUCache<SingleHits> singleHits;
     private LRUCache<PairedHits> pairedHits;
+    private LRUCache<CoverageSummary> singleSummaries;
+    private LRUCache<CoverageSummary> pairedSummaries;
     private LRUCache<AlignmentACL> acls;    
 
     private ServerSocket socket;
@@ -68,6 +76,9 @@ public class Server {
         maxConnections = 1000;
         taskIdleLimit = 2; //(hours)
         gcFrequency = 50;
+        metricsInterval = 300;
+        slowMillis = 1000;
+        metrics = new ServerMetrics();
         topdir = "/tmp";
         keepRunning = true;
         logger = Logger.getLogger("org.seqcode.data.readdb.Server");
@@ -80,11 +91,14 @@ public class Server {
         options.addOption("t","threads",true,"number of threads to spawn");
         options.addOption("d","datadir",true,"directory to use for data");
         options.addOption("D","debug",false,"provide debugging output");
-        options.addOption("C","cachesize",true,"how many files to keep open (this value times up to 18)");
+        options.addOption("C","cachesize",true,"how many files to keep open (this value times up to 20)");
         options.addOption("M","maxconn",true,"how many connections are allowed");
         options.addOption("S","sleepiness",true,"how sleepy the server should be while waiting for input.  1-100");
         options.addOption("L","idlelimit",true,"number of hours after which to close idle connections. Negative sets no limit.");
         options.addOption("G","gcfreq",true,"number of datasets removed from cache before garbage collection called.");
+        options.addOption("I","metricsinterval",true,"number of seconds between metrics dumps to the log.  0 disables them.");
+        options.addOption("W","slowms",true,"requests or client writes taking longer than this many milliseconds are logged");
+        options.addOption("R","resultcache",true,"megabytes of histogram results to cache.  0 disables the cache.");
         options.addOption("h","help",false,"print help message");
         CommandLineParser parser = new GnuParser();
         CommandLine line = parser.parse( options, args, false );            
@@ -124,10 +138,23 @@ public class Server {
             gcFrequency = Integer.parseInt(line.getOptionValue("gcfreq"));
         }
 
+        if (line.hasOption("metricsinterval")) {
+            metricsInterval = Integer.parseInt(line.getOptionValue("metricsinterval"));
+        }
+        if (line.hasOption("slowms")) {
+            slowMillis = Integer.parseInt(line.getOptionValue("slowms"));
+        }
+        if (line.hasOption("resultcache")) {
+            long mb = Long.parseLong(line.getOptionValue("resultcache"));
+            resultCache = mb > 0 ? new ResultCache(mb * 1024 * 1024) : null;
+        }
+
         singleHits = new LRUCache<SingleHits>(cacheSize);
         pairedHits = new LRUCache<PairedHits>(cacheSize);
         singleHeaders = new LRUCache<Header>(cacheSize);
         pairedHeaders = new LRUCache<Header>(cacheSize);
+        singleSummaries = new LRUCache<CoverageSummary>(cacheSize);
+        pairedSummaries = new LRUCache<CoverageSummary>(cacheSize);
         acls = new LRUCache<AlignmentACL>(cacheSize);
         debug = line.hasOption("debug");
         logger.log(Level.INFO,String.format("Server parsed args: port %d, threads %d, directory %s",port,numThreads,topdir));
@@ -139,11 +166,14 @@ public class Server {
         System.out.println("usage: java org.seqcode.data.readdb.Server --datadir /path/to/datadir --port 52000");
         System.out.println(" [--threads 5]   use this number of worker threads to process requests.");
         System.out.println(" [--cachesize 100]  number of datasets to keep open.  Actual number of open files will be");
-        System.out.println("                  up to 18 times this value");
+        System.out.println("                  up to 20 times this value");
         System.out.println(" [--maxconn 1000]   maximum number of open connections");
         System.out.println(" [--debug]  print debugging output");
         System.out.println(" [--sleepiness 4]  (1-100) higher values use less CPU when idle but may incur more delay in processing requests");
         System.out.println(" [--idlelimit 2]  number of hours after which to close idle connections. Negative sets no limit. ");
+        System.out.println(" [--metricsinterval 300]  seconds between metrics dumps to the log.  0 disables them.");
+        System.out.println(" [--slowms 1000]  log requests and client writes that take longer than this");
+        System.out.println(" [--resultcache 0]  megabytes of histogram results to keep for repeated queries.  0 disables it.");
     }
     public static void main(String args[]) throws Exception {
         Server server = new Server();
@@ -168,12 +198,24 @@ public class Server {
     }
     public boolean debug() {return debug;}
     public int getSleepiness() {return sleepiness;}
+    public ServerMetrics getMetrics() {return metrics;}
+    /** the histogram result cache, or null if it's disabled */
+    public ResultCache getResultCache() {return resultCache;}
+    /** requests taking longer than this are logged */
+    public long getSlowNanos() {return slowMillis * 1000000L;}
     public void listen() throws IOException {
         Thread t = new Thread(new CacheGCHook(logger, gcFrequency));
         t.start();
         dispatch = new Dispatch(this,numThreads, maxConnections);
         t = new Thread(dispatch);
         t.start();
+        addGauges();
+        if (metricsInterval > 0) {
+            metrics.addReporter(new ServerMetrics.LogReporter(logger));
+            t = new Thread(new MetricsHook(this, metricsInterval));
+            t.setDaemon(true);
+            t.start();
+        }
         socket = new ServerSocket(port);
         socket.setReuseAddress(true);
         socket.setReceiveBufferSize(BUFFERLEN);
@@ -197,6 +239,52 @@ public class Server {
             }
         }
     }
+    private void addGauges() {
+        metrics.addGauge("dispatch.queue", new ServerMetrics.Gauge() {
+                public Number getValue() {return dispatch.getQueueSize();}
+            });
+        metrics.addGauge("dispatch.freethreads", new ServerMetrics.Gauge() {
+                public Number getValue() {return dispatch.getFreeThreads();}
+            });
+        addCacheGauges("singlehits", singleHits);
+        addCacheGauges("pairedhits", pairedHits);
+        addCacheGauges("singleheaders", singleHeaders);
+        addCacheGauges("pairedheaders", pairedHeaders);
+        addCacheGauges("singlesummaries", singleSummaries);
+        addCacheGauges("pairedsummaries", pairedSummaries);
+        addCacheGauges("acls", acls);
+        if (resultCache != null) {
+            metrics.addGauge("cache.results.size", new ServerMetrics.Gauge() {
+                    public Number getValue() {return resultCache.size();}
+                });
+            metrics.addGauge("cache.results.bytes", new ServerMetrics.Gauge() {
+                    public Number getValue() {return resultCache.getBytes();}
+                });
+            metrics.addGauge("cache.results.hits", new ServerMetrics.Gauge() {
+                    public Number getValue() {return resultCache.getHits();}
+                });
+            metrics.addGauge("cache.results.misses", new ServerMetrics.Gauge() {
+                    public Number getValue() {return resultCache.getMisses();}
+                });
+        }
+    }
+    private void addCacheGauges(String name, final LRUCache<?> cache) {
+        metrics.addGauge("cache." + name + ".size", new ServerMetrics.Gauge() {
+                public Number getValue() {return cache.size();}
+            });
+        metrics.addGauge("cache." + name + ".hits", new ServerMetrics.Gauge() {
+                public Number getValue() {return cache.getHits();}
+            });
+        metrics.addGauge("cache." + name + ".misses", new ServerMetrics.Gauge() {
+                public Number getValue() {return cache.getMisses();}
+            });
+        metrics.addGauge("cache." + name + ".hitratio", new ServerMetrics.Gauge() {
+                public Number getValue() {
+                    long h = cache.getHits(), total = h + cache.getMisses();
+                    return total == 0 ? 0.0 : Math.round(1000.0 * h / total) / 1000.0;
+                }
+            });
+    }
     public Logger getLogger() {return logger;}
     public String getTopDir() {
         return topdir; 
@@ -214,6 +302,9 @@ public class Server {
     public String getACLFileName(String alignID) {
         return getAlignmentDir(alignID) + System.getProperty("file.separator") + "acl.txt";
     }
+    public String getStatsFileName(String alignID) {
+        return getAlignmentDir(alignID) + System.getProperty("file.separator") + "stats.txt";
+    }
     public String getDefaultACLFileName() {
         return getTopDir() + "defaultACL.txt";
     }    
@@ -227,6 +318,16 @@ public class Server {
                                           boolean isLeft) {
         return getAlignmentDir(alignID) + System.getProperty("file.separator") + chromID + ".paired" + (isLeft ? "left" : "right") + "index";
     }
+    public String getSingleSummaryFileName(String alignID,
+                                           int chromID,
+                                           boolean isType2) {
+        return getAlignmentDir(alignID) + System.getProperty("file.separator") + chromID + (isType2 ? ".singlet2summary" : ".singlesummary");
+    }
+    public String getPairedSummaryFileName(String alignID,
+                                           int chromID,
+                                           boolean isLeft) {
+        return getAlignmentDir(alignID) + System.getProperty("file.separator") + chromID + ".paired" + (isLeft ? "left" : "right") + "summary";
+    }
     public Set<Integer> getChroms(String alignID,
                                  boolean isType2,
     							 boolean isPaired,
@@ -297,6 +398,29 @@ public class Server {
         }
         return output;
     }
+    /**
+     * Returns the requested CoverageSummary.  Creates it or retrieves from cache.
+     * Throws IOException if the alignment has no summary (eg it was stored by an older server).
+     * Client code is responsible for locking the file as necessary.
+     */
+    public CoverageSummary getSingleSummary(String alignID, int chromID, boolean isType2) throws IOException {
+        String key = alignID + chromID + isType2;
+        CoverageSummary output = singleSummaries.get(key);
+        if (output == null) {
+            output = CoverageSummary.readSummaryFile(getSingleSummaryFileName(alignID,chromID,isType2));
+            singleSummaries.add(key, output);
+        }
+        return output;
+    }
+    public CoverageSummary getPairedSummary(String alignID, int chromID, boolean isLeft) throws IOException {
+        String key = alignID + chromID + isLeft;
+        CoverageSummary output = pairedSummaries.get(key);
+        if (output == null) {
+            output = CoverageSummary.readSummaryFile(getPairedSummaryFileName(alignID,chromID,isLeft));
+            pairedSummaries.add(key, output);
+        }
+        return output;
+    }
     /**
      * Returns the requested ACL object.  Creates it or retrieves from cache.
      * Client code is responsible for locking the file as necessary.
@@ -315,11 +439,24 @@ public class Server {
     public void removePairedHits(String alignID, int chromID, boolean isLeft) {
         pairedHits.remove(alignID + chromID + isLeft);
     }
+    /* headers are dropped whenever a chromosome's hits change, so cached results go with them */
     public void removeSingleHeader(String alignID, int chromID, boolean isType2) {
         singleHeaders.remove(alignID + chromID + isType2);
+        if (resultCache != null) {
+            resultCache.invalidate(alignID, chromID);
+        }
     }
     public void removePairedHeader(String alignID, int chromID, boolean isLeft) {
         pairedHeaders.remove(alignID + chromID + isLeft);
+        if (resultCache != null) {
+            resultCache.invalidate(alignID, chromID);
+        }
+    }
+    public void removeSingleSummary(String alignID, int chromID, boolean isType2) {
+        singleSummaries.remove(alignID + chromID + isType2);
+    }
+    public void removePairedSummary(String alignID, int chromID, boolean isLeft) {
+        pairedSummaries.remove(alignID + chromID + isLeft);
     }
     public void removeACL(String alignID) {acls.remove(alignID);}
     protected void printCacheContents() {
@@ -327,6 +464,8 @@ public class Server {
         pairedHeaders.printKeys();
         singleHits.printKeys();
         pairedHits.printKeys();
+        singleSummaries.printKeys();
+        pairedSummaries.printKeys();
         acls.printKeys();
     }
 
@@ -0,0 +1,162 @@
+package org.seqcode.data.readdb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.*;
+
+/**
+ * Counters, latency histograms and gauges for the server.  ServerTask records
+ * per-request-type latencies and bytes sent, authentication, request parsing and
+ * index lookup times; Server registers gauges for the caches and the Dispatch queue.
+ *
+ * The "serverstats" request returns getLines().  Reporters are called periodically
+ * by MetricsHook; the default one writes the same lines to the server log.
+ */
+public class ServerMetrics {
+
+    /** A value sampled when the metrics are reported */
+    public interface Gauge {
+        public Number getValue();
+    }
+    /** Receives the metrics each time they're reported */
+    public interface Reporter {
+        public void report(ServerMetrics metrics);
+    }
+
+    /**
+     * Latency histogram with power of two buckets in microseconds.
+     */
+    public static class Histogram {
+        private long[] buckets = new long[40];
+        private long count, sumNanos, maxNanos;
+
+        public synchronized void record(long nanos) {
+            long micros = nanos / 1000;
+            int b = micros < 2 ? 0 : 63 - Long.numberOfLeadingZeros(micros);
+            buckets[Math.min(b, buckets.length - 1)]++;
+            count++;
+            sumNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+        public synchronized long getCount() {return count;}
+        public synchronized double getMeanMillis() {
+            return count == 0 ? 0 : sumNanos / (count * 1e6);
+        }
+        public synchronized double getMaxMillis() {return maxNanos / 1e6;}
+        /** upper bound, in milliseconds, of the bucket holding the p'th quantile */
+        public synchronized double getPercentileMillis(double p) {
+            if (count == 0) {
+                return 0;
+            }
+            long target = (long)Math.ceil(p * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= target) {
+                    return Math.min((1L << (i + 1)) / 1000.0, getMaxMillis());
+                }
+            }
+            return getMaxMillis();
+        }
+        public synchronized String toString() {
+            return String.format("count=%d mean=%.3fms p50=%.3fms p95=%.3fms p99=%.3fms max=%.3fms",
+                                 count, getMeanMillis(), getPercentileMillis(.5), getPercentileMillis(.95),
+                                 getPercentileMillis(.99), getMaxMillis());
+        }
+    }
+
+    /**
+     * Writes the metrics to a Logger, one line per metric
+     */
+    public static class LogReporter implements Reporter {
+        private Logger logger;
+        public LogReporter(Logger l) {
+            logger = l;
+        }
+        public void report(ServerMetrics metrics) {
+            for (String l : metrics.getLines()) {
+                logger.log(Level.INFO, "metrics " + l);
+            }
+        }
+    }
+
+    private ConcurrentHashMap<String,AtomicLong> counters = new ConcurrentHashMap<String,AtomicLong>();
+    private ConcurrentHashMap<String,Histogram> histograms = new ConcurrentHashMap<String,Histogram>();
+    private ConcurrentHashMap<String,Gauge> gauges = new ConcurrentHashMap<String,Gauge>();
+    private List<Reporter> reporters = new CopyOnWriteArrayList<Reporter>();
+    private long started = System.currentTimeMillis();
+
+    public void increment(String name) {
+        add(name, 1);
+    }
+    public void add(String name, long delta) {
+        AtomicLong c = counters.get(name);
+        if (c == null) {
+            AtomicLong n = new AtomicLong();
+            c = counters.putIfAbsent(name, n);
+            if (c == null) {
+                c = n;
+            }
+        }
+        c.addAndGet(delta);
+    }
+    public long getCounter(String name) {
+        AtomicLong c = counters.get(name);
+        return c == null ? 0 : c.get();
+    }
+    public void record(String name, long nanos) {
+        getHistogram(name).record(nanos);
+    }
+    public Histogram getHistogram(String name) {
+        Histogram h = histograms.get(name);
+        if (h == null) {
+            Histogram n = new Histogram();
+            h = histograms.putIfAbsent(name, n);
+            if (h == null) {
+                h = n;
+            }
+        }
+        return h;
+    }
+    public void addGauge(String name, Gauge g) {
+        gauges.put(name, g);
+    }
+    public void addReporter(Reporter r) {
+        reporters.add(r);
+    }
+    public void removeReporter(Reporter r) {
+        reporters.remove(r);
+    }
+    /** calls each Reporter */
+    public void report() {
+        for (Reporter r : reporters) {
+            r.report(this);
+        }
+    }
+    /**
+     * Returns one "name value" line per metric, sorted by name.
+     */
+    public List<String> getLines() {
+        TreeMap<String,String> values = new TreeMap<String,String>();
+        values.put("uptime", Long.toString((System.currentTimeMillis() - started) / 1000) + "s");
+        for (Map.Entry<String,AtomicLong> e : counters.entrySet()) {
+            values.put(e.getKey(), Long.toString(e.getValue().get()));
+        }
+        for (Map.Entry<String,Histogram> e : histograms.entrySet()) {
+            values.put(e.getKey(), e.getValue().toString());
+        }
+        for (Map.Entry<String,Gauge> e : gauges.entrySet()) {
+            try {
+                values.put(e.getKey(), String.valueOf(e.getValue().getValue()));
+            } catch (RuntimeException ex) {
+                values.put(e.getKey(), "error " + ex.toString());
+            }
+        }
+        List<String> output = new ArrayList<String>();
+        for (String k : values.keySet()) {
+            output.add(k + " " + values.get(k));
+        }
+        return output;
+    }
+}
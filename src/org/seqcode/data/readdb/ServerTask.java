@@ -1,6 +1,7 @@
 package org.seqcode.data.readdb;
 
 import java.io.*;
+import java.nio.*;
 import java.nio.channels.*;
 import java.net.*;
 import java.util.*;
@@ -39,6 +40,8 @@ public class ServerTask {
     private BufferedInputStream instream;
     private OutputStream outstream;
     private WritableByteChannel outchannel;
+    /* true once the client has switched this connection to the binary protocol (see Frames) */
+    private boolean binary;
     /* if authenticate was successful, this holds a username.  Null otherwise */
     private String username;
     /* buffer for readLine */
@@ -52,6 +55,17 @@ public class ServerTask {
     private Map<String,String> saslprops;
     private String uname; // temporary, used by authenticate
     private long lastActivity=0;
+    /* mate filter from the current request, or null */
+    private PairFilter pairFilter;
+    /* result cache key for the current request, or null if its result isn't cached */
+    private String resultKey;
+    /* metrics for the current request and for authentication */
+    private long bytesSent, writeNanos, lookupNanos, authStart;
+    private static final Set<String> REQUESTTYPES = new HashSet<String>(Arrays.asList(new String[]{
+                "ping", "exists", "storesingle", "storepaired", "reindex", "bye", "getchroms", "stats",
+                "serverstats", "binary", "getacl", "setacl", "deletealign", "addtogroup", "shutdown", "count", "weight",
+                "numpositions", "numpairpositions", "histogram", "weighthistogram", "midpointhistogram", "gethits",
+                "checksort"}));
 
     public ServerTask(Server serv, Socket s, int inactivityLimit) throws IOException {
         buffer = new byte[8192];
@@ -70,7 +84,7 @@ public class ServerTask {
         socket.setSendBufferSize(Server.BUFFERLEN);
         socket.setSoTimeout(1000000);
         instream = new BufferedInputStream(socket.getInputStream());
-        outstream = socket.getOutputStream();
+        outstream = new CountingOutputStream(socket.getOutputStream());
         outchannel = Channels.newChannel(outstream);
         bufferpos = 0;
         sasl = null;
@@ -170,9 +184,76 @@ public class ServerTask {
         //         if (server.debug()) {
         //        System.err.println("SEND " + s);
         //         }
-        outstream.write(s.getBytes());
+        if (binary) {
+            Frames.writeText(outstream, s.getBytes());
+        } else {
+            outstream.write(s.getBytes());
+        }
         outstream.flush();
     }
+    /** sends ints to the client, little-endian in an array frame under the binary protocol */
+    private void sendInts(int[] a) throws IOException {
+        if (!binary) {
+            Bits.sendInts(a, outstream, buffer);
+        } else if (a.length > 0) {
+            Frames.writeHeader(outstream, Frames.LITTLE, a.length * 4);
+            Bits.sendInts(a, outstream, buffer, ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+    private void sendFloats(float[] a) throws IOException {
+        if (!binary) {
+            Bits.sendFloats(a, outstream, buffer);
+        } else if (a.length > 0) {
+            Frames.writeHeader(outstream, Frames.LITTLE, a.length * 4);
+            Bits.sendFloats(a, outstream, buffer, ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+    /** sends a buffer as is, in an array frame of its byte order under the binary protocol */
+    private void sendBytes(ByteBuffer b) throws IOException {
+        if (binary) {
+            if (b.limit() == 0) {
+                return;
+            }
+            Frames.writeHeader(outstream, Frames.kind(b.order()), b.limit());
+        }
+        Bits.sendBytes(b, outchannel);
+    }
+    /**
+     * Reads what's available of the next binary protocol request into buffer without blocking.
+     * Returns the length of the request, which follows its 4-byte length in buffer, once all of
+     * it has arrived and -1 until then.
+     */
+    private int readFrame() throws IOException {
+        if (bufferpos < 4) {
+            fill(4);
+            if (bufferpos < 4) {
+                return -1;
+            }
+        }
+        int length = ByteBuffer.wrap(buffer, 0, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        if (length < 0 || length > Frames.MAXREQUEST) {
+            server.getLogger().logp(Level.WARNING,"ServerTask","readFrame " + toString(),"invalid request length " + length + ".  quitting");
+            // answer so the client doesn't wait for a response to a request that won't be read
+            printString("invalid request length " + length + "\n");
+            shouldClose = true;
+            return -1;
+        }
+        fill(length + 4);
+        return bufferpos >= length + 4 ? length : -1;
+    }
+    /* reads available bytes into buffer until it holds count bytes */
+    private void fill(int count) throws IOException {
+        int avail = instream.available();
+        while (bufferpos < count && avail > 0) {
+            int r = instream.read(buffer, bufferpos, Math.min(avail, count - bufferpos));
+            if (r == -1) {
+                shouldClose = true;
+                return;
+            }
+            bufferpos += r;
+            avail = instream.available();
+        }
+    }
     /**
      * Reads a line from the socket and returns it
      */
@@ -240,7 +321,11 @@ public class ServerTask {
         try {
         	lastActivity = System.currentTimeMillis();
             if (username == null) {
+                if (authStart == 0) {
+                    authStart = System.nanoTime();
+                }
                 if (!authenticate()) {
+                    server.getMetrics().increment("auth.failed");
                     server.getLogger().logp(Level.INFO,"serverTask","run " + toString(),"not authenticated in ");
                     printAuthError();
                     shouldClose = true;
@@ -249,24 +334,32 @@ public class ServerTask {
                 if (username == null) { 
                     return ;
                 }
+                server.getMetrics().increment("auth.ok");
+                server.getMetrics().record("auth", System.nanoTime() - authStart);
                 server.getLogger().logp(Level.INFO,"ServerTask","run " + toString(), " authenticated " + username + " from " + socket.getInetAddress() + ":" + socket.getPort());
                 printString("authenticated as " + username + "\n");
             }
+            if (binary) {
+                int length = readFrame();
+                if (length >= 0) {
+                    long parseStart = System.nanoTime();
+                    String error = request.decode(ByteBuffer.wrap(buffer, 4, length));
+                    bufferpos -= length + 4;
+                    System.arraycopy(buffer, length + 4, buffer, 0, bufferpos);
+                    handleRequest(error, parseStart);
+                }
+                return;
+            }
             while (true) {
                 String p = readLine();
                 if (p == null) { 
                     break;
                 } else {
                     if (p.equals("ENDREQUEST")) {
+                        long parseStart = System.nanoTime();
                         String error = request.parse(args);
-                        if (error == null) {
-                            processRequest();
-                        } else {
-                            server.getLogger().logp(Level.INFO,"ServerTask","run()" + toString(), "error parsing request: " + error);
-                            printString("error parsing request: " + error + "\n");
-                        }
+                        handleRequest(error, parseStart);
                         args.clear();
-                        if (outstream != null) { outstream.flush(); }                            
                         break;
                     } else {
                         args.add(p);
@@ -286,6 +379,18 @@ public class ServerTask {
             return;
         }
     }
+    /* processes the request that was just parsed or reports the parse error */
+    private void handleRequest(String error, long parseStart) throws IOException {
+        server.getMetrics().record("parse", System.nanoTime() - parseStart);
+        if (error == null) {
+            processRequest();
+        } else {
+            server.getMetrics().increment("parse.errors");
+            server.getLogger().logp(Level.INFO,"ServerTask","run()" + toString(), "error parsing request: " + error);
+            printString("error parsing request: " + error + "\n");
+        }
+        if (outstream != null) { outstream.flush(); }
+    }
     /**
      * performs authentication exchange over the socket and sets the username field
      * if successful.  Returns true if authenticate should continue or is successful.
@@ -368,6 +473,11 @@ public class ServerTask {
     /** reads and handles a request on the Socket.
      */
     public void processRequest () {
+        long start = System.nanoTime();
+        bytesSent = 0;
+        writeNanos = 0;
+        lookupNanos = 0;
+        boolean failed = false;
         try {
             if (request.alignid != null) {
                 Lock.readLock(request.alignid);
@@ -386,6 +496,13 @@ public class ServerTask {
                 shouldClose = true;
             } else if (request.type.equals("getchroms")) {
                 processGetChroms();
+            } else if (request.type.equals("stats")) {
+                processStats();
+            } else if (request.type.equals("serverstats")) {
+                processServerStats();
+            } else if (request.type.equals("binary")) {
+                printOK();
+                binary = true;
             } else if (request.type.equals("getacl")) {
                 processGetACL();            
             } else if (request.type.equals("setacl")) {
@@ -407,6 +524,7 @@ public class ServerTask {
                 processFileRequest();
             }
         } catch (Exception e) {
+            failed = true;
             server.getLogger().logp(Level.INFO,"ServerTask","processRequest " + toString(),"Error in request " + request.toString());
             server.getLogger().logp(Level.INFO,"ServerTask","processRequest " + toString(),"Exception " + e.toString(),e);
             e.printStackTrace();
@@ -417,6 +535,7 @@ public class ServerTask {
             }
             server.getLogger().logp(Level.INFO,"ServerTask","processRequest " + toString(),"Trace " + sb.toString());   
         } catch (AssertionError e) {
+            failed = true;
             server.getLogger().logp(Level.INFO,"ServerTask","processRequest " + toString(),"Error in request " + request.toString());
             server.getLogger().logp(Level.INFO,"ServerTask","processRequest " + toString(),"Exception " + e.toString(),e);
             e.printStackTrace();
@@ -429,6 +548,35 @@ public class ServerTask {
 
         } finally {
             Lock.releaseLocks();
+            recordRequest(System.nanoTime() - start, failed);
+        }
+    }
+    /**
+     * Records the latency and bytes sent for the request that just finished and
+     * logs it if it, or writing its response to the client, was slow.
+     */
+    private void recordRequest(long elapsed, boolean failed) {
+        ServerMetrics metrics = server.getMetrics();
+        String type = REQUESTTYPES.contains(request.type) ? request.type : "other";
+        metrics.increment("requests");
+        metrics.record("request." + type, elapsed);
+        metrics.add("bytes." + type, bytesSent);
+        metrics.record("transfer", writeNanos);
+        if (failed) {
+            metrics.increment("errors." + type);
+        }
+        long slow = server.getSlowNanos();
+        if (elapsed > slow || writeNanos > slow) {
+            if (elapsed > slow) {
+                metrics.increment("slowrequests");
+            }
+            if (writeNanos > slow) {
+                metrics.increment("slowclients");
+            }
+            server.getLogger().logp(Level.INFO,"ServerTask","processRequest " + toString(),
+                                    String.format("slow %s from %s@%s align %s chrom %s : %.1fms total, %.1fms lookup, %.1fms writing %d bytes",
+                                                  type, username, socket.getInetAddress(), request.alignid, request.chromid,
+                                                  elapsed / 1e6, lookupNanos / 1e6, writeNanos / 1e6, bytesSent));
         }
     }
     /**
@@ -452,6 +600,7 @@ public class ServerTask {
             printString("No Such Alignment\n");
             return;
         } 
+        long lookupStart = System.nanoTime();
         AlignmentACL acl = null;        
         try {
             acl = server.getACL(request.alignid);
@@ -472,6 +621,30 @@ public class ServerTask {
             printAuthError();
             return;
         }
+        try {
+            pairFilter = PairFilter.parse(request.map);
+        } catch (IllegalArgumentException e) {
+            printInvalid(e.getMessage());
+            return;
+        }
+        if (pairFilter != null && !(request.isPaired &&
+                                    (request.type.equals("count") || request.type.equals("weight") ||
+                                     request.type.equals("gethits") || request.type.equals("midpointhistogram")))) {
+            printInvalid("pair filters only apply to paired count, weight, gethits and midpointhistogram requests");
+            return;
+        }
+        resultKey = null;
+        ResultCache resultCache = server.getResultCache();
+        if (resultCache != null && ResultCache.isCacheable(request)) {
+            resultKey = ResultCache.key(request);
+            ResultCache.Result cached = resultCache.get(resultKey);
+            if (cached != null) {
+                lookupNanos = System.nanoTime() - lookupStart;
+                server.getMetrics().record("lookup", lookupNanos);
+                sendHistogram(cached.ints, cached.floats);
+                return;
+            }
+        }
         Header header=null;
         Hits hits=null;
         try {
@@ -497,6 +670,8 @@ public class ServerTask {
             return;
             */
         }
+        lookupNanos = System.nanoTime() - lookupStart;
+        server.getMetrics().record("lookup", lookupNanos);
         if (request.type.equals("count")) {
             processCount(header,hits);
         } else if (request.type.equals("weight")) {
@@ -509,6 +684,8 @@ public class ServerTask {
             processHistogram(header,hits);
         } else if (request.type.equals("weighthistogram")) {
             processWeightHistogram(header,hits);
+        } else if (request.type.equals("midpointhistogram")) {
+            processMidpointHistogram(header,hits);
         } else if (request.type.equals("gethits")) {
             processGetHits(header,hits);
         } else if (request.type.equals("checksort")) {
@@ -637,6 +814,19 @@ public class ServerTask {
         assert(request != null);
         printString("pong\n");
     }
+    /**
+     * Sends the server's metrics, one "name value" line each.
+     */
+    public void processServerStats() throws IOException {
+        List<String> lines = server.getMetrics().getLines();
+        StringBuilder sb = new StringBuilder();
+        sb.append(lines.size()).append('\n');
+        for (String l : lines) {
+            sb.append(l).append('\n');
+        }
+        printOK();
+        printString(sb.toString());
+    }
     /** reads two lines from socket: alignment id and chromosome id.
      * returns "exists" or "unknown" to indicate whether the 
      * server knows about that pair
@@ -713,11 +903,15 @@ public class ServerTask {
                 server.removePairedHits(request.alignid, c, false);
                 server.removePairedHeader(request.alignid, c, true);
                 server.removePairedHeader(request.alignid, c, false);
+                server.removePairedSummary(request.alignid, c, true);
+                server.removePairedSummary(request.alignid, c, false);
             } else {
                 server.removeSingleHits(request.alignid, c, true);
                 server.removeSingleHeader(request.alignid, c, true);
+                server.removeSingleSummary(request.alignid, c, true);
                 server.removeSingleHits(request.alignid, c, false);
                 server.removeSingleHeader(request.alignid, c, false);
+                server.removeSingleSummary(request.alignid, c, false);
             }
         }
 
@@ -733,7 +927,7 @@ public class ServerTask {
         boolean allgone = true;
         for (int i = 0; i < files.length; i++) {
             String name = files[i].getName();
-            if (name.equals("acl.txt")) { continue;}
+            if (name.equals("acl.txt") || name.equals("stats.txt") || name.equals("stats.txt.tmp")) { continue;}
             if (request.isPaired == null) {
                 toDelete.add(prefix+name);
             } else {
@@ -741,8 +935,11 @@ public class ServerTask {
                     name.indexOf(".prright.") > 0 ||
                     name.indexOf(".pairedleftindex") > 0 ||
                     name.indexOf(".pairedrightindex") > 0 ||
+                    name.indexOf(".pairedleftsummary") > 0 ||
+                    name.indexOf(".pairedrightsummary") > 0 ||
                     name.indexOf(".paircode") > 0;  
                 boolean singlefile = name.indexOf("singleindex") > 0|| name.indexOf("singlet2index") > 0||
+                    name.indexOf("singlesummary") > 0|| name.indexOf("singlet2summary") > 0||
                     name.indexOf("spositions") > 0 || name.indexOf("st2positions") > 0 ||
                     name.indexOf("sweights") > 0 || name.indexOf("st2weights") > 0 ||
                     name.indexOf("slas") > 0 ||name.indexOf("st2las") > 0;
@@ -756,9 +953,18 @@ public class ServerTask {
 
             }
         }       
+        String statsfile = server.getStatsFileName(request.alignid);
         if (allgone) {
             toDelete.add(server.getACLFileName(request.alignid));
             server.removeACL(request.alignid);
+            if ((new File(statsfile)).exists()) {
+                toDelete.add(statsfile);
+            }
+            if ((new File(statsfile + ".tmp")).exists()) {
+                toDelete.add(statsfile + ".tmp");
+            }
+        } else {
+            removeStats(statsfile, request.isPaired);
         }
         File f;
 
@@ -898,10 +1104,14 @@ public class ServerTask {
             SingleHits singlehits = new SingleHits(server.getAlignmentDir(request.alignid) + System.getProperty("file.separator"),
                                                    request.chromid,
                                                    request.isType2);
+            CoverageSummary.writeSummaryFile(singlehits, server.getSingleSummaryFileName(request.alignid,
+                                                                                         request.chromid,
+                                                                                         request.isType2));
             Header header = new Header(singlehits.getPositionsBuffer().getib());
             header.writeIndexFile(server.getSingleHeaderFileName(request.alignid,
                                                                  request.chromid,
                                                                  request.isType2));
+            updateStats(singlehits, AlignmentStats.getType(request.isType2, false, false), request.chromid);
         } catch (IOException e) {
             server.getLogger().logp(Level.INFO,"ServerTask","processSingleStore "+ toString(),"IOException trying to save files : " + e.toString(),e);
             return;
@@ -909,6 +1119,7 @@ public class ServerTask {
         printOK();
         server.removeSingleHits(request.alignid, request.chromid, request.isType2);
         server.removeSingleHeader(request.alignid, request.chromid, request.isType2);
+        server.removeSingleSummary(request.alignid, request.chromid, request.isType2);
     }
 
     public void processPairedStore() throws IOException {
@@ -1045,12 +1256,17 @@ public class ServerTask {
             PairedHits pairedhits = new PairedHits(server.getAlignmentDir(request.alignid) + System.getProperty("file.separator"),
                                                    chromid, 
                                                    isLeft);
+            CoverageSummary.writeSummaryFile(pairedhits, server.getPairedSummaryFileName(request.alignid,
+                                                                                         chromid,
+                                                                                         isLeft));
             Header header = new Header(pairedhits.getPositionsBuffer().getib());
             header.writeIndexFile(server.getPairedHeaderFileName(request.alignid,
                                                                  chromid,
                                                                  isLeft));
+            updateStats(pairedhits, AlignmentStats.getType(false, true, isLeft), chromid);
             server.removePairedHits(request.alignid, chromid, isLeft);
             server.removePairedHeader(request.alignid, chromid, isLeft);
+            server.removePairedSummary(request.alignid, chromid, isLeft);
         }
     }
 
@@ -1061,37 +1277,165 @@ public class ServerTask {
         Lock.writeLock(request.alignid);
         if (request.isPaired) {
             PairedHits hits = server.getPairedHits(request.alignid, request.chromid, true);
+            CoverageSummary.writeSummaryFile(hits, server.getPairedSummaryFileName(request.alignid,
+                                                                                   request.chromid,
+                                                                                   true));
             Header header = new Header(hits.getPositionsBuffer().getib());
             header.writeIndexFile(server.getPairedHeaderFileName(request.alignid,
                                                                  request.chromid,
                                                                  true));            
+            updateStats(hits, AlignmentStats.getType(false, true, true), request.chromid);
             server.removePairedHeader(request.alignid, request.chromid,true);
+            server.removePairedSummary(request.alignid, request.chromid,true);
 
             hits = server.getPairedHits(request.alignid, request.chromid, false);
+            CoverageSummary.writeSummaryFile(hits, server.getPairedSummaryFileName(request.alignid,
+                                                                                   request.chromid,
+                                                                                   false));
             header = new Header(hits.getPositionsBuffer().getib());
             header.writeIndexFile(server.getPairedHeaderFileName(request.alignid,
                                                                  request.chromid,
                                                                  false));            
+            updateStats(hits, AlignmentStats.getType(false, true, false), request.chromid);
             server.removePairedHeader(request.alignid, request.chromid,false);
+            server.removePairedSummary(request.alignid, request.chromid,false);
 
         } else {
             SingleHits hits = server.getSingleHits(request.alignid, request.chromid, request.isType2);
+            CoverageSummary.writeSummaryFile(hits, server.getSingleSummaryFileName(request.alignid,
+                                                                                   request.chromid,
+                                                                                   request.isType2));
             Header header = new Header(hits.getPositionsBuffer().getib());
             header.writeIndexFile(server.getSingleHeaderFileName(request.alignid,
                                                                  request.chromid,
                                                                  request.isType2));
+            updateStats(hits, AlignmentStats.getType(request.isType2, false, false), request.chromid);
             server.removeSingleHeader(request.alignid, request.chromid, request.isType2);       
+            server.removeSingleSummary(request.alignid, request.chromid, request.isType2);
+        }
+        printOK();
+    }
+
+    /* drops the single or paired entries from the alignment's statistics after a delete.  Caller must hold the write lock */
+    private void removeStats(String fname, boolean paired) {
+        try {
+            AlignmentStats stats = AlignmentStats.readFromFile(fname);
+            for (AlignmentStats.ChromStats s : new ArrayList<AlignmentStats.ChromStats>(stats.getEntries())) {
+                if (s.type.startsWith("paired") == paired) {
+                    stats.remove(s.type, s.chrom);
+                }
+            }
+            stats.writeToFile(fname);
+        } catch (IOException e) {
+            // processStats rebuilds entries that don't match the remaining hits
+            server.getLogger().logp(Level.WARNING,"ServerTask","removeStats " + toString(),"can't update " + fname,e);
+        }
+    }
+    /* rewrites the alignment's statistics for one chromosome's hits.  Caller must hold the write lock */
+    private void updateStats(Hits hits, String type, int chromid) {
+        String fname = server.getStatsFileName(request.alignid);
+        AlignmentStats stats;
+        try {
+            stats = AlignmentStats.readFromFile(fname);
+        } catch (IOException e) {
+            // unreadable, so start again.  processStats fills in the other chromosomes
+            stats = new AlignmentStats();
+        }
+        try {
+            stats.put(AlignmentStats.compute(hits, type, chromid));
+            stats.writeToFile(fname);
+        } catch (IOException e) {
+            // the hits are already stored.  processStats sees the stale entry and rebuilds it
+            server.getLogger().logp(Level.WARNING,"ServerTask","updateStats " + toString(),"can't update " + fname,e);
+        }
+    }
+    /**
+     * Sends the statistics for every chromosome of an alignment: OK, the number of
+     * entries, and then one line per entry (see AlignmentStats.ChromStats.toString()).
+     * Entries that are missing or don't match the chromosome's Header (eg for
+     * alignments stored by an older server) are rebuilt from the hits first.
+     */
+    public void processStats() throws IOException {
+        assert(request != null);
+        assert(request.alignid != null);
+        AlignmentACL acl = null;
+        try {
+            acl = server.getACL(request.alignid);
+        } catch (IOException e) {
+            printString("No Such Alignment\n");
+            return;
+        }
+        if (!authorizeRead(acl)) {
+            printAuthError();
+            return;
+        }
+        AlignmentStats stats;
+        try {
+            stats = AlignmentStats.readFromFile(server.getStatsFileName(request.alignid));
+        } catch (IOException e) {
+            stats = new AlignmentStats();
+        }
+        if (!statsCurrent(stats)) {
+            Lock.writeLock(request.alignid);
+            stats = new AlignmentStats();
+            String[] types = {AlignmentStats.SINGLE, AlignmentStats.SINGLET2, AlignmentStats.PAIREDLEFT, AlignmentStats.PAIREDRIGHT};
+            for (String type : types) {
+                boolean paired = type.startsWith("paired"), isType2 = type.equals(AlignmentStats.SINGLET2), isLeft = type.equals(AlignmentStats.PAIREDLEFT);
+                for (int c : server.getChroms(request.alignid, isType2, paired, isLeft)) {
+                    Hits hits = paired ? server.getPairedHits(request.alignid, c, isLeft) : server.getSingleHits(request.alignid, c, isType2);
+                    stats.put(AlignmentStats.compute(hits, type, c));
+                }
+            }
+            stats.writeToFile(server.getStatsFileName(request.alignid));
         }
         printOK();
+        printString(stats.getEntries().size() + "\n");
+        for (AlignmentStats.ChromStats s : stats.getEntries()) {
+            printString(s.toString() + "\n");
+        }
+    }
+    /* true if stats has exactly the alignment's chromosomes, with the same numbers of hits as their Headers */
+    private boolean statsCurrent(AlignmentStats stats) {
+        try {
+            int entries = 0;
+            String[] types = {AlignmentStats.SINGLE, AlignmentStats.SINGLET2, AlignmentStats.PAIREDLEFT, AlignmentStats.PAIREDRIGHT};
+            for (String type : types) {
+                boolean paired = type.startsWith("paired"), isType2 = type.equals(AlignmentStats.SINGLET2), isLeft = type.equals(AlignmentStats.PAIREDLEFT);
+                for (int c : server.getChroms(request.alignid, isType2, paired, isLeft)) {
+                    AlignmentStats.ChromStats s = stats.get(type, c);
+                    Header header = paired ? server.getPairedHeader(request.alignid, c, isLeft) : server.getSingleHeader(request.alignid, c, isType2);
+                    if (s == null || s.getCount(null) != header.getNumHits()) {
+                        return false;
+                    }
+                    entries++;
+                }
+            }
+            return entries == stats.getEntries().size();
+        } catch (IOException e) {
+            return false;
+        }
     }
 
+    /* returns the coverage summary for the chromosome in the request, or null if
+       it doesn't have one or the summary is out of date with the header
+    */
+    private CoverageSummary getSummary(Header header) {
+        try {
+            CoverageSummary summary = request.isPaired ?
+                server.getPairedSummary(request.alignid, request.chromid, request.isLeft) :
+                server.getSingleSummary(request.alignid, request.chromid, request.isType2);
+            return summary.getNumHits() == header.getNumHits() ? summary : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
     public void processCount(Header header, Hits hits) throws IOException {
     	if(header==null || hits==null){
     		printOK();
     		printString("0\n");
     	}else{
 	        printOK();
-	        if (request.start == null && request.end == null && request.minWeight == null && request.isPlusStrand == null) {
+	        if (request.start == null && request.end == null && request.minWeight == null && request.isPlusStrand == null && pairFilter == null) {
 	            printString(Integer.toString(header.getNumHits()) + "\n");
 	            return;
 	        }
@@ -1101,8 +1445,17 @@ public class ServerTask {
 	        if (request.end == null) {
 	            request.end = Integer.MAX_VALUE;
 	        }
+	        CoverageSummary summary = getSummary(header);
+	        if (summary != null && request.minWeight == null && pairFilter == null && CoverageSummary.isCoarse(request.start, (long)request.end - request.start + 1)) {
+	            printString(Integer.toString(summary.getCountBetween(hits,header,request.start,request.end,request.isPlusStrand)) + "\n");
+	            return;
+	        }
 	        int first = header.getFirstIndex(request.start == null ? 0 : request.start);
 	        int last = header.getLastIndex(request.end == null ? Integer.MAX_VALUE : request.end);
+	        if (pairFilter != null) {
+	            printString(Integer.toString(((PairedHits)hits).getCountBetween(first,last,request.start,request.end,request.minWeight,request.isPlusStrand,pairFilter)) + "\n");
+	            return;
+	        }
 	        printString(Integer.toString(hits.getCountBetween(first,last,request.start,request.end,request.minWeight, request.isPlusStrand)) + "\n");
     	}
     }
@@ -1118,8 +1471,17 @@ public class ServerTask {
 	        if (request.end == null) {
 	            request.end = Integer.MAX_VALUE;
 	        }
+	        CoverageSummary summary = getSummary(header);
+	        if (summary != null && request.minWeight == null && pairFilter == null && CoverageSummary.isCoarse(request.start, (long)request.end - request.start + 1)) {
+	            printString(Double.toString(summary.getWeightBetween(hits,header,request.start,request.end,request.isPlusStrand)) + "\n");
+	            return;
+	        }
 	        int first = header.getFirstIndex(request.start);
 	        int last = header.getLastIndex(request.end);
+	        if (pairFilter != null) {
+	            printString(Double.toString(((PairedHits)hits).getWeightBetween(first,last,request.start,request.end,request.minWeight,request.isPlusStrand,pairFilter)) + "\n");
+	            return;
+	        }
 	        printString(Double.toString(hits.getWeightBetween(first,last,request.start,request.end,request.minWeight, request.isPlusStrand)) + "\n");
     	}
     }
@@ -1182,6 +1544,10 @@ public class ServerTask {
 	        }
 	        int first = header.getFirstIndex(request.start);
 	        int last = header.getLastIndex(request.end);
+	        if (pairFilter != null) {
+	            processFilteredPairs((PairedHits)hits, first, last);
+	            return;
+	        }
 	        if (request.start == 0 && request.end == Integer.MAX_VALUE && request.minWeight == null && request.isPlusStrand == null) {
 	            count = header.getNumHits();
 	        } else {
@@ -1191,30 +1557,54 @@ public class ServerTask {
 	        printString(Integer.toString(count) + "\n");
 	        if (request.map.containsKey("wantpositions")) {
 	            IntBP p = hits.getHitsBetween(first,last,request.start,request.end,request.minWeight,request.isPlusStrand);
-	            Bits.sendBytes(p.bb, outchannel);
+	            sendBytes(p.bb);
 	        }
 	        if (request.map.containsKey("wantweights")) {
 	            FloatBP p = hits.getWeightsBetween(first,last,request.start,request.end,request.minWeight,request.isPlusStrand);
-	            Bits.sendBytes(p.bb, outchannel);
+	            sendBytes(p.bb);
 	        }
 	        if (request.map.containsKey("wantpaircodes")) {
 	        	IntBP p = ((PairedHits)hits).getPairCodesBetween(first,last,request.start,request.end,request.minWeight,request.isPlusStrand);
-	            Bits.sendBytes(p.bb, outchannel);
+	            sendBytes(p.bb);
 	        }
 	        if (request.map.containsKey("wantlengthsandstrands")) {
 	            IntBP p = hits.getLASBetween(first,last,request.start,request.end,request.minWeight,request.isPlusStrand);
-	            Bits.sendBytes(p.bb, outchannel);
+	            sendBytes(p.bb);
 	        }
 	        if (request.map.containsKey("wantotherchroms")) {
 	            IntBP p = ((PairedHits)hits).getOtherChromsBetween(first,last,request.start,request.end,request.minWeight,request.isPlusStrand);
-	            Bits.sendBytes(p.bb, outchannel);
+	            sendBytes(p.bb);
 	        }
 	        if (request.map.containsKey("wantotherpositions")) {
 	            IntBP p = ((PairedHits)hits).getOtherPositionsBetween(first,last,request.start,request.end,request.minWeight,request.isPlusStrand);
-	            Bits.sendBytes(p.bb, outchannel);
+	            sendBytes(p.bb);
 	        }
     	}
     }
+    /* gethits for paired hits with a PairFilter: sends the requested columns for the pairs that pass it */
+    private void processFilteredPairs(PairedHits hits, int first, int last) throws IOException {
+        int[] indices = hits.getFilteredIndices(first,last,request.start,request.end,request.minWeight,request.isPlusStrand,pairFilter);
+        printOK();
+        printString(Integer.toString(indices.length) + "\n");
+        if (request.map.containsKey("wantpositions")) {
+            sendBytes(PairedHits.getIntsAt(hits.getPositionsBuffer(), indices).bb);
+        }
+        if (request.map.containsKey("wantweights")) {
+            sendBytes(hits.getWeightsAt(indices).bb);
+        }
+        if (request.map.containsKey("wantpaircodes")) {
+            sendBytes(PairedHits.getIntsAt(hits.getPairCodeBuffer(), indices).bb);
+        }
+        if (request.map.containsKey("wantlengthsandstrands")) {
+            sendBytes(PairedHits.getIntsAt(hits.getLASBuffer(), indices).bb);
+        }
+        if (request.map.containsKey("wantotherchroms")) {
+            sendBytes(PairedHits.getIntsAt(hits.getChromsBuffer(), indices).bb);
+        }
+        if (request.map.containsKey("wantotherpositions")) {
+            sendBytes(PairedHits.getIntsAt(hits.getOtherPosBuffer(), indices).bb);
+        }
+    }
     public void processHistogram(Header header, Hits hits) throws IOException {
     	if(header==null || hits==null){
     		printOK();
@@ -1243,17 +1633,23 @@ public class ServerTask {
 	        if(request.map.containsKey("extension")) {
 	        	extension = Integer.parseInt(request.map.get("extension"));
 	        }
-	        int first = header.getFirstIndex(request.start);
-	        int last = header.getLastIndex(request.end);
-	        int[] raw = hits.histogram(first,
-	                                   last,
-	                                   request.start,
-	                                   request.end,
-	                                   binsize,
-	                                   dedup,
-	                                   request.minWeight,
-	                                   request.isPlusStrand,
-	                                   extension);
+	        int[] raw;
+	        CoverageSummary summary = getSummary(header);
+	        if (summary != null && dedup == 0 && extension == 0 && request.minWeight == null && CoverageSummary.isCoarse(request.start, binsize)) {
+	            raw = summary.histogram(hits, header, request.start, request.end, binsize, request.isPlusStrand);
+	        } else {
+	            int first = header.getFirstIndex(request.start);
+	            int last = header.getLastIndex(request.end);
+	            raw = hits.histogram(first,
+	                                 last,
+	                                 request.start,
+	                                 request.end,
+	                                 binsize,
+	                                 dedup,
+	                                 request.minWeight,
+	                                 request.isPlusStrand,
+	                                 extension);
+	        }
 	        int n = 0;
 	        for (int i = 0; i< raw.length; i++) {
 	            if (raw[i] > 0) {
@@ -1269,9 +1665,8 @@ public class ServerTask {
 	                pos++;
 	            }
 	        }
-	        printOK();
-	        printString(Integer.toString(hist.length) + "\n");
-	        Bits.sendInts(hist, outstream, buffer);
+	        cacheResult(hist, null);
+	        sendHistogram(hist, null);
     	}
     }
 
@@ -1309,17 +1704,23 @@ public class ServerTask {
 	        if(request.map.containsKey("extension")) {
 	        	extension = Integer.parseInt(request.map.get("extension"));
 	        }
-	        int first = header.getFirstIndex(request.start);
-	        int last = header.getLastIndex(request.end);
-	        float[] raw = hits.weightHistogram(first,
-	                                           last,
-	                                           request.start,
-	                                           request.end,
-	                                           binsize,
-	                                           dedup,
-	                                           request.minWeight,
-	                                           request.isPlusStrand,
-	                                           extension);
+	        float[] raw;
+	        CoverageSummary summary = getSummary(header);
+	        if (summary != null && dedup == 0 && extension == 0 && request.minWeight == null && CoverageSummary.isCoarse(request.start, binsize)) {
+	            raw = summary.weightHistogram(hits, header, request.start, request.end, binsize, request.isPlusStrand);
+	        } else {
+	            int first = header.getFirstIndex(request.start);
+	            int last = header.getLastIndex(request.end);
+	            raw = hits.weightHistogram(first,
+	                                       last,
+	                                       request.start,
+	                                       request.end,
+	                                       binsize,
+	                                       dedup,
+	                                       request.minWeight,
+	                                       request.isPlusStrand,
+	                                       extension);
+	        }
 	        int n = 0;
 	        for (int i = 0; i< raw.length; i++) {
 	            if (raw[i] > 0) {
@@ -1336,12 +1737,86 @@ public class ServerTask {
 	                pos++;
 	            }
 	        }
-	        printOK();
-	        printString(Integer.toString(parray.length) + "\n");
-	        Bits.sendInts(parray, outstream, buffer);        
-	        Bits.sendFloats(farray, outstream, buffer);
+	        cacheResult(parray, farray);
+	        sendHistogram(parray, farray);
     	}
     }
+    /* returns a histogram of fragment midpoints for paired hits in a region.  Inputs
+     * start, end, binsize and optionally a PairFilter.  Bins with zero count are not included.
+     */
+    public void processMidpointHistogram(Header header, Hits hits) throws IOException {
+        if (!request.isPaired) {
+            printInvalid("midpointhistogram needs paired hits");
+            return;
+        }
+        if(header==null || hits==null){
+            printOK();
+            printString("0\n");
+            return;
+        }
+        IntBP ib = hits.getPositionsBuffer();
+        if (ib.limit() == 0) {
+            printOK();
+            printString("0\n");
+            return;
+        }
+        int binsize;
+        try {
+            binsize = Integer.parseInt(request.map.get("binsize"));
+            if (binsize <= 0) {
+                throw new NumberFormatException();
+            }
+        } catch (Exception e) {
+            printString("missing or invalid bin size : " + request.map.get("binsize") + "\n");
+            return;
+        }
+        if (request.start == null) {
+            request.start = ib.get(0);
+        }
+        if (request.end == null) {
+            request.end = ib.get(ib.limit()-1);
+        }
+        int reach = (pairFilter == null ? new PairFilter() : pairFilter).getReach();
+        int scanstart = Math.max(0, request.start - reach);
+        int scanstop = (int)Math.min(Integer.MAX_VALUE, (long)request.end + reach);
+        int[] raw = ((PairedHits)hits).midpointHistogram(header.getFirstIndex(scanstart),
+                                                         header.getLastIndex(scanstop),
+                                                         scanstart, scanstop,
+                                                         request.start, request.end,
+                                                         binsize, request.minWeight, pairFilter);
+        int n = 0;
+        for (int i = 0; i< raw.length; i++) {
+            if (raw[i] > 0) {
+                n++;
+            }
+        }
+        int[] hist = new int[n*2];
+        int pos = 0;
+        for (int i = 0; i< raw.length; i++) {
+            if (raw[i] > 0) {
+                hist[pos*2] = request.start + binsize * i + binsize / 2;
+                hist[pos*2+1] = raw[i];
+                pos++;
+            }
+        }
+        cacheResult(hist, null);
+        sendHistogram(hist, null);
+    }
+    /* keeps a histogram for the current request in the result cache if it's cacheable */
+    private void cacheResult(int[] ints, float[] floats) {
+        if (resultKey != null) {
+            server.getResultCache().put(request.alignid, request.chromid, resultKey, new ResultCache.Result(ints, floats));
+        }
+    }
+    /* sends OK, the number of bins, then the ints and, for weight histograms, the floats */
+    private void sendHistogram(int[] ints, float[] floats) throws IOException {
+        printOK();
+        printString(Integer.toString(ints.length) + "\n");
+        sendInts(ints);
+        if (floats != null) {
+            sendFloats(floats);
+        }
+    }
     public void processCheckSort(Header header, Hits hits) throws IOException {
     	if(header==null || hits==null){
             printString("File does not exist for this chromosome");
@@ -1364,8 +1839,12 @@ public class ServerTask {
 	                
 	                server.removeSingleHits(request.alignid, request.chromid, request.isType2);
 	                server.removeSingleHeader(request.alignid, request.chromid, request.isType2);       
+	                server.removeSingleSummary(request.alignid, request.chromid, request.isType2);
 	                hits = server.getSingleHits(request.alignid, request.chromid, request.isType2);
 	                
+	                CoverageSummary.writeSummaryFile(hits, server.getSingleSummaryFileName(request.alignid,
+	                                                                                       request.chromid,
+	                                                                                       request.isType2));
 	                header = new Header(hits.getPositionsBuffer().getib());
 	                header.writeIndexFile(server.getSingleHeaderFileName(request.alignid,
 	                                                                     request.chromid,
@@ -1379,6 +1858,30 @@ public class ServerTask {
 	        printOK();
     	}
     }
+    /* counts the bytes sent to the client and the time spent sending them */
+    private class CountingOutputStream extends FilterOutputStream {
+        public CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+        public void write(int b) throws IOException {
+            long start = System.nanoTime();
+            out.write(b);
+            writeNanos += System.nanoTime() - start;
+            bytesSent++;
+        }
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            out.write(b, off, len);
+            writeNanos += System.nanoTime() - start;
+            bytesSent += len;
+        }
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            out.flush();
+            writeNanos += System.nanoTime() - start;
+        }
+    }
+
     public String toString() {
         return String.format("thread %s, user %s, remote %s:%d",
                              Thread.currentThread().toString(),
@@ -0,0 +1,740 @@
+package org.seqcode.data.readdb.tools;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.commons.cli.*;
+import org.seqcode.data.readdb.*;
+
+import htsjdk.samtools.AlignmentBlock;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.util.CloseableIterator;
+
+/**
+ * Loads SAM or BAM data straight into a new alignment in a readdb data directory, in place of
+ * SAMToReadDB | ImportHits.  Hits are chosen and weighted as by SAMToReadDB, with the same options.
+ *
+ * BAM input is inflated in parallel (see ParallelBGZFInputStream) and its records are decoded
+ * without building SAMRecords; SAM input is read with htsjdk.  Hits are collected in primitive
+ * arrays, and each full run is sorted and spilled to a temporary file on a worker thread while
+ * reading continues.  The runs are then merged chromosome by chromosome, in parallel, into the
+ * final hits files, and each chromosome gets its Header, CoverageSummary and AlignmentStats
+ * entry as from the server.
+ * Memory use is bounded by the run size and, during the merge, by the largest chromosomes.
+ *
+ * Reference names must be readdb chromosome ids unless --chrommap gives a file of
+ * name\tid lines; hits on other references are skipped.  The alignment must not exist yet (use
+ * ImportHits to add to an existing alignment), so a running server needn't be stopped.
+ *
+ * Usage: java org.seqcode.data.readdb.tools.BAMToReadDB --datadir /path/to/data --align alignid [options] [file.bam]
+ * (reads stdin if no file is given)
+ */
+public class BAMToReadDB {
+
+    private static final int FLAG_PAIRED = 0x1, FLAG_PROPER = 0x2, FLAG_UNMAPPED = 0x4, FLAG_NEGATIVE = 0x10,
+        FLAG_MATE_NEGATIVE = 0x20, FLAG_FIRST = 0x40, FLAG_SECOND = 0x80, FLAG_SUPPLEMENTARY = 0x800;
+
+    private String datadir, alignid, username;
+    private boolean uniqueOnly, inclPairedEnd, inclJunction, read1, read2, isType2;
+    private Map<String,Integer> chromMap = null;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int runSize = 4000000;
+    private File tmpdir = null;
+
+    private Server server;
+    private ExecutorService pool;
+    private int[] refChroms;
+    private HitRuns singles, lefts, rights;
+    private List<Alignment> group = new ArrayList<Alignment>();
+    private String lastName = "";
+    private AlignmentStats stats = new AlignmentStats();
+    private long numRecords = 0, numHits = 0, numSkipped = 0;
+
+    public static void main(String args[]) throws IOException, ParseException {
+        BAMToReadDB loader = new BAMToReadDB();
+        String[] files = loader.parseArgs(args);
+        InputStream in = files.length > 0 ? new FileInputStream(files[0]) : System.in;
+        loader.run(in);
+        in.close();
+    }
+
+    /* returns the remaining (file name) arguments */
+    public String[] parseArgs(String args[]) throws IOException, ParseException {
+        Options options = new Options();
+        options.addOption("d","datadir",true,"readdb data directory");
+        options.addOption("a","align",true,"alignment name");
+        options.addOption("U","user",true,"user to own the alignment (default: current user)");
+        options.addOption("u","uniquehits",false,"only load hits with a single mapping");
+        options.addOption("p","pairedend",false,"load paired-end hits");
+        options.addOption("j","junctions",false,"load junction mapping reads (reads with a single gap)");
+        options.addOption("1","read1",false,"load only read 1 hits");
+        options.addOption("2","read2",false,"load only read 2 hits");
+        options.addOption("t2","type2",false,"store single-end hits as type2 hits");
+        options.addOption("c","chrommap",true,"file of reference name<tab>chromosome id lines");
+        options.addOption("t","threads",true,"number of worker threads");
+        options.addOption("r","runsize",true,"number of hits to sort in memory at once");
+        options.addOption("x","tmpdir",true,"directory for the sorted runs");
+        options.addOption("h","help",false,"print help message");
+        CommandLineParser parser = new GnuParser();
+        CommandLine cl = parser.parse( options, args, false );
+        if (cl.hasOption("help") || !cl.hasOption("datadir") || !cl.hasOption("align")) {
+            printHelp();
+            System.exit(cl.hasOption("help") ? 0 : 1);
+        }
+        datadir = cl.getOptionValue("datadir");
+        alignid = cl.getOptionValue("align");
+        username = cl.hasOption("user") ? cl.getOptionValue("user") : System.getProperty("user.name");
+        uniqueOnly = cl.hasOption("uniquehits");
+        inclPairedEnd = cl.hasOption("pairedend");
+        inclJunction = cl.hasOption("junctions");
+        read1 = cl.hasOption("read1");
+        read2 = cl.hasOption("read2");
+        isType2 = cl.hasOption("type2");
+        if (cl.hasOption("threads")) {
+            threads = Math.max(1, Integer.parseInt(cl.getOptionValue("threads")));
+        }
+        if (cl.hasOption("runsize")) {
+            runSize = Math.max(1, Integer.parseInt(cl.getOptionValue("runsize")));
+        }
+        if (cl.hasOption("tmpdir")) {
+            tmpdir = new File(cl.getOptionValue("tmpdir"));
+        }
+        if (cl.hasOption("chrommap")) {
+            chromMap = new HashMap<String,Integer>();
+            BufferedReader reader = new BufferedReader(new FileReader(cl.getOptionValue("chrommap")));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String pieces[] = line.trim().split("\\t");
+                if (pieces.length == 2) {
+                    chromMap.put(pieces[0], Integer.parseInt(pieces[1]));
+                }
+            }
+            reader.close();
+        }
+        return cl.getArgs();
+    }
+    public void printHelp() {
+        System.out.println("BAMToReadDB: load SAM or BAM straight into a readdb data directory");
+        System.out.println("usage: java org.seqcode.data.readdb.tools.BAMToReadDB --datadir /path/to/data --align alignmentname [file.bam]");
+        System.out.println(" [--user name] owner of the new alignment");
+        System.out.println(" [--uniquehits] [--pairedend] [--junctions] [--read1] [--read2] as for SAMToReadDB");
+        System.out.println(" [--type2] store single-end hits as type 2 hits");
+        System.out.println(" [--chrommap file] map reference names to chromosome ids (name<tab>id per line)");
+        System.out.println(" [--threads n] [--runsize 4000000] [--tmpdir dir]");
+        System.out.println(" [--help] print usage");
+    }
+
+    public void run(InputStream instream) throws IOException {
+        long t0 = System.currentTimeMillis();
+        server = new Server();
+        try {
+            server.parseArgs(new String[]{"--datadir", datadir});
+        } catch (ParseException e) {
+            throw new RuntimeException(e);
+        }
+        File dir = new File(server.getAlignmentDir(alignid));
+        if (dir.exists()) {
+            throw new IllegalArgumentException("Alignment " + alignid + " already exists in " + datadir + "; use ImportHits to add to it");
+        }
+        if (!dir.mkdirs()) {
+            throw new IOException("Can't create " + dir);
+        }
+        pool = Executors.newFixedThreadPool(threads);
+        try {
+            singles = new HitRuns(false);
+            lefts = new HitRuns(true);
+            rights = new HitRuns(true);
+
+            BufferedInputStream in = new BufferedInputStream(instream, 1 << 16);
+            in.mark(2);
+            boolean bgzf = in.read() == 31 && in.read() == 139;
+            in.reset();
+            if (bgzf) {
+                readBAM(new ParallelBGZFInputStream(in, pool, threads * 4));
+            } else {
+                readSAM(in);
+            }
+            if (group.size() > 0) {
+                processRecord(group);
+            }
+            System.err.println(String.format("Read %d records, %d hits (%d skipped on unknown chromosomes) in %d s",
+                                             numRecords, numHits, numSkipped, (System.currentTimeMillis() - t0) / 1000));
+
+            List<Future<Void>> merges = new ArrayList<Future<Void>>();
+            singles.merge(merges, false, isType2);
+            lefts.merge(merges, true, true);
+            rights.merge(merges, true, false);
+            for (Future<Void> f : merges) {
+                f.get();
+            }
+            singles.delete();
+            lefts.delete();
+            rights.delete();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        stats.writeToFile(server.getStatsFileName(alignid));
+        /* written last so that a failed load isn't readable */
+        AlignmentACL acl = new AlignmentACL();
+        try {
+            acl.readFromFile(server.getDefaultACLFileName());
+        } catch (IOException e) {
+            // no default acl, so don't worry.
+        }
+        acl.addOwner(username);
+        acl.writeToFile(server.getACLFileName(alignid));
+        System.err.println(String.format("Stored %s in %d s", alignid, (System.currentTimeMillis() - t0) / 1000));
+    }
+
+    /* maps reference indices to readdb chromosome ids, or -1 */
+    private void setReferences(String[] names) {
+        refChroms = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            if (chromMap != null) {
+                Integer c = chromMap.get(names[i]);
+                refChroms[i] = c == null ? -1 : c;
+            } else {
+                try {
+                    refChroms[i] = Integer.parseInt(names[i]);
+                } catch (NumberFormatException e) {
+                    refChroms[i] = -1;
+                }
+            }
+            if (refChroms[i] == -1) {
+                System.err.println("No chromosome id for reference " + names[i] + "; its hits will be skipped");
+            }
+        }
+    }
+    private int chromFor(int ref) {
+        return ref >= 0 && ref < refChroms.length ? refChroms[ref] : -1;
+    }
+
+    /* the fields of a SAM/BAM record that hits are built from.  Positions are 1-based */
+    private static class Alignment {
+        String name;
+        int flags, ref, start, end, mapq, readLength, mateRef, mateStart;
+        Integer nh;
+        int[] blockStarts, blockLengths;
+        boolean has(int flag) {return (flags & flag) != 0;}
+    }
+
+    private void readBAM(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] buf = new byte[1 << 16];
+        data.readFully(buf, 0, 4);
+        if (buf[0] != 'B' || buf[1] != 'A' || buf[2] != 'M' || buf[3] != 1) {
+            throw new IOException("Not a BAM file");
+        }
+        byte[] text = new byte[readInt32(data, buf)];
+        data.readFully(text);
+        String[] names = new String[readInt32(data, buf)];
+        for (int i = 0; i < names.length; i++) {
+            byte[] name = new byte[readInt32(data, buf)];
+            data.readFully(name);
+            names[i] = new String(name, 0, name.length - 1, "US-ASCII");
+            readInt32(data, buf);
+        }
+        setReferences(names);
+
+        while (true) {
+            int first = data.read();
+            if (first == -1) {
+                break;
+            }
+            buf[0] = (byte)first;
+            data.readFully(buf, 1, 3);
+            int size = ByteBuffer.wrap(buf, 0, 4).order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+            if (buf.length < size) {
+                buf = new byte[size * 2];
+            }
+            data.readFully(buf, 0, size);
+            ByteBuffer bb = ByteBuffer.wrap(buf, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+            Alignment a = new Alignment();
+            a.ref = bb.getInt(0);
+            a.start = bb.getInt(4) + 1;
+            int nameLength = buf[8] & 0xff;
+            a.mapq = buf[9] & 0xff;
+            int numCigar = bb.getShort(12) & 0xffff;
+            a.flags = bb.getShort(14) & 0xffff;
+            a.readLength = bb.getInt(16);
+            a.mateRef = bb.getInt(20);
+            a.mateStart = bb.getInt(24) + 1;
+            a.name = new String(buf, 32, nameLength - 1, "US-ASCII");
+
+            /* alignment blocks are the M, = and X operations; D and N skip reference */
+            int cigar = 32 + nameLength, refLength = 0, numBlocks = 0;
+            for (int i = 0; i < numCigar; i++) {
+                int op = bb.getInt(cigar + 4*i) & 0xf;
+                numBlocks += (op == 0 || op == 7 || op == 8) ? 1 : 0;
+            }
+            if (inclJunction) {
+                a.blockStarts = new int[numBlocks];
+                a.blockLengths = new int[numBlocks];
+            }
+            for (int i = 0, b = 0; i < numCigar; i++) {
+                int op = bb.getInt(cigar + 4*i), len = op >>> 4;
+                op &= 0xf;
+                if (op == 0 || op == 7 || op == 8) {
+                    if (inclJunction) {
+                        a.blockStarts[b] = a.start + refLength;
+                        a.blockLengths[b] = len;
+                    }
+                    b++;
+                    refLength += len;
+                } else if (op == 2 || op == 3) {
+                    refLength += len;
+                }
+            }
+            a.end = a.start + refLength - 1;
+            a.nh = findNH(buf, bb, cigar + 4*numCigar + (a.readLength + 1)/2 + a.readLength, size);
+            addRecord(a);
+        }
+        in.close();
+    }
+    private static int readInt32(DataInputStream data, byte[] buf) throws IOException {
+        data.readFully(buf, 0, 4);
+        return ByteBuffer.wrap(buf, 0, 4).order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+    }
+    /* value of the NH tag in the auxiliary fields from i to end, or null */
+    private static Integer findNH(byte[] buf, ByteBuffer bb, int i, int end) {
+        while (i + 3 <= end) {
+            boolean nh = buf[i] == 'N' && buf[i+1] == 'H';
+            char type = (char)buf[i+2];
+            i += 3;
+            int width;
+            switch (type) {
+            case 'A': case 'c': case 'C': width = 1; break;
+            case 's': case 'S': width = 2; break;
+            case 'i': case 'I': case 'f': width = 4; break;
+            case 'Z': case 'H':
+                while (i < end && buf[i] != 0) { i++; }
+                i++;
+                continue;
+            case 'B':
+                char sub = (char)buf[i];
+                width = (sub == 'c' || sub == 'C') ? 1 : ((sub == 's' || sub == 'S') ? 2 : 4);
+                i += 5 + bb.getInt(i+1) * width;
+                continue;
+            default:
+                return null;
+            }
+            if (nh) {
+                switch (type) {
+                case 'c': return (int)buf[i];
+                case 'C': return buf[i] & 0xff;
+                case 's': return (int)bb.getShort(i);
+                case 'S': return bb.getShort(i) & 0xffff;
+                case 'i': case 'I': return bb.getInt(i);
+                default: return null;
+                }
+            }
+            i += width;
+        }
+        return null;
+    }
+
+    private void readSAM(InputStream in) throws IOException {
+        SamReaderFactory factory =
+            SamReaderFactory.makeDefault()
+            .enable(SamReaderFactory.Option.INCLUDE_SOURCE_IN_RECORDS, SamReaderFactory.Option.VALIDATE_CRC_CHECKSUMS)
+            .validationStringency(ValidationStringency.SILENT);
+        SamReader reader = factory.open(SamInputResource.of(in));
+        List<SAMSequenceRecord> seqs = reader.getFileHeader().getSequenceDictionary().getSequences();
+        String[] names = new String[seqs.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = seqs.get(i).getSequenceName();
+        }
+        setReferences(names);
+        CloseableIterator<SAMRecord> iter = reader.iterator();
+        while (iter.hasNext()) {
+            SAMRecord record = iter.next();
+            Alignment a = new Alignment();
+            a.name = record.getReadName();
+            a.flags = record.getFlags();
+            a.ref = record.getReferenceIndex();
+            a.start = record.getAlignmentStart();
+            a.end = record.getAlignmentEnd();
+            a.mapq = record.getMappingQuality();
+            a.readLength = record.getReadLength();
+            a.mateRef = record.getMateReferenceIndex();
+            a.mateStart = record.getMateAlignmentStart();
+            a.nh = record.getIntegerAttribute("NH");
+            if (inclJunction && !a.has(FLAG_UNMAPPED)) {
+                List<AlignmentBlock> blocks = record.getAlignmentBlocks();
+                a.blockStarts = new int[blocks.size()];
+                a.blockLengths = new int[blocks.size()];
+                for (int b = 0; b < blocks.size(); b++) {
+                    a.blockStarts[b] = blocks.get(b).getReferenceStart();
+                    a.blockLengths[b] = blocks.get(b).getLength();
+                }
+            }
+            addRecord(a);
+        }
+        iter.close();
+        reader.close();
+    }
+
+    /* groups neighboring records by read name, as in SAMToReadDB */
+    private void addRecord(Alignment a) {
+        if (++numRecords % 10000000 == 0) {
+            System.err.println("Read through record " + numRecords);
+        }
+        if (a.has(FLAG_UNMAPPED) || a.has(FLAG_SUPPLEMENTARY)) {
+            return;
+        }
+        if (!a.name.equals(lastName) && group.size() > 0) {
+            processRecord(group);
+            group.clear();
+        }
+        group.add(a);
+        lastName = a.name;
+    }
+    /* same choice of hits and weights as SAMToReadDB.processRecord */
+    private void processRecord(List<Alignment> records) {
+        boolean currUnique = false;
+        int lcount = 0, rcount = 0;
+        for (Alignment record : records) {
+            if (!record.has(FLAG_PAIRED) || record.has(FLAG_FIRST)) {
+                lcount++;
+            } else {
+                rcount++;
+            }
+        }
+        for (Alignment record : records) {
+            int count = lcount;
+            if (record.has(FLAG_PAIRED) && record.has(FLAG_SECOND)) {
+                count = rcount;
+            }
+            if (record.nh != null) {
+                count = record.nh;
+            }
+            if (count == 1 && record.mapq != 0) {
+                currUnique = true;
+            }
+            float weight = 1/(float)count;
+            boolean neg = record.has(FLAG_NEGATIVE);
+            short len = (short)record.readLength;
+
+            if (inclPairedEnd || inclJunction) {
+                if (inclPairedEnd && record.has(FLAG_PAIRED) && record.has(FLAG_FIRST) && record.has(FLAG_PROPER)
+                    && (!uniqueOnly || currUnique)) {
+                    boolean mateneg = record.has(FLAG_MATE_NEGATIVE);
+                    addPair(record.ref, neg ? record.end : record.start, !neg, len,
+                            record.mateRef, mateneg ? record.mateStart + record.readLength - 1 : record.mateStart, !mateneg, len,
+                            weight, 1);
+                }
+                if (inclJunction && (!uniqueOnly || currUnique) && record.blockStarts.length >= 2) {
+                    for (int ab = 0; ab < record.blockStarts.length - 1; ab++) {
+                        int lStart = record.blockStarts[ab], lLen = record.blockLengths[ab];
+                        int rStart = record.blockStarts[ab+1], rLen = record.blockLengths[ab+1];
+                        addPair(record.ref, neg ? lStart + lLen - 1 : lStart, !neg, (short)lLen,
+                                record.ref, neg ? rStart + rLen - 1 : rStart, !neg, (short)rLen,
+                                weight, 0);
+                    }
+                }
+            } else {
+                if (uniqueOnly && !currUnique) {
+                    return;
+                }
+                if ((!read1 && !read2) || !record.has(FLAG_PAIRED) || (read1 && record.has(FLAG_FIRST)) || (read2 && record.has(FLAG_SECOND))) {
+                    int chrom = chromFor(record.ref);
+                    if (chrom == -1) {
+                        numSkipped++;
+                        continue;
+                    }
+                    singles.add(chrom, neg ? record.end : record.start, Hits.makeLAS(len, !neg), weight, 0, 0, 0);
+                    numHits++;
+                }
+            }
+        }
+    }
+    private void addPair(int leftRef, int leftPos, boolean leftStrand, short leftLen,
+                         int rightRef, int rightPos, boolean rightStrand, short rightLen,
+                         float weight, int pairCode) {
+        int leftChrom = chromFor(leftRef), rightChrom = chromFor(rightRef);
+        if (leftChrom == -1 || rightChrom == -1) {
+            numSkipped++;
+            return;
+        }
+        lefts.add(leftChrom, leftPos, Hits.makeLAS(leftLen, leftStrand, rightLen, rightStrand), weight, rightChrom, rightPos, pairCode);
+        rights.add(rightChrom, rightPos, Hits.makeLAS(rightLen, rightStrand, leftLen, leftStrand), weight, leftChrom, leftPos, pairCode);
+        numHits++;
+    }
+
+    /* hits sorted by chromosome and then as in the hits files: position, other chromosome and
+       position, and lengths (PairedHitLeftComparator and PairedHitRightComparator) */
+    private interface Order {
+        int compare(int i, int j);
+    }
+    private static int compareHits(int pos1, int oc1, int op1, int las1, int pos2, int oc2, int op2, int las2) {
+        int result = Integer.compare(pos1, pos2);
+        if (result == 0) { result = Integer.compare(oc1, oc2); }
+        if (result == 0) { result = Integer.compare(op1, op2); }
+        if (result == 0) { result = Integer.compare(Hits.getLengthOne(las1), Hits.getLengthOne(las2)); }
+        if (result == 0) { result = Integer.compare(Hits.getLengthTwo(las1), Hits.getLengthTwo(las2)); }
+        return result;
+    }
+    /* stable merge sort of idx[lo,hi) */
+    private static void sort(int[] idx, int[] tmp, int lo, int hi, Order order) {
+        if (hi - lo < 16) {
+            for (int i = lo + 1; i < hi; i++) {
+                int v = idx[i], j = i;
+                while (j > lo && order.compare(idx[j-1], v) > 0) {
+                    idx[j] = idx[j-1];
+                    j--;
+                }
+                idx[j] = v;
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        sort(idx, tmp, lo, mid, order);
+        sort(idx, tmp, mid, hi, order);
+        if (order.compare(idx[mid-1], idx[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(idx, lo, tmp, lo, hi - lo);
+        for (int k = lo, i = lo, j = mid; k < hi; k++) {
+            if (j >= hi || (i < mid && order.compare(tmp[i], tmp[j]) <= 0)) {
+                idx[k] = tmp[i++];
+            } else {
+                idx[k] = tmp[j++];
+            }
+        }
+    }
+
+    /* a sorted run on disk: for each chromosome, the index of its first hit and the number of hits */
+    private static class Run {
+        File file;
+        TreeMap<Integer,int[]> segments = new TreeMap<Integer,int[]>();
+    }
+
+    /**
+     * Hits for one kind of hits file (single, or one side of the paired hits), collected into sorted runs
+     */
+    private class HitRuns {
+        private boolean paired;
+        private int size;
+        private int[] chrom, pos, las, weight, otherChrom, otherPos, pairCode;
+        private List<Future<Run>> runs = new ArrayList<Future<Run>>();
+
+        public HitRuns(boolean paired) {
+            this.paired = paired;
+        }
+        public void add(int c, int p, int l, float w, int oc, int op, int pc) {
+            if (chrom == null) {
+                chrom = new int[runSize];
+                pos = new int[runSize];
+                las = new int[runSize];
+                weight = new int[runSize];
+                if (paired) {
+                    otherChrom = new int[runSize];
+                    otherPos = new int[runSize];
+                    pairCode = new int[runSize];
+                }
+                size = 0;
+            }
+            chrom[size] = c;
+            pos[size] = p;
+            las[size] = l;
+            weight[size] = Float.floatToRawIntBits(w);
+            if (paired) {
+                otherChrom[size] = oc;
+                otherPos[size] = op;
+                pairCode[size] = pc;
+            }
+            if (++size == runSize) {
+                flush();
+            }
+        }
+        /* hands the current run to the pool to be sorted and written */
+        private void flush() {
+            if (chrom == null) {
+                return;
+            }
+            /* bound the number of runs waiting in memory */
+            if (runs.size() >= threads) {
+                try {
+                    runs.get(runs.size() - threads).get();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            final int n = size;
+            final int[] c = chrom, p = pos, l = las, w = weight, oc = otherChrom, op = otherPos, pc = pairCode;
+            chrom = null;
+            runs.add(pool.submit(new Callable<Run>() {
+                    public Run call() throws IOException {
+                        int[] idx = new int[n];
+                        for (int i = 0; i < n; i++) {
+                            idx[i] = i;
+                        }
+                        sort(idx, new int[n], 0, n, new Order() {
+                                public int compare(int i, int j) {
+                                    if (c[i] != c[j]) {
+                                        return Integer.compare(c[i], c[j]);
+                                    }
+                                    return paired ? compareHits(p[i], oc[i], op[i], l[i], p[j], oc[j], op[j], l[j]) : Integer.compare(p[i], p[j]);
+                                }
+                            });
+                        Run run = new Run();
+                        run.file = File.createTempFile("readdb", ".run", tmpdir);
+                        run.file.deleteOnExit();
+                        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run.file), 1 << 16));
+                        for (int k = 0; k < n; k++) {
+                            int i = idx[k];
+                            int[] segment = run.segments.get(c[i]);
+                            if (segment == null) {
+                                segment = new int[]{k, 0};
+                                run.segments.put(c[i], segment);
+                            }
+                            segment[1]++;
+                            out.writeInt(p[i]);
+                            out.writeInt(l[i]);
+                            out.writeInt(w[i]);
+                            if (paired) {
+                                out.writeInt(oc[i]);
+                                out.writeInt(op[i]);
+                                out.writeInt(pc[i]);
+                            }
+                        }
+                        out.close();
+                        return run;
+                    }
+                }));
+        }
+        /* submits one merge per chromosome */
+        public void merge(List<Future<Void>> merges, final boolean isPaired, final boolean flag) throws InterruptedException, ExecutionException {
+            flush();
+            final List<Run> done = new ArrayList<Run>();
+            Set<Integer> chroms = new TreeSet<Integer>();
+            for (Future<Run> f : runs) {
+                done.add(f.get());
+                chroms.addAll(done.get(done.size() - 1).segments.keySet());
+            }
+            for (final int c : chroms) {
+                merges.add(pool.submit(new Callable<Void>() {
+                        public Void call() throws IOException {
+                            mergeChrom(done, c, isPaired, flag);
+                            return null;
+                        }
+                    }));
+            }
+        }
+        /* merges the chromosome's hits from all the runs and writes its hits, summary, and header files */
+        private void mergeChrom(List<Run> done, int c, boolean isPaired, boolean flag) throws IOException {
+            int width = paired ? 24 : 12;
+            PriorityQueue<Cursor> queue = new PriorityQueue<Cursor>(Math.max(1, done.size()), new Comparator<Cursor>() {
+                    public int compare(Cursor a, Cursor b) {
+                        int result = paired ? compareHits(a.pos, a.otherChrom, a.otherPos, a.las, b.pos, b.otherChrom, b.otherPos, b.las) :
+                            Integer.compare(a.pos, b.pos);
+                        return result == 0 ? Integer.compare(a.run, b.run) : result;
+                    }
+                });
+            int total = 0;
+            for (int r = 0; r < done.size(); r++) {
+                int[] segment = done.get(r).segments.get(c);
+                if (segment == null) {
+                    continue;
+                }
+                FileInputStream fis = new FileInputStream(done.get(r).file);
+                fis.getChannel().position((long)segment[0] * width);
+                Cursor cursor = new Cursor(new DataInputStream(new BufferedInputStream(fis, 1 << 16)), segment[1], r);
+                cursor.next();
+                queue.add(cursor);
+                total += segment[1];
+            }
+            IntBP positions = new IntBP(total), lasbp = new IntBP(total);
+            FloatBP weights = new FloatBP(total);
+            IntBP otherchroms = null, otherpositions = null, paircodes = null;
+            if (paired) {
+                otherchroms = new IntBP(total);
+                otherpositions = new IntBP(total);
+                paircodes = new IntBP(total);
+            }
+            for (int i = 0; i < total; i++) {
+                Cursor cursor = queue.poll();
+                positions.put(i, cursor.pos);
+                lasbp.put(i, cursor.las);
+                weights.put(i, Float.intBitsToFloat(cursor.weight));
+                if (paired) {
+                    otherchroms.put(i, cursor.otherChrom);
+                    otherpositions.put(i, cursor.otherPos);
+                    paircodes.put(i, cursor.pairCode);
+                }
+                if (cursor.next()) {
+                    queue.add(cursor);
+                }
+            }
+
+            String prefix = server.getAlignmentDir(alignid) + System.getProperty("file.separator");
+            Hits hits;
+            if (isPaired) {
+                PairedHits.writePairedHits(positions, weights, paircodes, lasbp, otherchroms, otherpositions, prefix, c, flag);
+                hits = new PairedHits(prefix, c, flag);
+                CoverageSummary.writeSummaryFile(hits, server.getPairedSummaryFileName(alignid, c, flag));
+                new Header(hits.getPositionsBuffer().getib()).writeIndexFile(server.getPairedHeaderFileName(alignid, c, flag));
+            } else {
+                SingleHits.writeSingleHits(positions, weights, lasbp, prefix, c, flag);
+                hits = new SingleHits(prefix, c, flag);
+                CoverageSummary.writeSummaryFile(hits, server.getSingleSummaryFileName(alignid, c, flag));
+                new Header(hits.getPositionsBuffer().getib()).writeIndexFile(server.getSingleHeaderFileName(alignid, c, flag));
+            }
+            AlignmentStats.ChromStats chromStats = AlignmentStats.compute(hits, AlignmentStats.getType(!isPaired && flag, isPaired, flag), c);
+            synchronized(stats) {
+                stats.put(chromStats);
+            }
+        }
+        /* removes the run files */
+        public void delete() throws InterruptedException, ExecutionException {
+            for (Future<Run> f : runs) {
+                f.get().file.delete();
+            }
+        }
+        /* reads the hits of one chromosome from a run */
+        private class Cursor {
+            DataInputStream in;
+            int remaining, run;
+            int pos, las, weight, otherChrom, otherPos, pairCode;
+            Cursor(DataInputStream in, int count, int run) {
+                this.in = in;
+                this.remaining = count;
+                this.run = run;
+            }
+            /* advances to the next hit; returns false (and closes the file) if there are no more */
+            boolean next() throws IOException {
+                if (remaining-- == 0) {
+                    in.close();
+                    return false;
+                }
+                pos = in.readInt();
+                las = in.readInt();
+                weight = in.readInt();
+                if (paired) {
+                    otherChrom = in.readInt();
+                    otherPos = in.readInt();
+                    pairCode = in.readInt();
+                }
+                return true;
+            }
+        }
+    }
+}
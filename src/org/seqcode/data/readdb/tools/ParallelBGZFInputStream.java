@@ -0,0 +1,147 @@
+package org.seqcode.data.readdb.tools;
+
+import java.io.*;
+import java.util.LinkedList;
+import java.util.concurrent.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a BGZF (blocked gzip, as used by BAM) stream, inflating blocks on an ExecutorService.
+ *
+ * BGZF blocks are independent gzip members that record their own compressed size, so the raw blocks
+ * can be read off the underlying stream cheaply and inflated out of order.  Up to readAhead blocks are
+ * in flight at once; the bytes are returned in the original order.
+ */
+public class ParallelBGZFInputStream extends InputStream {
+
+    private DataInputStream in;
+    private ExecutorService pool;
+    private int readAhead;
+    private LinkedList<Future<byte[]>> blocks = new LinkedList<Future<byte[]>>();
+    private boolean eof = false;
+    private byte[] current = new byte[0];
+    private int offset = 0;
+
+    public ParallelBGZFInputStream(InputStream in, ExecutorService pool, int readAhead) {
+        if (readAhead < 1) {
+            throw new IllegalArgumentException("readAhead must be positive");
+        }
+        this.in = new DataInputStream(new BufferedInputStream(in, 1 << 20));
+        this.pool = pool;
+        this.readAhead = readAhead;
+    }
+
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return current[offset++] & 0xff;
+    }
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - offset);
+        System.arraycopy(current, offset, b, off, n);
+        offset += n;
+        return n;
+    }
+    public void close() throws IOException {
+        for (Future<byte[]> f : blocks) {
+            f.cancel(false);
+        }
+        blocks.clear();
+        in.close();
+    }
+
+    /* makes sure there's at least one byte in current.  Returns false at the end of the stream */
+    private boolean fill() throws IOException {
+        while (offset == current.length) {
+            while (!eof && blocks.size() < readAhead) {
+                final byte[] raw = readRawBlock();
+                if (raw == null) {
+                    eof = true;
+                } else {
+                    blocks.add(pool.submit(new Callable<byte[]>() {
+                            public byte[] call() throws IOException {
+                                return inflate(raw);
+                            }
+                        }));
+                }
+            }
+            if (blocks.isEmpty()) {
+                return false;
+            }
+            try {
+                current = blocks.removeFirst().get();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException)e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+            offset = 0;
+        }
+        return true;
+    }
+
+    /* reads one compressed block, or returns null at the end of the stream */
+    private byte[] readRawBlock() throws IOException {
+        byte[] header = new byte[12];
+        int first = in.read();
+        if (first == -1) {
+            return null;
+        }
+        header[0] = (byte)first;
+        in.readFully(header, 1, 11);
+        if ((header[0] & 0xff) != 31 || (header[1] & 0xff) != 139 || (header[3] & 4) == 0) {
+            throw new IOException("Not a BGZF block");
+        }
+        int xlen = (header[10] & 0xff) | ((header[11] & 0xff) << 8);
+        byte[] extra = new byte[xlen];
+        in.readFully(extra);
+        int bsize = -1;
+        for (int i = 0; i + 4 <= xlen; ) {
+            int slen = (extra[i+2] & 0xff) | ((extra[i+3] & 0xff) << 8);
+            if (extra[i] == 'B' && extra[i+1] == 'C' && slen == 2) {
+                bsize = (extra[i+4] & 0xff) | ((extra[i+5] & 0xff) << 8);
+            }
+            i += 4 + slen;
+        }
+        if (bsize < 0) {
+            throw new IOException("BGZF block without a BC field");
+        }
+        /* rest of the block is the deflated data, the CRC and the inflated size */
+        byte[] block = new byte[bsize + 1 - 12 - xlen];
+        in.readFully(block);
+        return block;
+    }
+    private static byte[] inflate(byte[] block) throws IOException {
+        int n = block.length;
+        int isize = (block[n-4] & 0xff) | ((block[n-3] & 0xff) << 8) | ((block[n-2] & 0xff) << 16) | ((block[n-1] & 0xff) << 24);
+        byte[] output = new byte[isize];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(block, 0, n - 8);
+            int done = 0;
+            while (done < isize) {
+                int k = inflater.inflate(output, done, isize - done);
+                if (k == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Truncated BGZF block");
+                }
+                done += k;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt BGZF block", e);
+        } finally {
+            inflater.end();
+        }
+        return output;
+    }
+}
@@ -854,6 +854,7 @@ public class TestReadDB {
         assertEquals(hits.size(),count);
 
         c.deleteAlignment(name, false);
+        assertFalse(name + " deleted",c.exists(name));
 
         boolean ex = false;
         try {
@@ -944,8 +945,10 @@ public class TestReadDB {
 
 
         c.deleteAlignment(name, false);        
+        assertTrue(name + " still has paired hits",c.exists(name));
         count = c.getCount(name,false, true, false, true) + c.getCount(name,false,true,false,false);
         assertEquals(phits.size(),count);
+        assertEquals(0,c.getCount(name,false,false,null,null));
 
         boolean ex = false;
         try {
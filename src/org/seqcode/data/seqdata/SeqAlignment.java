@@ -169,6 +169,17 @@ public class SeqAlignment {
 		return c.prepareStatement(query);
 	}
 	
+	/**
+	 * Load by a batch of experiment IDs; the statement has numExpts parameters.
+	 */
+	public static PreparedStatement createLoadAllByExptsStatement(java.sql.Connection c, int numExpts) throws SQLException { 
+		StringBuilder in = new StringBuilder();
+		for(int i=0; i<numExpts; i++)
+			in.append(i==0 ? "?" : ",?");
+		String query = "select id, expt, name, genome, permissions, aligntype, numhits, totalweight, numtype2hits, totaltype2weight, numpairs, totalpairweight, aligndir, alignfile, idxfile, collabalignid from seqalignment where expt in ("+in.toString()+")";
+		return c.prepareStatement(query);
+	}
+	
 	public static PreparedStatement createInsertStatement(java.sql.Connection c) throws SQLException { 
 		String query = String.format(
 				"insert into seqalignment (expt, name, genome, permissions, aligntype, numhits, totalweight, numtype2hits, totaltype2weight, numpairs, totalpairweight, aligndir, alignfile, idxfile, collabalignid) " +
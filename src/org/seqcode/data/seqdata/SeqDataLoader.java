@@ -32,6 +32,11 @@ import org.seqcode.gseutils.Pair;
  * in each SeqAlignment. Note that while this is access-control-lite for experiment metadata, 
  * access to the data stored in the underlying readdb entries has more robust access-control.
  * 
+ * SeqLocators can be resolved in bulk using prefetchAlignments(), which loads the relevant SeqExpts and
+ * SeqAlignments with batched queries into an in-memory index. Later calls to loadAlignments(SeqLocator, Genome)
+ * for prefetched experiment names are answered from the index without querying the database. The index 
+ * (and the MetadataLoader cache) can be given a time-to-live using setMetadataCacheTTL().
+ * 
  * @author tdanford
  * @author mahony
  * 
@@ -64,6 +69,12 @@ public class SeqDataLoader implements org.seqcode.gseutils.Closeable {
     private Client client=null;
     private MetadataLoader mloader=null;
     private boolean closed=false;
+    private static final int MAXBATCH = 500; //Maximum number of values in a single "in (...)" query
+    //Prefetched SeqExpts & SeqAlignments, indexed by experiment name and experiment ID
+    private Map<String,List<SeqExpt>> exptIndex = new HashMap<String,List<SeqExpt>>();
+    private Map<Integer,List<SeqAlignment>> alignIndex = new HashMap<Integer,List<SeqAlignment>>();
+    private long indexTTL=0; //milliseconds; 0 means the index never expires
+    private long indexTime=System.currentTimeMillis();
     
     /**
      * Accessor for user
@@ -101,6 +112,195 @@ public class SeqDataLoader implements org.seqcode.gseutils.Closeable {
 		closed=false;
 	}
     
+	/**
+	 * Set the time-to-live (in milliseconds) for the prefetched alignment index and the metadata cache.
+	 * Zero or negative values mean that cached entries never expire.  
+	 * @param ttl
+	 */
+	public void setMetadataCacheTTL(long ttl){
+		indexTTL = ttl;
+		mloader.setCacheTTL(ttl);
+	}
+	
+	/**
+	 * Prefetch the SeqExpts and SeqAlignments referred to by a collection of SeqLocators into the in-memory index.
+	 * Experiments are loaded by name with batched queries, as are their alignments and any associated metadata.
+	 * Experiment names that have already been indexed are not reloaded. 
+	 * @param locators
+	 * @throws SQLException
+	 */
+	public void prefetchAlignments(Collection<SeqLocator> locators) throws SQLException {
+		checkIndexTTL();
+		List<String> names = new ArrayList<String>();
+		for(SeqLocator loc : locators)
+			if(!exptIndex.containsKey(loc.getExptName()) && !names.contains(loc.getExptName()))
+				names.add(loc.getExptName());
+		if(names.size()>0)
+			indexExperiments(names);
+	}
+	
+	/**
+	 * Load experiments by name (and their alignments) into the index
+	 * @param names
+	 * @throws SQLException
+	 */
+	private void indexExperiments(List<String> names) throws SQLException {
+		Map<Integer,SeqExpt> expts = new HashMap<Integer,SeqExpt>();
+		Map<Integer,List<SeqAlignment>> aligns = new HashMap<Integer,List<SeqAlignment>>();
+		Connection cxn=null;
+		PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            cxn = DatabaseConnectionManager.getConnection(role);
+            for(int start=0; start<names.size(); start+=MAXBATCH){
+            	List<String> batch = names.subList(start, Math.min(names.size(), start+MAXBATCH));
+            	ps = SeqExpt.createLoadByNames(cxn, batch.size());
+            	for(int i=0; i<batch.size(); i++)
+            		ps.setString(i+1, batch.get(i));
+            	rs = ps.executeQuery();
+            	//First pass: batch-load the metadata that the experiments refer to
+            	Set<Integer> types = new HashSet<Integer>(), labs = new HashSet<Integer>(), conds = new HashSet<Integer>(), 
+            			targets = new HashSet<Integer>(), cells = new HashSet<Integer>(), readTypes = new HashSet<Integer>();
+            	while(rs.next()){
+            		types.add(rs.getInt(5)); labs.add(rs.getInt(6)); conds.add(rs.getInt(7));
+            		targets.add(rs.getInt(8)); cells.add(rs.getInt(9)); readTypes.add(rs.getInt(10));
+            	}
+            	mloader.loadExptTypes(types, false);
+            	mloader.loadLabs(labs, false);
+            	mloader.loadExptConditions(conds, false);
+            	mloader.loadExptTargets(targets, false);
+            	mloader.loadCellLines(cells, false);
+            	mloader.loadReadTypes(readTypes, false);
+            	//Second pass: make the experiments
+            	rs.beforeFirst();
+            	while(rs.next()){
+            		SeqExpt expt = new SeqExpt(rs, this);
+            		expts.put(expt.getDBID(), expt);
+            	}
+            	rs.close(); rs=null;
+            	ps.close(); ps=null;
+            }
+            
+            List<Integer> exptIDs = new ArrayList<Integer>(expts.keySet());
+            for(int start=0; start<exptIDs.size(); start+=MAXBATCH){
+            	List<Integer> batch = exptIDs.subList(start, Math.min(exptIDs.size(), start+MAXBATCH));
+            	ps = SeqAlignment.createLoadAllByExptsStatement(cxn, batch.size());
+            	for(int i=0; i<batch.size(); i++)
+            		ps.setInt(i+1, batch.get(i));
+            	rs = ps.executeQuery();
+            	while(rs.next()){
+            		int exptID = rs.getInt(2);
+            		SeqAlignment align = new SeqAlignment(rs, expts.get(exptID), mloader.loadAlignType(rs.getInt(6), false));
+            		if(!aligns.containsKey(exptID))
+            			aligns.put(exptID, new ArrayList<SeqAlignment>());
+            		aligns.get(exptID).add(align);
+            	}
+            	rs.close(); rs=null;
+            	ps.close(); ps=null;
+            }
+		} finally {
+			if (rs != null) { try {rs.close(); } catch (SQLException ex) {  }}
+	        if (ps != null) { try { ps.close();} catch (SQLException ex) { } }
+        	if(cxn!=null) try {cxn.close();}catch (Exception ex) {throw new DatabaseException("Couldn't close connection with role "+role, ex); }
+		}
+        
+        //Names without any experiments are indexed too, so that they don't trigger further queries
+        for(String name : names)
+        	exptIndex.put(name, new ArrayList<SeqExpt>());
+        //The database compares names by its collation (usually case and trailing space insensitive), so
+        //experiments are indexed under each requested name that matches theirs in the same way
+        Map<String,List<String>> requested = new HashMap<String,List<String>>();
+        for(String name : names){
+        	if(!requested.containsKey(collationKey(name)))
+        		requested.put(collationKey(name), new ArrayList<String>());
+        	requested.get(collationKey(name)).add(name);
+        }
+        boolean unmatched = false;
+        for(SeqExpt expt : expts.values()){
+        	List<String> keys = requested.get(collationKey(expt.getName()));
+        	if(keys==null){
+        		unmatched = true;
+        		continue;
+        	}
+        	for(String name : keys)
+        		exptIndex.get(name).add(expt);
+        	alignIndex.put(expt.getDBID(), aligns.containsKey(expt.getDBID()) ? aligns.get(expt.getDBID()) : new ArrayList<SeqAlignment>());
+        }
+        //Some experiment matched in a way we can't reproduce (eg accents), so names without experiments
+        //are left out of the index and resolved by the per-locator queries instead
+        if(unmatched)
+        	for(String name : names)
+        		if(exptIndex.get(name).isEmpty())
+        			exptIndex.remove(name);
+        for(List<SeqExpt> l : exptIndex.values())
+        	Collections.sort(l);
+	}
+	
+	/**
+	 * Experiment name as compared by the default MySQL collation: case-insensitive, ignoring trailing spaces
+	 */
+	private static String collationKey(String name){
+		return name.replaceAll(" +$", "").toLowerCase();
+	}
+	
+	/**
+	 * Refresh the index if it is older than the time-to-live
+	 * @throws SQLException
+	 */
+	private void checkIndexTTL() throws SQLException{
+		if(indexTTL>0 && System.currentTimeMillis()-indexTime > indexTTL){
+			List<String> names = new ArrayList<String>(exptIndex.keySet());
+			exptIndex.clear();
+			alignIndex.clear();
+			indexTime = System.currentTimeMillis();
+			if(names.size()>0)
+				indexExperiments(names);
+		}
+	}
+	
+	/**
+	 * Resolve a SeqLocator using the prefetched index (same semantics as the database version in loadAlignments)
+	 * @param locator
+	 * @param genome
+	 * @return
+	 * @throws NotFoundException
+	 */
+	private List<SeqAlignment> loadIndexedAlignments(SeqLocator locator, Genome genome) throws NotFoundException{
+		List<SeqAlignment> output = new ArrayList<SeqAlignment>();
+		List<SeqExpt> expts = new ArrayList<SeqExpt>();
+		if (locator.getReplicates().size() == 0) {
+			expts.addAll(exptIndex.get(locator.getExptName()));
+		}else{
+			for (String rep : locator.getReplicates()) {
+				SeqExpt found = null;
+				for(SeqExpt e : exptIndex.get(locator.getExptName()))
+					if(e.getReplicate().equals(rep))
+						found = e;
+				if(found==null)
+					throw new NotFoundException(locator.getExptName()+";"+rep);
+				expts.add(found);
+			}
+		}
+		for(SeqExpt expt : expts){
+			for(SeqAlignment a : alignIndex.get(expt.getDBID())){
+				if(!a.getGenome().equals(genome))
+					continue;
+				if(locator.getAlignName()==null){
+					//First alignment in the genome; loadAlignments filters it by permission afterwards
+					output.add(a);
+					break;
+				}
+				//Named alignments skip those without permission, as in loadAlignment
+				if(a.getName().equals(locator.getAlignName()) &&
+						(a.getPermissions().contains("public") || a.getPermissions().contains(myusername))){
+					output.add(a);
+					break;
+				}
+			}
+		}
+		return output;
+	}
+	
 	/**
 	 * Load the genomes that a SeqExpt is aligned to
 	 * @param expt
@@ -595,7 +795,10 @@ public class SeqDataLoader implements org.seqcode.gseutils.Closeable {
 	 */
 	public Collection<SeqAlignment> loadAlignments(SeqLocator locator, Genome genome) throws SQLException, NotFoundException {
 		List<SeqAlignment> output = new ArrayList<SeqAlignment>();
-        if(locator.getAlignName()!=null){ //Alignment name provided
+		checkIndexTTL();
+		if(exptIndex.containsKey(locator.getExptName())){ //Prefetched
+			output = loadIndexedAlignments(locator, genome);
+		}else if(locator.getAlignName()!=null){ //Alignment name provided
 			if (locator.getReplicates().size() == 0) { //No replicate names provided
 	            for (SeqExpt expt : loadExperiments(locator.getExptName())) { 
 	                SeqAlignment align = loadAlignment(expt, locator.getAlignName(), genome);
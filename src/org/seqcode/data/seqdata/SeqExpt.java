@@ -176,6 +176,19 @@ public class SeqExpt implements Comparable<SeqExpt>{
         		"from seqexpt where name=? and replicate=?");
     }
     
+    /**
+     * Load by a batch of names; the statement has numNames parameters.
+     * Result set is scrollable so that metadata IDs can be collected before constructing SeqExpts.
+     */
+    public static PreparedStatement createLoadByNames(java.sql.Connection c, int numNames) throws SQLException { 
+    	StringBuilder in = new StringBuilder();
+    	for(int i=0; i<numNames; i++)
+    		in.append(i==0 ? "?" : ",?");
+        return c.prepareStatement(
+        		"select id, name, replicate, species, expttype, lab, exptcondition, expttarget, cellline, readtype, readlength, numreads, collabid, publicsource, publicdbid, fqfile, exptnote " +
+        		"from seqexpt where name in ("+in.toString()+")", ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+    }
+    
     public static PreparedStatement createInsert(java.sql.Connection c) throws SQLException { 
     	String query = String.format(
                 "insert into seqexpt (name, replicate, species, expttype, lab, exptcondition, expttarget, cellline, readtype, readlength, numreads, collabid, publicsource, publicdbid, fqfile, exptnote) " +
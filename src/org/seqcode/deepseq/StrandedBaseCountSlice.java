@@ -0,0 +1,84 @@
+package org.seqcode.deepseq;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * StrandedBaseCountSlice is a read-only view of a contiguous run of StrandedBaseCounts on one strand of one chromosome,
+ * backed directly by the primitive coordinate & count arrays of a hit cache (i.e. no per-hit objects are created).
+ * Coordinates are 5' ends, sorted in increasing order.
+ *
+ * The backing arrays are shared with the cache, so a slice must not be modified, and it only remains meaningful
+ * while the cache's counts for that chromosome are unchanged.
+ */
+public class StrandedBaseCountSlice {
+	private static final int[] NO_COORDS = new int[0];
+	private static final float[] NO_COUNTS = new float[0];
+
+	private final char strand;
+	private final int[] coords;
+	private final float[] counts;
+	private final int from, to;
+
+	/**
+	 * @param strand : +/-
+	 * @param coords : sorted 5' coordinates
+	 * @param counts : hit weights, index-matched to coords
+	 * @param from : first index in the slice (inclusive)
+	 * @param to : last index in the slice (exclusive)
+	 */
+	public StrandedBaseCountSlice(char strand, int[] coords, float[] counts, int from, int to){
+		this.strand = strand;
+		this.coords = coords;
+		this.counts = counts;
+		this.from = from;
+		this.to = to;
+	}
+
+	/**
+	 * Empty slice on a given strand
+	 */
+	public StrandedBaseCountSlice(char strand){
+		this(strand, NO_COORDS, NO_COUNTS, 0, 0);
+	}
+
+	public char getStrand(){return strand;}
+	public int size(){return to-from;}
+	public int getCoordinate(int i){return coords[from+i];}
+	public float getCount(int i){return counts[from+i];}
+
+	/**
+	 * Sum of hit weights in the slice
+	 */
+	public float getTotalCount(){
+		float total=0;
+		for(int k=from; k<to; k++)
+			total+=counts[k];
+		return total;
+	}
+
+	/**
+	 * Index of the first hit with coordinate >= coord (size() if none)
+	 */
+	public int lowerBound(int coord){
+		int l=from, r=to;
+		while(l<r){
+			int m = (l+r)>>>1;
+			if(coords[m]<coord)
+				l=m+1;
+			else
+				r=m;
+		}
+		return l-from;
+	}
+
+	/**
+	 * Materialize the hits in the slice as StrandedBaseCount objects
+	 */
+	public List<StrandedBaseCount> toList(){
+		List<StrandedBaseCount> bases = new ArrayList<StrandedBaseCount>(size());
+		for(int k=from; k<to; k++)
+			bases.add(new StrandedBaseCount(strand, coords[k], counts[k]));
+		return bases;
+	}
+}
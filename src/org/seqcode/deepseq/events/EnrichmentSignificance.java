@@ -7,10 +7,9 @@ import java.util.List;
 import org.seqcode.deepseq.experiments.ControlledExperiment;
 import org.seqcode.deepseq.experiments.ExperimentCondition;
 import org.seqcode.deepseq.experiments.ExperimentManager;
+import org.seqcode.deepseq.stats.CountSignificance;
 
-import cern.jet.random.Binomial;
 import cern.jet.random.ChiSquare;
-import cern.jet.random.Poisson;
 import cern.jet.random.engine.DRand;
 
 /**
@@ -25,8 +24,6 @@ public class EnrichmentSignificance {
 	protected BindingManager bindingManager;
 	protected double minFoldChange;
 	protected double genomeLength;
-	protected Binomial binomial;
-	protected Poisson poisson;
 	protected ChiSquare chisquare;
 	
 	public EnrichmentSignificance(EventsConfig con, ExperimentManager exptman, BindingManager bman, double minFoldChange, double genomeLength){
@@ -35,8 +32,6 @@ public class EnrichmentSignificance {
 		this.bindingManager = bman;
 		this.minFoldChange = minFoldChange;
 		this.genomeLength = genomeLength;
-		binomial = new Binomial(100, .5, new DRand());
-		poisson = new Poisson(1, new DRand());
 		chisquare = new ChiSquare(1, new DRand());
 	}
 
@@ -104,12 +99,10 @@ public class EnrichmentSignificance {
 		}else{
 	        try{
 	
-	            binomial.setNandP((int)Math.ceil(countA + countB), 1.0 / (minFoldChange + 1));
-	            pValueBalance = binomial.cdf((int)Math.ceil(countB));
+	            pValueBalance = CountSignificance.binomialPValue(countB, countA + countB, minFoldChange);
 	
-	            poisson.setMean(minFoldChange * Math.max(countB, total * (double)modelWidth / (double)genomeLength ));
-	            int cA = (int)Math.ceil(countA);
-	            pValuePoisson = 1 - poisson.cdf(cA) + poisson.pdf(cA);
+	            double mean = minFoldChange * Math.max(countB, total * (double)modelWidth / genomeLength );
+	            pValuePoisson = CountSignificance.poissonUpperPValue((int)Math.ceil(countA), mean);
 	            
 	        } catch(Exception err){
 	            err.printStackTrace();
@@ -43,6 +43,8 @@ public class EventsConfig {
 	protected boolean runDiffTests = true; //Run differential enrichment testing
 	protected String Rpath="";
 	protected double edger_overdispersion = 0.15; //Overdispersion used by EdgeR differential enrichment tests
+	protected boolean nativeDiffTests = false; //Run differential enrichment tests in-process (GLMDifferentialEnrichment) instead of through R
+	protected String diffDispersion = "fixed"; //Dispersion estimate for native DE tests: fixed (edgerod), common, or tagwise
 	protected boolean eventsFileTXTExtension=false;
 	protected boolean printBED=true;
 	
@@ -142,6 +144,13 @@ public class EventsConfig {
 					Rpath = Rpath+File.separator;
 				//EdgeR overdispersion parameter
 				edger_overdispersion = Args.parseDouble(args,"edgerod",edger_overdispersion);
+				//Native DE tests
+				nativeDiffTests = Args.parseFlags(args).contains("diffnative");
+				diffDispersion = Args.parseString(args, "diffdisp", diffDispersion).toLowerCase();
+				if(!diffDispersion.equals("fixed") && !diffDispersion.equals("common") && !diffDispersion.equals("tagwise")){
+					System.err.println("Unknown --diffdisp option: "+diffDispersion+". Using fixed dispersion.");
+					diffDispersion = "fixed";
+				}
 				
 				//Add .txt extension to events files
 				eventsFileTXTExtension= Args.parseFlags(args).contains("eventsaretxt");
@@ -191,6 +200,8 @@ public class EventsConfig {
 	public boolean getRunDiffTests(){return runDiffTests;}
 	public String getRpath(){return Rpath;}
 	public double getEdgeROverDisp(){return edger_overdispersion;}
+	public boolean getNativeDiffTests(){return nativeDiffTests;}
+	public String getDiffDispersion(){return diffDispersion;}
 	public boolean getEventsFileTXTExtension(){return eventsFileTXTExtension;}
 	public boolean getPrintBED(){return printBED;}
 	
@@ -209,6 +220,8 @@ public class EventsConfig {
 				"\t--nodifftests [flag to turn off DE tests]\n" +
 				"\t--rpath <path to the R bin dir (default: R is in $PATH). Note that you need to install edgeR separately>\n" +
 				"\t--edgerod <EdgeR overdispersion (default="+edger_overdispersion+")>\n" +
+				"\t--diffnative [flag to run NB GLM DE tests in Java instead of edgeR]\n" +
+				"\t--diffdisp <fixed/common/tagwise: dispersion for --diffnative tests (default=fixed, i.e. edgerod)>\n" +
 				"\t--diffp <minimum p-value for differential enrichment (default="+differentialSignificanceP+")>\n" +
 				"\t--eventsaretxt [add .txt to events file extension]\n"+
 				"\t--nobed [do not print BED files]" +				
@@ -5,9 +5,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.seqcode.genome.Genome;
-import org.seqcode.genome.location.Region;
-
 
 /**
  * ExperimentCondition is a collection of ControlledExperiments representing a set of experimental replicates. 
@@ -165,24 +162,11 @@ public class ExperimentCondition {
 				System.err.print("Calculating scaling factors for condition:\t"+name);
 			
 			ExperimentScaler scaler = new ExperimentScaler();
-			Genome genome = econfig.getGenome();
-			Map<Sample, List<Float>> sampleWindowCounts = new HashMap<Sample, List<Float>>();
 			List<Sample> allSamples = new ArrayList<Sample>();
 			allSamples.addAll(signalSamples);
 			allSamples.addAll(controlSamples);
-			int listSize=0;
-			for(Sample samp : allSamples){
-				List<Float> currSampCounts = new ArrayList<Float>();
-				for(String chrom:genome.getChromList()) {
-		            int chrlen = genome.getChromLength(chrom);
-		            for (int start = 1; start  < chrlen - scalingWindowSize; start += scalingWindowSize) {
-		                Region r = new Region(genome, chrom, start, start + scalingWindowSize);
-		                currSampCounts.add(samp.countHits(r));
-		            }
-		        }
-				sampleWindowCounts.put(samp, currSampCounts);
-				listSize = currSampCounts.size();
-			}
+			Map<Sample, float[]> sampleWindowCounts = Sample.getWindowCounts(allSamples, scalingWindowSize, Runtime.getRuntime().availableProcessors());
+			int listSize = sampleWindowCounts.get(allSamples.get(0)).length;
 			
 			//Calculate scaling factors for each replicate's signal vs control
 			for(ControlledExperiment expt : getReplicates()){
@@ -206,18 +190,17 @@ public class ExperimentCondition {
 			}
 				
 			//Calculate scaling factor for pooled signal vs pooled control for this condition
-			List<Float> pooledSignal = new ArrayList<Float>();
-			List<Float> pooledControl = new ArrayList<Float>();
-			for(int x=0; x<listSize; x++){
-				float sumSig = 0;
-				for(Sample s : signalSamples)
-					sumSig+=sampleWindowCounts.get(s).get(x);
-				pooledSignal.add(sumSig);
-				
-				float sumCtrl = 0;
-				for(Sample s : controlSamples)
-					sumCtrl+=sampleWindowCounts.get(s).get(x);
-				pooledControl.add(sumCtrl);
+			float[] pooledSignal = new float[listSize];
+			float[] pooledControl = new float[listSize];
+			for(Sample s : signalSamples){
+				float[] sc = sampleWindowCounts.get(s);
+				for(int x=0; x<listSize; x++)
+					pooledSignal[x]+=sc[x];
+			}
+			for(Sample s : controlSamples){
+				float[] sc = sampleWindowCounts.get(s);
+				for(int x=0; x<listSize; x++)
+					pooledControl[x]+=sc[x];
 			}
 			double totalSignalHits=0; double totalCtrlHits=0;
 			for(Sample s : signalSamples)
@@ -30,6 +30,9 @@ import Jama.Matrix;
 /**
  * ExperimentScaler: calculate a scaling transformation between all Sample pairs in an ExperimentCondition
  * This is performed on the condition level so that a scaling can also be defined between pooled hits from all signals & controls
+ * 
+ * The SES & NCIS methods here sort the full set of genomic windows. StreamingScalingEstimator calculates the same
+ * estimates from histograms that can be filled while window counts are produced. 
  *  
  * @author Shaun Mahony
  * @version	%I%, %G%
@@ -38,21 +41,46 @@ public class ExperimentScaler {
 	
 	public ExperimentScaler(){}
 	
+	/**
+	 * List versions of the scaling methods below
+	 */
+	public double scalingRatioByRegression(List<Float> setA, List<Float> setB){
+		return scalingRatioByRegression(toArray(setA), toArray(setB));
+	}
+	public double scalingRatioByMedian(List<Float> setA, List<Float> setB){
+		return scalingRatioByMedian(toArray(setA), toArray(setB));
+	}
+	public double scalingRatioBySES(List<Float> setA, List<Float> setB){
+		return scalingRatioBySES(toArray(setA), toArray(setB));
+	}
+	public double scalingRatioByNCIS(List<Float> setA, List<Float> setB, String outputFile, double minFrac){
+		return scalingRatioByNCIS(toArray(setA), toArray(setB), outputFile, minFrac);
+	}
+	public double scalingRatioByHitRatioAndNCIS(List<Float> setA, List<Float> setB, double totalA, double totalB, String outputFile, double minFrac){
+		return scalingRatioByHitRatioAndNCIS(toArray(setA), toArray(setB), totalA, totalB, outputFile, minFrac);
+	}
+	private static float[] toArray(List<Float> set){
+		float[] arr = new float[set.size()];
+		for(int x=0; x<arr.length; x++)
+			arr[x] = set.get(x);
+		return arr;
+	}
+	
 	/**
 	 * Calculate a scaling ratio by fitting a line through the hit count pairs.
 	 * Using a 10Kbp window, this is the same as PeakSeq with Pf=0
 	 * @return double 
 	 */
-	public double scalingRatioByRegression(List<Float> setA, List<Float> setB){
+	public double scalingRatioByRegression(float[] setA, float[] setB){
 		double scalingRatio=1;
-		if(setA.size()!=setB.size()){
+		if(setA.length!=setB.length){
 			System.err.println("ExperimentScaler is trying to scale lists of two different lengths");
 			System.exit(1);
 		}
 			
 		List<PairedCounts> scalingData = new ArrayList<PairedCounts>();
-		for(int x=0; x<setA.size(); x++)
-			scalingData.add(new PairedCounts(setA.get(x), setB.get(x)));                
+		for(int x=0; x<setA.length; x++)
+			scalingData.add(new PairedCounts(setA[x], setB[x]));                
 
 		//Scaling ratio via Tim's regression                                                                                                                               
         DataFrame df = new DataFrame(PairedCounts.class, scalingData.iterator());                                                                      
@@ -67,17 +95,17 @@ public class ExperimentScaler {
 	 * Find the median hit count ratio in bins that have non-zero counts
 	 * @return
 	 */
-	public double scalingRatioByMedian(List<Float> setA, List<Float> setB){
+	public double scalingRatioByMedian(float[] setA, float[] setB){
 		double scalingRatio=1;
-		if(setA.size()!=setB.size()){
+		if(setA.length!=setB.length){
 			System.err.println("ExperimentScaler is trying to scale lists of two different lengths");
 			System.exit(1);
 		}
 			
 		ArrayList<Float> ratios = new ArrayList<Float>();
-	    for(int x=0; x<setA.size(); x++){
-			if(setA.get(x)>0 && setB.get(x)>0)
-				ratios.add((float)(setA.get(x) / setB.get(x)));
+	    for(int x=0; x<setA.length; x++){
+			if(setA[x]>0 && setB[x]>0)
+				ratios.add(setA[x] / setB[x]);
         }
         Collections.sort(ratios);
 		scalingRatio = ratios.get(ratios.size() / 2);
@@ -89,19 +117,19 @@ public class ExperimentScaler {
 	 * Also sets a background proportion estimate for the signal channel.  
 	 * @return
 	 */
-	public double scalingRatioBySES(List<Float> setA, List<Float> setB){
+	public double scalingRatioBySES(float[] setA, float[] setB){
 		double scalingRatio=1;
-		if(setA.size()!=setB.size()){
+		if(setA.length!=setB.length){
 			System.err.println("ExperimentScaler is trying to scale lists of two different lengths");
 			System.exit(1);
 		}
 		
 		float totalA=0, totalB=0;
 		List<PairedCounts> counts = new ArrayList<PairedCounts>();
-		for(int x=0; x<setA.size(); x++){
-			totalA += setA.get(x);
-			totalB += setB.get(x);
-			counts.add(new PairedCounts(setA.get(x), setB.get(x)));                
+		for(int x=0; x<setA.length; x++){
+			totalA += setA[x];
+			totalB += setB[x];
+			counts.add(new PairedCounts(setA[x], setB[x]));                
 		}
 		
 		Collections.sort(counts);
@@ -134,18 +162,18 @@ public class ExperimentScaler {
 	 * @param outputFile : optional file that will contain the data 
 	 * @return
 	 */
-	public double scalingRatioByNCIS(List<Float> setA, List<Float> setB, String outputFile, double minFrac){
+	public double scalingRatioByNCIS(float[] setA, float[] setB, String outputFile, double minFrac){
 		double scalingRatio=1;
 		double totalAtScaling=0;
-		if(setA.size()!=setB.size()){
+		if(setA.length!=setB.length){
 			System.err.println("ExperimentScaler is trying to scale lists of two different lengths");
 			System.exit(1);
 		}
 		
-		float numPairs = (float)setA.size();
+		float numPairs = (float)setA.length;
 		List<PairedCounts> counts = new ArrayList<PairedCounts>();
-		for(int x=0; x<setA.size(); x++)
-			counts.add(new PairedCounts(setA.get(x), setB.get(x))); 
+		for(int x=0; x<setA.length; x++)
+			counts.add(new PairedCounts(setA[x], setB[x])); 
 		
 		//NCIS uses increasing total tag counts versus enrichment ratio
 		Collections.sort(counts, new Comparator<PairedCounts>(){
@@ -257,24 +285,24 @@ public class ExperimentScaler {
 	 * @param outputFile : optional file that will contain the data 
 	 * @return
 	 */
-	public double scalingRatioByHitRatioAndNCIS(List<Float> setA, List<Float> setB, double totalA, double totalB, String outputFile, double minFrac){
+	public double scalingRatioByHitRatioAndNCIS(float[] setA, float[] setB, double totalA, double totalB, String outputFile, double minFrac){
 		double scalingRatio=1;
 		double totalAtScaling=0;
-		if(setA.size()!=setB.size()){
+		if(setA.length!=setB.length){
 			System.err.println("ExperimentScaler is trying to scale lists of two different lengths");
 			System.exit(1);
 		}
 		
 		//First normalize using total reads
 		float tRatio = (float) (totalA/totalB);
-		List<Float> setnB = new ArrayList<Float>();
-		for (int x=0; x< setB.size();x++)
-			setnB.add(setB.get(x)*tRatio);
+		float[] setnB = new float[setB.length];
+		for (int x=0; x< setB.length;x++)
+			setnB[x] = setB[x]*tRatio;
 		
-		float numPairs = (float)setA.size();
+		float numPairs = (float)setA.length;
 		List<PairedCounts> counts = new ArrayList<PairedCounts>();
-		for(int x=0; x<setA.size(); x++)
-			counts.add(new PairedCounts(setA.get(x), setnB.get(x))); 
+		for(int x=0; x<setA.length; x++)
+			counts.add(new PairedCounts(setA[x], setnB[x])); 
 		
 		//NCIS uses increasing total tag counts versus enrichment ratio
 		Collections.sort(counts, new Comparator<PairedCounts>(){
@@ -438,33 +466,36 @@ public class ExperimentScaler {
 			//Generate the data structures for calculating scaling factors
 			//Window size loaded by ExptConfig option --scalewin
 			Genome genome = econfig.getGenome();
-			Map<Sample, List<Float>> sampleWindowCounts = new HashMap<Sample, List<Float>>();
-			Map<Sample, List<Float>> noPotSampleWindowCounts = new HashMap<Sample, List<Float>>();
+			Map<Sample, float[]> sampleWindowCounts = Sample.getWindowCounts(exptMan.getSamples(), econfig.getScalingSlidingWindow(), Runtime.getRuntime().availableProcessors());
+			//Windows that don't overlap potential regions
+			List<Integer> noPotWindows = new ArrayList<Integer>();
+			int w=0;
+			for(String chrom:genome.getChromList()) {
+	            int chrlen = genome.getChromLength(chrom);
+	            for (int start = 1; start  < chrlen - econfig.getScalingSlidingWindow(); start += econfig.getScalingSlidingWindow()) {
+	                Region r = new Region(genome, chrom, start, start + econfig.getScalingSlidingWindow());
+	                boolean overlapsPotentials=false;
+	                for(Feature f : potentials){
+	                	Region p = f.getCoords();
+	                	if(r.overlaps(p)){
+	                		overlapsPotentials=true; break;
+	                	}
+	                }
+	                if(!overlapsPotentials)
+	                	noPotWindows.add(w);
+	                w++;
+	            }
+	        }
+			Map<Sample, float[]> noPotSampleWindowCounts = new HashMap<Sample, float[]>();
 			for(Sample samp : exptMan.getSamples()){
-				List<Float> currSampCounts = new ArrayList<Float>();
-				List<Float> noPotCurrSampCounts = new ArrayList<Float>();
-				for(String chrom:genome.getChromList()) {
-		            int chrlen = genome.getChromLength(chrom);
-		            for (int start = 1; start  < chrlen - econfig.getScalingSlidingWindow(); start += econfig.getScalingSlidingWindow()) {
-		                Region r = new Region(genome, chrom, start, start + econfig.getScalingSlidingWindow());
-		                currSampCounts.add(samp.countHits(r));
-		                
-		                boolean overlapsPotentials=false;
-		                for(Feature f : potentials){
-		                	Region p = f.getCoords();
-		                	if(r.overlaps(p)){
-		                		overlapsPotentials=true; break;
-		                	}
-		                }
-		                if(!overlapsPotentials)
-		                	noPotCurrSampCounts.add(samp.countHits(r));
-		            }
-		        }
-				sampleWindowCounts.put(samp, currSampCounts);
+				float[] currSampCounts = sampleWindowCounts.get(samp);
+				float[] noPotCurrSampCounts = new float[noPotWindows.size()];
+				for(int x=0; x<noPotCurrSampCounts.length; x++)
+					noPotCurrSampCounts[x] = currSampCounts[noPotWindows.get(x)];
 				noPotSampleWindowCounts.put(samp, noPotCurrSampCounts);
 			}
 			System.out.println("Sliding window size for scaling methods: "+econfig.getScalingSlidingWindow());
-			System.out.println("\tNumbers of windows:\tAll="+sampleWindowCounts.get(exptMan.getSamples().get(0)).size()+"\tnoPotenials="+noPotSampleWindowCounts.get(exptMan.getSamples().get(0)).size()+"\n");
+			System.out.println("\tNumbers of windows:\tAll="+sampleWindowCounts.get(exptMan.getSamples().get(0)).length+"\tnoPotenials="+noPotSampleWindowCounts.get(exptMan.getSamples().get(0)).length+"\n");
 			
 			
 			//Hit ratios
@@ -514,6 +545,19 @@ public class ExperimentScaler {
 				}
 			}
 			
+			//SES & NCIS estimated in bounded memory
+			for(Sample sampA : exptMan.getSamples()){ 
+				if(sampA.isSignal()){
+					for(Sample sampB : exptMan.getSamples())
+						if(sampA!=null && sampB!=null && sampA.getIndex() != sampB.getIndex()){
+							StreamingScalingEstimator streamer = new StreamingScalingEstimator();
+							streamer.addWindows(sampleWindowCounts.get(sampA), sampleWindowCounts.get(sampB));
+							System.out.println("StreamingSES\t"+sampA.getName()+" vs "+sampB.getName()+"\t"+streamer.scalingRatioBySES());
+							System.out.println("StreamingNCIS\t"+sampA.getName()+" vs "+sampB.getName()+"\t"+streamer.scalingRatioByNCIS(econfig.getNCISMinBinFrac()));
+						}
+				}
+			}
+			
 			//Regression after filtering out potential regions (i.e. PeakSeq using Pf=1)
 			for(Sample sampA : exptMan.getSamples()){ 
 				if(sampA.isSignal()){
@@ -25,6 +25,7 @@ import org.seqcode.deepseq.ExtReadHit;
 import org.seqcode.deepseq.HitPair;
 import org.seqcode.deepseq.ReadHit;
 import org.seqcode.deepseq.StrandedBaseCount;
+import org.seqcode.deepseq.StrandedBaseCountSlice;
 import org.seqcode.deepseq.StrandedPair;
 import org.seqcode.deepseq.hitloaders.HitLoader;
 import org.seqcode.deepseq.stats.BackgroundCollection;
@@ -379,8 +380,18 @@ public class HitCache {
 	 * @return List of StrandedBaseCounts
 	 */
 	public synchronized List<StrandedBaseCount> getStrandedBases(Region r, char strand) {
-		List<StrandedBaseCount> bases = new ArrayList<StrandedBaseCount>();
-
+		return getStrandedBaseSlice(r, strand).toList();
+	}//end of getStrandedBases method
+	
+	/**
+	 * Loads hits in the region as a view over the cached primitive arrays (no per-hit objects are created).
+	 * If file caching is being used, it's more efficient to group calls to this method by chromosome. 
+	 * The slice remains valid after another chromosome is loaded, since cached arrays are replaced rather than overwritten.
+	 * @param r Region
+	 * @param strand +/-
+	 * @return StrandedBaseCountSlice
+	 */
+	public synchronized StrandedBaseCountSlice getStrandedBaseSlice(Region r, char strand) {
 		if(!regionIsCached(r)){
 			if(cacheInLocalFiles){
 				loadCachedChrom(r.getChrom());
@@ -409,14 +420,12 @@ public class HitCache {
 		            while (end_ind < tempStarts.length && tempStarts[end_ind] <= r.getEnd()) {
 		                end_ind++;
 		            }
-					for(int k = start_ind; k < end_ind; k++) {
-						bases.add(new StrandedBaseCount(strand, tempStarts[k], fivePrimeCounts[chrID][j][k]));
-					}	
+		            return new StrandedBaseCountSlice(strand, tempStarts, fivePrimeCounts[chrID][j], start_ind, end_ind);
 				}
 			}
 		}
-		return bases;
-	}//end of getStrandedBases method
+		return new StrandedBaseCountSlice(strand);
+	}
 	
 	/**
 	 * Load all paired hits that have an R1 read in a region.
@@ -579,9 +588,68 @@ public class HitCache {
 		}
 	    return count;
     }
-    
-    
-    
+
+    /**
+     * Sum of hit weights in consecutive genomic windows, computed in a single sweep over the hit arrays.
+     * Windows are laid out as in the scaling procedures: on each chromosome, for start = 1, 1+windowSize, ...
+     * while start < chrlen - windowSize, the window is [start, start+windowSize] (inclusive, so hits on a
+     * shared boundary count towards both windows). Windows are concatenated in the genome's chromosome order.
+     * If file caching is being used, each chromosome is loaded once.
+     * @param genome : defines the chromosomes & their lengths
+     * @param windowSize
+     * @return float array of window counts
+     */
+    public synchronized float[] countHitsInWindows(Genome genome, int windowSize){
+    	List<String> chroms = new ArrayList<String>(genome.getChromList());
+    	int[] chromOffset = new int[chroms.size()+1];
+    	for(int c=0; c<chroms.size(); c++){
+    		int chrlen = genome.getChromLength(chroms.get(c));
+    		int numWin = chrlen-windowSize > 1 ? (chrlen-windowSize-2)/windowSize + 1 : 0;
+    		chromOffset[c+1] = chromOffset[c]+numWin;
+    	}
+    	float[] counts = new float[chromOffset[chroms.size()]];
+
+    	for(int c=0; c<chroms.size(); c++){
+    		String chr = chroms.get(c);
+    		int numWin = chromOffset[c+1]-chromOffset[c];
+    		if(numWin==0 || !chrom2ID.containsKey(chr))
+    			continue;
+    		Region chrReg = new Region(genome, chr, 1, genome.getChromLength(chr));
+    		if(!regionIsCached(chrReg)){
+    			if(cacheInLocalFiles){
+    				loadCachedChrom(chr);
+    			}else{
+    				System.err.println("HitCache: Queried region "+chrReg.getLocationString()+" is not in cache and local file caching not available!");
+    				System.exit(1);
+    			}
+    		}
+    		int chrID = chrom2ID.get(chr);
+    		//Strands are summed separately, then added, to match countHits
+    		float[][] strandCounts = new float[2][numWin];
+    		for(int j=0; j<=1; j++){
+    			int[] pos = fivePrimePos[chrID][j];
+    			float[] wts = fivePrimeCounts[chrID][j];
+    			if(pos==null)
+    				continue;
+    			float[] sc = strandCounts[j];
+    			for(int k=0; k<pos.length; k++){
+    				int p = pos[k]-1;
+    				if(p<0)
+    					continue;
+    				int w = p/windowSize;
+    				if(w<numWin)
+    					sc[w]+=wts[k];
+    				if(p%windowSize==0 && w>0 && w-1<numWin)
+    					sc[w-1]+=wts[k];
+    			}
+    		}
+    		int off = chromOffset[c];
+    		for(int w=0; w<numWin; w++)
+    			counts[off+w] = strandCounts[0][w] + strandCounts[1][w];
+    	}
+    	return counts;
+    }
+
     public List<ExtReadHit> exportExtReadHits(Region r, int readLen, int startShift, int fivePrimeExt, int threePrimeExt){
     	List<ReadHit> readHits = exportReadHits(r,readLen);
     	List<ExtReadHit> extReadHits = new ArrayList<ExtReadHit>();
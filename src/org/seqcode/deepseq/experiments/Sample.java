@@ -4,10 +4,17 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.seqcode.deepseq.ExtReadHit;
 import org.seqcode.deepseq.ReadHit;
 import org.seqcode.deepseq.StrandedBaseCount;
+import org.seqcode.deepseq.StrandedBaseCountSlice;
 import org.seqcode.deepseq.StrandedPair;
 import org.seqcode.deepseq.hitloaders.*;
 import org.seqcode.genome.Genome;
@@ -37,6 +44,7 @@ public class Sample {
 	protected double uniquePairs=0; //count of the total number of unique paired hits
 	protected float maxReadsPerBP=-1;
 	protected boolean isSignal=true;
+	private Map<Integer, float[]> windowCounts = new HashMap<Integer, float[]>(); //Genome-wide window counts, indexed by window size
 	
 	/**
 	 * Constructor
@@ -122,6 +130,16 @@ public class Sample {
 		return cache.getStrandedBases(r, strand);
 	}
 	
+	/**
+	 * Load stranded hits as a primitive view over the cache (see HitCache.getStrandedBaseSlice)
+	 * @param r
+	 * @param strand
+	 * @return
+	 */
+	public StrandedBaseCountSlice getStrandedBaseSlice(Region r, char strand) {
+		return cache.getStrandedBaseSlice(r, strand);
+	}
+	
 	/**
 	 * Load all paired hits that have an R1 read in a region.
 	 * If caching in local files, group calls to this method by same chromosome. 
@@ -155,6 +173,55 @@ public class Sample {
 		return cache.countStrandedBases(r, strand);
     }
     
+    /**
+     * Sum of hit weights in consecutive genome-wide windows (laid out as in ExperimentCondition's scaling).
+     * Computed in a single pass over the cached hits, and kept for reuse by other callers.
+     * The returned array is shared, so don't modify it.
+     * @param windowSize
+     * @return float array of window counts
+     */
+    public float[] getWindowCounts(int windowSize){
+    	synchronized(windowCounts){
+    		float[] counts = windowCounts.get(windowSize);
+    		if(counts==null){
+    			counts = cache.countHitsInWindows(gen, windowSize);
+    			windowCounts.put(windowSize, counts);
+    		}
+    		return counts;
+    	}
+    }
+    
+    /**
+     * Genome-wide window counts for a set of Samples, computed in parallel across Samples.
+     * @param samples
+     * @param windowSize
+     * @param numThreads
+     * @return window counts indexed by Sample
+     */
+    public static Map<Sample, float[]> getWindowCounts(Collection<Sample> samples, final int windowSize, int numThreads){
+    	Map<Sample, float[]> results = new HashMap<Sample, float[]>();
+    	ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, samples.size())));
+    	Map<Sample, Future<float[]>> futures = new HashMap<Sample, Future<float[]>>();
+    	for(final Sample samp : samples){
+    		if(!futures.containsKey(samp))
+	    		futures.put(samp, pool.submit(new Callable<float[]>(){
+	    			public float[] call(){ return samp.getWindowCounts(windowSize); }
+	    		}));
+    	}
+    	try {
+    		for(Sample samp : futures.keySet())
+    			results.put(samp, futures.get(samp).get());
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		throw new RuntimeException(e);
+    	} catch (ExecutionException e) {
+    		throw new RuntimeException(e.getCause());
+    	} finally {
+    		pool.shutdown();
+    	}
+    	return results;
+    }
+    
     
     /**
      * Covert all hits into ReadHits for a given region
@@ -186,6 +253,9 @@ public class Sample {
 	 */
 	public void linearCountCorrection(float perBaseScaling){
 		cache.linearCountCorrection(perBaseScaling);
+		synchronized(windowCounts){
+			windowCounts.clear();
+		}
 	}
     /**
      * Cleanup
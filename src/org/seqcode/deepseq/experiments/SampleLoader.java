@@ -8,6 +8,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.seqcode.data.seqdata.SeqDataLoader;
+import org.seqcode.data.seqdata.SeqLocator;
 import org.seqcode.deepseq.hitloaders.HitLoader;
 import org.seqcode.deepseq.hitloaders.HitLoaderFactory;
 import org.seqcode.genome.Genome;
@@ -75,6 +76,13 @@ public class SampleLoader {
 		if(makeSeqDataLoader)
 			try {
 				sdloader = new SeqDataLoader();
+				//Resolve all ReadDB locators up front using batched queries
+				List<SeqLocator> locs = new ArrayList<SeqLocator>();
+				for(ExptDescriptor e : descriptors)
+					for(Pair<String,String> source : e.sources)
+						if(source.cdr().equals("READDB"))
+							locs.addAll(hlfactory.makeSeqLocators(source.car()));
+				sdloader.prefetchAlignments(locs);
 			} catch (SQLException e1) {
 				e1.printStackTrace();
 			} catch (IOException e1) {
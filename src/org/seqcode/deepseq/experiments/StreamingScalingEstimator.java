@@ -0,0 +1,157 @@
+package org.seqcode.deepseq.experiments;
+
+/**
+ * StreamingScalingEstimator: SES & NCIS scaling ratios (as in ExperimentScaler) estimated from paired window counts
+ * as they are produced, in bounded memory.
+ *
+ * Instead of keeping and sorting every window, windows are accumulated into histograms keyed on the signal count (SES)
+ * and on the total signal+control count (NCIS). Each histogram bin holds the number of windows and the summed signal and
+ * control counts. Keys below exactBins are binned at unit resolution (i.e. exactly, for unweighted counts), and larger keys
+ * are binned geometrically. The cumulative procedures then walk the bins in increasing order, so ties (and windows that
+ * share a bin) are evaluated together rather than one window at a time.
+ *
+ * Windows can be added in any order (e.g. one chromosome at a time while hits are loaded), and estimators that were
+ * filled separately (e.g. per thread) can be combined with merge. Instances are not thread-safe.
+ */
+public class StreamingScalingEstimator {
+
+	public static final int DEFAULT_EXACT_BINS = 10000;
+	public static final double DEFAULT_BIN_GROWTH = 1.001;
+	protected static final double MAX_KEY = 1e12;
+
+	protected int exactBins;
+	protected double logGrowth;
+	protected int numBins;
+	protected double controlWeight; //Control counts are weighted by this when ordering windows for NCIS
+	//Histogram on signal+weighted control counts (NCIS)
+	protected long[] totN;
+	protected double[] totA, totB;
+	//Histogram on signal counts (SES)
+	protected long[] sigN;
+	protected double[] sigA, sigB;
+	protected long numWindows=0;
+	protected double sumA=0, sumB=0;
+
+	public StreamingScalingEstimator(){this(1.0);}
+	/**
+	 * @param controlWeight : weight on control counts when ordering windows by total count for NCIS.
+	 * 		Use the signal/control hit ratio to get the scalingRatioByHitRatioAndNCIS estimate.
+	 */
+	public StreamingScalingEstimator(double controlWeight){this(controlWeight, DEFAULT_EXACT_BINS, DEFAULT_BIN_GROWTH);}
+	public StreamingScalingEstimator(double controlWeight, int exactBins, double binGrowth){
+		if(exactBins<1 || binGrowth<=1)
+			throw new IllegalArgumentException("StreamingScalingEstimator: exactBins must be positive and binGrowth must be >1");
+		this.controlWeight = controlWeight;
+		this.exactBins = exactBins;
+		this.logGrowth = Math.log(binGrowth);
+		numBins = exactBins + (int)Math.ceil(Math.log(MAX_KEY/exactBins)/logGrowth) + 1;
+		totN = new long[numBins]; totA = new double[numBins]; totB = new double[numBins];
+		sigN = new long[numBins]; sigA = new double[numBins]; sigB = new double[numBins];
+	}
+
+	//Accessors
+	public long getNumWindows(){return numWindows;}
+	public double getSignalTotal(){return sumA;}
+	public double getControlTotal(){return sumB;}
+
+	/**
+	 * Add one window
+	 * @param a : signal count
+	 * @param b : control count
+	 */
+	public void addWindow(float a, float b){
+		int t = bin(a + controlWeight*b);
+		totN[t]++; totA[t]+=a; totB[t]+=b;
+		int s = bin(a);
+		sigN[s]++; sigA[s]+=a; sigB[s]+=b;
+		numWindows++;
+		sumA+=a; sumB+=b;
+	}
+
+	/**
+	 * Add a set of windows
+	 * @param setA : signal counts
+	 * @param setB : control counts
+	 */
+	public void addWindows(float[] setA, float[] setB){
+		if(setA.length!=setB.length)
+			throw new IllegalArgumentException("StreamingScalingEstimator is trying to scale lists of two different lengths");
+		for(int x=0; x<setA.length; x++)
+			addWindow(setA[x], setB[x]);
+	}
+
+	/**
+	 * Add the windows accumulated by another estimator with the same settings
+	 * @param other
+	 */
+	public void merge(StreamingScalingEstimator other){
+		if(other.numBins!=numBins || other.exactBins!=exactBins || other.logGrowth!=logGrowth || other.controlWeight!=controlWeight)
+			throw new IllegalArgumentException("StreamingScalingEstimator: cannot merge estimators with different settings");
+		for(int i=0; i<numBins; i++){
+			totN[i]+=other.totN[i]; totA[i]+=other.totA[i]; totB[i]+=other.totB[i];
+			sigN[i]+=other.sigN[i]; sigA[i]+=other.sigA[i]; sigB[i]+=other.sigB[i];
+		}
+		numWindows+=other.numWindows;
+		sumA+=other.sumA; sumB+=other.sumB;
+	}
+
+	/**
+	 * Scaling ratio according to the SES method from Diaz, et al. Stat Appl Genet Mol Biol. 2012.
+	 * See ExperimentScaler.scalingRatioBySES
+	 * @return
+	 */
+	public double scalingRatioBySES(){
+		double scalingRatio=1;
+		double cumulA=0, cumulB=0, maxDiffAB=0, currDiff=0;
+		for(int i=0; i<numBins; i++){
+			if(sigN[i]==0)
+				continue;
+			cumulA+=sigA[i];
+			cumulB+=sigB[i];
+			currDiff = (cumulB/sumB)-(cumulA/sumA);
+			if(currDiff>maxDiffAB && cumulA>0 && cumulB>0){
+				maxDiffAB=currDiff;
+				scalingRatio = cumulA/cumulB;
+			}
+		}
+		return scalingRatio;
+	}
+
+	/**
+	 * Scaling ratio according to the NCIS method from Liang & Keles (BMC Bioinf 2012).
+	 * See ExperimentScaler.scalingRatioByNCIS (or scalingRatioByHitRatioAndNCIS, if a control weight was set).
+	 * Should be run using *all* genomic windows.
+	 * @param minFrac : ratios are only considered once at least this fraction of windows are included
+	 * @return
+	 */
+	public double scalingRatioByNCIS(double minFrac){
+		double cumulA=0, cumulB=0, currRatio=0, lastRatio=-1;
+		long n=0;
+		for(int i=0; i<numBins; i++){
+			if(totN[i]==0)
+				continue;
+			cumulA+=totA[i];
+			cumulB+=totB[i];
+			n+=totN[i];
+			if((double)n/numWindows > minFrac && cumulA>0 && cumulB>0){
+				currRatio = (cumulA/cumulB);
+				if(lastRatio==-1 || currRatio<lastRatio){
+					lastRatio = currRatio;
+				}else{
+					break;
+				}
+			}
+		}
+		return currRatio;
+	}
+
+	/**
+	 * Histogram bin for a key: unit bins below exactBins, geometric bins above
+	 */
+	protected int bin(double key){
+		if(key<exactBins)
+			return key<=0 ? 0 : (int)key;
+		int b = exactBins + (int)(Math.log(key/exactBins)/logGrowth);
+		return b<numBins ? b : numBins-1;
+	}
+}
@@ -32,6 +32,17 @@ public class HitLoaderFactory {
 		if(loader==null)
 			throw new RuntimeException("SeqDataLoader not initialized in makeReadDBHitLoader");
 		
+		List<SeqLocator> locs = makeSeqLocators(name);
+		return (new ReadDBHitLoader(loader, econfig.getGenome(), locs, econfig.getLoadType1Reads(), econfig.getLoadType2Reads(), econfig.getLoadPairs()));
+	}
+	
+
+	/**
+	 * Parse the SeqLocators described by a ReadDB source name (expt;align or expt;rep1,rep2;align)
+	 * @param name
+	 * @return
+	 */
+	public List<SeqLocator> makeSeqLocators(String name){
 		List<SeqLocator> locs = new ArrayList<SeqLocator>();
 		String[] pieces = name.trim().split(";");
 		Set<String> reps = new TreeSet<String>(); 
@@ -47,10 +58,9 @@ public class HitLoaderFactory {
         } else {
             throw new RuntimeException("Couldn't parse a SeqLocator from " + name);
         }
-		return (new ReadDBHitLoader(loader, econfig.getGenome(), locs, econfig.getLoadType1Reads(), econfig.getLoadType2Reads(), econfig.getLoadPairs()));
+		return locs;
 	}
 	
-
 	/**
 	 * Add a File HitLoader. File formats accepted include:
 	 * SCIDX, NOVO, BOWTIE, BED, SAM, TOPSAM
@@ -113,6 +113,21 @@ public class ReadDBHitLoader extends HitLoader{
 		}
 	}
 
+	/**
+	 * Number of single hits on a chromosome, from the alignment's statistics when the server
+	 * provides them and otherwise from a count request
+	 */
+	private int getChromCount(SeqAlignment alignment, AlignmentStats stats, int chromID, boolean isType2) throws IOException, ClientException{
+		if(stats!=null){
+			AlignmentStats.ChromStats s = stats.get(isType2 ? AlignmentStats.SINGLET2 : AlignmentStats.SINGLE, chromID);
+			return s==null ? 0 : s.getCount(null);
+		}
+		Set<Integer> avail = isType2 ? availSingleType2Chroms.get(alignment) : availSingleChroms.get(alignment);
+		if(!avail.contains(chromID))
+			return 0;
+		return client.getCount(Integer.toString(alignment.getDBID()), chromID, isType2, false, null, null, null, null, null);
+	}
+
 	/**
 	 * Load the five primes from ReadDB
 	 */
@@ -123,38 +138,23 @@ public class ReadDBHitLoader extends HitLoader{
 			if(client==null)
 				client = new Client();
 
+			//Per-chromosome hit counts, for chunking.  Null for servers that don't answer stats requests
+			HashMap<SeqAlignment, AlignmentStats> stats = new HashMap<SeqAlignment, AlignmentStats>();
+			for(SeqAlignment alignment : aligns)
+				stats.put(alignment, client.getAlignmentStatsIfSupported(Integer.toString(alignment.getDBID())));
+
 			//Iterate over each chromosome
 			for (String chrom: gen.getChromList()){
 				// load  data for this chromosome.
 				int length = gen.getChromLength(chrom);
 				Region wholeChrom = new Region(gen, chrom, 1, length);
+				int chromID = gen.getChromID(wholeChrom.getChrom());
 				int count = 0;
 				for(SeqAlignment alignment : aligns) { 
 					if(loadType1)
-						if(availSingleChroms.get(alignment).contains(gen.getChromID(wholeChrom.getChrom()))){
-							count += client.getCount(Integer.toString(alignment.getDBID()),
-		                				gen.getChromID(wholeChrom.getChrom()),
-		                                false,
-		                				false,
-		                                wholeChrom.getStart(),
-		                                wholeChrom.getEnd(),
-		                                null,
-		                                null,
-		                                null);
-						}
-					if(loadType2){
-						if(availSingleType2Chroms.get(alignment).contains(gen.getChromID(wholeChrom.getChrom()))){
-							count += client.getCount(Integer.toString(alignment.getDBID()),
-		                				gen.getChromID(wholeChrom.getChrom()),
-		                                true,
-		                				false,
-		                                wholeChrom.getStart(),
-		                                wholeChrom.getEnd(),
-		                                null,
-		                                null,
-		                                null);
-						}
-					}
+						count += getChromCount(alignment, stats.get(alignment), chromID, false);
+					if(loadType2)
+						count += getChromCount(alignment, stats.get(alignment), chromID, true);
 				}
 				ArrayList<Region> chunks = new ArrayList<Region>();
 				// if there are too many reads in a chrom, read smaller chunks
@@ -0,0 +1,142 @@
+package org.seqcode.deepseq.stats;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import cern.jet.math.Arithmetic;
+import cern.jet.stat.Probability;
+
+/**
+ * CountSignificance: thread-safe Binomial & Poisson significance tests on read counts.
+ *
+ * Evaluates the same functions as the COLT Binomial & Poisson cdf/pdf methods, but through the
+ * stateless COLT Probability functions, so no shared distribution objects (or locks) are needed.
+ *
+ * Binomial CDFs for small n are memoized as full tables per (n, p), since the same few values of p
+ * (i.e. fold-change priors) are tested repeatedly over every genomic bin. A table for n holds n doubles,
+ * so all tables for one p take about 4*MAX_TABLE_N^2 bytes (4MB), and the static memory ceiling is
+ * MAX_TABLE_P times that (32MB). Other values of p and larger n are computed directly. Poisson count
+ * thresholds are memoized per (lambda, confidence), since sliding background windows tend to revisit the same sums.
+ */
+public class CountSignificance {
+
+	public static final int MAX_TABLE_N = 1000; //Largest n for which Binomial CDF tables are stored
+	private static final int MAX_TABLE_P = 8; //Maximum number of distinct p values with stored tables
+	private static final int MAX_THRESHOLDS = 100000; //Maximum number of memoized Poisson thresholds
+
+	private static ConcurrentHashMap<Double, AtomicReferenceArray<double[]>> binomialTables = new ConcurrentHashMap<Double, AtomicReferenceArray<double[]>>();
+	private static ConcurrentHashMap<ParamPair, Integer> poissonThresholds = new ConcurrentHashMap<ParamPair, Integer>();
+
+	/**
+	 * Binomial CDF assuming scaled control (as in FeatureStatistics).
+	 * Tests equality of signal & scaled control counts.
+	 * @param k = scaled control
+	 * @param n = scaled control+signal
+	 * @param minFoldChange = minimum fold difference between signal & control
+	 * @return
+	 */
+	public static double binomialPValue(double k, double n, double minFoldChange){
+		return binomialCDF((int)Math.ceil(k), (int)Math.ceil(n), 1.0 / (minFoldChange + 1.0));
+	}
+
+	/**
+	 * Binomial CDF: P(X<=k) where X~Binomial(n,p)
+	 * @param k
+	 * @param n
+	 * @param p
+	 * @return
+	 */
+	public static double binomialCDF(int k, int n, double p){
+		if(k>=n)
+			return 1;
+		if(k<0)
+			return 0;
+		if(n<=MAX_TABLE_N){
+			AtomicReferenceArray<double[]> tables = binomialTables.get(p);
+			if(tables==null && binomialTables.size()<MAX_TABLE_P){
+				binomialTables.putIfAbsent(p, new AtomicReferenceArray<double[]>(MAX_TABLE_N+1));
+				tables = binomialTables.get(p);
+			}
+			if(tables!=null){
+				double[] table = tables.get(n);
+				if(table==null){
+					//Racing threads may both build the table; the results are identical
+					table = new double[n];
+					for(int i=0; i<n; i++)
+						table[i] = Probability.binomial(i, n, p);
+					tables.set(n, table);
+				}
+				return table[k];
+			}
+		}
+		return Probability.binomial(k, n, p);
+	}
+
+	/**
+	 * Poisson CDF: P(X<=k) where X~Poisson(mean)
+	 */
+	public static double poissonCDF(int k, double mean){
+		if(k<0)
+			return 0;
+		return Probability.poisson(k, mean);
+	}
+
+	/**
+	 * Poisson PDF: P(X=k) where X~Poisson(mean)
+	 */
+	public static double poissonPDF(int k, double mean){
+		if(k<0)
+			return 0;
+		return Math.exp(k*Math.log(mean) - Arithmetic.logFactorial(k) - mean);
+	}
+
+	/**
+	 * Poisson upper tail including k: P(X>=k) where X~Poisson(mean)
+	 */
+	public static double poissonUpperPValue(int k, double mean){
+		return 1 - poissonCDF(k, mean) + poissonPDF(k, mean);
+	}
+
+	/**
+	 * Smallest count threshold b (>=1) for which 1-CDF(b) of a Poisson(lambda) is no more than confThreshold
+	 * @param lambda
+	 * @param confThreshold : p-value threshold
+	 * @return
+	 */
+	public static int poissonCountThreshold(double lambda, double confThreshold){
+		ParamPair key = new ParamPair(lambda, confThreshold);
+		Integer thres = poissonThresholds.get(key);
+		if(thres!=null)
+			return thres;
+
+		int countThres=0;
+		double l=1;
+		for(int b=1; l>confThreshold; b++){
+			l=1-poissonCDF(b, lambda);
+			countThres=b;
+		}
+		countThres = Math.max(1,countThres);
+		if(poissonThresholds.size()>=MAX_THRESHOLDS)
+			poissonThresholds.clear();
+		poissonThresholds.put(key, countThres);
+		return countThres;
+	}
+
+	/**
+	 * Hash key for a pair of distribution parameters
+	 */
+	private static class ParamPair{
+		private final double a, b;
+		public ParamPair(double a, double b){ this.a=a; this.b=b; }
+		public boolean equals(Object o){
+			if(!(o instanceof ParamPair))
+				return false;
+			ParamPair p = (ParamPair)o;
+			return Double.compare(a, p.a)==0 && Double.compare(b, p.b)==0;
+		}
+		public int hashCode(){
+			long bits = Double.doubleToLongBits(a)*31 + Double.doubleToLongBits(b);
+			return (int)(bits ^ (bits >>> 32));
+		}
+	}
+}
@@ -1,8 +1,5 @@
 package org.seqcode.deepseq.stats;
 
-import cern.jet.random.Poisson;
-import cern.jet.random.engine.DRand;
-
 /**
  * PoissonBackgroundModel: A BackgroundModel using the Poisson model
  * @author Shaun Mahony
@@ -31,19 +28,10 @@ public class PoissonBackgroundModel extends BackgroundModel{
 			return false;
 	}
 
-	//Set Poisson thresholds
+	//Set Poisson thresholds (memoized, since local windows are re-evaluated as they slide)
 	protected int calcCountThreshold(){
-		int countThres=0;
-		DRand re = new DRand();
-		Poisson P = new Poisson(0, re);
 		lambda = (totalReads*binWidth)/(regionLength*mappableRegion); 
-		P.setMean(lambda);
-		double l=1;
-		for(int b=1; l>confThreshold; b++){
-			l=1-P.cdf(b);
-			countThres=b;
-		}	
-		return(Math.max(1,countThres));
+		return(CountSignificance.poissonCountThreshold(lambda, confThreshold));
 	}
 	
 	protected float calcExpectedCount(){
@@ -1,11 +1,17 @@
 package org.seqcode.math.diff;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.seqcode.gseutils.Pair;
-import org.seqcode.math.stats.Lowess;
+import org.seqcode.math.stats.FastLowess;
 import org.seqcode.math.stats.NegativeBinomialDistrib;
+import org.seqcode.math.stats.StatUtil;
 
 import Jama.Matrix;
 
@@ -14,6 +20,9 @@ import Jama.Matrix;
 /**
  * DESeqDifferentialEnrichment: implements the differential enrichment method proposed by Anders & Huber (Genome Biology 2010). 
  * i.e. The DESeq method
+ * 
+ * Mean-variance functions are fit with FastLowess over primitive index sorts, and p-values are calculated in parallel.
+ * Plots can be turned off (computation-only mode), in which case they can still be written later with savePlots().
  *  
  * @author Shaun Mahony
  * @version	%I%, %G%
@@ -22,8 +31,12 @@ public class DESeqDifferentialEnrichment extends DifferentialEnrichment{
 
 	protected Normalization normalizer; //DESeq requires a separate normalization method
 	protected CountsDataset data;
-	protected Lowess[] lowess; //Local regression models. Indexed by condition
+	protected FastLowess[] lowess; //Local regression models. Indexed by condition
 	protected double lowessBandwidthPct = (double)0.2;
+	protected boolean makePlots = true; //Write MA & mean-variance plots during execute
+	protected int numThreads = 1;
+	//Mean-variance data retained for deferred plotting. Indexed by condition, then sorted point
+	protected double[][] mvX, mvY, mvFit;
 	//DESeq parameters
 	protected double[][] q; 	//Strength parameters (i.e. estimates on condition means). Indexed by unit & condition
 	protected double[][] w; 	//Sample variances. Indexed by unit & condition
@@ -32,17 +45,32 @@ public class DESeqDifferentialEnrichment extends DifferentialEnrichment{
 	protected double[] m; 	//Number of replicates for each condition. Indexed by condition
 	
 	public DESeqDifferentialEnrichment(Normalization norm){
+		this(norm, true, 1);
+	}
+	/**
+	 * @param norm : normalization method
+	 * @param makePlots : if false, execute only computes statistics (plots can be written later with savePlots)
+	 * @param numThreads : threads for p-value calculations
+	 */
+	public DESeqDifferentialEnrichment(Normalization norm, boolean makePlots, int numThreads){
 		super();
 		normalizer = norm;
+		this.makePlots = makePlots;
+		this.numThreads = Math.max(1, numThreads);
 	}
 	
+	//Accessors
+	public void setMakePlots(boolean p){makePlots = p;}
+	public void setNumThreads(int t){numThreads = Math.max(1, t);}
+	
 	@Override
 	public CountsDataset execute(CountsDataset data) {
 		this.data = data;
 		int ref = data.getFocalCondition();
 		//Normalize
 		normalizer.normalize(data);
-		normalizer.savePairwiseMAPlots(data, true);
+		if(makePlots)
+			normalizer.savePairwiseMAPlots(data, true);
 
 		//Initialize DESeq variables
 		double[][] k = data.getCounts().getArray();
@@ -56,7 +84,8 @@ public class DESeqDifferentialEnrichment extends DifferentialEnrichment{
 		w = new double[numUnits][numConds];
 		z = new double[numUnits][numConds];
 		v = new double[numUnits][numConds];
-		lowess = new Lowess[numConds];
+		lowess = new FastLowess[numConds];
+		mvX = new double[numConds][]; mvY = new double[numConds][]; mvFit = new double[numConds][];
 		for(int c=0; c<numConds; c++){
 			m[c]=0;
 			for(int u=0; u<numUnits; u++){
@@ -101,38 +130,30 @@ public class DESeqDifferentialEnrichment extends DifferentialEnrichment{
 		//The function is built here only for conditions that have >1 replicate
 		for(int c=0; c<numConds; c++){
 			if(m[c]>1){
-				ArrayList<QWItem> vals = new ArrayList<QWItem>();
+				double[] qc = new double[numUnits];
 				for(int u=0; u<numUnits; u++)
-					vals.add(new QWItem(u, q[u][c], w[u][c], z[u][c]));
+					qc[u] = q[u][c];
 				//xval must be monotonically increasing for loess method
-				Collections.sort(vals);
+				int[] order = StatUtil.sortIndices(qc);
 				double[] xval = new double[numUnits];
 				double[] yval = new double[numUnits];
-				Matrix xy = new Matrix(numUnits,2);
-				int u=0;
-				for(QWItem item : vals){
-					xval[u]=(double)item.q;
-					yval[u]=(double)item.w;
-					xy.set(u,0,item.q);
-					xy.set(u,1,item.w);
-					u++;
+				for(int i=0; i<numUnits; i++){
+					xval[i]=q[order[i]][c];
+					yval[i]=w[order[i]][c];
 				}
 	
 				//Run Lowess
-				lowess[c]= new Lowess(xval, yval, lowessBandwidthPct);
+				lowess[c]= new FastLowess(xval, yval, lowessBandwidthPct);
 				double [] fityval = lowess[c].getYEst();
 				
 				//Variance estimates
-				u=0;
-				for(QWItem item : vals){
-					item.v = fityval[u] - item.z;
-					v[item.index][c] = item.v;
-					u++;
-				}
+				for(int i=0; i<numUnits; i++)
+					v[order[i]][c] = fityval[i] - z[order[i]][c];
 				
 				//Print charts & data
-				this.printMeanVarData(xy, data.getCondName(c));
-				this.saveMeanVarPlot(xy, fityval, data.getCondName(c), true);
+				mvX[c]=xval; mvY[c]=yval; mvFit[c]=fityval;
+				if(makePlots)
+					saveMeanVarPlot(c);
 			}
 		}
 
@@ -145,36 +166,31 @@ public class DESeqDifferentialEnrichment extends DifferentialEnrichment{
 
 		//If reference condition has only a single replicate, pool all counts and build a single shared reference function. 
 		if(m[ref]==1){
-			ArrayList<QWItem> vals = new ArrayList<QWItem>();
+			int numPoints = numUnits*numConds;
+			double[] qAll = new double[numPoints];
 			for(int c=0; c<numConds; c++)
 				for(int u=0; u<numUnits; u++)
-					vals.add(new QWItem(u, q[u][c], w[u][c], z[u][c]));
+					qAll[c*numUnits+u] = q[u][c];
 			//xval must be monotonically increasing for loess method
-			Collections.sort(vals);
-			double[] xval = new double[numUnits];
-			double[] yval = new double[numUnits];
-			Matrix xy = new Matrix(numUnits,2);
-			int u=0;
-			for(QWItem item : vals){
-				xval[u]=(double)item.q;
-				yval[u]=(double)item.w;
-				xy.set(u,0,item.q);
-				xy.set(u,1,item.w);
-				u++;
+			int[] order = StatUtil.sortIndices(qAll);
+			double[] xval = new double[numPoints];
+			double[] yval = new double[numPoints];
+			for(int i=0; i<numPoints; i++){
+				int u = order[i]%numUnits, c = order[i]/numUnits;
+				xval[i]=q[u][c];
+				yval[i]=w[u][c];
 			}
 
 			//Run Lowess
-			for(int c=0; c<numConds; c++){
-				lowess[c]= new Lowess(xval, yval, lowessBandwidthPct);
-				double [] fityval = lowess[c].getYEst();
+			FastLowess pooled = new FastLowess(xval, yval, lowessBandwidthPct);
+			double [] fityval = pooled.getYEst();
+			for(int c=0; c<numConds; c++)
+				lowess[c]= pooled;
 			
-				//Variance estimates
-				u=0;
-				for(QWItem item : vals){
-					item.v = fityval[u] - item.z;
-					v[item.index][c] = item.v;
-					u++;
-				}
+			//Variance estimates
+			for(int i=0; i<numPoints; i++){
+				int u = order[i]%numUnits, c = order[i]/numUnits;
+				v[u][c] = fityval[i] - z[u][c];
 			}
 		}
 		
@@ -238,30 +254,102 @@ public class DESeqDifferentialEnrichment extends DifferentialEnrichment{
 					Px[u] = MUx[u]/fullVarX[u];
 					Rref[u] = (MUref[u]*MUref[u])/(fullVarRef[u]-MUref[u]);
 					Rx[u] = (MUx[u]*MUx[u])/(fullVarX[u]-MUx[u]);
-					
-					if(Pref[u]>0 && Px[u]>0 && Rref[u]>0 && Rx[u]>0){
-						Double pObs = 	NegativeBinomialDistrib.pdf( (int)Kref[u], Rref[u], Pref[u] ) * 
-										NegativeBinomialDistrib.pdf( (int)Kx[u], Rx[u], Px[u] );
-					
-						if(pObs.isInfinite() || pObs.isNaN()){
-							data.setDEpval(u, x, 1.0);
-						}else{
-							Pair<Double,Double> totalAbove = addFromMiddle((int)(Kref[u]+Kx[u]), pObs, MUref[u], fullVarRef[u], MUx[u], fullVarX[u], true, 1e-4);
-							Pair<Double,Double> totalBelow = addFromMiddle((int)(Kref[u]+Kx[u]), pObs, MUref[u], fullVarRef[u], MUx[u], fullVarX[u], false, 1e-4);
-						
-							double p = (totalAbove.cdr()+totalBelow.cdr())/(totalAbove.car()+totalBelow.car());
-							data.setDEpval(u, x, p);
-						}
-					}else{
-						data.setDEpval(u, x, 1.0);
-					}
 				}
+				
+				//P-values, in parallel over blocks of units
+				final int cond = x;
+				final double[] pvals = new double[numUnits];
+				runInBlocks(numUnits, new UnitBlock(){
+					public void run(int from, int to){
+						for(int u=from; u<to; u++)
+							pvals[u] = pValue(Kref[u], Kx[u], MUref[u], fullVarRef[u], MUx[u], fullVarX[u], Pref[u], Px[u], Rref[u], Rx[u]);
+					}
+				});
+				for(int u=0; u<numUnits; u++)
+					data.setDEpval(u, cond, pvals[u]);
 			}
 		}
 		
 		return data;
 	}
 	
+	/**
+	 * DESeq p-value for one unit: the probability of count sums at least as extreme as (kRef, kX), given their total
+	 */
+	private double pValue(double kRef, double kX, double muRef, double varRef, double muX, double varX, 
+			double pRef, double pX, double rRef, double rX){
+		if(pRef>0 && pX>0 && rRef>0 && rX>0){
+			double pObs = 	NegativeBinomialDistrib.pdf( (int)kRef, rRef, pRef ) * 
+							NegativeBinomialDistrib.pdf( (int)kX, rX, pX );
+			if(Double.isInfinite(pObs) || Double.isNaN(pObs))
+				return 1.0;
+			Pair<Double,Double> totalAbove = addFromMiddle((int)(kRef+kX), pObs, muRef, varRef, muX, varX, true, 1e-4);
+			Pair<Double,Double> totalBelow = addFromMiddle((int)(kRef+kX), pObs, muRef, varRef, muX, varX, false, 1e-4);
+			return (totalAbove.cdr()+totalBelow.cdr())/(totalAbove.car()+totalBelow.car());
+		}
+		return 1.0;
+	}
+	
+	/**
+	 * Write the MA plots and the mean-variance plots & data for every condition with replicates.
+	 * Use after execute when plots were turned off during execution.
+	 */
+	public void savePlots(){
+		if(data==null || mvX==null)
+			return;
+		normalizer.savePairwiseMAPlots(data, true);
+		for(int c=0; c<mvX.length; c++)
+			if(mvX[c]!=null)
+				saveMeanVarPlot(c);
+	}
+	
+	/**
+	 * Print mean-variance data & plot for a single condition
+	 */
+	protected void saveMeanVarPlot(int c){
+		Matrix xy = new Matrix(mvX[c].length,2);
+		for(int i=0; i<mvX[c].length; i++){
+			xy.set(i,0,mvX[c][i]);
+			xy.set(i,1,mvY[c][i]);
+		}
+		printMeanVarData(xy, data.getCondName(c));
+		saveMeanVarPlot(xy, mvFit[c], data.getCondName(c), true);
+	}
+	
+	private interface UnitBlock{
+		public void run(int from, int to);
+	}
+	
+	/**
+	 * Run a task over units [0,numUnits), split into one contiguous block per thread
+	 */
+	private void runInBlocks(int numUnits, final UnitBlock task){
+		if(numThreads==1 || numUnits<numThreads){
+			task.run(0, numUnits);
+			return;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		int block = (numUnits+numThreads-1)/numThreads;
+		for(int start=0; start<numUnits; start+=block){
+			final int from = start, to = Math.min(numUnits, start+block);
+			futures.add(pool.submit(new Callable<Object>(){
+				public Object call(){ task.run(from, to); return null; }
+			}));
+		}
+		try {
+			for(Future<Object> f : futures)
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
 	/**
 	 * Method used to evaluate the upper or lower half of the p(a,b) distribution.
 	 * The P value of a pair of observed count sums (kA, kB) is the sum of 
@@ -328,30 +416,4 @@ public class DESeqDifferentialEnrichment extends DifferentialEnrichment{
 		}
 		return(new Pair<Double,Double>(total, obstotal));
 	}
-
-	/**
-	 * QWItem: separate class is necessary because the Lowess class requires a sorted list of points, and 
-	 * we need a way to map back to the original data structure.  
-	 * @author Shaun Mahony
-	 * @version	%I%, %G%
-	 */
-	public class QWItem implements Comparable<QWItem>{
-		public int index;
-		public double q, w;
-		public double z, v;
-		
-		public QWItem(int index, double q, double w, double z){
-			this.index=index;
-			this.q=q;
-			this.w=w;
-			this.z=z;
-		}
-		
-		@Override
-		public int compareTo(QWItem x) {
-			if(this.q<x.q){return -1;}
-			else if(this.q>x.q){return 1;}
-			return 0;
-		}
-	}
 }
@@ -0,0 +1,358 @@
+package org.seqcode.math.diff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.seqcode.deepseq.events.EventsConfig;
+
+import cern.jet.stat.Gamma;
+import cern.jet.stat.Probability;
+
+
+/**
+ * GLMDifferentialEnrichment: negative binomial GLM differential enrichment tests, run in-process.
+ *
+ * Follows the steps of the edgeR script run by EdgeRDifferentialEnrichment (TMM normalization,
+ * a one-way ~group design, NB GLM fits and likelihood ratio tests of each condition vs the focal condition,
+ * Benjamini-Hochberg correction), without needing R.
+ *
+ * The dispersion can be fixed (the EdgeR overdispersion parameter, as used in the edgeR script),
+ * or estimated by maximizing the Cox-Reid adjusted profile likelihood, either as a common dispersion
+ * or as tagwise dispersions that are shrunk towards the common dispersion (weighted likelihood, as in edgeR).
+ *
+ * Units are fit in parallel.
+ */
+public class GLMDifferentialEnrichment extends DifferentialEnrichment{
+
+	public enum Dispersion {FIXED, COMMON, TAGWISE};
+
+	protected CountsDataset data;
+	protected EventsConfig config;
+	protected Dispersion dispMethod;
+	protected int numThreads;
+	protected double priorDF = 10; //Weight of the common likelihood in tagwise dispersion estimates (edgeR's prior.df)
+
+	protected double[] libSize;	//Effective (TMM-normalized) library sizes. Indexed by sample
+	protected double[] dispersion; //Dispersions used in tests. Indexed by unit
+	protected double commonDispersion;
+
+	//Dispersion grid (log scale) for common & tagwise estimates
+	protected final int DISP_GRID_POINTS=41;
+	protected final double DISP_GRID_MIN=1e-4, DISP_GRID_MAX=10;
+	protected final int MAX_NEWTON_ITER=50;
+	protected final double LOG_2 = Math.log(2.0);
+
+	//Constructor
+	public GLMDifferentialEnrichment(EventsConfig config){this(config, Dispersion.FIXED, Runtime.getRuntime().availableProcessors());}
+	public GLMDifferentialEnrichment(EventsConfig config, Dispersion dispMethod, int numThreads){
+		super();
+		this.config = config;
+		this.dispMethod = dispMethod;
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	//Accessors
+	public double getCommonDispersion(){return commonDispersion;}
+	public double[] getDispersions(){return dispersion;}
+	public void setPriorDF(double d){priorDF = d;}
+
+	/**
+	 * execute: normalize, estimate dispersions, and run likelihood ratio tests of each condition vs the focal condition
+	 */
+	public CountsDataset execute(CountsDataset dat) {
+		this.data = dat;
+		final int numUnits = data.getNumUnits();
+		final int numSamples = data.getNumSamples();
+		final int numConds = data.getNumConditions();
+		final int ref = data.getFocalCondition();
+		final int[] design = data.getDesignArray();
+
+		//Counts in primitive arrays, indexed by unit then sample
+		final double[][] y = new double[numUnits][numSamples];
+		for(int u=0; u<numUnits; u++)
+			for(int s=0; s<numSamples; s++)
+				y[u][s] = data.getCount(u, s);
+
+		//TMM normalization. Effective library sizes are rescaled so that their geometric mean matches that of the raw totals
+		Normalization norm = new TMMNormalization(numSamples);
+		double[] scaling = norm.normalize(data);
+		libSize = new double[numSamples];
+		double logTot=0, logEff=0;
+		for(int s=0; s<numSamples; s++){
+			logTot += Math.log(data.getTotal(s));
+			logEff += Math.log(scaling[s]);
+		}
+		double libAdj = Math.exp((logTot-logEff)/numSamples);
+		for(int s=0; s<numSamples; s++)
+			libSize[s] = scaling[s]*libAdj;
+
+		//Dispersions
+		dispersion = new double[numUnits];
+		if(dispMethod==Dispersion.FIXED){
+			commonDispersion = config.getEdgeROverDisp();
+			Arrays.fill(dispersion, commonDispersion);
+		}else{
+			estimateDispersions(y, design, numConds);
+		}
+		System.err.println("NB GLM dispersion ("+dispMethod+"): common="+commonDispersion);
+
+		//Likelihood ratio tests: each condition vs the focal condition
+		final double[][] pval = new double[numConds][numUnits];
+		final double[][] logFC = new double[numConds][numUnits];
+		final double[] logCPM = new double[numUnits];
+		parallel(numUnits, new UnitTask(){
+			public void run(int u){
+				double phi = dispersion[u];
+				double[] rates = groupRates(y[u], design, numConds, phi, -1, -1);
+				double llFull = logLikelihood(y[u], design, rates, phi);
+				double sumY=0, sumLib=0;
+				for(int s=0; s<y[u].length; s++){ sumY+=y[u][s]; sumLib+=libSize[s];}
+				logCPM[u] = Math.log(1e6*(sumY+0.5)/(sumLib+1.0))/LOG_2;
+				for(int x=0; x<numConds; x++){
+					if(x==ref)
+						continue;
+					//Null model: condition x & the focal condition share a rate
+					double[] nullRates = groupRates(y[u], design, numConds, phi, x, ref);
+					double llNull = logLikelihood(y[u], design, nullRates, phi);
+					double LR = Math.max(0, 2*(llFull-llNull));
+					pval[x][u] = LR>0 ? Probability.chiSquareComplemented(1, LR) : 1.0;
+					double fc = Math.log(rates[x]/rates[ref])/LOG_2;
+					if(Double.isNaN(fc))
+						fc = 0;
+					logFC[x][u] = Math.max(-config.LOG_FC_LIMIT, Math.min(config.LOG_FC_LIMIT, fc));
+				}
+			}
+		});
+
+		//Multiple testing correction & results
+		for(int x=0; x<numConds; x++){
+			if(x==ref)
+				continue;
+			double[] fdr = benjaminiHochberg(pval[x]);
+			for(int u=0; u<numUnits; u++){
+				data.setDEpval(u, x, fdr[u]);
+				data.setCondFold(u, x, logFC[x][u]);
+				data.setCondMean(u, x, logCPM[u]);
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Estimate common (and tagwise) dispersions over a log-scale grid of the Cox-Reid adjusted profile likelihood.
+	 * The maximum is refined by parabolic interpolation between neighbouring grid points.
+	 */
+	protected void estimateDispersions(final double[][] y, final int[] design, final int numConds){
+		final int numUnits = y.length;
+		final double[] grid = new double[DISP_GRID_POINTS];
+		double lmin = Math.log(DISP_GRID_MIN), lmax = Math.log(DISP_GRID_MAX);
+		for(int i=0; i<DISP_GRID_POINTS; i++)
+			grid[i] = lmin + (lmax-lmin)*i/(DISP_GRID_POINTS-1);
+
+		//Adjusted profile likelihood per unit & grid point
+		final double[][] apl = new double[numUnits][DISP_GRID_POINTS];
+		parallel(numUnits, new UnitTask(){
+			public void run(int u){
+				for(int i=0; i<DISP_GRID_POINTS; i++)
+					apl[u][i] = adjustedProfileLikelihood(y[u], design, numConds, Math.exp(grid[i]));
+			}
+		});
+		final double[] commonAPL = new double[DISP_GRID_POINTS];
+		for(int u=0; u<numUnits; u++)
+			for(int i=0; i<DISP_GRID_POINTS; i++)
+				commonAPL[i] += apl[u][i];
+		commonDispersion = Math.exp(gridMaximum(grid, commonAPL));
+
+		if(dispMethod==Dispersion.TAGWISE){
+			//Weighted likelihood: the common likelihood (averaged over units) counts as priorDF/residual df units of prior information
+			int resDF = Math.max(1, y.length>0 ? y[0].length-numConds : 1);
+			final double w = priorDF/resDF/numUnits;
+			parallel(numUnits, new UnitTask(){
+				public void run(int u){
+					double[] wl = new double[DISP_GRID_POINTS];
+					for(int i=0; i<DISP_GRID_POINTS; i++)
+						wl[i] = apl[u][i] + w*commonAPL[i];
+					dispersion[u] = Math.exp(gridMaximum(grid, wl));
+				}
+			});
+		}else{
+			Arrays.fill(dispersion, commonDispersion);
+		}
+	}
+
+	/**
+	 * Location of the maximum of a function tabulated on a grid, refined by parabolic interpolation
+	 */
+	protected double gridMaximum(double[] grid, double[] vals){
+		int best=0;
+		for(int i=1; i<vals.length; i++)
+			if(vals[i]>vals[best])
+				best=i;
+		if(best==0 || best==vals.length-1)
+			return grid[best];
+		double a = vals[best-1], b = vals[best], c = vals[best+1];
+		double denom = a - 2*b + c;
+		if(denom>=0)
+			return grid[best];
+		double offset = 0.5*(a-c)/denom;
+		return grid[best] + offset*(grid[best+1]-grid[best]);
+	}
+
+	/**
+	 * Cox-Reid adjusted profile log-likelihood for one unit.
+	 * For a one-way layout, X'WX is diagonal, so the adjustment is a sum over groups.
+	 */
+	protected double adjustedProfileLikelihood(double[] yu, int[] design, int numConds, double phi){
+		double[] rates = groupRates(yu, design, numConds, phi, -1, -1);
+		double ll = logLikelihood(yu, design, rates, phi);
+		double[] info = new double[numConds];
+		for(int s=0; s<yu.length; s++){
+			double mu = libSize[s]*rates[design[s]];
+			info[design[s]] += mu/(1+phi*mu);
+		}
+		double adj=0;
+		for(int g=0; g<numConds; g++)
+			if(info[g]>0)
+				adj += Math.log(info[g]);
+		return ll - 0.5*adj;
+	}
+
+	/**
+	 * Maximum likelihood rate (mean count per unit library size) for each group, with library size offsets.
+	 * If mergeA & mergeB are valid group indices, the two groups are constrained to a single rate (stored in both).
+	 */
+	protected double[] groupRates(double[] yu, int[] design, int numConds, double phi, int mergeA, int mergeB){
+		double[] rates = new double[numConds];
+		for(int g=0; g<numConds; g++){
+			if(g==mergeB)
+				continue;
+			double sumY=0, sumLib=0;
+			for(int s=0; s<yu.length; s++)
+				if(inGroup(design[s], g, mergeA, mergeB)){
+					sumY+=yu[s]; sumLib+=libSize[s];
+				}
+			if(sumY<=0 || sumLib<=0){
+				rates[g]=0;
+				continue;
+			}
+			//Newton-Raphson on the log rate, starting from the Poisson MLE
+			double beta = Math.log(sumY/sumLib);
+			if(phi>0){
+				for(int it=0; it<MAX_NEWTON_ITER; it++){
+					double score=0, info=0;
+					for(int s=0; s<yu.length; s++)
+						if(inGroup(design[s], g, mergeA, mergeB)){
+							double mu = libSize[s]*Math.exp(beta);
+							score += (yu[s]-mu)/(1+phi*mu);
+							info += mu/(1+phi*mu);
+						}
+					double step = score/info;
+					beta += step;
+					if(Math.abs(step)<1e-10)
+						break;
+				}
+			}
+			rates[g] = Math.exp(beta);
+		}
+		if(mergeA>=0 && mergeB>=0)
+			rates[mergeB] = rates[mergeA];
+		return rates;
+	}
+	private boolean inGroup(int d, int g, int mergeA, int mergeB){
+		return d==g || (g==mergeA && d==mergeB);
+	}
+
+	/**
+	 * Negative binomial log-likelihood of one unit's counts given group rates
+	 */
+	protected double logLikelihood(double[] yu, int[] design, double[] rates, double phi){
+		double ll=0;
+		for(int s=0; s<yu.length; s++){
+			double mu = libSize[s]*rates[design[s]];
+			ll += logNB(yu[s], mu, phi);
+		}
+		return ll;
+	}
+
+	/**
+	 * log NB(y; mu, phi), with variance mu + phi*mu^2. Poisson if phi==0.
+	 */
+	protected static double logNB(double y, double mu, double phi){
+		if(mu<=0)
+			return y>0 ? Double.NEGATIVE_INFINITY : 0;
+		if(phi<=0)
+			return y*Math.log(mu) - mu - Gamma.logGamma(y+1);
+		double r = 1/phi;
+		return Gamma.logGamma(y+r) - Gamma.logGamma(r) - Gamma.logGamma(y+1)
+				+ r*Math.log(r/(r+mu)) + (y>0 ? y*Math.log(mu/(r+mu)) : 0);
+	}
+
+	/**
+	 * Benjamini-Hochberg adjusted p-values (monotone, capped at 1)
+	 */
+	protected static double[] benjaminiHochberg(final double[] p){
+		int n = p.length;
+		double[] q = new double[n];
+		if(n==0)
+			return q;
+		Integer[] order = new Integer[n];
+		for(int i=0; i<n; i++)
+			order[i]=i;
+		Arrays.sort(order, new Comparator<Integer>(){
+			public int compare(Integer a, Integer b){return Double.compare(p[a], p[b]);}
+		});
+		double min=1;
+		for(int r=n-1; r>=0; r--){
+			int i = order[r];
+			min = Math.min(min, p[i]*n/(r+1));
+			q[i] = min;
+		}
+		return q;
+	}
+
+	protected interface UnitTask{
+		public void run(int u);
+	}
+
+	/**
+	 * Run a task for every unit, splitting the units into contiguous blocks over threads
+	 */
+	protected void parallel(int numUnits, final UnitTask task){
+		if(numThreads==1 || numUnits<numThreads){
+			for(int u=0; u<numUnits; u++)
+				task.run(u);
+			return;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		int block = (numUnits+numThreads-1)/numThreads;
+		for(int start=0; start<numUnits; start+=block){
+			final int from = start, to = Math.min(numUnits, start+block);
+			futures.add(pool.submit(new Callable<Object>(){
+				public Object call(){
+					for(int u=from; u<to; u++)
+						task.run(u);
+					return null;
+				}
+			}));
+		}
+		try {
+			for(Future<Object> f : futures)
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
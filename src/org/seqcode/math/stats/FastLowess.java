@@ -0,0 +1,179 @@
+package org.seqcode.math.stats;
+
+/**
+ * FastLowess: local linear regression with tricube weights over the nearest bandwidthPct of points,
+ * i.e. the same model as Lowess, computed incrementally.
+ *
+ * Since the input is sorted along the x-axis, the nearest-neighbour window only moves forward, so it is
+ * tracked with two pointers instead of being searched for at every point. The local fit is evaluated
+ * exactly at a bounded number of anchor points (as with the delta argument of Cleveland's lowess), and
+ * the fit at the points between anchors is linearly interpolated. Anchors are spaced at most
+ * maxAnchors-th of the points apart, and at most deltaPct of the x range apart, so the total cost is O(n)
+ * for a fixed number of anchors.
+ *
+ * Unlike Lowess, all state is held per instance, so separate fits may be used concurrently.
+ */
+public class FastLowess {
+	public static final int DEFAULT_MAX_ANCHORS = 1000;
+	public static final double DEFAULT_DELTA_PCT = 0.01;
+
+	private double[] xArray;
+	private double[] yArray;
+	private double[] yEst;
+	private int windowSize;
+	//Local linear fits at anchor points
+	private int numAnchors=0;
+	private double[] anchorX, anchorB0, anchorB1;
+
+	/**
+	 * Constructor: Note that xInput,yInput pairs should be sorted along the x-axis (increasing).
+	 *
+	 * @param xInput
+	 * @param yInput
+	 * @param bandwidthPct : Reasonable values are 0.25 to 0.5
+	 */
+	public FastLowess(double[] xInput, double[] yInput, double bandwidthPct) {
+		this(xInput, yInput, bandwidthPct, DEFAULT_MAX_ANCHORS, DEFAULT_DELTA_PCT);
+	}
+
+	/**
+	 * Constructor: Note that xInput,yInput pairs should be sorted along the x-axis (increasing).
+	 *
+	 * @param xInput
+	 * @param yInput
+	 * @param bandwidthPct : Reasonable values are 0.25 to 0.5
+	 * @param maxAnchors : anchors are no more than n/maxAnchors points apart
+	 * @param deltaPct : anchors are no more than deltaPct of the x range apart
+	 */
+	public FastLowess(double[] xInput, double[] yInput, double bandwidthPct, int maxAnchors, double deltaPct) {
+		xArray = xInput;
+		yArray = yInput;
+		int n = xArray.length;
+		yEst = new double[n];
+		windowSize = (int)(bandwidthPct * n);
+		if(windowSize <= 1) //As in Lowess, no fit is made for tiny windows
+			return;
+
+		anchorX = new double[n];
+		anchorB0 = new double[n];
+		anchorB1 = new double[n];
+		int stride = Math.max(1, n/Math.max(1, maxAnchors));
+		double delta = deltaPct * (xArray[n-1] - xArray[0]);
+		double[] coef = new double[2];
+		int lo = 0, i = 0, prevAnchor = -1;
+		while(i < n) {
+			double x0 = xArray[i];
+			lo = slideWindow(x0, lo);
+			fit(x0, lo, coef);
+			yEst[i] = coef[0] + coef[1]*x0;
+			anchorX[numAnchors] = x0;
+			anchorB0[numAnchors] = coef[0];
+			anchorB1[numAnchors] = coef[1];
+			numAnchors++;
+
+			//Interpolate between the previous anchor and this one
+			if(prevAnchor >= 0) {
+				double xa = xArray[prevAnchor], ya = yEst[prevAnchor];
+				double slope = (yEst[i] - ya) / (x0 - xa);
+				for(int j = prevAnchor+1; j < i; j++)
+					yEst[j] = ya + slope*(xArray[j] - xa);
+			}
+			//Tied x values share the fit
+			int next = i+1;
+			while(next < n && xArray[next] == x0)
+				yEst[next++] = yEst[i];
+			prevAnchor = next-1;
+			if(next >= n)
+				break;
+
+			//Next anchor: skip ahead by up to stride points, while staying within delta
+			int limit = Math.min(n-1, prevAnchor+stride);
+			int cand = next;
+			while(cand < limit && xArray[cand+1] <= x0 + delta)
+				cand++;
+			i = cand;
+		}
+	}
+
+	/**
+	 * Estimate the y fit values at each x value. Values between anchors are interpolated, and values
+	 * outside the fitted range are extrapolated from the local fit at the nearest end.
+	 * @param x
+	 * @return
+	 */
+	public double[] estimateValues(double[] x) {
+		double[] yVal = new double[x.length];
+		if(windowSize <= 1)
+			return yVal;
+		int[] order = StatUtil.sortIndices(x);
+		int a = 0;
+		for(int o = 0; o < order.length; o++) {
+			int q = order[o];
+			double xq = x[q];
+			while(a < numAnchors-1 && anchorX[a+1] <= xq)
+				a++;
+			if(xq <= anchorX[0]) {
+				yVal[q] = anchorB0[0] + anchorB1[0]*xq;
+			}else if(a == numAnchors-1) {
+				yVal[q] = anchorB0[a] + anchorB1[a]*xq;
+			}else {
+				double ya = anchorB0[a] + anchorB1[a]*anchorX[a];
+				double yb = anchorB0[a+1] + anchorB1[a+1]*anchorX[a+1];
+				yVal[q] = ya + (yb - ya)*(xq - anchorX[a])/(anchorX[a+1] - anchorX[a]);
+			}
+		}
+		return yVal;
+	}
+
+	public double[] getXarray() {
+		return xArray;
+	}
+
+	public double[] getYEst() {
+		return yEst;
+	}
+
+	/**
+	 * Move the window start forward until [lo, lo+windowSize) holds the points nearest to x0
+	 */
+	private int slideWindow(double x0, int lo) {
+		int n = xArray.length;
+		while(lo + windowSize < n && xArray[lo+windowSize] - x0 < x0 - xArray[lo])
+			lo++;
+		return lo;
+	}
+
+	/**
+	 * Weighted least-squares line through the window starting at lo, with tricube weights around x0
+	 * @param coef : output {intercept, slope}
+	 */
+	private void fit(double x0, int lo, double[] coef) {
+		int hi = lo + windowSize - 1;
+		double maxDistance = Math.max(x0 - xArray[lo], xArray[hi] - x0);
+		double sw=0, swx=0, swy=0, swxx=0, swxy=0;
+		for(int j = lo; j <= hi; j++) {
+			double w = 1;
+			if(maxDistance > 0) {
+				double d = Math.abs(xArray[j] - x0) / maxDistance;
+				double t = 1 - d*d*d;
+				w = t*t*t;
+			}
+			double xj = xArray[j] - x0; //centred for numerical stability
+			sw += w; swx += w*xj; swy += w*yArray[j];
+			swxx += w*xj*xj; swxy += w*xj*yArray[j];
+		}
+		double denom = sw*swxx - swx*swx;
+		double b1 = 0, b0c;
+		if(sw <= 0) {
+			b0c = 0;
+		}else if(denom <= 1e-12*sw*swxx || denom <= 0) {
+			b0c = swy/sw;
+		}else {
+			b1 = (sw*swxy - swx*swy)/denom;
+			b0c = (swy - b1*swx)/sw;
+		}
+		//Convert back from centred coordinates
+		coef[0] = b0c - b1*x0;
+		coef[1] = b1;
+	}
+}
@@ -30,7 +30,11 @@ import org.seqcode.math.probability.NormalDistribution;
 
 public class StatUtil {
 	static cern.jet.random.engine.RandomEngine engine = new cern.jet.random.engine.MersenneTwister();
-	static double[] logFactorials;
+	private static volatile double[] logFactorials; //Shared memo of ln(n!), grown on demand (see logFactorial)
+	public static final int MAX_LOG_FACTORIAL_CACHE = 1<<22; //Largest n for which ln(n!) is memoized
+	private static final double TAIL_EPSILON = 1e-17; //Relative size of the last term added in tail sums
+	private static final int BATCH_TABLE_FACTOR = 4; //Batch methods tabulate the support if it is no more than this many times the batch size
+	private static final double LN_10 = Math.log(10);
 	
 	public static double uniform_rnd() {
 		return Uniform.staticNextDouble();
@@ -305,6 +309,61 @@ public class StatUtil {
 		return sortedInds;
 	}//end of findSort method
 	
+	/**
+	 * Returns the positions of the elements of <tt>a</tt> in ascending order, without modifying <tt>a</tt>. <br>
+	 * Unlike findSort(double[]), no boxing or maps are used, so this is suitable for very large arrays.
+	 * The order of tied elements is not defined.
+	 * @param a double array
+	 * @return positions of the original array corresponding to the ordered elements
+	 */
+	public static int[] sortIndices(double[] a) {
+		int[] inds = new int[a.length];
+		for(int i = 0; i < a.length; i++)
+			inds[i] = i;
+		sortIndices(a, inds, 0, a.length-1);
+		return inds;
+	}
+	
+	//Three-way quicksort of index range [lo,hi] by key (handles heavily tied keys, e.g. zero counts)
+	private static void sortIndices(double[] a, int[] inds, int lo, int hi) {
+		while(hi - lo > 16) {
+			int mid = (lo + hi) >>> 1;
+			double p = medianOfThree(a[inds[lo]], a[inds[mid]], a[inds[hi]]);
+			int lt = lo, gt = hi, i = lo;
+			while(i <= gt) {
+				int c = Double.compare(a[inds[i]], p);
+				if(c < 0) swap(inds, lt++, i++);
+				else if(c > 0) swap(inds, i, gt--);
+				else i++;
+			}
+			//Recurse into the smaller side
+			if(lt - lo < hi - gt) {
+				sortIndices(a, inds, lo, lt-1);
+				lo = gt+1;
+			}else {
+				sortIndices(a, inds, gt+1, hi);
+				hi = lt-1;
+			}
+		}
+		for(int i = lo+1; i <= hi; i++) {
+			int x = inds[i];
+			int j = i-1;
+			while(j >= lo && Double.compare(a[inds[j]], a[x]) > 0) {
+				inds[j+1] = inds[j];
+				j--;
+			}
+			inds[j+1] = x;
+		}
+	}
+	private static double medianOfThree(double x, double y, double z) {
+		if(Double.compare(x, y) > 0) { double t = x; x = y; y = t; }
+		if(Double.compare(y, z) > 0) { y = z; }
+		return Double.compare(x, y) > 0 ? x : y;
+	}
+	private static void swap(int[] inds, int i, int j) {
+		int t = inds[i]; inds[i] = inds[j]; inds[j] = t;
+	}
+	
 	
 	/**
 	 * Returns the maximum of this array as well as all the positions in the array
@@ -1102,12 +1161,334 @@ public class StatUtil {
 	
 	
 	/**
-	 * Returns the hypergeometric cumulative probability of number <tt>x</tt> 
+	 * Returns ln(n!).
+	 * Values up to MAX_LOG_FACTORIAL_CACHE are memoized in a table shared by all threads. The table grows
+	 * (by doubling) as larger n are requested, up to that bound; larger values are computed with logGamma.
+	 * @param n
+	 * @return
+	 */
+	public static double logFactorial(int n) {
+		if (n < 0)
+			throw new IllegalArgumentException("StatUtil.logFactorial: negative argument " + n);
+		if (n > MAX_LOG_FACTORIAL_CACHE)
+			return cern.jet.stat.Gamma.logGamma(n + 1.0);
+		double[] table = logFactorials;
+		if (table == null || table.length <= n)
+			table = growLogFactorials(n);
+		return table[n];
+	}
+
+	/**
+	 * Extend the shared log-factorial table to hold at least n+1 entries.
+	 * The table is only ever replaced by a longer copy, so readers never see a partial table.
+	 */
+	private static synchronized double[] growLogFactorials(int n) {
+		double[] old = logFactorials;
+		if (old != null && old.length > n)
+			return old;
+		int len = (old == null) ? 0 : old.length;
+		int newLen = Math.max(n + 1, Math.max(1024, 2 * len));
+		newLen = (int) Math.min((long) newLen, (long) MAX_LOG_FACTORIAL_CACHE + 1);
+		double[] table = new double[newLen];
+		if (len != 0)
+			System.arraycopy(old, 0, table, 0, len);
+		else {
+			table[0] = 0;
+			len++;
+		}
+		for (int i = len; i < newLen; i++)
+			table[i] = table[i-1] + Math.log(i);
+		logFactorials = table;
+		return table;
+	}
+
+	/**
+	 * Returns ln of the binomial coefficient (n choose k), or negative infinity if k is outside [0,n]
+	 */
+	public static double logChoose(int n, int k) {
+		if (k < 0 || k > n)
+			return Double.NEGATIVE_INFINITY;
+		return logFactorial(n) - logFactorial(k) - logFactorial(n - k);
+	}
+
+	/**
+	 * Returns ln(exp(a)+exp(b)) without overflow or underflow
+	 */
+	public static double logSumExp(double a, double b) {
+		if (a == Double.NEGATIVE_INFINITY)
+			return b;
+		if (b == Double.NEGATIVE_INFINITY)
+			return a;
+		return a > b ? a + Math.log1p(Math.exp(b - a)) : b + Math.log1p(Math.exp(a - b));
+	}
+
+	/**
+	 * Returns ln(1-exp(a)) for a<=0, i.e. the log of the complement of a log-probability
+	 */
+	public static double logComplement(double a) {
+		if (a >= 0)
+			return Double.NEGATIVE_INFINITY;
+		return a > -0.693 ? Math.log(-Math.expm1(a)) : Math.log1p(-Math.exp(a));
+	}
+
+	/**
+	 * Returns the natural log of the hypergeometric density probability of number <tt>x</tt>
+	 * when the sample size is <tt>n</tt>, the size of the positive set <tt>s</tt>
+	 * and the population size <tt>N</tt>.<br>
+	 * Returns negative infinity if <tt>x</tt> is outside the support.
+	 * @param x # observed successes in the sample
+	 * @param N population size
+	 * @param s # of successes in population (e.g., size of positive set in the population)
+	 * @param n sample size
+	 * @return
+	 */
+	public static double logHyperGeometricPDF(int x, int N, int s, int n) {
+		if (x < Math.max(0, n + s - N) || x > Math.min(s, n))
+			return Double.NEGATIVE_INFINITY;
+		double kx = logFactorial(s) - logFactorial(x) - logFactorial(s - x);
+		double mknx = logFactorial(N - s) - logFactorial(n - x) - logFactorial(N - s - (n - x));
+		double mn = logFactorial(N) - logFactorial(n) - logFactorial(N - n);
+		return kx + mknx - mn;
+	}
+
+	/**
+	 * Returns the natural log of the hypergeometric cumulative probability P(X&lt;=x).<br>
+	 * The density is evaluated once, and the tail is summed with the ratio of consecutive densities,
+	 * relative to the density at the start of the tail, so there is no overflow, underflow or loss of
+	 * precision in the far lower tail. Above the mode, the CDF is computed as the complement of the upper tail.
+	 * @param x # observed successes in the sample
+	 * @param N population size
+	 * @param s # of successes in population (e.g., size of positive set in the population)
+	 * @param n sample size
+	 * @return
+	 */
+	public static double logHyperGeometricCDF(int x, int N, int s, int n) {
+		int lo = Math.max(0, n + s - N), hi = Math.min(s, n);
+		if (x < lo)
+			return Double.NEGATIVE_INFINITY;
+		if (x >= hi)
+			return 0;
+		int mode = (int) (((double) n + 1) * ((double) s + 1) / ((double) N + 2));
+		if (x > mode)
+			return logComplement(logHyperGeometricUpperTail(x + 1, N, s, n));
+		// P(k-1)/P(k) = k(N-s-n+k) / ((s-k+1)(n-k+1))
+		double sum = 1, term = 1;
+		for (int k = x; k > lo; k--) {
+			term *= ((double) k * ((double) N - s - n + k)) / (((double) s - k + 1) * ((double) n - k + 1));
+			sum += term;
+			if (term < sum * TAIL_EPSILON)
+				break;
+		}
+		return logHyperGeometricPDF(x, N, s, n) + Math.log(sum);
+	}
+
+	/**
+	 * Returns the natural log of the hypergeometric upper tail probability P(X&gt;=x), summed as in logHyperGeometricCDF.
+	 * @param x # observed successes in the sample
+	 * @param N population size
+	 * @param s # of successes in population (e.g., size of positive set in the population)
+	 * @param n sample size
+	 * @return
+	 */
+	public static double logHyperGeometricUpperTail(int x, int N, int s, int n) {
+		int lo = Math.max(0, n + s - N), hi = Math.min(s, n);
+		if (x <= lo)
+			return 0;
+		if (x > hi)
+			return Double.NEGATIVE_INFINITY;
+		int mode = (int) (((double) n + 1) * ((double) s + 1) / ((double) N + 2));
+		if (x <= mode)
+			return logComplement(logHyperGeometricCDF(x - 1, N, s, n));
+		// P(k+1)/P(k) = (s-k)(n-k) / ((k+1)(N-s-n+k+1))
+		double sum = 1, term = 1;
+		for (int k = x; k < hi; k++) {
+			term *= (((double) s - k) * ((double) n - k)) / (((double) k + 1) * ((double) N - s - n + k + 1));
+			sum += term;
+			if (term < sum * TAIL_EPSILON)
+				break;
+		}
+		return logHyperGeometricPDF(x, N, s, n) + Math.log(sum);
+	}
+
+	/**
+	 * Batch version of logHyperGeometricCDF for many observations from a fixed population and sample size.
+	 * If the support is small relative to the number of observations, the CDF is tabulated over the whole
+	 * support once, otherwise each observation is evaluated separately.
+	 * @param x # observed successes in each sample
+	 * @param N population size
+	 * @param s # of successes in population
+	 * @param n sample size
+	 * @return
+	 */
+	public static double[] logHyperGeometricCDF(int[] x, int N, int s, int n) {
+		double[] res = new double[x.length];
+		int lo = Math.max(0, n + s - N), hi = Math.min(s, n);
+		if (hi - lo + 1 <= BATCH_TABLE_FACTOR * x.length) {
+			double[] table = new double[hi - lo + 1];
+			double cumul = Double.NEGATIVE_INFINITY;
+			for (int k = lo; k <= hi; k++) {
+				cumul = logSumExp(cumul, logHyperGeometricPDF(k, N, s, n));
+				table[k - lo] = Math.min(0, cumul);
+			}
+			for (int i = 0; i < x.length; i++) {
+				if (x[i] < lo)
+					res[i] = Double.NEGATIVE_INFINITY;
+				else if (x[i] >= hi)
+					res[i] = 0;
+				else
+					res[i] = table[x[i] - lo];
+			}
+		} else {
+			for (int i = 0; i < x.length; i++)
+				res[i] = logHyperGeometricCDF(x[i], N, s, n);
+		}
+		return res;
+	}
+
+	/**
+	 * Batch version of logHyperGeometricUpperTail for many observations from a fixed population and sample size.
+	 * @param x # observed successes in each sample
+	 * @param N population size
+	 * @param s # of successes in population
+	 * @param n sample size
+	 * @return
+	 */
+	public static double[] logHyperGeometricUpperTail(int[] x, int N, int s, int n) {
+		double[] res = new double[x.length];
+		int lo = Math.max(0, n + s - N), hi = Math.min(s, n);
+		if (hi - lo + 1 <= BATCH_TABLE_FACTOR * x.length) {
+			double[] table = new double[hi - lo + 1];
+			double cumul = Double.NEGATIVE_INFINITY;
+			for (int k = hi; k >= lo; k--) {
+				cumul = logSumExp(cumul, logHyperGeometricPDF(k, N, s, n));
+				table[k - lo] = Math.min(0, cumul);
+			}
+			for (int i = 0; i < x.length; i++) {
+				if (x[i] <= lo)
+					res[i] = 0;
+				else if (x[i] > hi)
+					res[i] = Double.NEGATIVE_INFINITY;
+				else
+					res[i] = table[x[i] - lo];
+			}
+		} else {
+			for (int i = 0; i < x.length; i++)
+				res[i] = logHyperGeometricUpperTail(x[i], N, s, n);
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the natural log of the binomial density P(X=k) where X~Binomial(n,p)
+	 * @param k # successes
+	 * @param n # trials
+	 * @param p success probability
+	 * @return
+	 */
+	public static double logBinomialPDF(int k, int n, double p) {
+		if (k < 0 || k > n)
+			return Double.NEGATIVE_INFINITY;
+		if (p <= 0)
+			return k == 0 ? 0 : Double.NEGATIVE_INFINITY;
+		if (p >= 1)
+			return k == n ? 0 : Double.NEGATIVE_INFINITY;
+		return logChoose(n, k) + k * Math.log(p) + (n - k) * Math.log1p(-p);
+	}
+
+	/**
+	 * Returns the natural log of the binomial cumulative probability P(X&lt;=k) where X~Binomial(n,p).<br>
+	 * Tails are summed with the ratio of consecutive densities, as in logHyperGeometricCDF.
+	 * @param k # successes
+	 * @param n # trials
+	 * @param p success probability
+	 * @return
+	 */
+	public static double logBinomialCDF(int k, int n, double p) {
+		if (k < 0)
+			return Double.NEGATIVE_INFINITY;
+		if (k >= n || p <= 0)
+			return 0;
+		if (p >= 1)
+			return Double.NEGATIVE_INFINITY;
+		int mode = (int) ((n + 1.0) * p);
+		if (k > mode)
+			return logComplement(logBinomialUpperTail(k + 1, n, p));
+		// P(j-1)/P(j) = j(1-p) / ((n-j+1)p)
+		double odds = (1 - p) / p;
+		double sum = 1, term = 1;
+		for (int j = k; j > 0; j--) {
+			term *= odds * j / ((double) n - j + 1);
+			sum += term;
+			if (term < sum * TAIL_EPSILON)
+				break;
+		}
+		return logBinomialPDF(k, n, p) + Math.log(sum);
+	}
+
+	/**
+	 * Returns the natural log of the binomial upper tail probability P(X&gt;=k) where X~Binomial(n,p).
+	 * Note that 1-cdf(k) of a Binomial is logBinomialUpperTail(k+1, n, p), without the cancellation.
+	 * @param k # successes
+	 * @param n # trials
+	 * @param p success probability
+	 * @return
+	 */
+	public static double logBinomialUpperTail(int k, int n, double p) {
+		if (k <= 0 || p >= 1)
+			return k > n ? Double.NEGATIVE_INFINITY : 0;
+		if (k > n || p <= 0)
+			return Double.NEGATIVE_INFINITY;
+		int mode = (int) ((n + 1.0) * p);
+		if (k <= mode)
+			return logComplement(logBinomialCDF(k - 1, n, p));
+		// P(j+1)/P(j) = (n-j)p / ((j+1)(1-p))
+		double odds = p / (1 - p);
+		double sum = 1, term = 1;
+		for (int j = k; j < n; j++) {
+			term *= odds * ((double) n - j) / ((double) j + 1);
+			sum += term;
+			if (term < sum * TAIL_EPSILON)
+				break;
+		}
+		return logBinomialPDF(k, n, p) + Math.log(sum);
+	}
+
+	/**
+	 * Returns the binomial upper tail probability P(X&gt;=k) where X~Binomial(n,p)
+	 */
+	public static double binomialUpperTail(int k, int n, double p) {
+		return Math.exp(logBinomialUpperTail(k, n, p));
+	}
+
+	/**
+	 * Batch version of logBinomialCDF: element-wise over index-matched arrays
+	 */
+	public static double[] logBinomialCDF(int[] k, int[] n, double[] p) {
+		if (k.length != n.length || k.length != p.length)
+			throw new IllegalArgumentException("StatUtil.logBinomialCDF: arrays of different lengths");
+		double[] res = new double[k.length];
+		for (int i = 0; i < k.length; i++)
+			res[i] = logBinomialCDF(k[i], n[i], p[i]);
+		return res;
+	}
+
+	/**
+	 * Batch version of logBinomialUpperTail: element-wise over index-matched arrays
+	 */
+	public static double[] logBinomialUpperTail(int[] k, int[] n, double[] p) {
+		if (k.length != n.length || k.length != p.length)
+			throw new IllegalArgumentException("StatUtil.logBinomialUpperTail: arrays of different lengths");
+		double[] res = new double[k.length];
+		for (int i = 0; i < k.length; i++)
+			res[i] = logBinomialUpperTail(k[i], n[i], p[i]);
+		return res;
+	}
+
+	/**
+	 * Returns the hypergeometric cumulative probability of number <tt>x</tt>
 	 * when the sample size is <tt>n</tt>, the size of the positive set <tt>s</tt>
 	 * and the population size <tt>N</tt>.
-	 * The precision of the method is up to 1E-8, determined empirically
-	 * This method use cern.jet.stat.Gamma.logGamma to compute factorial values. 
-	 * It is more appropriate for one time on-the-fly calculation.
+	 * Computed in log space (see logHyperGeometricCDF).
 	 * @param x # observed successes in the sample
 	 * @param N population size
 	 * @param s # of successes in population (e.g., size of positive set in the population)
@@ -1115,20 +1496,12 @@ public class StatUtil {
 	 * @return
 	 */
 	public static double hyperGeometricCDF(int x, int N, int s, int n) {
-		double v = 0.0;
-		int k = 0;
-		for (k=0;k<=x;k++) {
-			v += hyperGeometricPDF(k,N,s,n);
-		}
-		
-		if (v > 1.0)
-			v = 1.0;
-		return v;	
+		return Math.exp(logHyperGeometricCDF(x, N, s, n));
 	}
-	
-	
+
+
 	/**
-	 * Returns the hypergeometric density probability of number <tt>x</tt> 
+	 * Returns the hypergeometric density probability of number <tt>x</tt>
 	 * when the sample size is <tt>n</tt>, the size of the positive set <tt>s</tt>
 	 * and the population size <tt>N</tt>.  <br>
 	 * It works with the gamma function and in log space in an attempt to avoid
@@ -1140,23 +1513,15 @@ public class StatUtil {
 	 * @return
 	 */
 	public static double hyperGeometricPDF(int x, int N, int s, int n) {
-		double xd = (double) x;
-		double Nd = (double) N;
-		double sd = (double) s;
-		double nd = (double) n;
-		double kx = cern.jet.stat.Gamma.logGamma(sd+1)-cern.jet.stat.Gamma.logGamma(x+1)-cern.jet.stat.Gamma.logGamma(sd-x+1);
-		double mn = cern.jet.stat.Gamma.logGamma(Nd+1)-cern.jet.stat.Gamma.logGamma(nd+1)-cern.jet.stat.Gamma.logGamma(Nd-nd+1);
-		double mknx = cern.jet.stat.Gamma.logGamma(Nd-sd+1)-cern.jet.stat.Gamma.logGamma(nd-x+1)-cern.jet.stat.Gamma.logGamma(Nd-sd-(nd-x)+1);
-		return Math.exp(kx + mknx - mn);
+		return Math.exp(logHyperGeometricPDF(x, N, s, n));
 	}
-	
+
 	/**
-	 * Returns the hypergeometric cumulative probability of number <tt>x</tt> 
+	 * Returns the hypergeometric cumulative probability of number <tt>x</tt>
 	 * when the sample size is <tt>n</tt>, the size of the positive set <tt>s</tt>
 	 * and the population size <tt>N</tt>.<br>
-	 * If the CDF is close to 1, the precision of the method is up to 1E-8, determined empirically
-	 * This method use a cache to store the factorial values. 
-	 * So it is more suitable to compute many hgp values with a fix population.
+	 * Factorial values come from the shared log-factorial cache (see logFactorial),
+	 * so it is suitable for computing many hgp values with a fixed population.
 	 * @param x # observed successes in the sample
 	 * @param N population size
 	 * @param s # of successes in population (e.g., size of positive set in the population)
@@ -1164,50 +1529,28 @@ public class StatUtil {
 	 * @return
 	 */
 	public static double hyperGeometricCDF_cache(int x, int N, int s, int n) {
-		double v = 0.0;
-		int k = 0;
-		for (k=0;k<=x;k++) {
-			double v1= hyperGeometricPDF_cache(k,N,s,n);
-			v += v1;
-		}
-		
-		if (v > 1.0)
-			v = 1.0;
-		return v;	
+		return Math.exp(logHyperGeometricCDF(x, N, s, n));
 	}
 	/**
-	 * Returns the hypergeometric cumulative probability
-	 * High precision implementation with BigDecimal, but very slow	
+	 * Returns the log10 hypergeometric cumulative probability.
+	 * Formerly summed with BigDecimal; now computed in log space (see logHyperGeometricCDF), which has the same
+	 * dynamic range without the cost.
 	 */
 	public static double log10_hyperGeometricCDF_cache(int x, int N, int s, int n) {
-		BigDecimal v = BigDecimal.ZERO;
-		for (int k=0;k<=x;k++) {
-			v = v.add(hyperGeometricPDF_cache_BIG(k,N,s,n));
-//			v = v.setScale(v.scale()-v.precision()+20, BigDecimal.ROUND_DOWN);	
-		}
-		int newScale  = v.scale()-v.precision()+10;
-		BigDecimal v2 = v.setScale(newScale, BigDecimal.ROUND_DOWN);		
-		double d = v2.unscaledValue().doubleValue();
-		return Math.log10(d)-v2.scale();	
+		return logHyperGeometricCDF(x, N, s, n) / LN_10;
 	}
-	
-	/** Returns the hypergeometric cumulative probability
-	 *  Pretty high precision implementation of log10_hyperGeometricCDF, much faster than BigDecimal version 
-	 *  Summing the PDF on log10 space, avoid losing precision */
+
+	/** Returns the log10 hypergeometric cumulative probability
+	 *  Summing the PDF in log space, avoid losing precision (see logHyperGeometricCDF) */
 	public static double log10_hyperGeometricCDF_cache_appr(int x, int N, int s, int n) {
-		double Lx = log10_hyperGeometricPDF_cache(x,N,s,n);
-		double sum = 1;
-		for (int k=x-1;k>=0;k--) {
-			sum += Math.pow(10, log10_hyperGeometricPDF_cache(k,N,s,n)-Lx);
-		}
-		return Lx+Math.log10(sum);
+		return logHyperGeometricCDF(x, N, s, n) / LN_10;
 	}
 	/**
-	 * Returns the hypergeometric density probability of number <tt>x</tt> 
+	 * Returns the hypergeometric density probability of number <tt>x</tt>
 	 * when the sample size is <tt>n</tt>, the size of the positive set <tt>s</tt>
 	 * and the population size <tt>N</tt>.  <br>
-	 * This method use a cache to store the factorial values. 
-	 * So it is more suitable to compute many hgp values with a fix population.
+	 * Factorial values come from the shared log-factorial cache (see logFactorial),
+	 * so it is suitable for computing many hgp values with a fixed population.
 	 * @param x # observed successes in the sample
 	 * @param N population size
 	 * @param s # of successes in population (e.g., size of positive set in the population)
@@ -1215,84 +1558,25 @@ public class StatUtil {
 	 * @return
 	 */
 	public static double hyperGeometricPDF_cache(int x, int N, int s, int n) {
-		if (x+N-s-n<0)
-			return 0;
-		// extend the cache if N is large than existing cache
-		int len = (logFactorials==null)?0:logFactorials.length;
-		if (logFactorials==null || logFactorials.length < N+1){
-			double[] old = logFactorials;
-			logFactorials = new double[N+1];
-			if (len!=0)
-				System.arraycopy(old, 0, logFactorials, 0, len);
-			else{
-				logFactorials[0]=0;
-				len++;
-			}
-			for (int i=len;i<=N;i++)
-				logFactorials[i] = logFactorials[i-1]+Math.log(i);
-		}
-		// compute
-		double kx = logFactorials[s]-logFactorials[x]-logFactorials[s-x];
-		double mknx = logFactorials[N-s]-logFactorials[n-x]-logFactorials[N-s-(n-x)];
-		double mn = logFactorials[N]-logFactorials[n]-logFactorials[N-n];
-		double result = Math.exp(kx + mknx - mn);
-		return result;
+		return Math.exp(logHyperGeometricPDF(x, N, s, n));
 	}
-	
+
 	public static BigDecimal hyperGeometricPDF_cache_BIG (int x, int N, int s, int n) {
-		if (x+N-s-n<0)
+		double l = logHyperGeometricPDF(x, N, s, n);
+		if (l == Double.NEGATIVE_INFINITY)
 			return BigDecimal.ZERO;
-		// extend the cache if N is large than existing cache
-		int len = (logFactorials==null)?0:logFactorials.length;
-		if (logFactorials==null || logFactorials.length < N+1){
-			double[] old = logFactorials;
-			logFactorials = new double[N+1];
-			if (len!=0)
-				System.arraycopy(old, 0, logFactorials, 0, len);
-			else{
-				logFactorials[0]=0;
-				len++;
-			}
-			for (int i=len;i<=N;i++)
-				logFactorials[i] = logFactorials[i-1]+Math.log(i);
-		}
-		// compute
-		double kx = logFactorials[s]-logFactorials[x]-logFactorials[s-x];
-		double mknx = logFactorials[N-s]-logFactorials[n-x]-logFactorials[N-s-(n-x)];
-		double mn = logFactorials[N]-logFactorials[n]-logFactorials[N-n];
-		BigDecimal v = exp_BIG(kx + mknx - mn);
-		return v;
+		return exp_BIG(l);
 	}
-	
+
 	public static BigDecimal exp_BIG(double v){
 		int p = (int) Math.floor(Math.log10(v<0?-v:v));
 		double unscaledValue = v/Math.pow(10, p);
 		BigDecimal exp = BigDecimal.valueOf(Math.exp(unscaledValue)).pow((int)Math.round(Math.pow(10, p)));
 		return exp;
 	}
-	
+
 	public static double log10_hyperGeometricPDF_cache (int x, int N, int s, int n) {
-		if (x+N-s-n<0)
-			return Double.NEGATIVE_INFINITY;
-		// extend the cache if N is large than existing cache
-		int len = (logFactorials==null)?0:logFactorials.length;
-		if (logFactorials==null || logFactorials.length < N+1){
-			double[] old = logFactorials;
-			logFactorials = new double[N+1];
-			if (len!=0)
-				System.arraycopy(old, 0, logFactorials, 0, len);
-			else{
-				logFactorials[0]=0;
-				len++;
-			}
-			for (int i=len;i<=N;i++)
-				logFactorials[i] = logFactorials[i-1]+Math.log(i);
-		}
-		// compute
-		double kx = logFactorials[s]-logFactorials[x]-logFactorials[s-x];
-		double mknx = logFactorials[N-s]-logFactorials[n-x]-logFactorials[N-s-(n-x)];
-		double mn = logFactorials[N]-logFactorials[n]-logFactorials[N-n];
-		return (kx + mknx - mn)*Math.log10(Math.exp(1));
+		return logHyperGeometricPDF(x, N, s, n) / LN_10;
 	}
 	/**
 	 * 
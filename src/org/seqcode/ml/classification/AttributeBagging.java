@@ -7,6 +7,11 @@ import java.util.List;
 import java.util.Random;
 import java.util.Vector;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import weka.classifiers.Classifier;
 import weka.classifiers.RandomizableParallelIteratedSingleClassifierEnhancer;
@@ -117,6 +122,11 @@ import weka.core.PartitionGenerator;
  *
  * Options after -- are passed to the designated classifier.<p>
  *
+ * With more than one execution slot, the members are built concurrently (including the bootstrap
+ * resampling), and the out of bag error and batch predictions (distributionsForInstances) are
+ * evaluated concurrently over blocks of instances. Each member's seed and bag are fixed by the
+ * random number seed and the iteration number, so results don't depend on the number of slots.<p>
+ *
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
  * @author Len Trigg (len@reeltwo.com)
  * @author Richard Kirkby (rkirkby@cs.waikato.ac.nz)
@@ -146,6 +156,9 @@ public class AttributeBagging
 
   /** The out of bag error that has been calculated */
   protected double m_OutOfBagError;  
+
+  /** Number of instances per task when evaluating the out of bag error or batch predictions */
+  protected static final int EVALUATION_BLOCK_SIZE = 1024;
     
   /**
    * Constructor.
@@ -481,13 +494,15 @@ public class AttributeBagging
   
   /**
    * Returns a training set for a particular iteration.
+   * Not synchronized: each iteration has its own random number generator and in-bag array,
+   * and the data are only read, so bags may be drawn concurrently.
    * 
    * @param iteration the number of the iteration for the requested training set.
    * @return the training set for the supplied iteration number
    * @throws Exception if something goes wrong when generating a training set.
    */
   @Override
-  protected synchronized Instances getTrainingSet(int iteration) throws Exception {
+  protected Instances getTrainingSet(int iteration) throws Exception {
     int bagSize = m_data.numInstances() * m_BagSizePercent / 100;
     Instances bagData = null;
     Random r = new Random(m_Seed + iteration);
@@ -555,70 +570,37 @@ public class AttributeBagging
     
     // calc OOB error?
     if (getCalcOutOfBag()) {
-      double outOfBagCount = 0.0;
-      double errorSum = 0.0;
-      boolean numeric = m_data.classAttribute().isNumeric();
-      
-      for (int i = 0; i < m_data.numInstances(); i++) {
-        double vote;
-        double[] votes;
-        if (numeric)
-          votes = new double[1];
-        else
-          votes = new double[m_data.numClasses()];
-        
-        // determine predictions for instance
-        int voteCount = 0;
-        for (int j = 0; j < m_Classifiers.length; j++) {
-          if (m_inBag[j][i])
-            continue;
-          
-          if (numeric) {
-            double pred = m_Classifiers[j].classifyInstance(m_data.instance(i));
-            if (!Utils.isMissingValue(pred)) {
-              votes[0] += pred;
-              voteCount++;
-            }
-          } else {
-            voteCount++;
-            double[] newProbs = m_Classifiers[j].distributionForInstance(m_data.instance(i));
-            // average the probability estimates
-            for (int k = 0; k < newProbs.length; k++) {
-              votes[k] += newProbs[k];
+      final boolean numeric = m_data.classAttribute().isNumeric();
+      List<double[]> blockSums = runInBlocks(m_data.numInstances(), new BlockTask<double[]>() {
+        public double[] run(int start, int end) throws Exception {
+          double[] sums = new double[2]; // {out of bag weight, error sum}
+          for (int i = start; i < end; i++) {
+            Instance inst = m_data.instance(i);
+            double vote = outOfBagVote(i, numeric);
+
+            // error for instance
+            if (!Utils.isMissingValue(vote)) {
+              sums[0] += inst.weight();
+              if (numeric) {
+                sums[1] += StrictMath.abs(vote - inst.classValue()) * inst.weight();
+              }
+              else {
+                if (vote != inst.classValue())
+                  sums[1] += inst.weight();
+              }
             }
           }
+          return sums;
         }
-        
-        // "vote"
-        if (numeric) {
-          if (voteCount == 0) {
-            vote = Utils.missingValue();
-          } else {
-            vote = votes[0] / voteCount;    // average
-          }
-        } else {
-          if (Utils.eq(Utils.sum(votes), 0)) {            
-            vote = Utils.missingValue();
-          } else {
-            vote = Utils.maxIndex(votes);   // predicted class
-            Utils.normalize(votes);
-          }
-        }
-        
-        // error for instance
-        if (!Utils.isMissingValue(vote)) {
-          outOfBagCount += m_data.instance(i).weight();
-          if (numeric) {
-            errorSum += StrictMath.abs(vote - m_data.instance(i).classValue()) 
-              * m_data.instance(i).weight();
-          }
-          else {
-            if (vote != m_data.instance(i).classValue())
-              errorSum += m_data.instance(i).weight();
-          }
-        }
+      });
+
+      // combine in block order, so the sum doesn't depend on the number of slots
+      double outOfBagCount = 0.0;
+      double errorSum = 0.0;
+      for (double[] sums : blockSums) {
+        outOfBagCount += sums[0];
+        errorSum += sums[1];
       }
-      
       if (outOfBagCount > 0) {
         m_OutOfBagError = errorSum / outOfBagCount;
       }
@@ -631,6 +613,130 @@ public class AttributeBagging
     m_data = null;
   }
 
+  /**
+   * Out of bag prediction for a training instance, i.e. the vote of the members
+   * whose bags didn't include it.
+   *
+   * @param i the index of the instance in the training data
+   * @param numeric whether the class is numeric
+   * @return the predicted value or class index, or missing if no member voted
+   * @throws Exception if a member's prediction fails
+   */
+  protected double outOfBagVote(int i, boolean numeric) throws Exception {
+    double[] votes;
+    if (numeric)
+      votes = new double[1];
+    else
+      votes = new double[m_data.numClasses()];
+
+    // determine predictions for instance
+    int voteCount = 0;
+    for (int j = 0; j < m_Classifiers.length; j++) {
+      if (m_inBag[j][i])
+        continue;
+
+      if (numeric) {
+        double pred = m_Classifiers[j].classifyInstance(m_data.instance(i));
+        if (!Utils.isMissingValue(pred)) {
+          votes[0] += pred;
+          voteCount++;
+        }
+      } else {
+        voteCount++;
+        double[] newProbs = m_Classifiers[j].distributionForInstance(m_data.instance(i));
+        // average the probability estimates
+        for (int k = 0; k < newProbs.length; k++) {
+          votes[k] += newProbs[k];
+        }
+      }
+    }
+
+    // "vote"
+    if (numeric) {
+      if (voteCount == 0)
+        return Utils.missingValue();
+      return votes[0] / voteCount;    // average
+    } else {
+      if (Utils.eq(Utils.sum(votes), 0))
+        return Utils.missingValue();
+      return Utils.maxIndex(votes);   // predicted class
+    }
+  }
+
+  /**
+   * Calculates the class membership probabilities for a batch of instances,
+   * using the execution slots to evaluate blocks of instances concurrently.
+   *
+   * @param insts the instances to be classified
+   * @return predicted class probability distributions, index-matched to the instances
+   * @throws Exception if a distribution can't be computed successfully
+   */
+  public double[][] distributionsForInstances(final Instances insts) throws Exception {
+
+    final double[][] dists = new double[insts.numInstances()][];
+    runInBlocks(insts.numInstances(), new BlockTask<Object>() {
+      public Object run(int start, int end) throws Exception {
+        for (int i = start; i < end; i++)
+          dists[i] = distributionForInstance(insts.instance(i));
+        return null;
+      }
+    });
+    return dists;
+  }
+
+  /**
+   * Work on a block of instance indices
+   */
+  protected interface BlockTask<T> {
+    T run(int start, int end) throws Exception;
+  }
+
+  /**
+   * Runs a task over consecutive blocks of EVALUATION_BLOCK_SIZE instances, using up to
+   * getNumExecutionSlots() threads.
+   *
+   * @param numInstances the number of instances
+   * @param task the work to do on each block
+   * @return the result of each block, in block order
+   * @throws Exception if a task fails
+   */
+  protected <T> List<T> runInBlocks(int numInstances, final BlockTask<T> task) throws Exception {
+
+    int numBlocks = (numInstances + EVALUATION_BLOCK_SIZE - 1) / EVALUATION_BLOCK_SIZE;
+    List<T> results = new ArrayList<T>(numBlocks);
+    int numThreads = Math.min(getNumExecutionSlots(), numBlocks);
+    if (numThreads <= 1) {
+      for (int b = 0; b < numBlocks; b++)
+        results.add(task.run(b * EVALUATION_BLOCK_SIZE, Math.min(numInstances, (b + 1) * EVALUATION_BLOCK_SIZE)));
+      return results;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<T>> futures = new ArrayList<Future<T>>(numBlocks);
+      for (int b = 0; b < numBlocks; b++) {
+        final int start = b * EVALUATION_BLOCK_SIZE;
+        final int end = Math.min(numInstances, (b + 1) * EVALUATION_BLOCK_SIZE);
+        futures.add(executor.submit(new Callable<T>() {
+          public T call() throws Exception {
+            return task.run(start, end);
+          }
+        }));
+      }
+      for (Future<T> f : futures)
+        results.add(f.get());
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception)
+        throw (Exception) e.getCause();
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    return results;
+  }
+
   /**
    * Calculates the class membership probabilities for the given test
    * instance.
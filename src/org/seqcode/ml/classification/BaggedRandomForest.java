@@ -81,7 +81,7 @@ import weka.core.SerializationHelper;
  * 
  * <pre> -num-slots &lt;num&gt;
  *  Number of execution slots.
- *  (default 1 - i.e. no parallelism)</pre>
+ *  (default 1 - i.e. no parallelism; 0 uses all available processors)</pre>
  * 
  * <pre> -output-debug-info
  *  If set, classifier is run in debug mode and
@@ -400,7 +400,8 @@ public class BaggedRandomForest extends AbstractClassifier implements OptionHand
 
   /**
    * Set the number of execution slots (threads) to use for building the members
-   * of the ensemble.
+   * of the ensemble, evaluating the out of bag error, and batch predictions.
+   * Values below 1 use all available processors.
    * 
    * @param numSlots the number of slots to use.
    */
@@ -426,7 +427,7 @@ public class BaggedRandomForest extends AbstractClassifier implements OptionHand
    */
   public String numExecutionSlotsTipText() {
     return "The number of execution slots (threads) to use for "
-      + "constructing the ensemble.";
+      + "constructing and evaluating the ensemble (0 = all available processors).";
   }
 
   /**
@@ -491,7 +492,7 @@ public class BaggedRandomForest extends AbstractClassifier implements OptionHand
       "\tPrint the individual trees in the output", "print", 0, "-print"));
 
     newVector.addElement(new Option("\tNumber of execution slots.\n"
-      + "\t(default 1 - i.e. no parallelism)", "num-slots", 1,
+      + "\t(default 1 - i.e. no parallelism; 0 uses all available processors)", "num-slots", 1,
       "-num-slots <num>"));
 
     newVector.addAll(Collections.list(super.listOptions()));
@@ -569,7 +570,7 @@ public class BaggedRandomForest extends AbstractClassifier implements OptionHand
    * 
    * <pre> -num-slots &lt;num&gt;
    *  Number of execution slots.
-   *  (default 1 - i.e. no parallelism)</pre>
+   *  (default 1 - i.e. no parallelism; 0 uses all available processors)</pre>
    * 
    * <pre> -output-debug-info
    *  If set, classifier is run in debug mode and
@@ -690,7 +691,8 @@ public class BaggedRandomForest extends AbstractClassifier implements OptionHand
     m_bagger.setClassifier(rTree);
     m_bagger.setSeed(m_randomSeed);
     m_bagger.setNumIterations(m_numTrees);
-    m_bagger.setNumExecutionSlots(m_numExecutionSlots);
+    m_bagger.setNumExecutionSlots(m_numExecutionSlots < 1 ?
+      Runtime.getRuntime().availableProcessors() : m_numExecutionSlots);
     m_bagger.buildClassifier(data);
   }
 
@@ -707,6 +709,19 @@ public class BaggedRandomForest extends AbstractClassifier implements OptionHand
     return m_bagger.distributionForInstance(instance);
   }
 
+  /**
+   * Returns the class probability distributions for a batch of instances,
+   * evaluated concurrently using the execution slots.
+   * 
+   * @param instances the instances to be classified
+   * @return the distributions the forest generates, index-matched to the instances
+   * @throws Exception if computation fails
+   */
+  public double[][] distributionsForInstances(Instances instances) throws Exception {
+
+    return m_bagger.distributionsForInstances(instances);
+  }
+
   /**
    * Outputs a description of this classifier.
    * 
@@ -0,0 +1,10 @@
+package org.seqcode.ml.clustering;
+
+/**
+ * ElementVectorizer maps a clustered element onto a primitive vector, for the
+ * clustering methods that work directly on double[] arrays.
+ * All vectors produced for one clustering run should have the same length.
+ */
+public interface ElementVectorizer<X> {
+	public double[] getVector(X e);
+}
@@ -268,13 +268,15 @@ public class APCluster {
 	 * argv[1] = preference value
 	 * argv[2] = results file
 	 * argv[3] = indices file
+	 * argv[4] = number of threads (optional)
 	 * @param argv
 	 * @throws Exception
 	 */
 	public static void main(String[] argv) throws Exception {
 		FileSimilarityMeasure<Clusterable> fsm = new FileSimilarityMeasure<Clusterable>(argv[0],
 				"\t", Double.valueOf(argv[1]).doubleValue());
-		double netsim = cluster(fsm.objects(), fsm, 0.5, 50, 500);
+		int threads = argv.length>4 ? Integer.parseInt(argv[4]) : Runtime.getRuntime().availableProcessors();
+		double netsim = ParallelAPCluster.cluster(fsm.objects(), fsm, 0.5, 50, 500, threads);
 		PrintStream outstream = new PrintStream(argv[2]);
 		fsm.printExemplars(outstream);
 		outstream.println();
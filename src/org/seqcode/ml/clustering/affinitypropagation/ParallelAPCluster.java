@@ -0,0 +1,280 @@
+package org.seqcode.ml.clustering.affinitypropagation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.seqcode.ml.clustering.Clusterable;
+import org.seqcode.ml.clustering.ClusterablePair;
+
+
+/**
+ * Affinity propagation over primitive arrays.
+ *
+ * The SimilarityMeasure is read into either a dense n*n array or, when fewer than half
+ * of the pairs exist (or n*n is too large for an array), a compressed sparse row (CSR)
+ * structure with a column index for the availability updates. A first pass counts the
+ * existing pairs per row so that only the chosen layout is allocated. Responsibilities are then updated in parallel over rows and
+ * availabilities in parallel over columns, with damping factor lam. Iteration stops when the
+ * set of exemplars has been unchanged for convit iterations, or after maxit iterations.
+ *
+ * The message-passing updates, convergence test, and exemplar assignment follow APCluster.
+ */
+public class ParallelAPCluster {
+
+	private int n;
+	private boolean dense;
+	private int[] rowStart, colIdx;		//CSR layout (rowStart/colIdx unused when dense)
+	private int[] colStart, colEntries;	//for each column, the CSR entries in that column
+	private int[] diag;					//entry index of (k,k)
+	private double[] sim, resp, avail;
+	private int numThreads;
+	private ExecutorService pool;
+
+	/**
+	 * Cluster the objects using the given similarities.
+	 * @param objects
+	 * @param s
+	 * @param lam : damping factor
+	 * @param convit : number of iterations without change in exemplars required for convergence
+	 * @param maxit : maximum number of iterations
+	 * @param numThreads
+	 * @return net similarity
+	 */
+	public static double cluster(Vector<Clusterable> objects, SimilarityMeasure<Clusterable> s, double lam, int convit, int maxit, int numThreads) {
+		s.addNoise();
+		ParallelAPCluster ap = new ParallelAPCluster(objects, s, numThreads);
+		try{
+			return ap.run(s, lam, convit, maxit);
+		}finally{
+			ap.pool.shutdown();
+		}
+	}
+
+	private ParallelAPCluster(Vector<Clusterable> objects, SimilarityMeasure<Clusterable> s, int threads){
+		n = s.size();
+		numThreads = Math.max(1, threads);
+		pool = Executors.newFixedThreadPool(numThreads);
+
+		//Count the existing pairs in each row, then read the similarities straight into the chosen layout
+		int[] rowCounts = new int[n];
+		long nnz=0;
+		for (int i=0; i<n; i++) {
+			for (int j=0; j<n; j++) {
+				if (s.exists(new ClusterablePair(objects.get(i), objects.get(j))))
+					rowCounts[i]++;
+			}
+			nnz += rowCounts[i];
+		}
+		long cells = (long)n*n;
+		dense = nnz > cells/2 && cells <= Integer.MAX_VALUE;
+		if(!dense && nnz > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many similarities for ParallelAPCluster: "+nnz);
+		diag = new int[n];
+		if(dense){
+			sim = new double[(int)cells];
+			for (int i=0; i<n; i++) {
+				for (int j=0; j<n; j++) {
+					ClusterablePair ijpair = new ClusterablePair(objects.get(i), objects.get(j));
+					sim[i*n+j] = s.exists(ijpair) ? s.evaluate(ijpair) : SimilarityMeasure.NEGINF;
+				}
+				diag[i] = i*n+i;
+			}
+			//Column traversal of the dense matrix uses stride n
+		}else{
+			rowStart = new int[n+1];
+			for(int i=0; i<n; i++)
+				rowStart[i+1]=rowStart[i]+rowCounts[i];
+			colIdx = new int[(int)nnz];
+			sim = new double[(int)nnz];
+			int[] colCounts = new int[n];
+			for(int i=0; i<n; i++){
+				int e=rowStart[i];
+				for(int j=0; j<n && e<rowStart[i+1]; j++){
+					ClusterablePair ijpair = new ClusterablePair(objects.get(i), objects.get(j));
+					if(s.exists(ijpair)){
+						colIdx[e]=j;
+						sim[e]=s.evaluate(ijpair);
+						colCounts[j]++;
+						if(i==j)
+							diag[i]=e;
+						e++;
+					}
+				}
+			}
+			colStart = new int[n+1];
+			for(int j=0; j<n; j++)
+				colStart[j+1]=colStart[j]+colCounts[j];
+			colEntries = new int[(int)nnz];
+			int[] fill = new int[n];
+			for(int i=0; i<n; i++)
+				for(int x=rowStart[i]; x<rowStart[i+1]; x++){
+					int j = colIdx[x];
+					colEntries[colStart[j]+fill[j]++] = x;
+				}
+		}
+		resp = new double[sim.length];
+		avail = new double[sim.length];
+	}
+
+	private double run(SimilarityMeasure<Clusterable> s, final double lam, int convit, int maxit){
+		int[][] e = new int[n][convit];
+		int[] se = new int[n];
+		int it=0, decit=0, decsumc=0, decsum0=0;
+		boolean done=false;
+
+		while(!done){
+			parallel(new RangeTask(){ public void run(int from, int to){ updateResponsibilities(from, to, lam); }});
+			parallel(new RangeTask(){ public void run(int from, int to){ updateAvailabilities(from, to, lam); }});
+
+			//check for convergence
+			decsumc = 0;
+			decsum0 = 0;
+			for (int j = 0; j<n; j++) {
+				int old = e[j][decit];
+				e[j][decit] = avail[diag[j]]+resp[diag[j]] > 0 ? 1 : 0;
+				se[j] += e[j][decit] - old;
+				if (se[j]==convit) {
+					decsumc++;
+				} else if (se[j]==0) {
+					decsum0++;
+				}
+			}
+			if (((decsumc+decsum0==n)&&(decsumc>0))||(it>=maxit)) {
+				done = true;
+				decit--;
+			}
+			it++; decit++;
+			if (decit>=convit) {
+				decit = 0;
+			}
+		}
+		System.out.println("iterations: "+it);
+
+		//compute assignments to exemplars
+		List<Integer> exidx = new ArrayList<Integer>();
+		for (int i=0; i<n; i++)
+			if (e[i][decit]==1)
+				exidx.add(i);
+		int[] assgn = new int[n];
+		for (int i=0; i<n; i++) {
+			double max1 = SimilarityMeasure.NEGINF;
+			for (int j=0; j<exidx.size(); j++) {
+				double sij = similarity(i, exidx.get(j));
+				if (sij > max1) {
+					max1 = sij;
+					assgn[i] = j;
+				}
+			}
+		}
+		for (int i=0; i<exidx.size(); i++)
+			assgn[exidx.get(i)] = i;
+		int[] ex = new int[exidx.size()];
+		for(int i=0; i<ex.length; i++)
+			ex[i] = exidx.get(i);
+		s.putAssignments(assgn);
+		s.putExemplars(ex);
+
+		double netsim = 0.0;
+		for (int i=0; i<n; i++)
+			netsim += similarity(i, ex[assgn[i]]);
+		return netsim;
+	}
+
+	/**
+	 * Similarity lookup (NEGINF if the pair doesn't exist)
+	 */
+	private double similarity(int i, int j){
+		if(dense)
+			return sim[i*n+j];
+		for(int x=rowStart[i]; x<rowStart[i+1]; x++)
+			if(colIdx[x]==j)
+				return sim[x];
+		return SimilarityMeasure.NEGINF;
+	}
+
+	/**
+	 * r(i,k) = s(i,k) - max_{k' != k} [a(i,k') + s(i,k')], damped
+	 */
+	private void updateResponsibilities(int from, int to, double lam){
+		for(int i=from; i<to; i++){
+			int start = dense ? i*n : rowStart[i], end = dense ? (i+1)*n : rowStart[i+1];
+			double max1 = SimilarityMeasure.NEGINF, max2 = SimilarityMeasure.NEGINF;
+			int i1 = -1;
+			for(int x=start; x<end; x++){
+				double tmp = avail[x] + sim[x];
+				if (tmp > max1) {
+					max2 = max1;
+					max1 = tmp;
+					i1 = x;
+				} else if (tmp > max2) {
+					max2 = tmp;
+				}
+			}
+			for(int x=start; x<end; x++)
+				resp[x] = lam*resp[x] + (1.0-lam)*(sim[x] - (x==i1 ? max2 : max1));
+		}
+	}
+
+	/**
+	 * a(i,k) = min(0, r(k,k) + sum_{i' not in {i,k}} max(0, r(i',k))), a(k,k) = sum_{i' != k} max(0, r(i',k)), damped
+	 */
+	private void updateAvailabilities(int from, int to, double lam){
+		for(int k=from; k<to; k++){
+			int kk = diag[k];
+			int len = dense ? n : colStart[k+1]-colStart[k];
+			double tmp = 0.0;
+			for(int c=0; c<len; c++){
+				int x = dense ? c*n+k : colEntries[colStart[k]+c];
+				if(x!=kk && resp[x]>0)
+					tmp += resp[x];
+			}
+			double rkk = resp[kk];
+			for(int c=0; c<len; c++){
+				int x = dense ? c*n+k : colEntries[colStart[k]+c];
+				if(x==kk){
+					avail[x] = lam*avail[x] + (1.0-lam)*tmp;
+				}else{
+					double tmp2 = tmp - (resp[x]>0 ? resp[x] : 0) + rkk;
+					avail[x] = tmp2 < 0 ? lam*avail[x] + (1.0-lam)*tmp2 : lam*avail[x];
+				}
+			}
+		}
+	}
+
+	private interface RangeTask{
+		public void run(int from, int to);
+	}
+
+	/**
+	 * Run a task over [0,n) split into one contiguous range per thread
+	 */
+	private void parallel(final RangeTask task){
+		if(numThreads==1){
+			task.run(0, n);
+			return;
+		}
+		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		int chunk = (n+numThreads-1)/numThreads;
+		for(int from=0; from<n; from+=chunk){
+			final int f = from, t = Math.min(n, from+chunk);
+			futures.add(pool.submit(new Callable<Object>(){
+				public Object call(){ task.run(f, t); return null; }
+			}));
+		}
+		try {
+			for(Future<Object> fut : futures)
+				fut.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+}
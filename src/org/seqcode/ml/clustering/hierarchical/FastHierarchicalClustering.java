@@ -0,0 +1,242 @@
+package org.seqcode.ml.clustering.hierarchical;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.seqcode.ml.clustering.Cluster;
+import org.seqcode.ml.clustering.ClusteringMethod;
+import org.seqcode.ml.clustering.PairwiseElementMetric;
+import org.seqcode.ml.clustering.SingletonCluster;
+
+
+/**
+ * Agglomerative hierarchical clustering over a condensed (upper-triangular) primitive
+ * distance matrix. Initial distances are evaluated once per pair, in parallel. Merges are
+ * found with the nearest-neighbour chain algorithm, and distances to merged clusters are
+ * updated with the Lance-Williams recurrence, giving O(n^2) time and O(n^2/2) memory
+ * (compared with O(n^3) for HierarchicalClustering).
+ *
+ * Unlike HierarchicalClustering, which re-evaluates the metric on cluster representatives,
+ * the distance between clusters is defined by the linkage. The nearest-neighbour chain
+ * requires a reducible linkage, so centroid/median linkages are not offered; WARD is the
+ * closest equivalent for Euclidean metrics (the metric values are squared internally, and
+ * merge heights are reported on the original scale).
+ *
+ * Merge heights are stored as the ClusterNode weights.
+ */
+public class FastHierarchicalClustering<X> implements ClusteringMethod<X> {
+
+	public enum Linkage {SINGLE, COMPLETE, AVERAGE, WEIGHTED, WARD};
+
+    private PairwiseElementMetric<X> metric;
+    private Linkage linkage;
+    private double maxDistanceToAccept;
+    private int numThreads;
+
+    public FastHierarchicalClustering(PairwiseElementMetric<X> m, Linkage l) {
+    	this(m, l, Runtime.getRuntime().availableProcessors());
+    }
+    public FastHierarchicalClustering(PairwiseElementMetric<X> m, Linkage l, int threads) {
+        metric = m;
+        linkage = l;
+        numThreads = Math.max(1, threads);
+        maxDistanceToAccept = Double.MAX_VALUE;
+    }
+
+    public void setMaxDistanceToAccept(double d) {
+        maxDistanceToAccept = d;
+    }
+
+    /* (non-Javadoc)
+     * @see org.seqcode.gse.clustering.ClusteringMethod#clusterElements(java.util.Collection)
+     */
+    public Collection<Cluster<X>> clusterElements(Collection<X> elmts) {
+    	List<X> elements = new ArrayList<X>(elmts);
+    	int n = elements.size();
+    	Vector<Cluster<X>> output = new Vector<Cluster<X>>();
+    	if(n==0)
+    		return output;
+
+    	double[] dist = distanceMatrix(elements);
+    	double[][] merges = nnChain(dist, n);
+    	dist = null;
+
+    	//Replay merges in order of height, with union-find over element indices
+    	Integer[] order = new Integer[merges.length];
+    	for(int m=0; m<order.length; m++)
+    		order[m]=m;
+    	final double[][] fm = merges;
+    	Arrays.sort(order, new Comparator<Integer>(){
+    		public int compare(Integer a, Integer b){return Double.compare(fm[a][2], fm[b][2]);}
+    	});
+    	int[] parent = new int[n];
+    	List<Cluster<X>> clusters = new ArrayList<Cluster<X>>(n);
+    	for(int i=0; i<n; i++){
+    		parent[i]=i;
+    		clusters.add(new SingletonCluster<X>(elements.get(i)));
+    	}
+    	for(Integer m : order){
+    		double height = linkage==Linkage.WARD ? Math.sqrt(merges[m][2]) : merges[m][2];
+    		if(height > maxDistanceToAccept)
+    			break;
+    		int a = find(parent, (int)merges[m][0]), b = find(parent, (int)merges[m][1]);
+    		int root = Math.min(a, b), other = Math.max(a, b);
+    		parent[other] = root;
+    		clusters.set(root, new ClusterNode<X>(height, clusters.get(root), clusters.get(other)));
+    		clusters.set(other, null);
+    	}
+    	for(Cluster<X> c : clusters)
+    		if(c!=null)
+    			output.add(c);
+    	return output;
+    }
+
+    private static int find(int[] parent, int i){
+    	while(parent[i]!=i){
+    		parent[i] = parent[parent[i]];
+    		i = parent[i];
+    	}
+    	return i;
+    }
+
+    /**
+     * Condensed index of pair (i,j), i<j
+     */
+    private static int index(int n, int i, int j){
+    	return (int)((long)n*i - ((long)i*(i+1))/2 + (j-i-1));
+    }
+
+    /**
+     * Evaluate the metric once for each unordered pair, spreading rows over threads.
+     * @param elements
+     * @return condensed distance matrix
+     */
+    private double[] distanceMatrix(final List<X> elements){
+    	final int n = elements.size();
+    	long size = (long)n*(n-1)/2;
+    	if(size > Integer.MAX_VALUE-8)
+    		throw new IllegalArgumentException("Too many elements for a condensed distance matrix: "+n);
+    	final double[] dist = new double[(int)size];
+    	final boolean squared = linkage==Linkage.WARD;
+
+    	ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    	List<Future<Object>> futures = new ArrayList<Future<Object>>();
+    	for(int t=0; t<numThreads; t++){
+    		final int offset = t;
+    		futures.add(pool.submit(new Callable<Object>(){
+    			public Object call(){
+    				//Interleaved rows balance the triangular workload
+    				for(int i=offset; i<n-1; i+=numThreads){
+    					X xi = elements.get(i);
+    					int base = index(n, i, i+1);
+    					for(int j=i+1; j<n; j++){
+    						double d = metric.evaluate(xi, elements.get(j));
+    						dist[base + (j-i-1)] = squared ? d*d : d;
+    					}
+    				}
+    				return null;
+    			}
+    		}));
+    	}
+    	//Failures in the metric reach the caller rather than leaving part of the matrix unset
+    	try {
+    		for(Future<Object> f : futures)
+    			f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+    	return dist;
+    }
+
+    /**
+     * Nearest-neighbour chain clustering. The condensed distance matrix is updated in place.
+     * @return n-1 merges, each {element a, element b, height}
+     */
+    private double[][] nnChain(double[] dist, int n){
+    	double[][] merges = new double[n-1][];
+    	int[] size = new int[n];
+    	boolean[] active = new boolean[n];
+    	Arrays.fill(size, 1);
+    	Arrays.fill(active, true);
+    	int[] chain = new int[n];
+    	int chainLen = 0, numMerges = 0, nextStart = 0;
+
+    	while(numMerges < n-1){
+    		if(chainLen==0){
+    			while(!active[nextStart])
+    				nextStart++;
+    			chain[chainLen++] = nextStart;
+    		}
+    		int a = chain[chainLen-1];
+    		int prev = chainLen>1 ? chain[chainLen-2] : -1;
+    		//Nearest active neighbour of a, preferring the previous chain element on ties.
+    		//NaN distances count as infinite, so some active point is always chosen.
+    		int c = prev;
+    		double best = prev>=0 ? finite(dist[a<prev ? index(n,a,prev) : index(n,prev,a)]) : Double.POSITIVE_INFINITY;
+    		for(int k=0; k<n; k++){
+    			if(!active[k] || k==a)
+    				continue;
+    			double d = finite(dist[a<k ? index(n,a,k) : index(n,k,a)]);
+    			if(d < best || c==-1){
+    				best = d;
+    				c = k;
+    			}
+    		}
+    		if(c==prev){
+    			//Reciprocal nearest neighbours: merge a into prev
+    			chainLen-=2;
+    			merges[numMerges++] = new double[]{a, prev, best};
+    			merge(dist, n, size, active, prev, a, best);
+    		}else{
+    			chain[chainLen++] = c;
+    		}
+    	}
+    	return merges;
+    }
+
+    private static double finite(double d){
+    	return Double.isNaN(d) ? Double.POSITIVE_INFINITY : d;
+    }
+
+    /**
+     * Lance-Williams update of distances to the cluster formed by merging j into i
+     */
+    private void merge(double[] dist, int n, int[] size, boolean[] active, int i, int j, double dij){
+    	int ni = size[i], nj = size[j];
+    	for(int k=0; k<n; k++){
+    		if(!active[k] || k==i || k==j)
+    			continue;
+    		int ik = i<k ? index(n,i,k) : index(n,k,i);
+    		int jk = j<k ? index(n,j,k) : index(n,k,j);
+    		double dik = dist[ik], djk = dist[jk], d;
+    		switch(linkage){
+	    		case SINGLE:   d = Math.min(dik, djk); break;
+	    		case COMPLETE: d = Math.max(dik, djk); break;
+	    		case AVERAGE:  d = (ni*dik + nj*djk)/(ni+nj); break;
+	    		case WEIGHTED: d = 0.5*(dik + djk); break;
+	    		default: //WARD
+	    			int nk = size[k];
+	    			d = ((ni+nk)*dik + (nj+nk)*djk - nk*dij)/(ni+nj+nk);
+    		}
+    		dist[ik] = d;
+    	}
+    	size[i] = ni+nj;
+    	active[j] = false;
+    }
+}
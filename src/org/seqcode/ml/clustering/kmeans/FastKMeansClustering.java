@@ -0,0 +1,169 @@
+package org.seqcode.ml.clustering.kmeans;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.seqcode.ml.clustering.ElementVectorizer;
+import org.seqcode.ml.clustering.vectorcluster.VectorPartitionClustering;
+
+
+/**
+ * K-means over primitive vectors (Euclidean distance), with k-means++ seeding.
+ *
+ * In the default (full batch) mode, each iteration assigns every vector to its nearest mean and
+ * recomputes the means (Lloyd's algorithm); both steps run in parallel over blocks of vectors, with
+ * partial sums merged in block order. Empty clusters keep their previous mean. Iteration stops after
+ * the set number of iterations, when no assignment changes, or when the means move less than the
+ * convergence difference in total (as in KMeansClustering).
+ *
+ * If a mini-batch size is set, each iteration instead draws that many vectors at random, assigns
+ * them in parallel, and moves their means towards them with per-center learning rates of
+ * 1/(number of vectors assigned so far) (Sculley, WWW 2010). Many more (cheaper) iterations are then
+ * needed, so the iteration count should be raised accordingly. All vectors are assigned to the final means.
+ *
+ * Missing (NaN) entries are skipped by the distance and the mean updates.
+ */
+public class FastKMeansClustering<X> extends VectorPartitionClustering<X> {
+
+	private int miniBatchSize = 0;
+
+	public FastKMeansClustering(ElementVectorizer<X> v, int k) {
+		this(v, k, Runtime.getRuntime().availableProcessors());
+	}
+	public FastKMeansClustering(ElementVectorizer<X> v, int k, int threads) {
+		super(v, k, threads);
+	}
+
+	/**
+	 * Number of vectors per mini-batch update (0 for full batch updates)
+	 */
+	public void setMiniBatchSize(int b) { miniBatchSize = Math.max(0, b); }
+
+	/** Cluster means */
+	public double[][] getClusterMeans() { return centers; }
+
+	/**
+	 * Assignments minimize squared Euclidean distance
+	 */
+	protected double distance(double[] a, double[] b) {
+		return squaredEuclidean(a, b);
+	}
+
+	protected void iterate(double convergenceDifference) {
+		Random rand = new Random(seed);
+		int[] seeds = seedPlusPlus(rand);
+		centers = new double[numClusters][];
+		for(int c = 0; c < numClusters; c++)
+			centers[c] = data[seeds[c]].clone();
+		if(miniBatchSize > 0 && miniBatchSize < data.length)
+			miniBatch(rand, convergenceDifference);
+		else
+			lloyd(convergenceDifference);
+	}
+
+	/**
+	 * Full batch iterations
+	 */
+	private void lloyd(double convergenceDifference) {
+		final int dim = centers[0].length;
+		final int numBlocks = numBlocks(data.length);
+		final double[][][] blockSums = new double[numBlocks][numClusters][dim];
+		final double[][][] blockCounts = new double[numBlocks][numClusters][dim];
+		boolean moved = true;
+		for(int it = 0; it < iterations; it++) {
+			int changed = assign();
+			moved = false;
+			if(changed == 0)
+				break;
+
+			//Per-block sums of the vectors in each cluster
+			runInBlocks(data.length, new BlockTask() {
+				public double run(int block, int start, int end) {
+					double[][] sums = blockSums[block], counts = blockCounts[block];
+					for(int c = 0; c < numClusters; c++) {
+						Arrays.fill(sums[c], 0);
+						Arrays.fill(counts[c], 0);
+					}
+					for(int i = start; i < end; i++) {
+						double[] x = data[i], s = sums[assignment[i]], n = counts[assignment[i]];
+						for(int j = 0; j < dim; j++) {
+							if(x[j] == x[j]) {
+								s[j] += x[j];
+								n[j]++;
+							}
+						}
+					}
+					return 0;
+				}
+			});
+
+			//Merge in block order and update the means
+			double totalShift = 0;
+			for(int c = 0; c < numClusters; c++) {
+				double[] mean = new double[dim];
+				boolean empty = true;
+				for(int j = 0; j < dim; j++) {
+					double s = 0, n = 0;
+					for(int b = 0; b < numBlocks; b++) {
+						s += blockSums[b][c][j];
+						n += blockCounts[b][c][j];
+					}
+					if(n > 0) {
+						mean[j] = s/n;
+						empty = false;
+					}else
+						mean[j] = centers[c][j];
+				}
+				if(!empty) {
+					totalShift += Math.sqrt(squaredEuclidean(centers[c], mean));
+					centers[c] = mean;
+				}
+			}
+			moved = totalShift > 0;
+			if(totalShift <= convergenceDifference)
+				break;
+		}
+		if(moved)
+			assign();
+	}
+
+	/**
+	 * Mini-batch iterations
+	 */
+	private void miniBatch(Random rand, double convergenceDifference) {
+		final int dim = centers[0].length;
+		final int[] batch = new int[miniBatchSize];
+		final int[] batchAssign = new int[miniBatchSize];
+		long[] counts = new long[numClusters];
+		double[][] previous = new double[numClusters][dim];
+		for(int it = 0; it < iterations; it++) {
+			for(int b = 0; b < miniBatchSize; b++)
+				batch[b] = rand.nextInt(data.length);
+			runInBlocks(miniBatchSize, new BlockTask() {
+				public double run(int block, int start, int end) {
+					for(int b = start; b < end; b++)
+						batchAssign[b] = nearestCenter(data[batch[b]]);
+					return 0;
+				}
+			});
+
+			for(int c = 0; c < numClusters; c++)
+				System.arraycopy(centers[c], 0, previous[c], 0, dim);
+			for(int b = 0; b < miniBatchSize; b++) {
+				int c = batchAssign[b];
+				counts[c]++;
+				double eta = 1.0/counts[c];
+				double[] x = data[batch[b]], mean = centers[c];
+				for(int j = 0; j < dim; j++)
+					if(x[j] == x[j])
+						mean[j] += eta*(x[j] - mean[j]);
+			}
+			double totalShift = 0;
+			for(int c = 0; c < numClusters; c++)
+				totalShift += Math.sqrt(squaredEuclidean(previous[c], centers[c]));
+			if(totalShift <= convergenceDifference)
+				break;
+		}
+		assign();
+	}
+}
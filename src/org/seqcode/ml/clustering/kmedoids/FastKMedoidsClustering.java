@@ -0,0 +1,126 @@
+package org.seqcode.ml.clustering.kmedoids;
+
+import java.util.Random;
+
+import org.seqcode.ml.clustering.ElementVectorizer;
+import org.seqcode.ml.clustering.vectorcluster.VectorPartitionClustering;
+
+
+/**
+ * K-medoids over primitive vectors, with k-means++ style seeding.
+ *
+ * Alternates between assigning vectors to their nearest medoid and choosing, within each
+ * cluster, the member with the smallest total distance to the other members (as in
+ * KMedoidsClustering). Assignments and the candidate medoid costs are computed in parallel over
+ * blocks of vectors. Iteration stops when the medoids no longer change, or after the set number of iterations.
+ *
+ * Distances are Euclidean or Manhattan, skipping missing (NaN) entries.
+ */
+public class FastKMedoidsClustering<X> extends VectorPartitionClustering<X> {
+
+	public enum Distance {EUCLIDEAN, MANHATTAN};
+
+	private Distance dist;
+	private int[] medoids;
+
+	public FastKMedoidsClustering(ElementVectorizer<X> v, int k) {
+		this(v, k, Distance.EUCLIDEAN, Runtime.getRuntime().availableProcessors());
+	}
+	public FastKMedoidsClustering(ElementVectorizer<X> v, int k, Distance d, int threads) {
+		super(v, k, threads);
+		dist = d;
+	}
+
+	/** Indices of the medoid vectors */
+	public int[] getMedoids() { return medoids; }
+
+	protected double distance(double[] a, double[] b) {
+		return dist == Distance.MANHATTAN ? manhattan(a, b) : Math.sqrt(squaredEuclidean(a, b));
+	}
+
+	/**
+	 * Sum over vectors of the distance to the assigned medoid
+	 */
+	public double sumOfDistance() {
+		double s = 0;
+		for(int i = 0; i < nearest.length; i++)
+			s += nearest[i];
+		return s;
+	}
+
+	protected void iterate(double convergenceDifference) {
+		Random rand = new Random(seed);
+		medoids = seedPlusPlus(rand);
+		centers = new double[numClusters][];
+		for(int c = 0; c < numClusters; c++)
+			centers[c] = data[medoids[c]];
+
+		boolean changed = true;
+		for(int it = 0; it < iterations && changed; it++) {
+			assign();
+
+			//Group member indices by cluster
+			int[] start = new int[numClusters+1];
+			for(int i = 0; i < data.length; i++)
+				start[assignment[i]+1]++;
+			for(int c = 0; c < numClusters; c++)
+				start[c+1] += start[c];
+			int[] members = new int[data.length];
+			int[] fill = start.clone();
+			for(int i = 0; i < data.length; i++)
+				members[fill[assignment[i]]++] = i;
+
+			changed = false;
+			for(int c = 0; c < numClusters; c++) {
+				int m = updateMedoid(c, members, start[c], start[c+1]);
+				if(m != medoids[c]) {
+					medoids[c] = m;
+					centers[c] = data[m];
+					changed = true;
+				}
+			}
+		}
+		if(changed)
+			assign();
+	}
+
+	/**
+	 * Member of cluster c with the lowest total distance to the other members (the current medoid wins ties)
+	 * @param members : member indices, grouped by cluster
+	 * @param from : first member of cluster c
+	 * @param to : end of the members of cluster c
+	 */
+	private int updateMedoid(int c, final int[] members, final int from, final int to) {
+		int size = to - from;
+		if(size == 0)
+			return medoids[c];
+		final double[] cost = new double[size];
+		runInBlocks(size, new BlockTask() {
+			public double run(int block, int start, int end) {
+				for(int k = start; k < end; k++) {
+					double[] m = data[members[from+k]];
+					double total = 0;
+					for(int e = from; e < to; e++)
+						total += distance(m, data[members[e]]);
+					cost[k] = total;
+				}
+				return 0;
+			}
+		});
+		int best = medoids[c];
+		double bestCost = Double.MAX_VALUE;
+		for(int k = 0; k < size; k++) {
+			if(members[from+k] == medoids[c]) {
+				bestCost = cost[k];
+				break;
+			}
+		}
+		for(int k = 0; k < size; k++) {
+			if(cost[k] < bestCost) {
+				bestCost = cost[k];
+				best = members[from+k];
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,17 @@
+package org.seqcode.ml.clustering.vectorcluster;
+
+import org.seqcode.ml.clustering.ElementVectorizer;
+
+/**
+ * Copies a VectorClusterElement into a double[], with missing values as NaN
+ * (which the primitive clustering methods skip, as EuclideanDistance & Mean do).
+ */
+public class VectorClusterElementVectorizer<X extends VectorClusterElement> implements ElementVectorizer<X> {
+
+	public double[] getVector(X e) {
+		double[] v = new double[e.dimension()];
+		for(int i = 0; i < v.length; i++)
+			v[i] = e.isMissingValue(i) ? Double.NaN : e.getValue(i);
+		return v;
+	}
+}
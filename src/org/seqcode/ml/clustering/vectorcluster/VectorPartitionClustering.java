@@ -0,0 +1,301 @@
+package org.seqcode.ml.clustering.vectorcluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.seqcode.ml.clustering.Cluster;
+import org.seqcode.ml.clustering.ClusteringMethod;
+import org.seqcode.ml.clustering.DefaultCluster;
+import org.seqcode.ml.clustering.ElementVectorizer;
+
+
+/**
+ * Shared machinery for partitional clustering (k-means, k-medoids) over primitive vectors.
+ *
+ * Elements are mapped once to double[] vectors (NaN entries are treated as missing and skipped
+ * by the distances), centers are seeded with k-means++ (D^2 weighting on the method's distance),
+ * and the nearest-center assignment steps are spread over threads in fixed blocks of vectors.
+ * Per-block results are always combined in block order, so the clustering for a given seed
+ * doesn't depend on the number of threads.
+ *
+ * clusterElements returns one DefaultCluster per center, as KMeansClustering & KMedoidsClustering do.
+ */
+public abstract class VectorPartitionClustering<X> implements ClusteringMethod<X> {
+
+	protected static final int BLOCK_SIZE = 512;
+
+	protected ElementVectorizer<X> vectorizer;
+	protected int numClusters;
+	protected int iterations = 10;
+	protected int numThreads;
+	protected long seed = 1;
+	protected double[][] data;
+	protected double[][] centers;
+	protected int[] assignment;
+	protected double[] nearest; //distance from each vector to its assigned center
+	private ExecutorService pool = null;
+
+	public VectorPartitionClustering(ElementVectorizer<X> v, int k, int threads) {
+		if(k < 1)
+			throw new IllegalArgumentException("Number of clusters must be positive");
+		vectorizer = v;
+		numClusters = k;
+		numThreads = Math.max(1, threads);
+	}
+
+	public void setIterations(int i) { iterations = i; }
+	public void setSeed(long s) { seed = s; }
+	public int getNumClusters() { return numClusters; }
+	/** Cluster index of each vector, index-matched to the clustered elements */
+	public int[] getAssignments() { return assignment; }
+	/** Cluster centers (means or medoids) */
+	public double[][] getCenters() { return centers; }
+
+	public Collection<Cluster<X>> clusterElements(Collection<X> e) { return clusterElements(e, 0); }
+	public Collection<Cluster<X>> clusterElements(Collection<X> e, double convergenceDifference) {
+		List<X> elmts = new ArrayList<X>(e);
+		double[][] vectors = new double[elmts.size()][];
+		for(int i = 0; i < vectors.length; i++)
+			vectors[i] = vectorizer.getVector(elmts.get(i));
+		cluster(vectors, convergenceDifference);
+
+		Vector<Cluster<X>> clusters = new Vector<Cluster<X>>();
+		List<DefaultCluster<X>> members = new ArrayList<DefaultCluster<X>>(numClusters);
+		for(int c = 0; c < numClusters; c++) {
+			DefaultCluster<X> dc = new DefaultCluster<X>();
+			members.add(dc);
+			clusters.add(dc);
+		}
+		for(int i = 0; i < vectors.length; i++)
+			members.get(assignment[i]).addElement(elmts.get(i));
+		return clusters;
+	}
+
+	/**
+	 * Cluster the vectors (rows of the array).
+	 * @param vectors : equal-length vectors, NaN for missing values
+	 * @param convergenceDifference : stop once the centers move less than this in total
+	 * @return cluster index of each vector
+	 */
+	public int[] cluster(double[][] vectors, double convergenceDifference) {
+		if(vectors.length < numClusters)
+			throw new IllegalArgumentException("Fewer vectors ("+vectors.length+") than clusters ("+numClusters+")");
+		for(int i = 1; i < vectors.length; i++)
+			if(vectors[i].length != vectors[0].length)
+				throw new IllegalArgumentException("Vectors have different dimensions");
+		data = vectors;
+		assignment = new int[data.length];
+		Arrays.fill(assignment, -1);
+		nearest = new double[data.length];
+		if(numThreads > 1 && data.length > BLOCK_SIZE)
+			pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			iterate(convergenceDifference);
+		} finally {
+			if(pool != null)
+				pool.shutdown();
+			pool = null;
+		}
+		return assignment;
+	}
+
+	/**
+	 * Run the clustering iterations on data, leaving centers and assignment set
+	 */
+	protected abstract void iterate(double convergenceDifference);
+
+	/**
+	 * Distance that is minimized by the assignment step (and used to weight k-means++ seeding)
+	 */
+	protected abstract double distance(double[] a, double[] b);
+
+	/**
+	 * Sum over vectors of the squared Euclidean distance to the assigned center
+	 */
+	public double sumOfSquaredDistance() {
+		double[] sums = runInBlocks(data.length, new BlockTask() {
+			public double run(int block, int start, int end) {
+				double s = 0;
+				for(int i = start; i < end; i++)
+					s += squaredEuclidean(data[i], centers[assignment[i]]);
+				return s;
+			}
+		});
+		return sum(sums);
+	}
+
+	/**
+	 * k-means++ seeding: each new center is drawn with probability proportional to its
+	 * distance from the nearest center chosen so far.
+	 * @return indices of the seed vectors
+	 */
+	protected int[] seedPlusPlus(Random rand) {
+		int n = data.length;
+		int[] seeds = new int[numClusters];
+		final double[] d = new double[n];
+		Arrays.fill(d, Double.MAX_VALUE);
+		seeds[0] = rand.nextInt(n);
+		for(int c = 1; c < numClusters; c++) {
+			final double[] last = data[seeds[c-1]];
+			double[] blockSums = runInBlocks(n, new BlockTask() {
+				public double run(int block, int start, int end) {
+					double s = 0;
+					for(int i = start; i < end; i++) {
+						double di = distance(data[i], last);
+						if(di < d[i])
+							d[i] = di;
+						s += d[i];
+					}
+					return s;
+				}
+			});
+			double total = sum(blockSums);
+			if(!(total > 0)) { //All remaining vectors coincide with a center
+				seeds[c] = rand.nextInt(n);
+				continue;
+			}
+			double r = rand.nextDouble() * total;
+			int b = 0;
+			while(b < blockSums.length-1 && r >= blockSums[b]) {
+				r -= blockSums[b];
+				b++;
+			}
+			int i = b*BLOCK_SIZE, end = Math.min(n, (b+1)*BLOCK_SIZE);
+			while(i < end-1 && r >= d[i]) {
+				r -= d[i];
+				i++;
+			}
+			seeds[c] = i;
+		}
+		return seeds;
+	}
+
+	/**
+	 * Assign every vector to its nearest center (ties go to the lower index)
+	 * @return number of vectors whose assignment changed
+	 */
+	protected int assign() {
+		double[] changed = runInBlocks(data.length, new BlockTask() {
+			public double run(int block, int start, int end) {
+				int ch = 0;
+				for(int i = start; i < end; i++) {
+					int best = -1;
+					double bestDist = 0;
+					for(int c = 0; c < centers.length; c++) {
+						double dist = distance(data[i], centers[c]);
+						if(best == -1 || dist < bestDist) {
+							bestDist = dist;
+							best = c;
+						}
+					}
+					if(best != assignment[i]) {
+						assignment[i] = best;
+						ch++;
+					}
+					nearest[i] = bestDist;
+				}
+				return ch;
+			}
+		});
+		return (int)sum(changed);
+	}
+
+	/**
+	 * Index of the center nearest to v
+	 */
+	protected int nearestCenter(double[] v) {
+		int best = -1;
+		double bestDist = 0;
+		for(int c = 0; c < centers.length; c++) {
+			double dist = distance(v, centers[c]);
+			if(best == -1 || dist < bestDist) {
+				bestDist = dist;
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Work on a block of vector indices
+	 */
+	protected interface BlockTask {
+		double run(int block, int start, int end);
+	}
+
+	protected static int numBlocks(int n) { return (n + BLOCK_SIZE - 1) / BLOCK_SIZE; }
+
+	/**
+	 * Run a task over consecutive blocks of BLOCK_SIZE indices, in parallel if a thread pool is active
+	 * @return the result of each block, in block order
+	 */
+	protected double[] runInBlocks(int n, final BlockTask task) {
+		int numBlocks = numBlocks(n);
+		double[] res = new double[numBlocks];
+		if(pool == null || numBlocks <= 1) {
+			for(int b = 0; b < numBlocks; b++)
+				res[b] = task.run(b, b*BLOCK_SIZE, Math.min(n, (b+1)*BLOCK_SIZE));
+			return res;
+		}
+		List<Future<Double>> futures = new ArrayList<Future<Double>>(numBlocks);
+		for(int b = 0; b < numBlocks; b++) {
+			final int block = b, start = b*BLOCK_SIZE, end = Math.min(n, (b+1)*BLOCK_SIZE);
+			futures.add(pool.submit(new Callable<Double>() {
+				public Double call() {
+					return task.run(block, start, end);
+				}
+			}));
+		}
+		try {
+			for(int b = 0; b < numBlocks; b++)
+				res[b] = futures.get(b).get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return res;
+	}
+
+	protected static double sum(double[] a) {
+		double s = 0;
+		for(double x : a)
+			s += x;
+		return s;
+	}
+
+	/**
+	 * Squared Euclidean distance, skipping missing (NaN) entries
+	 */
+	public static double squaredEuclidean(double[] a, double[] b) {
+		double s = 0;
+		for(int j = 0; j < a.length; j++) {
+			double d = a[j] - b[j];
+			if(d == d)
+				s += d*d;
+		}
+		return s;
+	}
+
+	/**
+	 * Manhattan distance, skipping missing (NaN) entries
+	 */
+	public static double manhattan(double[] a, double[] b) {
+		double s = 0;
+		for(int j = 0; j < a.length; j++) {
+			double d = Math.abs(a[j] - b[j]);
+			if(d == d)
+				s += d;
+		}
+		return s;
+	}
+}
@@ -3,11 +3,18 @@ package org.seqcode.ml.hmm;
 import java.text.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /** 
  * Implements a hidden Markov model and its algorithms including
  * Forward-Backward, Viterbi, K-means, Baum-Welch, and
- * Kullback-Leibler distance measure.
+ * Kullback-Leibler distance measure. Scaled Forward-Backward, 
+ * multi-sequence parallel Baum-Welch and a streaming Viterbi decoder
+ * are provided for long observation sequences.
  *
  * @author		Kanav Kahol
  * @author		Troy L. McDaniel
@@ -96,62 +103,257 @@ public class HMM
    * Baum-Welch algorithm for hidden Markov models. Given an
    * observation sequence o, it will train this HMM using 
    * o to increase the probability of this HMM generating o.
+   * Uses the scaled Forward-Backward procedures, so long
+   * sequences do not underflow.
    *
    * @param o 		the observation sequence
    * @param steps	the number of iterations performed
    */
   public void baumWelch(int[] o, int steps)
   { 
-    int T = o.length;
-    double[][] fwd;
-    double[][] bwd;
+    List<int[]> seqs = new ArrayList<int[]>();
+    seqs.add(o);
+    baumWelch(seqs, steps, 0, 1);
+  }
+
+  /**
+   * Baum-Welch algorithm over multiple observation sequences. 
+   * Each iteration computes gamma and xi once per time point using the 
+   * scaled Forward-Backward variables (O(N^2 T) per iteration), with the 
+   * expected counts for each sequence gathered in parallel.
+   *
+   * @param seqs		the observation sequences
+   * @param steps		the maximum number of iterations performed
+   * @param tolerance	stop when the log-likelihood improves by less than this (0 to run all steps)
+   * @param numThreads	the number of threads used to process sequences
+   * @return			the total log-likelihood of the sequences under the final model
+   */
+  public double baumWelch(List<int[]> seqs, int steps, double tolerance, int numThreads)
+  {
+    numThreads = Math.max(1, Math.min(numThreads, seqs.size()));
+    ExecutorService pool = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+    double prevLL = Double.NEGATIVE_INFINITY, ll = Double.NEGATIVE_INFINITY;
+    try {
+      for (int s = 0; s < steps; s++) {
+        // E-step: expected counts for each sequence
+        List<ExpectedCounts> counts = new ArrayList<ExpectedCounts>();
+        if (pool == null) {
+          for (int[] o : seqs)
+            counts.add(expectedCounts(o));
+        } else {
+          List<Future<ExpectedCounts>> futures = new ArrayList<Future<ExpectedCounts>>();
+          for (final int[] o : seqs)
+            futures.add(pool.submit(new Callable<ExpectedCounts>() {
+              public ExpectedCounts call() { return expectedCounts(o); }
+            }));
+          for (Future<ExpectedCounts> f : futures)
+            counts.add(f.get());
+        }
+        ExpectedCounts total = new ExpectedCounts(numStates, sigmaSize);
+        for (ExpectedCounts c : counts)
+          total.add(c);
+        ll = total.logLikelihood;
+
+        // M-step: re-estimation of initial, transition and emission probabilities
+        double pi1[] = new double[numStates];
+        double a1[][] = new double[numStates][numStates];
+        double b1[][] = new double[numStates][sigmaSize];
+        for (int i = 0; i < numStates; i++) {
+          pi1[i] = divide(total.pi[i], seqs.size());
+          for (int j = 0; j < numStates; j++)
+            a1[i][j] = divide(total.a[i][j], total.aDenom[i]);
+          for (int k = 0; k < sigmaSize; k++)
+            b1[i][k] = divide(total.b[i][k], total.bDenom[i]);
+        }
+        pi = pi1;
+        a = a1;
+        b = b1;
+
+        if (tolerance > 0 && s > 0 && ll - prevLL < tolerance)
+          break;
+        prevLL = ll;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      if (pool != null)
+        pool.shutdown();
+    }
+    return ll;
+  }
+
+  /* Expected counts (sufficient statistics) gathered from one or more
+   * observation sequences in a Baum-Welch E-step.
+   */
+  private static class ExpectedCounts
+  {
+    double[] pi, aDenom, bDenom;
+    double[][] a, b;
+    double logLikelihood = 0;
 
-    double pi1[] = new double[numStates];
-    double a1[][] = new double[numStates][numStates];
-    double b1[][] = new double[numStates][sigmaSize];
+    ExpectedCounts(int N, int K) {
+      pi = new double[N];
+      aDenom = new double[N];
+      bDenom = new double[N];
+      a = new double[N][N];
+      b = new double[N][K];
+    }
 
-    for (int s = 0; s < steps; s++) {
-      // calculation of Forward and Backward Variables from the current model
-      fwd = forwardProc(o);
-      bwd = backwardProc(o);
+    void add(ExpectedCounts c) {
+      for (int i = 0; i < pi.length; i++) {
+        pi[i] += c.pi[i];
+        aDenom[i] += c.aDenom[i];
+        bDenom[i] += c.bDenom[i];
+        for (int j = 0; j < a[i].length; j++)
+          a[i][j] += c.a[i][j];
+        for (int k = 0; k < b[i].length; k++)
+          b[i][k] += c.b[i][k];
+      }
+      logLikelihood += c.logLikelihood;
+    }
+  }
 
-      // re-estimation of initial state probabilities
-      for (int i = 0; i < numStates; i++)
-			pi1[i] = gamma(i, 0, o, fwd, bwd);
+  /* Computes the expected counts for a single observation sequence with
+   * the scaled Forward-Backward variables. gamma and xi are each computed
+   * once per time point.
+   */
+  private ExpectedCounts expectedCounts(int[] o)
+  {
+    int T = o.length;
+    ExpectedCounts c = new ExpectedCounts(numStates, sigmaSize);
+    double[] scale = new double[T];
+    double[][] fwd = scaledForwardProc(o, scale);
+    double[][] bwd = scaledBackwardProc(o, scale);
+    double[] gamma = new double[numStates];
 
-      // re-estimation of transition probabilities
+    for (int t = 0; t < T; t++) {
+      double norm = 0;
       for (int i = 0; i < numStates; i++) {
-		for (int j = 0; j < numStates; j++) {
-		  double num = 0;
-		  double denom = 0;
-		  for (int t = 0; t <= T - 1; t++) {
-		    num += xi(t, i, j, o, fwd, bwd);
-		    denom += gamma(i, t, o, fwd, bwd);
-		  }
-		  a1[i][j] = divide(num, denom);
-		}
+        gamma[i] = fwd[t][i] * bwd[t][i];
+        norm += gamma[i];
+      }
+      for (int i = 0; i < numStates; i++) {
+        double g = divide(gamma[i], norm);
+        if (t == 0)
+          c.pi[i] += g;
+        c.b[i][o[t]] += g;
+        c.bDenom[i] += g;
+        if (t < T - 1)
+          c.aDenom[i] += g;
+      }
+      if (t < T - 1) {
+        double[] bNext = bwd[t+1];
+        int oNext = o[t+1];
+        for (int i = 0; i < numStates; i++) {
+          double f = fwd[t][i] / scale[t+1];
+          if (f == 0)
+            continue;
+          for (int j = 0; j < numStates; j++)
+            c.a[i][j] += f * a[i][j] * b[j][oNext] * bNext[j];
+        }
       }
+    }
+    for (int t = 0; t < T; t++)
+      c.logLikelihood += Math.log(scale[t]);
+    return c;
+  }
+
+  /**
+   * Scaled Forward variables. At each time t the variables are normalized 
+   * to sum to one, and the normalizing constant is stored in scale[t], so 
+   * the log-likelihood of o is the sum of log(scale[t]).
+   * Note that the returned array is indexed [t][i].
+   *
+   * @param o		the observation sequence
+   * @param scale	array of length o.length to be filled with the scaling factors
+   * @return 		a 2d array containing scaled Forward variables over time and states
+   */
+  public double[][] scaledForwardProc(int[] o, double[] scale)
+  {
+    int T = o.length;
+    double[][] fwd = new double[T][numStates];
+
+    // initialization (time 0)
+    double sum = 0;
+    for (int i = 0; i < numStates; i++) {
+      fwd[0][i] = pi[i] * b[i][o[0]];
+      sum += fwd[0][i];
+    }
+    scale[0] = sum;
+    for (int i = 0; i < numStates; i++)
+      fwd[0][i] = divide(fwd[0][i], sum);
 
-      // re-estimation of emission probabilities
+    // induction
+    for (int t = 0; t <= T-2; t++) {
+      double[] prev = fwd[t], curr = fwd[t+1];
+      int oNext = o[t+1];
+      sum = 0;
+      for (int j = 0; j < numStates; j++) {
+        double v = 0;
+        for (int i = 0; i < numStates; i++)
+          v += prev[i] * a[i][j];
+        curr[j] = v * b[j][oNext];
+        sum += curr[j];
+      }
+      scale[t+1] = sum;
+      for (int j = 0; j < numStates; j++)
+        curr[j] = divide(curr[j], sum);
+    }
+    return fwd;
+  }
+
+  /**
+   * Scaled Backward variables, using the scaling factors calculated by
+   * scaledForwardProc. Note that the returned array is indexed [t][i].
+   *
+   * @param o		the observation sequence
+   * @param scale	the scaling factors from scaledForwardProc
+   * @return 		a 2d array containing scaled Backward variables over time and states
+   */
+  public double[][] scaledBackwardProc(int[] o, double[] scale)
+  {
+    int T = o.length;
+    double[][] bwd = new double[T][numStates];
+
+    // initialization (time T-1)
+    for (int i = 0; i < numStates; i++)
+      bwd[T-1][i] = 1;
+
+    // induction
+    double[] tmp = new double[numStates];
+    for (int t = T - 2; t >= 0; t--) {
+      int oNext = o[t+1];
+      for (int j = 0; j < numStates; j++)
+        tmp[j] = b[j][oNext] * bwd[t+1][j];
       for (int i = 0; i < numStates; i++) {
-		for (int k = 0; k < sigmaSize; k++) {
-		  double num = 0;
-		  double denom = 0;
-	
-		  for (int t = 0; t <= T - 1; t++) {
-		    double g = gamma(i, t, o, fwd, bwd);
-		    num += g * (k == o[t] ? 1 : 0);
-		    denom += g;
-		  }
-		  b1[i][k] = divide(num, denom);
-		}
+        double v = 0;
+        for (int j = 0; j < numStates; j++)
+          v += a[i][j] * tmp[j];
+        bwd[t][i] = divide(v, scale[t+1]);
       }
-      pi = pi1;
-      a = a1;
-      b = b1;
     }
+    return bwd;
   }
 
+  /**
+   * Log-likelihood of an observation sequence under this HMM, 
+   * calculated with the scaled Forward procedure.
+   *
+   * @param o		the observation sequence
+   * @return		log P(o | hmm)
+   */
+  public double logLikelihood(int[] o)
+  {
+    double[] scale = new double[o.length];
+    scaledForwardProc(o, scale);
+    double ll = 0;
+    for (int t = 0; t < o.length; t++)
+      ll += Math.log(scale[t]);
+    return ll;
+  }
 
   /**
    * Calculation of Forward variables f(i,t) for state i at time
@@ -340,6 +542,175 @@ public class HMM
   	return answer;
   }
   
+  /**
+   * Log-space Viterbi decoding that returns only the best state path.
+   * Uses StreamingViterbi, so backpointers are only kept until the
+   * surviving paths coalesce, rather than for the whole sequence.
+   *
+   * @param o 		the observation sequence
+   * @return		the best possible state sequence for o
+   */
+  public int[] viterbiPath(int[] o)
+  {
+    int[] path = new int[o.length];
+    StreamingViterbi sv = new StreamingViterbi();
+    int n = 0;
+    for (int t = 0; t < o.length; t++) {
+      int[] decided = sv.push(o[t]);
+      System.arraycopy(decided, 0, path, n, decided.length);
+      n += decided.length;
+    }
+    int[] rest = sv.finish();
+    System.arraycopy(rest, 0, path, n, rest.length);
+    return path;
+  }
+
+  /**
+   * Streaming log-space Viterbi decoder for very long (e.g. chromosome-length)
+   * observation sequences. Observations are pushed one at a time; whenever all
+   * surviving paths share a common ancestor, the states up to that point are
+   * fixed and returned, and their backpointers are discarded. Memory use is
+   * therefore bounded by the coalescence window rather than the sequence length.
+   * The decoder uses a snapshot of the model parameters taken at construction.
+   */
+  public class StreamingViterbi
+  {
+    private double[][] logA, logB;
+    private double[] score, next;
+    private int[] bp = new int[0];	// backpointers for undecided time points, flattened [t][j]
+    private int pending = 0;		// number of undecided time points held in bp
+    private int checkInterval = 1024;
+    private boolean started = false;
+
+    public StreamingViterbi()
+    {
+      logA = new double[numStates][numStates];
+      logB = new double[numStates][sigmaSize];
+      for (int i = 0; i < numStates; i++) {
+        for (int j = 0; j < numStates; j++)
+          logA[i][j] = Math.log(a[i][j]);
+        for (int k = 0; k < sigmaSize; k++)
+          logB[i][k] = Math.log(b[i][k]);
+      }
+      score = new double[numStates];
+      next = new double[numStates];
+      bp = new int[checkInterval * numStates];
+    }
+
+    /**
+     * Adds the next observation.
+     * @param obs	the observation symbol
+     * @return		the states that have become fixed (possibly none), in order
+     */
+    public int[] push(int obs)
+    {
+      if (!started) {
+        for (int i = 0; i < numStates; i++)
+          score[i] = Math.log(pi[i]) + logB[i][obs];
+        started = true;
+        ensureCapacity(pending + 1);
+        pending++;	// time 0 has no backpointers; its slot is unused
+        return new int[0];
+      }
+      ensureCapacity(pending + 1);
+      int off = pending * numStates;
+      for (int j = 0; j < numStates; j++) {
+        double best = Double.NEGATIVE_INFINITY;
+        int bestState = 0;
+        for (int i = 0; i < numStates; i++) {
+          double w = score[i] + logA[i][j];
+          if (w > best) {
+            best = w;
+            bestState = i;
+          }
+        }
+        next[j] = best + logB[j][obs];
+        bp[off + j] = bestState;
+      }
+      double[] tmp = score; score = next; next = tmp;
+      pending++;
+      if (pending % checkInterval == 0)
+        return flushCoalesced();
+      return new int[0];
+    }
+
+    /**
+     * Ends the sequence and returns all remaining undecided states.
+     */
+    public int[] finish()
+    {
+      if (pending == 0)
+        return new int[0];
+      int[] out = new int[pending];
+      out[pending-1] = bestFinalState();
+      for (int t = pending - 1; t > 0; t--)
+        out[t-1] = bp[t * numStates + out[t]];
+      pending = 0;
+      return out;
+    }
+
+    /**
+     * Log probability of the best path over the observations pushed so far.
+     */
+    public double getLogProbability()
+    {
+      return score[bestFinalState()];
+    }
+
+    private int bestFinalState()
+    {
+      int best = 0;
+      for (int i = 1; i < numStates; i++)
+        if (score[i] > score[best])
+          best = i;
+      return best;
+    }
+
+    /* Traces back from all states until the surviving paths merge, and
+     * emits the fixed prefix of the path.
+     */
+    private int[] flushCoalesced()
+    {
+      boolean[] alive = new boolean[numStates], prev = new boolean[numStates];
+      Arrays.fill(alive, true);
+      int numAlive = numStates;
+      int t = pending - 1;
+      while (t > 0 && numAlive > 1) {
+        Arrays.fill(prev, false);
+        numAlive = 0;
+        int off = t * numStates;
+        for (int j = 0; j < numStates; j++)
+          if (alive[j] && !prev[bp[off + j]]) {
+            prev[bp[off + j]] = true;
+            numAlive++;
+          }
+        boolean[] swap = alive; alive = prev; prev = swap;
+        t--;
+      }
+      if (numAlive > 1 || t == 0)
+        return new int[0];
+      // states at times 0..t are fixed; the state at t is the single survivor
+      int state = 0;
+      while (!alive[state])
+        state++;
+      int[] out = new int[t + 1];
+      out[t] = state;
+      for (int u = t; u > 0; u--)
+        out[u-1] = bp[u * numStates + out[u]];
+      // time t+1 becomes the new first pending time point
+      int keep = pending - (t + 1);
+      System.arraycopy(bp, (t + 1) * numStates, bp, 0, keep * numStates);
+      pending = keep;
+      return out;
+    }
+
+    private void ensureCapacity(int timepoints)
+    {
+      if (timepoints * numStates > bp.length)
+        bp = Arrays.copyOf(bp, Math.max(bp.length * 2, timepoints * numStates));
+    }
+  }
+
   /** 
    * K-means algorithm for hidden Markov models. Given training
    * data, this algorithm will classify the data into a specified
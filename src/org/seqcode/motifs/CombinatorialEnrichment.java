@@ -4,8 +4,7 @@ import java.util.*;
 
 import org.seqcode.data.motifdb.*;
 
-import cern.jet.random.Binomial;
-import cern.jet.random.engine.RandomEngine;
+import org.seqcode.math.stats.StatUtil;
 
 
 /** 
@@ -112,7 +111,6 @@ public class CombinatorialEnrichment extends CompareEnrichment {
         }
 
         public void run() {
-            Binomial binomial = new Binomial(100, .01, RandomEngine.makeDefault());
             for (int i = first; i < matrices.size(); i += skip) {
                 WeightMatrix mi = matrices.get(i);
                 double maxscorei = mi.getMaxScore();
@@ -149,8 +147,7 @@ public class CombinatorialEnrichment extends CompareEnrichment {
                                 continue;
                             }
 
-                            binomial.setNandP(fgsize, thetatwo);
-                            double pval = 1 - binomial.cdf(fgcount);
+                            double pval = StatUtil.binomialUpperTail(fgcount+1, fgsize, thetatwo);
                             if (pval <= filtersig) {
                                 CombResult result = new CombResult();
                                 result.matrices.add(mi);
@@ -19,8 +19,7 @@ import org.seqcode.gsebricks.verbs.*;
 import org.seqcode.gseutils.*;
 import org.seqcode.motifs.*;
 
-import cern.jet.random.Binomial;
-import cern.jet.random.engine.RandomEngine;
+import org.seqcode.math.stats.StatUtil;
 
 //import org.seqcode.math.probability.Binomial;
 
@@ -265,7 +264,6 @@ public class CompareEnrichment {
                                    PrintWriter savedatafg,
                                    PrintWriter savedatabg,
                                    boolean savedatahits) {
-        Binomial binomial = new Binomial(100, .01, RandomEngine.makeDefault());
         if (fgkeys == null) {
             fgkeys = new ArrayList<String>();
             fgkeys.addAll(fg.keySet());
@@ -316,8 +314,7 @@ public class CompareEnrichment {
                 continue;
             }
 
-            binomial.setNandP(fgsize, thetatwo);
-            double pval = 1 - binomial.cdf(fgcount);
+            double pval = StatUtil.binomialUpperTail(fgcount+1, fgsize, thetatwo);
             double fc = Math.log(thetaone / thetatwo);
             if (pval <= filtersig && 
                 //                pval <= result.pval && 
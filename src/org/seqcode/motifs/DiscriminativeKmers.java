@@ -7,8 +7,6 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.Color;
-import cern.jet.random.Binomial;
-import cern.jet.random.engine.RandomEngine;
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
 
@@ -21,6 +19,7 @@ import org.seqcode.genome.location.Region;
 import org.seqcode.genome.sequence.SequenceGenerator;
 import org.seqcode.gsebricks.verbs.*;
 import org.seqcode.gseutils.*;
+import org.seqcode.math.stats.StatUtil;
 
 
 
@@ -29,7 +28,6 @@ public class DiscriminativeKmers {
     private Genome genome;
     private double minfoldchange;
     private int k, mask, maxmismatch, minclustersize, minclustercount;
-    private Binomial binomial;
     private SequenceGenerator seqgen;
     private int randombgcount = 1000,  // number of random background regions to pic
         randombgsize = 100, // size of random background regions
@@ -375,7 +373,6 @@ public class DiscriminativeKmers {
     }
     public DiscriminativeKmers () {
         seqgen = new SequenceGenerator();
-        binomial = new Binomial(100, .01, RandomEngine.makeDefault());
     }
     public void setK(int k) {
         this.k = k;
@@ -457,8 +454,7 @@ public class DiscriminativeKmers {
             int fgcount = fgcounts.get(l);
             double fgprob = ((double)fgcount) / ((double)fgsum);
             
-            binomial.setNandP(fgsum, bgprob);
-            double pval = Math.log(1 - binomial.cdf(fgcount));
+            double pval = StatUtil.logBinomialUpperTail(fgcount+1, fgsum, bgprob);
 
             if (fgprob > bgprob * minfoldchange) {
                 KmerCount kc = new KmerCount(l,fgcount);
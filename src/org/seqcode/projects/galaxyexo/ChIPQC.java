@@ -42,7 +42,7 @@ public class ChIPQC {
 	protected Genome genome;
 	protected List<Region> regionsToIgnore = new ArrayList<Region>(); 
 	protected List<Region> regionsToCount = new ArrayList<Region>();
-	protected Map<Sample, List<Float>> sampleWindowCounts = new HashMap<Sample, List<Float>>();
+	protected Map<Sample, float[]> sampleWindowCounts = new HashMap<Sample, float[]>();
 	
 	public ChIPQC(GenomeConfig gcon, ExptConfig econ, ExperimentManager man){	
 		gconfig = gcon;
@@ -68,9 +68,14 @@ public class ChIPQC {
 			}
 		}
 		regionsToCount = filterExcluded(regs);
+		//Indices of the retained windows in the genome-wide window count vectors
+		int listSize = regionsToCount.size();
+		int[] countIndex = new int[listSize];
+		for(int x=0, y=0; x<regs.size() && y<listSize; x++)
+			if(regs.get(x)==regionsToCount.get(y))
+				countIndex[y++]=x;
 			
 		for(ExperimentCondition exptCond: manager.getConditions()){	
-			Map<Sample, List<Float>> sampleWindowCounts = new HashMap<Sample, List<Float>>();
 			List<Sample> allSamples = new ArrayList<Sample>();
 			List<Sample> signalSamples = new ArrayList<Sample>();
 			List<Sample> controlSamples = new ArrayList<Sample>();
@@ -82,13 +87,13 @@ public class ChIPQC {
 			
 			allSamples.addAll(signalSamples);
 			allSamples.addAll(controlSamples);
-			int listSize=0;
+			Map<Sample, float[]> genomeWindowCounts = Sample.getWindowCounts(allSamples, scalingWindowSize, Runtime.getRuntime().availableProcessors());
 			for(Sample samp : allSamples){
-				List<Float> currSampCounts = new ArrayList<Float>();
-				for (Region r : regionsToCount)
-					currSampCounts.add(samp.countHits(r));				
+				float[] allCounts = genomeWindowCounts.get(samp);
+				float[] currSampCounts = new float[listSize];
+				for(int y=0; y<listSize; y++)
+					currSampCounts[y] = allCounts[countIndex[y]];
 				sampleWindowCounts.put(samp, currSampCounts);
-				listSize = currSampCounts.size();		
 			}
 		
 			for(ControlledExperiment expt : exptCond.getReplicates()){
@@ -101,18 +106,17 @@ public class ChIPQC {
 			}
 		
 			//Calculate scaling factor for pooled signal vs pooled control for this condition
-			List<Float> pooledSignal = new ArrayList<Float>();
-			List<Float> pooledControl = new ArrayList<Float>();
-			for(int x=0; x<listSize; x++){
-				float sumSig = 0;
-				for(Sample s : signalSamples)
-					sumSig+=sampleWindowCounts.get(s).get(x);
-				pooledSignal.add(sumSig);
-			
-				float sumCtrl = 0;
-				for(Sample s : controlSamples)
-					sumCtrl+=sampleWindowCounts.get(s).get(x);
-				pooledControl.add(sumCtrl);
+			float[] pooledSignal = new float[listSize];
+			float[] pooledControl = new float[listSize];
+			for(Sample s : signalSamples){
+				float[] sc = sampleWindowCounts.get(s);
+				for(int x=0; x<listSize; x++)
+					pooledSignal[x]+=sc[x];
+			}
+			for(Sample s : controlSamples){
+				float[] sc = sampleWindowCounts.get(s);
+				for(int x=0; x<listSize; x++)
+					pooledControl[x]+=sc[x];
 			}
 			
 			double pooledSampleControlScaling = scaler.scalingRatioByNCIS(pooledSignal, pooledControl, null, econfig.getNCISMinBinFrac());
@@ -134,13 +138,11 @@ public class ChIPQC {
 					PrintWriter writer = new PrintWriter(rep.getName()+rep.getCondName()+".counts.txt","UTF-8");
 					writer.println("#signalBinCounts : controlBinCounts"+"\t"+"#"+rep.getCondName());
 			
-					List<Float> signalSampCounts = new ArrayList<Float>();
-					List<Float> controlSampCounts = new ArrayList<Float>();
-					signalSampCounts = sampleWindowCounts.get(rep.getSignal());
-					controlSampCounts = sampleWindowCounts.get(rep.getControl());
-					for (int i = 0; i < signalSampCounts.size(); i ++){
-						if (signalSampCounts.get(i)+controlSampCounts.get(i)>0)
-							writer.println(signalSampCounts.get(i)+":"+controlSampCounts.get(i));		
+					float[] signalSampCounts = sampleWindowCounts.get(rep.getSignal());
+					float[] controlSampCounts = sampleWindowCounts.get(rep.getControl());
+					for (int i = 0; i < signalSampCounts.length; i ++){
+						if (signalSampCounts[i]+controlSampCounts[i]>0)
+							writer.println(signalSampCounts[i]+":"+controlSampCounts[i]);		
 					}}}}}					
 	
 	public void printGenomeBins() throws FileNotFoundException{
@@ -26,6 +26,7 @@ import org.seqcode.gseutils.Args;
 import org.seqcode.math.diff.CountsDataset;
 import org.seqcode.math.diff.DifferentialEnrichment;
 import org.seqcode.math.diff.EdgeRDifferentialEnrichment;
+import org.seqcode.math.diff.GLMDifferentialEnrichment;
 import org.seqcode.math.diff.Normalization;
 
 
@@ -125,7 +126,11 @@ public class SignificanceTester {
 		
 		//Statistical analysis: inter-condition differences
 		if(manager.getNumConditions()>1 && config.getRunDiffTests()){
-			DifferentialEnrichment edgeR = new EdgeRDifferentialEnrichment(config, outDir, outFileBase, repCountFileName);
+			DifferentialEnrichment edgeR;
+			if(config.getNativeDiffTests())
+				edgeR = new GLMDifferentialEnrichment(config, GLMDifferentialEnrichment.Dispersion.valueOf(config.getDiffDispersion().toUpperCase()), Runtime.getRuntime().availableProcessors());
+			else
+				edgeR = new EdgeRDifferentialEnrichment(config, outDir, outFileBase, repCountFileName);
 			CountsDataset data;
 			File outImagesDir = new File(outDirName+File.separator+"images");
 			outImagesDir.mkdir();
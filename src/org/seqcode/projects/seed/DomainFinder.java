@@ -147,6 +147,7 @@ public class DomainFinder extends FeatureDetection {
 				int numStrandIter = strandedEventDetection ? 2 : 1;
 				for(int stranditer=1; stranditer<=numStrandIter; stranditer++){
 					EnrichedFeature lastFeature=null;
+					int lastFeatureEnd=-1;
 	                //If stranded peak-finding, run over both strands separately
 	                char str = !strandedEventDetection ? '.' : (stranditer==1 ? '+' : '-');
 	                
@@ -171,15 +172,18 @@ public class DomainFinder extends FeatureDetection {
                         		double pval = stats.binomialPValue(ctrlCounts, (sigCounts+ctrlCounts), sconfig.getMinSigCtrlFoldDifference());
                         		if(pval < sconfig.getPerBinBinomialPThres()){
                         			//Add new event or append to the last one.
-                        			Region currWin = strandedEventDetection ? 
-                        					new StrandedRegion(gen, subRegion.getChrom(), i, i+sconfig.getBinWidth()-1, str) :
-                        					new Region(gen, subRegion.getChrom(), i, i+sconfig.getBinWidth()-1);
-                        			lastFeature=addEnrichedDomain(currFeatures.get(cond), lastFeature, currWin, sigCounts, condCtrlCounts==null ? 0 : ctrlCounts, pval);
+                        			EnrichedFeature currFeature=addEnrichedDomain(currFeatures.get(cond), lastFeature, lastFeatureEnd, subRegion.getChrom(), i, i+sconfig.getBinWidth()-1, str, sigCounts, condCtrlCounts==null ? 0 : ctrlCounts, pval);
+                        			if(currFeature!=lastFeature){
+                        				closeEnrichedDomain(lastFeature, lastFeatureEnd);
+                        				lastFeature=currFeature;
+                        			}
+                        			lastFeatureEnd=i+sconfig.getBinWidth()-1;
                         		}
                         	}
                         }
 	                	currBin++;
-	                }		
+	                }
+	                closeEnrichedDomain(lastFeature, lastFeatureEnd);
 				}
 			}
 			//Trim, quantify, & properly score currFeatures before adding them to the results
@@ -190,30 +194,36 @@ public class DomainFinder extends FeatureDetection {
 		}
 		
 		/**
-		 * Add or append a window to the list of discovered EnrichedFeatures
+		 * Add or append a window to the list of discovered EnrichedFeatures.
+		 * A Region is only created for a new feature; if the window is appended to the last feature, 
+		 * the feature's coordinates are extended later by closeEnrichedDomain.
 		 * 
 		 * @param currResults
 		 * @param lastFeat
-		 * @param currWin
+		 * @param lastFeatEnd : current end of lastFeat (including appended windows)
+		 * @param chrom
+		 * @param winStart
+		 * @param winEnd
+		 * @param str
 		 * @param sigWinHits
 		 * @param ctrlWinHits
 		 * @param score
 		 * @return
 		 */
-		protected EnrichedFeature addEnrichedDomain(List<EnrichedFeature> currResults, EnrichedFeature lastFeat, Region currWin, float sigWinHits, float ctrlWinHits, double score){
+		protected EnrichedFeature addEnrichedDomain(List<EnrichedFeature> currResults, EnrichedFeature lastFeat, int lastFeatEnd, String chrom, int winStart, int winEnd, char str, float sigWinHits, float ctrlWinHits, double score){
 			EnrichedFeature resFeat=null;
 			
 			//Is this hit close to the previously added one? If so, merge
-			if(lastFeat!=null && currWin.getStrand()==lastFeat.getCoords().getStrand() && currWin.distance(lastFeat.getCoords())<=sconfig.getFeatureMergeWindow()){
-				lastFeat.setCoords(strandedEventDetection ? 
-						new StrandedRegion(gen, lastFeat.getCoords().getChrom(), lastFeat.getCoords().getStart(), currWin.getEnd(), lastFeat.getCoords().getStrand()) :
-						new Region(gen, lastFeat.getCoords().getChrom(), lastFeat.getCoords().getStart(), currWin.getEnd()));
+			if(lastFeat!=null && str==lastFeat.getCoords().getStrand() && winStart-lastFeatEnd<=sconfig.getFeatureMergeWindow()){
 				if(sigWinHits>lastFeat.getSignalCount())
 					lastFeat.setSignalCount(sigWinHits);
 				if(ctrlWinHits>lastFeat.getControlCount())
 					lastFeat.setControlCount(ctrlWinHits);
 				resFeat=lastFeat;
 			}else{
+				Region currWin = strandedEventDetection ? 
+						new StrandedRegion(gen, chrom, winStart, winEnd, str) :
+						new Region(gen, chrom, winStart, winEnd);
 				EnrichedFeature feat=null;
 				try {
 					feat = new EnrichedFeature(currWin, null, null, sigWinHits, ctrlWinHits, score);
@@ -225,6 +235,18 @@ public class DomainFinder extends FeatureDetection {
 			}return(resFeat);
 		}
 		
+		/**
+		 * Extend a feature's coordinates to the end of the last window appended to it
+		 * @param feat
+		 * @param end
+		 */
+		protected void closeEnrichedDomain(EnrichedFeature feat, int end){
+			if(feat!=null && feat.getCoords().getEnd()!=end)
+				feat.setCoords(strandedEventDetection ? 
+						new StrandedRegion(gen, feat.getCoords().getChrom(), feat.getCoords().getStart(), end, feat.getCoords().getStrand()) :
+						new Region(gen, feat.getCoords().getChrom(), feat.getCoords().getStart(), end));
+		}
+		
 		/**
 		 * ProcessDomains: 
 		 *  - Trims feature coordinates back to agree with overlapping hits. 
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -11,8 +12,15 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.seqcode.deepseq.StrandedBaseCount;
+import org.seqcode.deepseq.StrandedBaseCountSlice;
 import org.seqcode.deepseq.experiments.ExperimentCondition;
 import org.seqcode.deepseq.experiments.ExperimentManager;
 import org.seqcode.deepseq.experiments.ExptConfig;
@@ -94,44 +102,80 @@ public abstract class FeatureDetection {
 	 * and should then collect the Features discovered in each thread for any necessary post-processing. 
 	 * This method should also take care of any output printing, etc. 
 	 * 
+	 * Chromosomes are split into sections of at most MAXSECTION bp, and each section is analyzed as a 
+	 * separate task in a work-stealing pool. Each worker thread keeps its own FeatureDetectionThread 
+	 * (and therefore its own landscape & background models). When data is cached in local files, only 
+	 * one chromosome can be held in memory at a time, so hits are loaded here in genome order (i.e. each 
+	 * chromosome is loaded once) and handed to the tasks, with the number of loaded sections bounded.
+	 * 
 	 * @return : Lists of final Features
 	 */
 	public Map<ExperimentCondition, List<Feature>> execute(){
-		//Split the jobs into the allowed number of threads
+		int numThreads = Math.max(1, sconfig.getMaxThreads());
+		final boolean preloadHits = !econfig.getCacheAllData();
+		
+		//Split the chromosomes into sections
+		List<Region> sections = new ArrayList<Region>();
 		Iterator<Region> testRegions = new ChromosomeGenerator().execute(gen);
-		//Threading divides analysis over entire chromosomes. This approach is not compatible with file caching. 
-		int numThreads = econfig.getCacheAllData() ? sconfig.getMaxThreads() : 1;
-				
-		Thread[] threads = new Thread[numThreads];
-        List<Region> threadRegions[] = new ArrayList[numThreads];
-        int i = 0;
-        for (i = 0 ; i < threads.length; i++) {
-            threadRegions[i] = new ArrayList<Region>();
-        }
-        while(testRegions.hasNext()){
-        	Region r = testRegions.next(); 
-            threadRegions[(i++) % numThreads].add(r);
-        }
-
-        for (i = 0 ; i < threads.length; i++) {
-        	//Implementation-specific part is in thread's findFeatures method
-            Thread t = new Thread(getMyThread(threadRegions[i]));
-            t.start();
-            threads[i] = t;
-        }
-        boolean anyrunning = true;
-        while (anyrunning) {
-            anyrunning = false;
-            try {
-                Thread.sleep(2000);
-            } catch (InterruptedException e) { }
-            for (i = 0; i < threads.length; i++) {
-                if (threads[i].isAlive()) {
-                    anyrunning = true;
-                    break;
-                }
-            }
-        }
+		while(testRegions.hasNext()){
+			Region currentRegion = testRegions.next();
+			for(int x=currentRegion.getStart(); x<=currentRegion.getEnd(); x+=sconfig.MAXSECTION){
+				int y = x+sconfig.MAXSECTION;
+				if(y>currentRegion.getEnd()){y=currentRegion.getEnd();}
+				sections.add(new Region(gen, currentRegion.getChrom(), x, y));
+			}
+		}
+		
+		ExecutorService pool = Executors.newWorkStealingPool(numThreads);
+		final ThreadLocal<FeatureDetectionThread> workers = new ThreadLocal<FeatureDetectionThread>(){
+			protected FeatureDetectionThread initialValue(){
+				//Implementation-specific part is in thread's findFeatures method
+				return getMyThread(new ArrayList<Region>());
+			}
+		};
+		final Semaphore loadedSections = new Semaphore(numThreads+1);
+		List<Future<Map<ExperimentCondition, List<Feature>>>> results = new ArrayList<Future<Map<ExperimentCondition, List<Feature>>>>();
+		try{
+			for(final Region section : sections){
+				final Map<Sample, StrandedBaseCountSlice> pos, neg;
+				if(preloadHits){
+					loadedSections.acquire();
+					pos = loadHits(section, '+');
+					neg = loadHits(section, '-');
+				}else{
+					pos = null; neg = null;
+				}
+				results.add(pool.submit(new Callable<Map<ExperimentCondition, List<Feature>>>(){
+					public Map<ExperimentCondition, List<Feature>> call(){
+						try{
+							FeatureDetectionThread worker = workers.get();
+							Map<ExperimentCondition, List<Feature>> sectionFeatures = preloadHits ?
+									worker.analyzeSection(section, pos, neg) :
+									worker.analyzeSection(section, loadHits(section, '+'), loadHits(section, '-'));
+							//TODO: Progress print (replace with some kind of percentage update)
+							System.err.print(".");
+							return worker.filterExcluded(sectionFeatures);
+						}finally{
+							if(preloadHits)
+								loadedSections.release();
+						}
+					}
+				}));
+			}
+			for(Future<Map<ExperimentCondition, List<Feature>>> f : results){
+				Map<ExperimentCondition, List<Feature>> sectionFeatures = f.get();
+				for(ExperimentCondition cond : manager.getConditions())
+					features.get(cond).addAll(sectionFeatures.get(cond));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		
         //Sort the features
         for(ExperimentCondition c : manager.getConditions())
         	Collections.sort(features.get(c));
@@ -142,6 +186,23 @@ public abstract class FeatureDetection {
         return features;
 	}
 	
+	/**
+	 * Load the sorted hits on one strand in a region for each Sample.
+	 * Hits are views over the cached arrays (already sorted), so no per-hit objects are created here.
+	 * @param r : Region
+	 * @param strand : +/-
+	 * @return : StrandedBaseCountSlices, indexed by Sample
+	 */
+	protected Map<Sample, StrandedBaseCountSlice> loadHits(Region r, char strand){
+		Map<Sample, StrandedBaseCountSlice> hits = new HashMap<Sample, StrandedBaseCountSlice>();
+		for(Sample samp : manager.getSamples()){
+			synchronized(manager){//hitCache requires thread safety
+				hits.put(samp, samp.getStrandedBaseSlice(r, strand));
+			}
+		}
+		return hits;
+	}
+	
 	
 	/* Java doesn't allow me to impose this, but it would also be good practise to include in each subclass a 
 	 * static method that returns a String describing the command-line arguments. 
@@ -229,10 +290,12 @@ public abstract class FeatureDetection {
 	 */
 	public abstract class FeatureDetectionThread implements Runnable {
         protected Collection<Region> runRegions;
-        //Hits maintained in separate lists per strands - it's easier to do feature trimming & quantification this way 
-        protected Map<Sample, List<StrandedBaseCount>> hitsPos; 	//Lists of positive strand tags in the current region. Indexed by Sample.
-        protected Map<Sample, List<StrandedBaseCount>> hitsNeg; 	//Lists of negative strand tags in the current region. Indexed by Sample.
-        protected float[][][] landscape=null;  		//Binned tag density in the current region after shifting and extending. Indexed by Sample, base, strand
+        //Hits maintained in separate slices per strands - it's easier to do feature trimming & quantification this way 
+        protected Map<Sample, StrandedBaseCountSlice> hitsPos; 	//Positive strand tags in the current region. Indexed by Sample.
+        protected Map<Sample, StrandedBaseCountSlice> hitsNeg; 	//Negative strand tags in the current region. Indexed by Sample.
+        protected float[][][] landscape=null;  		//Binned tag density in the current region after shifting and extending. Indexed by Sample, strand, base
+        protected int landscapeLength=0;			//Number of bins of landscape in use for the current region (the arrays are reused across regions, and may be longer)
+        protected float[][][] fivePrimes=null;		//Buffer for 5' positions in Gaussian landscapes. Indexed by Sample, strand, base
         protected Map<ExperimentCondition, BackgroundCollection> conditionBackgrounds; //Backgrounds are in here for thread safety during background model updates
     	protected Map<Sample, BackgroundCollection> sampleBackgrounds;
     	protected Map<ExperimentCondition, List<Feature>> threadFeatures;
@@ -258,28 +321,8 @@ public abstract class FeatureDetection {
                     if(y>currentRegion.getEnd()){y=currentRegion.getEnd();}
                     Region currSubRegion = new Region(gen, currentRegion.getChrom(), x, y);
                     
-                    hitsPos = new HashMap<Sample, List<StrandedBaseCount>>();
-                    hitsNeg = new HashMap<Sample, List<StrandedBaseCount>>();
-                
-                    //Initialize & sort the read lists per Sample
-                	for(Sample samp : manager.getSamples()){
-                		synchronized(manager){//hitCache requires thread safety
-                			List<StrandedBaseCount> sampHitsP = samp.getStrandedBases(currSubRegion, '+'); 
-                			List<StrandedBaseCount> sampHitsN = samp.getStrandedBases(currSubRegion, '-');
-                			Collections.sort(sampHitsP); Collections.sort(sampHitsN); //This might be pointless - the hits should be sorted in the cache already
-                			hitsPos.put(samp, sampHitsP);
-                			hitsNeg.put(samp, sampHitsN);
-                		}
-                	}
-                	//makeHitLandscape & make GaussianLandscape populate the landscape data structure
-                	//execute can therefore assume that these structures are updated, unless run() is overloaded
-                    if(sconfig.getBinWidth()==1 && sconfig.getTagGaussSigma()>0)
-                    	makeGaussianLandscape(hitsPos, hitsNeg, currSubRegion, sconfig.getTagGaussSigma(), sconfig.getTagGaussWidth());
-                    else
-                    	makeHitLandscape(hitsPos, hitsNeg, currSubRegion, sconfig.getBinWidth(), sconfig.getBinStep());
-                    
                     //Implementation-specific execution
-                    Map<ExperimentCondition, List<Feature>> currFeatures = findFeatures(currSubRegion);
+                    Map<ExperimentCondition, List<Feature>> currFeatures = analyzeSection(currSubRegion, loadHits(currSubRegion, '+'), loadHits(currSubRegion, '-'));
                     
                     //Add to thread's features
                     for(ExperimentCondition cond : manager.getConditions())
@@ -299,6 +342,25 @@ public abstract class FeatureDetection {
 			}
 		}
 		
+		/**
+		 * Initialize the hits & landscape for a section, and run findFeatures on it
+		 * @param currSubRegion : section to analyze
+		 * @param pos : sorted positive strand hits in the section, indexed by Sample
+		 * @param neg : sorted negative strand hits in the section, indexed by Sample
+		 * @return : Lists of Features in each ExperimentCondition in the section
+		 */
+		public Map<ExperimentCondition, List<Feature>> analyzeSection(Region currSubRegion, Map<Sample, StrandedBaseCountSlice> pos, Map<Sample, StrandedBaseCountSlice> neg){
+			hitsPos = pos;
+			hitsNeg = neg;
+			//makeHitLandscape & make GaussianLandscape populate the landscape data structure
+			//findFeatures can therefore assume that these structures are updated
+			if(sconfig.getBinWidth()==1 && sconfig.getTagGaussSigma()>0)
+				makeGaussianLandscape(hitsPos, hitsNeg, currSubRegion, sconfig.getTagGaussSigma(), sconfig.getTagGaussWidth());
+			else
+				makeHitLandscape(hitsPos, hitsNeg, currSubRegion, sconfig.getBinWidth(), sconfig.getBinStep());
+			return findFeatures(currSubRegion);
+		}
+		
 		/**
 		 * The core functionality in any event finder should be implemented in this method.
 		 * Assumes hits, landscape has been initialized
@@ -313,38 +375,40 @@ public abstract class FeatureDetection {
          * Tags are semi-extended by half the binWidth to account for the step, 
          * 	  and may also be shifted or extended here, depending on the event detection strategy
          * No needlefiltering here as that is taken care of during tag loading (i.e. in Sample)
+         * The landscape arrays are reused between regions; only the first landscapeLength bins are valid.
          * 
-         * @param hits  : Lists of StrandedBaseCounts, indexed by Sample (sorted within each sample)
+         * @param hits  : StrandedBaseCountSlices, indexed by Sample (sorted within each sample)
          * @param currReg
          * @param binWidth
          * @param binStep
          */
-    	protected void makeHitLandscape(Map<Sample, List<StrandedBaseCount>> hitsPos, Map<Sample, List<StrandedBaseCount>> hitsNeg, Region currReg, int binWidth, int binStep){
+    	protected void makeHitLandscape(Map<Sample, StrandedBaseCountSlice> hitsPos, Map<Sample, StrandedBaseCountSlice> hitsNeg, Region currReg, int binWidth, int binStep){
     		int numBins = (int)(currReg.getWidth()/binStep);
-    		landscape = new float[hitsPos.size()][numBins+1][2];
+    		landscape = ensureCapacity(landscape, hitsPos.size(), numBins+1);
+    		landscapeLength = numBins+1;
     		int halfWidth = binWidth/2;
 
     		for(Sample samp : manager.getSamples()){
-    			for(int i=0; i<=numBins; i++)
-    				for(int s=0; s<=1; s++)
-    					landscape[samp.getIndex()][i][s]=0;
-    			
     			for(int strand=0; strand<=1; strand++){
-	        		List<StrandedBaseCount> currHits = strand==0 ? hitsPos.get(samp) : hitsNeg.get(samp);
+    				float[] currLand = landscape[samp.getIndex()][strand];
+    				Arrays.fill(currLand, 0, landscapeLength, 0);
+	        		StrandedBaseCountSlice currHits = strand==0 ? hitsPos.get(samp) : hitsNeg.get(samp);
+	        		char str = currHits.getStrand();
 	    			
-		    		for(StrandedBaseCount h : currHits){
+		    		for(int h=0; h<currHits.size(); h++){
 		    			
 		    			//landscape array
-		    			int left = getLeft(h);
-		    			int right = getRight(h);
+		    			int left = getLeft(currHits.getCoordinate(h), str);
+		    			int right = getRight(currHits.getCoordinate(h), str);
 		    			if(left <= currReg.getEnd() && right>=currReg.getStart()){
 			    			int offsetL=inBounds(left-currReg.getStart(),0,currReg.getWidth());
 			    			int offsetR=inBounds(right-currReg.getStart(),0,currReg.getWidth());
 		    				
 			    			int binstart = inBounds(((offsetL-halfWidth)/binStep), 0, numBins);
 		    				int binend = inBounds(((offsetR/binStep)), 0, numBins);
+		    				float count = currHits.getCount(h);
 		    				for(int b=binstart; b<=binend; b++)
-		    					landscape[samp.getIndex()][b][strand]+=h.getCount();
+		    					currLand[b]+=count;
 		    			}
 	            	}
     			}
@@ -356,76 +420,99 @@ public abstract class FeatureDetection {
     	 * This only operates at single-bp resolution.
          * Tags are gaussian smoothed over the landscape, and may also be shifted, depending on the event detection strategy
          * No needlefiltering here as that is taken care of during tag loading (i.e. in Sample)
+         * The landscape arrays are reused between regions; only the first landscapeLength bins are valid.
          * 
-         * @param hits  : Lists of StrandedBaseCounts, indexed by Sample
+         * @param hits  : StrandedBaseCountSlices, indexed by Sample
          * @param currReg
          * @param gaussSigma: Gaussian sigma (std dev)
          * @param gaussWidth: width over which to 'extend' each tag
     	 */
-    	protected void makeGaussianLandscape(Map<Sample, List<StrandedBaseCount>> hitsPos, Map<Sample, List<StrandedBaseCount>> hitsNeg, Region currReg, float gaussSigma, int gaussWidth){
+    	protected void makeGaussianLandscape(Map<Sample, StrandedBaseCountSlice> hitsPos, Map<Sample, StrandedBaseCountSlice> hitsNeg, Region currReg, float gaussSigma, int gaussWidth){
     		int length = (int)currReg.getWidth();
-    		landscape = new float[hitsPos.size()][length+1][2];
-    		float [][][] fivePrimes = new float[hitsPos.size()][length+1][2];
+    		landscape = ensureCapacity(landscape, hitsPos.size(), length+1);
+    		fivePrimes = ensureCapacity(fivePrimes, hitsPos.size(), length+1);
+    		landscapeLength = length+1;
     		float[] kernel = initGaussianKernel(gaussSigma, gaussWidth);
     		
     		for(Sample samp : manager.getSamples()){
-    			for(int i=0; i<=length; i++)
-    				for(int s=0; s<=1; s++){
-    					landscape[samp.getIndex()][i][s]=0; fivePrimes[samp.getIndex()][i][s]=0;
-    				}
     			for(int strand=0; strand<=1; strand++){
-	        		List<StrandedBaseCount> currHits = strand==0 ? hitsPos.get(samp) : hitsNeg.get(samp);
+    				float[] currFive = fivePrimes[samp.getIndex()][strand];
+    				Arrays.fill(landscape[samp.getIndex()][strand], 0, landscapeLength, 0);
+    				Arrays.fill(currFive, 0, landscapeLength, 0);
+	        		StrandedBaseCountSlice currHits = strand==0 ? hitsPos.get(samp) : hitsNeg.get(samp);
+	        		char str = currHits.getStrand();
 	    			
-		    		for(StrandedBaseCount h : currHits){
+		    		for(int h=0; h<currHits.size(); h++){
 		    			//(shifted) fivePrimes array
-		    			int offset5=inBounds(getShifted5Prime(h)-currReg.getStart(),0,currReg.getWidth());
+		    			int offset5=inBounds(getShifted5Prime(currHits.getCoordinate(h), str)-currReg.getStart(),0,currReg.getWidth());
 		    			int binoff5 = inBounds((int)(offset5), 0, length);
-		    			fivePrimes[samp.getIndex()][binoff5][strand]+=h.getCount();
+		    			currFive[binoff5]+=currHits.getCount(h);
 		    		}
-		    		//landscape array is fivePrime * gaussian 
-		    		float total=0;
-		    		for(int s=0; s<=1; s++){
-			    		for (int i=0;i<length;i++){
-			    			float v=kernel[0]*fivePrimes[samp.getIndex()][i][s] + Float.MIN_VALUE;		// init with very small number
-			                float weight=kernel[0];
-			                for (int j = 1; j < kernel.length && i+j < length; j++) {
-			                    v+=fivePrimes[samp.getIndex()][i+j][s]*kernel[j];
-			                    weight += kernel[j];                
-			                }
-			                for (int j = 1; j < kernel.length && i-j >= 0; j++) {
-			                    v+=fivePrimes[samp.getIndex()][i-j][s]*kernel[j];
-			                    weight += kernel[j];                
-			                }
-			    			v = v / weight;
-			    			landscape[samp.getIndex()][i][s] = v;
-			    			total+=v;
-			    		}
-			    		for (int i=0;i<length;i++)
-			    			landscape[samp.getIndex()][i][s]=landscape[samp.getIndex()][i][s]/total;
+    			}
+	    		//landscape array is fivePrime * gaussian.
+	    		//total runs on across strands, so the minus strand is normalized by the sum over both strands
+	    		float total=0;
+    			for(int strand=0; strand<=1; strand++){
+    				float[] currLand = landscape[samp.getIndex()][strand];
+    				float[] currFive = fivePrimes[samp.getIndex()][strand];
+		    		for (int i=0;i<length;i++){
+		    			float v=kernel[0]*currFive[i] + Float.MIN_VALUE;		// init with very small number
+		                float weight=kernel[0];
+		                for (int j = 1; j < kernel.length && i+j < length; j++) {
+		                    v+=currFive[i+j]*kernel[j];
+		                    weight += kernel[j];                
+		                }
+		                for (int j = 1; j < kernel.length && i-j >= 0; j++) {
+		                    v+=currFive[i-j]*kernel[j];
+		                    weight += kernel[j];                
+		                }
+		    			v = v / weight;
+		    			currLand[i] = v;
+		    			total+=v;
 		    		}
+		    		for (int i=0;i<length;i++)
+		    			currLand[i]=currLand[i]/total;
     			}
     		}
     	}
     	
+    	/**
+    	 * Returns a [samples][2][length] buffer, reusing the given buffer if it is large enough
+    	 */
+    	private float[][][] ensureCapacity(float[][][] buffer, int numSamples, int length){
+    		if(buffer!=null && buffer.length==numSamples && buffer[0][0].length>=length)
+    			return buffer;
+    		return new float[numSamples][2][length];
+    	}
+    	
     	protected final int inBounds(int x, int min, int max){
     		if(x<min){return min;}
     		if(x>max){return max;}
     		return x;
     	}
     	protected final int getShifted5Prime(StrandedBaseCount h){
-    		return(h.getStrand()=='+' ? 
-    				h.getCoordinate()+shift : 
-    				h.getCoordinate()-shift);
+    		return getShifted5Prime(h.getCoordinate(), h.getStrand());
     	}
     	protected final int getLeft(StrandedBaseCount h){
-    		return(h.getStrand()=='+' ? 
-    				h.getCoordinate()+shift-hit5Extend : 
-    				h.getCoordinate()-shift-hit3Extend);
+    		return getLeft(h.getCoordinate(), h.getStrand());
     	}
     	protected final int getRight(StrandedBaseCount h){
-    		return(h.getStrand()=='+' ? 
-    				h.getCoordinate()+shift+hit3Extend : 
-    				h.getCoordinate()-shift+hit5Extend);
+    		return getRight(h.getCoordinate(), h.getStrand());
+    	}
+    	protected final int getShifted5Prime(int coord, char strand){
+    		return(strand=='+' ? 
+    				coord+shift : 
+    				coord-shift);
+    	}
+    	protected final int getLeft(int coord, char strand){
+    		return(strand=='+' ? 
+    				coord+shift-hit5Extend : 
+    				coord-shift-hit3Extend);
+    	}
+    	protected final int getRight(int coord, char strand){
+    		return(strand=='+' ? 
+    				coord+shift+hit3Extend : 
+    				coord-shift+hit5Extend);
     	}
     	/**
     	 * Initializes half of a Gaussian
@@ -453,64 +540,55 @@ public abstract class FeatureDetection {
     	 * Parses the landscape arrays to get a per-condition count array 
     	 * 
     	 * @param cond : ExperimentCondition of interest
-    	 * @param data : data structure to parse. Should be landscape. Assumes indexed by Sample, base, strand
+    	 * @param data : data structure to parse. Should be landscape. Assumes indexed by Sample, strand, base
     	 * @param strand : +/-/.
     	 * @param signal : true to count condition's signal samples, false to count condition's control samples. 
-    	 * @return
+    	 * @return : counts for the first landscapeLength bases
     	 */
     	protected float[]  getConditionCounts(ExperimentCondition cond, float[][][] data, char strand, boolean signal){
-    		int clength = data[0].length;
+    		int clength = landscapeLength;
     		float[] counts = new float[clength];
-    		for(int c=0; c<clength; c++){
-	    		float currCount=0;
-	    		List<Sample> currSamples = signal ? cond.getSignalSamples() : cond.getControlSamples();
-				for(Sample samp : currSamples){
-					if(strand=='.' || strand=='+')
-						currCount+=data[samp.getIndex()][c][0];
-					if(strand=='.' || strand=='-')
-						currCount+=data[samp.getIndex()][c][1];
+    		List<Sample> currSamples = signal ? cond.getSignalSamples() : cond.getControlSamples();
+			for(Sample samp : currSamples){
+				for(int s=0; s<=1; s++){
+					if(strand=='.' || strand==(s==0 ? '+' : '-')){
+						float[] sampData = data[samp.getIndex()][s];
+						for(int c=0; c<clength; c++)
+							counts[c]+=sampData[c];
+					}
 				}
-				counts[c]=currCount;
-    		}
+			}
 			return counts;
     	}
     	
     	/**
-    	 * Uses a rough, inexact binary search to find StrandedBaseCounts that overlap a given feature in each Sample
-    	 * @param sameStrHits : Lists of StrandedBaseCounts, all from same strand, indexed by Sample - assumes sorted
+    	 * Finds StrandedBaseCounts that overlap a given feature in each Sample. 
+    	 * Left & right hit ends increase with the 5' coordinate, so the first overlapping hit is found by binary search.
+    	 * Only the overlapping hits are materialized as objects.
+    	 * @param sameStrHits : StrandedBaseCountSlices, all from same strand, indexed by Sample - assumes sorted
     	 * @param f : Feature
     	 * @return : Lists of StrandedBaseCounts that overlap the feature coordinates
     	 */
-    	protected Map<Sample, List<StrandedBaseCount>> overlappingHits(Map<Sample, List<StrandedBaseCount>> sameStrHits, Feature f){
+    	protected Map<Sample, List<StrandedBaseCount>> overlappingHits(Map<Sample, StrandedBaseCountSlice> sameStrHits, Feature f){
     		Map<Sample, List<StrandedBaseCount>> subHits = new HashMap<Sample, List<StrandedBaseCount>>();
+    		int featureStart = f.getCoords().getStart();
+            int featureEnd= f.getCoords().getEnd();
+            char str = f.getCoords().getStrand();
     		for(Sample samp : manager.getSamples()){
     			List<StrandedBaseCount> sub = new ArrayList<StrandedBaseCount>();
-	    		int l = 0;
-	            int r = sameStrHits.get(samp).size();
-	            int featureStart = f.getCoords().getStart();
-	            int featureEnd= f.getCoords().getEnd();
-	            char str = f.getCoords().getStrand();
-	            while (r - l > 10) {
-	                int c = (l + r) / 2;
-	                if (featureStart > getRight(sameStrHits.get(samp).get(c))) {
-	                    l = c;
-	                } else {
-	                    r = c;
-	                }
-	            }
-	            while (l > 0 && (getRight(sameStrHits.get(samp).get(l)) >= featureStart)) {
-	                l--;
-	            }
-	            while (l < sameStrHits.get(samp).size() && getLeft(sameStrHits.get(samp).get(l)) <= featureEnd){
-	            	StrandedBaseCount hit = sameStrHits.get(samp).get(l);
-	            	int hitL = getLeft(hit);
-	            	int hitR = getRight(hit);
-	    			if(f.getCoords().overlaps(hitL, hitR) 
-	    					&& (str=='.' || str==hit.getStrand())){
-	    				sub.add(hit);
-	    			}			
-	                l++;
-	            }
+    			StrandedBaseCountSlice hits = sameStrHits.get(samp);
+    			char hitStr = hits.getStrand();
+    			if(str=='.' || str==hitStr){
+    				//First hit with getRight >= featureStart
+    				int l = hits.lowerBound(featureStart - (getRight(0, hitStr)));
+		            while (l < hits.size() && getLeft(hits.getCoordinate(l), hitStr) <= featureEnd){
+		            	int hitL = getLeft(hits.getCoordinate(l), hitStr);
+		            	int hitR = getRight(hits.getCoordinate(l), hitStr);
+		    			if(f.getCoords().overlaps(hitL, hitR))
+		    				sub.add(new StrandedBaseCount(hitStr, hits.getCoordinate(l), hits.getCount(l)));
+		                l++;
+		            }
+    			}
 	            subHits.put(samp, sub);
     		}
     		return(subHits);
@@ -10,6 +10,7 @@ import java.util.Map;
 
 import org.seqcode.data.motifdb.WeightMatrix;
 import org.seqcode.deepseq.StrandedBaseCount;
+import org.seqcode.deepseq.StrandedBaseCountSlice;
 import org.seqcode.deepseq.experiments.ExperimentCondition;
 import org.seqcode.deepseq.experiments.ExperimentManager;
 import org.seqcode.deepseq.experiments.ExptConfig;
@@ -260,24 +261,28 @@ public class PCSPeakFinder extends PeakFinder{
 						localTagSeqComposition[s][i][j]=0;
 			int halfSeqWin = tagSeqWin/2;
 			for(Sample s : manager.getSamples()){
-				for(StrandedBaseCount sbc : hitsPos.get(s)){
+				StrandedBaseCountSlice currPos = hitsPos.get(s);
+				for(int h=0; h<currPos.size(); h++){
+					int coord = currPos.getCoordinate(h);
 					int w=0;
-					for(int x=sbc.getCoordinate()-halfSeqWin-currReg.getStart(); x<=sbc.getCoordinate()+halfSeqWin-currReg.getStart(); x++){
+					for(int x=coord-halfSeqWin-currReg.getStart(); x<=coord+halfSeqWin-currReg.getStart(); x++){
 					    if(x>=0 && x<currRegionSeq.length){
 					    	int y = SequenceUtils.char2int(currRegionSeq[x]);
 					    	if(y>=0)
-						       localTagSeqComposition[s.getIndex()][w][y]+=sbc.getCount();
+						       localTagSeqComposition[s.getIndex()][w][y]+=currPos.getCount(h);
 					    }
 						w++;
 					}
 				}
-				for(StrandedBaseCount sbc : hitsNeg.get(s)){
+				StrandedBaseCountSlice currNeg = hitsNeg.get(s);
+				for(int h=0; h<currNeg.size(); h++){
+					int coord = currNeg.getCoordinate(h);
 					int w=0;
-					for(int x=currReg.getEnd()-sbc.getCoordinate()-halfSeqWin; x<=currReg.getEnd()-sbc.getCoordinate()+halfSeqWin; x++){
+					for(int x=currReg.getEnd()-coord-halfSeqWin; x<=currReg.getEnd()-coord+halfSeqWin; x++){
 					    if(x>=0 && x<currRegionSeqRC.length){
 					    	int y =	SequenceUtils.char2int(currRegionSeqRC[x]);
 				    		if(y>=0)	   
-				    			localTagSeqComposition[s.getIndex()][w][y]+=sbc.getCount();
+				    			localTagSeqComposition[s.getIndex()][w][y]+=currNeg.getCount(h);
 					    }
 						w++;
 					}
@@ -2,22 +2,17 @@ package org.seqcode.projects.seed.stats;
 
 import java.util.List;
 
+import org.seqcode.deepseq.stats.CountSignificance;
 import org.seqcode.projects.seed.features.Feature;
 
-import cern.jet.random.Binomial;
-import cern.jet.random.engine.DRand;
-
 public class FeatureStatistics {
 
-	protected Binomial binomial;
-	
 	public FeatureStatistics(){
-		binomial = new Binomial(100,.5, new DRand());
 	}
 	
 	
 	/**
-	 * Binomial CDF assuming scaled control. Uses COLT binomial test.
+	 * Binomial CDF assuming scaled control. Uses the shared (lock-free, memoized) CountSignificance tests.
 	 * Tests equality of signal & scaled control counts. 
 	 * @param k = scaled control
 	 * @param n = scaled control+signal
@@ -25,12 +20,7 @@ public class FeatureStatistics {
 	 * @return
 	 */
 	public double binomialPValue(double k, double n, double minFoldChange){
-		double pval=1;
-		synchronized(binomial){
-			binomial.setNandP((int)Math.ceil(n), 1.0 / (minFoldChange + 1.0));
-			pval = binomial.cdf((int) Math.ceil(k));
-		}
-        return(pval);		
+        return(CountSignificance.binomialPValue(k, n, minFoldChange));
 	}
 	
 	/**
@@ -6,20 +6,19 @@ import org.seqcode.ml.clustering.Cluster;
 import org.seqcode.ml.clustering.ClusterRepresentative;
 import org.seqcode.ml.clustering.PairwiseElementMetric;
 import org.seqcode.ml.clustering.hierarchical.ClusterNode;
-import org.seqcode.ml.clustering.hierarchical.HierarchicalClustering;
+import org.seqcode.ml.clustering.hierarchical.FastHierarchicalClustering;
 import org.seqcode.ml.clustering.vectorcluster.EuclideanDistance;
 
 
 public class ProfileClusteringHandler {
 
-	private ProfileClusterRepresentative repr;
 	private PairwiseElementMetric<ProfileClusterable> metric;
-	private HierarchicalClustering<ProfileClusterable> clustering;
+	private FastHierarchicalClustering<ProfileClusterable> clustering;
 	
 	public ProfileClusteringHandler(BinningParameters bps) { 
-		repr = new ProfileClusterRepresentative(bps);
 		metric = new EuclideanDistance<ProfileClusterable>();
-		clustering = new HierarchicalClustering<ProfileClusterable>(repr, metric);
+		//Ward linkage approximates the previous mean-profile (centroid) clustering, but scales to many thousands of profiles
+		clustering = new FastHierarchicalClustering<ProfileClusterable>(metric, FastHierarchicalClustering.Linkage.WARD);
 	}
 	
 	public Vector<Integer> runClustering(Vector<Profile> profs) { 